@@ -0,0 +1,261 @@
+package admission;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import storage.Storage;
+
+/**
+ * The AdmissionController class decides whether a login or an expensive operation may run now,
+ * so that a flood of them is turned away cheaply instead of slowing bookings down for everyone.
+ * Each {@link Workload} passes three checks, cheapest first:
+ *
+ * <ol>
+ *   <li>a per-source {@link TokenBucket}, which limits how often one terminal or client address
+ *       may try, whichever user IDs it tries;</li>
+ *   <li>a per-user bucket, kept separately for each source, which limits how often one user may
+ *       try from there; a flood of attempts naming a user from one source does not lock that
+ *       user out anywhere else;</li>
+ *   <li>a bounded admission queue: a fixed number of operations of the workload run at once,
+ *       a few more wait a short while for a turn, and any beyond that are refused at once.</li>
+ * </ol>
+ *
+ * <p>An attempt refused by one check is not charged to the checks after it, and an attempt the
+ * queue turns away gets its user token back. An admitted operation holds a {@link Permit} until
+ * it is closed. A refused one gets a {@link RejectedExecutionException} saying why and when to
+ * try again. Admission control is on by default and turned off with
+ * {@code hms.admission=false}.</p>
+ *
+ * <p>The buckets are kept in files under the {@code admission} directory of the data directory,
+ * one {@link BucketStore} per workload and check, so the rates hold across every terminal
+ * sharing the data directory and survive restarts; a replica, with a data directory of its own,
+ * keeps its own. If a file cannot be opened, that check keeps its buckets in memory for the
+ * process. The queue bounds the work of one process and so lives in its memory.</p>
+ */
+public final class AdmissionController {
+    public static final String ADMISSION_PROPERTY = "hms.admission";
+
+    private static final String CONSOLE_SOURCE = "console";
+    private static final String BUCKET_DIRECTORY = "admission";
+
+    private static AdmissionController instance;
+
+    private final boolean enabled;
+    private final Map<Workload, Gate> gates = new EnumMap<>(Workload.class);
+
+    /**
+     * The kinds of operation admission is controlled for, with their limits.
+     */
+    public enum Workload {
+        /**
+         * A login attempt: 5 in a burst and then one every 12 seconds per user, 20 and then one
+         * a second per source, with as many checked at once as there are processors.
+         */
+        LOGIN("login", 5, 1.0 / 12, 20, 1, Runtime.getRuntime().availableProcessors(), 64, 2_000),
+
+        /**
+         * A hospital report: 2 in a burst and then one every 30 seconds per user, 4 and then one
+         * every 15 seconds per source, with half the processors' worth generated at once.
+         */
+        REPORT("report", 2, 1.0 / 30, 4, 1.0 / 15, Math.max(1, Runtime.getRuntime().availableProcessors() / 2), 4, 5_000),
+
+        /**
+         * A bulk change such as approving every pending request or rebuilding the billing totals:
+         * 4 in a burst and then one every 10 seconds per user or source, one at a time.
+         */
+        BULK("bulk operation", 4, 1.0 / 10, 4, 1.0 / 10, 1, 2, 5_000);
+
+        private final String description;
+        private final double userBurst;
+        private final double userRate;
+        private final double sourceBurst;
+        private final double sourceRate;
+        private final int concurrency;
+        private final int queueCapacity;
+        private final long maxWaitMillis;
+
+        Workload(String description, double userBurst, double userRate, double sourceBurst, double sourceRate,
+                 int concurrency, int queueCapacity, long maxWaitMillis) {
+            this.description = description;
+            this.userBurst = userBurst;
+            this.userRate = userRate;
+            this.sourceBurst = sourceBurst;
+            this.sourceRate = sourceRate;
+            this.concurrency = concurrency;
+            this.queueCapacity = queueCapacity;
+            this.maxWaitMillis = maxWaitMillis;
+        }
+    }
+
+    /**
+     * Constructs a controller. Use {@link #getInstance()} to obtain the shared controller.
+     */
+    private AdmissionController(boolean enabled) {
+        this.enabled = enabled;
+        for (Workload workload : Workload.values()) {
+            gates.put(workload, new Gate(workload, enabled));
+        }
+    }
+
+    /**
+     * Returns the shared controller, reading the {@code hms.admission} property on first use.
+     *
+     * @return The shared AdmissionController
+     */
+    public static synchronized AdmissionController getInstance() {
+        if (instance == null) {
+            instance = new AdmissionController(Boolean.parseBoolean(System.getProperty(ADMISSION_PROPERTY, "true")));
+        }
+        return instance;
+    }
+
+    /**
+     * Gets the source of this process's session: the client address of a remote shell, or
+     * {@code console} for a local terminal.
+     *
+     * @return The source
+     */
+    public static String localSource() {
+        String client = System.getenv("SSH_CLIENT");
+        if (client == null || client.isBlank()) {
+            return CONSOLE_SOURCE;
+        }
+        return client.trim().split("\\s+")[0];
+    }
+
+    /**
+     * Admits an operation, waiting a short while if as many are already running as the
+     * workload allows.
+     *
+     * @param workload The kind of operation
+     * @param userID   The ID of the user asking for it
+     * @param source   Where the request comes from; see {@link #localSource()}
+     * @return The permit, to be closed when the operation is over
+     * @throws RejectedExecutionException if the user or source is over its rate, or the
+     *                                    workload is too busy
+     */
+    public Permit admit(Workload workload, String userID, String source) {
+        if (!enabled) {
+            return Permit.NONE;
+        }
+        return gates.get(workload).admit(userID, source);
+    }
+
+    /**
+     * Gets the number of operations of a workload refused so far.
+     *
+     * @param workload The kind of operation
+     * @return The number of refusals
+     */
+    public int getRejectedCount(Workload workload) {
+        return gates.get(workload).rejected.get();
+    }
+
+    /**
+     * The rate limiters and the bounded admission queue of one workload.
+     */
+    private static final class Gate {
+        private final Workload workload;
+        private final RateLimiter users;
+        private final RateLimiter sources;
+        private final Semaphore running;
+        private final AtomicInteger waiting = new AtomicInteger();
+        private final AtomicInteger rejected = new AtomicInteger();
+
+        Gate(Workload workload, boolean shared) {
+            this.workload = workload;
+            this.users = new RateLimiter(workload.userBurst, workload.userRate, shared ? openStore(workload, "users") : null);
+            this.sources = new RateLimiter(workload.sourceBurst, workload.sourceRate, shared ? openStore(workload, "sources") : null);
+            this.running = new Semaphore(workload.concurrency, true);
+        }
+
+        /**
+         * Opens the shared buckets of one check of a workload.
+         *
+         * @return The store, or null if it cannot be opened
+         */
+        private static BucketStore openStore(Workload workload, String check) {
+            Path file = Storage.getDataDirectory().resolve(BUCKET_DIRECTORY).resolve(workload.name().toLowerCase() + "-" + check + ".buckets");
+            try {
+                return new BucketStore(file);
+            } catch (IOException e) {
+                System.err.println("Error opening admission buckets " + file + "; limiting " + check + " in this process only: " + e.getMessage());
+                return null;
+            }
+        }
+
+        Permit admit(String userID, String source) {
+            if (!sources.tryAcquire(source)) {
+                throw reject("Too many " + workload.description + " attempts from " + source, sources.nanosUntilAvailable(source));
+            }
+            String userKey = source + ' ' + userID;
+            if (!users.tryAcquire(userKey)) {
+                throw reject("Too many " + workload.description + " attempts for " + userID, users.nanosUntilAvailable(userKey));
+            }
+            try {
+                return enter();
+            } catch (RejectedExecutionException e) {
+                users.release(userKey);
+                throw e;
+            }
+        }
+
+        /**
+         * Takes a turn to run, waiting in the queue if there is room.
+         */
+        private Permit enter() {
+            if (running.tryAcquire()) {
+                return new Permit(running);
+            }
+            if (waiting.incrementAndGet() > workload.queueCapacity) {
+                waiting.decrementAndGet();
+                throw reject("The system is busy with other " + workload.description + "s", 0);
+            }
+            try {
+                if (running.tryAcquire(workload.maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                    return new Permit(running);
+                }
+                throw reject("The system is busy with other " + workload.description + "s", 0);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw reject("Interrupted while waiting to start a " + workload.description, 0);
+            } finally {
+                waiting.decrementAndGet();
+            }
+        }
+
+        private RejectedExecutionException reject(String reason, long retryNanos) {
+            rejected.incrementAndGet();
+            long seconds = TimeUnit.NANOSECONDS.toSeconds(retryNanos + TimeUnit.SECONDS.toNanos(1) - 1);
+            return new RejectedExecutionException(reason + "; please try again"
+                    + (seconds > 0 ? " in " + seconds + " second" + (seconds == 1 ? "" : "s") : " shortly") + ".");
+        }
+    }
+
+    /**
+     * The right of an admitted operation to run, given back when closed.
+     */
+    public static final class Permit implements AutoCloseable {
+        private static final Permit NONE = new Permit(null);
+
+        private final Semaphore running;
+        private boolean closed;
+
+        private Permit(Semaphore running) {
+            this.running = running;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed && running != null) {
+                closed = true;
+                running.release();
+            }
+        }
+    }
+}
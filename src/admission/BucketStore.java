@@ -0,0 +1,179 @@
+package admission;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The BucketStore class keeps the token buckets of a {@link RateLimiter} in a file, so that every
+ * process sharing the data directory draws from the same buckets. The file is a table of
+ * {@link #SLOTS} fixed-size slots, each holding a hash of its key, the tokens left and when they
+ * were last refilled, in milliseconds since the epoch so that every process reads the same
+ * clock. A key may use any of the {@link #PROBES} slots from the one its hash picks.
+ *
+ * <p>Each change holds an OS lock on the key's slots only, so attempts on different keys rarely
+ * wait for each other, and reads and writes just those slots. When all of a key's slots hold
+ * other keys, a bucket that has refilled completely is forgotten to make room, as a new bucket
+ * would start full anyway; failing that, the fullest one is.</p>
+ */
+final class BucketStore {
+    /**
+     * The number of slots in a bucket file.
+     */
+    static final int SLOTS = 8192;
+
+    /**
+     * The number of consecutive slots a key may be kept in.
+     */
+    static final int PROBES = 8;
+
+    private static final int SLOT_BYTES = 3 * Long.BYTES;
+    private static final long EMPTY = 0;
+
+    private final Path file;
+    private final FileChannel channel;
+
+    /**
+     * Opens a bucket file, creating it and its directory if needed.
+     *
+     * @param file The bucket file
+     * @throws IOException if the file cannot be opened
+     */
+    BucketStore(Path file) throws IOException {
+        this.file = file;
+        Files.createDirectories(file.getParent());
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Takes a token from a key's bucket if one is available.
+     *
+     * @param key             The key
+     * @param capacity        The burst each key is allowed
+     * @param tokensPerSecond The sustained rate each key is allowed
+     * @return true if a token was taken, false if the bucket is empty
+     * @throws IOException if the file cannot be read or written
+     */
+    boolean tryAcquire(String key, double capacity, double tokensPerSecond) throws IOException {
+        boolean[] taken = {false};
+        change(key, capacity, tokensPerSecond, tokens -> {
+            if (tokens < 1) {
+                return tokens;
+            }
+            taken[0] = true;
+            return tokens - 1;
+        });
+        return taken[0];
+    }
+
+    /**
+     * Gives back a token taken for an attempt that did not go ahead, without filling the bucket
+     * beyond its capacity.
+     *
+     * @param key             The key
+     * @param capacity        The burst each key is allowed
+     * @param tokensPerSecond The sustained rate each key is allowed
+     * @throws IOException if the file cannot be read or written
+     */
+    void release(String key, double capacity, double tokensPerSecond) throws IOException {
+        change(key, capacity, tokensPerSecond, tokens -> Math.min(capacity, tokens + 1));
+    }
+
+    /**
+     * Gets how long a key must wait for a token.
+     *
+     * @param key             The key
+     * @param capacity        The burst each key is allowed
+     * @param tokensPerSecond The sustained rate each key is allowed
+     * @return The wait in nanoseconds, 0 if a token is available now
+     * @throws IOException if the file cannot be read or written
+     */
+    long nanosUntilAvailable(String key, double capacity, double tokensPerSecond) throws IOException {
+        double[] left = new double[1];
+        change(key, capacity, tokensPerSecond, tokens -> left[0] = tokens);
+        return left[0] >= 1 ? 0 : (long) Math.ceil((1 - left[0]) / tokensPerSecond * TimeUnit.SECONDS.toNanos(1));
+    }
+
+    /**
+     * Refills a key's bucket and stores the tokens a change leaves in it, holding the lock on the
+     * key's slots throughout. Threads of this process take turns, as the OS lock is held per
+     * process.
+     */
+    private synchronized void change(String key, double capacity, double tokensPerSecond, TokenChange update) throws IOException {
+        long hash = hash(key);
+        int first = (int) Long.remainderUnsigned(hash, SLOTS - PROBES + 1);
+        long position = (long) first * SLOT_BYTES;
+        ByteBuffer slots = ByteBuffer.allocate(PROBES * SLOT_BYTES);
+        FileLock lock = channel.lock(position, slots.capacity(), false);
+        try (lock) {
+            // Slots past the end of the file are empty
+            int read = 0;
+            while (slots.hasRemaining() && read >= 0) {
+                read = channel.read(slots, position + slots.position());
+            }
+            long now = System.currentTimeMillis();
+            double tokensPerMilli = tokensPerSecond / TimeUnit.SECONDS.toMillis(1);
+            int chosen = -1;
+            double chosenTokens = -1;
+            double tokens = capacity;
+            for (int i = 0; i < PROBES; i++) {
+                long slotHash = slots.getLong(i * SLOT_BYTES);
+                if (slotHash == hash) {
+                    long refilledAt = slots.getLong(i * SLOT_BYTES + 2 * Long.BYTES);
+                    double stored = Double.longBitsToDouble(slots.getLong(i * SLOT_BYTES + Long.BYTES));
+                    tokens = Math.min(capacity, stored + Math.max(0, now - refilledAt) * tokensPerMilli);
+                    chosen = i;
+                    break;
+                }
+                // Otherwise prefer an empty slot, then the fullest bucket of another key
+                double slotTokens = Double.POSITIVE_INFINITY;
+                if (slotHash != EMPTY) {
+                    long refilledAt = slots.getLong(i * SLOT_BYTES + 2 * Long.BYTES);
+                    double stored = Double.longBitsToDouble(slots.getLong(i * SLOT_BYTES + Long.BYTES));
+                    slotTokens = stored + Math.max(0, now - refilledAt) * tokensPerMilli;
+                }
+                if (slotTokens > chosenTokens) {
+                    chosen = i;
+                    chosenTokens = slotTokens;
+                }
+            }
+
+            ByteBuffer slot = ByteBuffer.allocate(SLOT_BYTES);
+            slot.putLong(hash).putLong(Double.doubleToLongBits(update.apply(tokens))).putLong(now).flip();
+            long slotPosition = position + (long) chosen * SLOT_BYTES;
+            while (slot.hasRemaining()) {
+                channel.write(slot, slotPosition + slot.position());
+            }
+        }
+    }
+
+    /**
+     * Hashes a key with 64-bit FNV-1a, never giving the value that marks an empty slot.
+     */
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash == EMPTY ? 1 : hash;
+    }
+
+    @Override
+    public String toString() {
+        return file.toString();
+    }
+
+    /**
+     * Computes the tokens left in a bucket after a change.
+     */
+    private interface TokenChange {
+        double apply(double tokens);
+    }
+}
@@ -0,0 +1,108 @@
+package admission;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The RateLimiter class keeps a {@link TokenBucket} per key, such as a user ID or a source
+ * address, so that each key is limited on its own. Buckets are created on a key's first attempt.
+ * Once more than {@link #MAX_KEYS} keys are tracked, the buckets that have refilled completely are
+ * forgotten, as a new bucket for the same key would start full anyway.
+ *
+ * <p>A limiter given a {@link BucketStore} keeps its buckets there instead, shared with every
+ * process using the same store. If the store cannot be read or written, the attempt is checked
+ * against the limiter's own buckets.</p>
+ */
+public final class RateLimiter {
+    /**
+     * The number of tracked keys above which full buckets are forgotten.
+     */
+    static final int MAX_KEYS = 10_000;
+
+    private final double capacity;
+    private final double tokensPerSecond;
+    private final BucketStore store;
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs a RateLimiter keeping its buckets in memory.
+     *
+     * @param capacity        The burst each key is allowed
+     * @param tokensPerSecond The sustained rate each key is allowed
+     */
+    public RateLimiter(double capacity, double tokensPerSecond) {
+        this(capacity, tokensPerSecond, null);
+    }
+
+    /**
+     * Constructs a RateLimiter keeping its buckets in a store shared between processes.
+     *
+     * @param capacity        The burst each key is allowed
+     * @param tokensPerSecond The sustained rate each key is allowed
+     * @param store           The store, or null to keep the buckets in memory
+     */
+    RateLimiter(double capacity, double tokensPerSecond, BucketStore store) {
+        this.capacity = capacity;
+        this.tokensPerSecond = tokensPerSecond;
+        this.store = store;
+    }
+
+    /**
+     * Takes a token from a key's bucket if one is available.
+     *
+     * @param key The key
+     * @return true if the attempt is allowed
+     */
+    public boolean tryAcquire(String key) {
+        if (store != null) {
+            try {
+                return store.tryAcquire(key, capacity, tokensPerSecond);
+            } catch (IOException e) {
+                System.err.println("Error reading admission buckets " + store + ": " + e.getMessage());
+            }
+        }
+        if (buckets.size() > MAX_KEYS) {
+            buckets.values().removeIf(TokenBucket::isFull);
+        }
+        return buckets.computeIfAbsent(key, k -> new TokenBucket(capacity, tokensPerSecond)).tryAcquire();
+    }
+
+    /**
+     * Gives back a token taken from a key's bucket for an attempt that did not go ahead.
+     *
+     * @param key The key
+     */
+    public void release(String key) {
+        if (store != null) {
+            try {
+                store.release(key, capacity, tokensPerSecond);
+                return;
+            } catch (IOException e) {
+                System.err.println("Error reading admission buckets " + store + ": " + e.getMessage());
+            }
+        }
+        TokenBucket bucket = buckets.get(key);
+        if (bucket != null) {
+            bucket.release();
+        }
+    }
+
+    /**
+     * Gets how long a key must wait for its next attempt to be allowed.
+     *
+     * @param key The key
+     * @return The wait in nanoseconds, 0 if an attempt is allowed now
+     */
+    public long nanosUntilAvailable(String key) {
+        if (store != null) {
+            try {
+                return store.nanosUntilAvailable(key, capacity, tokensPerSecond);
+            } catch (IOException e) {
+                System.err.println("Error reading admission buckets " + store + ": " + e.getMessage());
+            }
+        }
+        TokenBucket bucket = buckets.get(key);
+        return bucket == null ? 0 : bucket.nanosUntilAvailable();
+    }
+}
@@ -0,0 +1,82 @@
+package admission;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The TokenBucket class limits how often something may happen. The bucket holds up to a
+ * capacity of tokens and is refilled at a steady rate; each attempt takes a token, and an attempt
+ * finding the bucket empty is refused. A burst of up to the capacity is allowed after a quiet
+ * period, and the long-run rate never exceeds the refill rate.
+ */
+public final class TokenBucket {
+    private final double capacity;
+    private final double tokensPerNano;
+    private double tokens;
+    private long refilledAt;
+
+    /**
+     * Constructs a full bucket.
+     *
+     * @param capacity        The most tokens the bucket holds, which is the largest burst allowed
+     * @param tokensPerSecond The rate the bucket is refilled at
+     */
+    public TokenBucket(double capacity, double tokensPerSecond) {
+        if (capacity < 1 || tokensPerSecond <= 0) {
+            throw new IllegalArgumentException("A bucket needs a capacity of at least 1 and a positive rate");
+        }
+        this.capacity = capacity;
+        this.tokensPerNano = tokensPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.tokens = capacity;
+        this.refilledAt = System.nanoTime();
+    }
+
+    /**
+     * Takes a token if one is available.
+     *
+     * @return true if a token was taken, false if the bucket is empty
+     */
+    public synchronized boolean tryAcquire() {
+        refill();
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+
+    /**
+     * Gives back a token taken by {@link #tryAcquire()} for an attempt that did not go ahead,
+     * without filling the bucket beyond its capacity.
+     */
+    public synchronized void release() {
+        refill();
+        tokens = Math.min(capacity, tokens + 1);
+    }
+
+    /**
+     * Gets how long it will be until a token is available.
+     *
+     * @return The wait in nanoseconds, 0 if a token is available now
+     */
+    public synchronized long nanosUntilAvailable() {
+        refill();
+        return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / tokensPerNano);
+    }
+
+    /**
+     * Tells whether the bucket has been refilled to its capacity, so that forgetting it would
+     * lose nothing.
+     *
+     * @return true if the bucket is full
+     */
+    public synchronized boolean isFull() {
+        refill();
+        return tokens >= capacity;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - refilledAt) * tokensPerNano);
+        refilledAt = now;
+    }
+}
@@ -0,0 +1,111 @@
+package appointment;
+
+/**
+ * The Appointment class is an immutable view of a single row of Appointment.csv.
+ * It is used by the in-memory indexes so that callers receive typed values instead
+ * of raw string arrays.
+ */
+public final class Appointment {
+    private final String appointmentID;
+    private final String doctorID;
+    private final String patientID;
+    private final String date;
+    private final String timeSlot;
+    private final String status;
+
+    /**
+     * Constructs a new Appointment with the provided details.
+     *
+     * @param appointmentID The unique ID of the appointment
+     * @param doctorID      The unique ID of the doctor
+     * @param patientID     The unique ID of the patient
+     * @param date          The date of the appointment in DD-MM-YY format
+     * @param timeSlot      The time slot of the appointment in HH:MM-HH:MM format
+     * @param status        The status of the appointment
+     */
+    public Appointment(String appointmentID, String doctorID, String patientID, String date, String timeSlot, String status) {
+        this.appointmentID = appointmentID;
+        this.doctorID = doctorID;
+        this.patientID = patientID;
+        this.date = date;
+        this.timeSlot = timeSlot;
+        this.status = status;
+    }
+
+    /**
+     * Creates an Appointment from the fields of a row in Appointment.csv.
+     *
+     * @param fields The split fields of the row
+     * @return The appointment, or null if the row is malformed
+     */
+    public static Appointment fromFields(String[] fields) {
+        if (fields.length < 6) {
+            return null;
+        }
+        return new Appointment(fields[0], fields[1], fields[2], fields[3], fields[4], fields[5]);
+    }
+
+    /**
+     * Returns a copy of this appointment with a different status.
+     *
+     * @param newStatus The new status of the appointment
+     * @return The updated appointment
+     */
+    public Appointment withStatus(String newStatus) {
+        return new Appointment(appointmentID, doctorID, patientID, date, timeSlot, newStatus);
+    }
+
+    /**
+     * Gets the unique ID of the appointment.
+     *
+     * @return The appointment ID
+     */
+    public String getAppointmentID() {
+        return appointmentID;
+    }
+
+    /**
+     * Gets the unique ID of the doctor.
+     *
+     * @return The doctor ID
+     */
+    public String getDoctorID() {
+        return doctorID;
+    }
+
+    /**
+     * Gets the unique ID of the patient.
+     *
+     * @return The patient ID
+     */
+    public String getPatientID() {
+        return patientID;
+    }
+
+    /**
+     * Gets the date of the appointment.
+     *
+     * @return The date in DD-MM-YY format
+     */
+    public String getDate() {
+        return date;
+    }
+
+    /**
+     * Gets the time slot of the appointment.
+     *
+     * @return The time slot in HH:MM-HH:MM format
+     */
+    public String getTimeSlot() {
+        return timeSlot;
+    }
+
+    /**
+     * Gets the status of the appointment.
+     *
+     * @return The appointment status
+     */
+    public String getStatus() {
+        return status;
+    }
+}
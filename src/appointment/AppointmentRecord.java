@@ -0,0 +1,142 @@
+package appointment;
+
+/**
+ * The AppointmentRecord class is an immutable view of a single row of AppointmentRecord.csv,
+ * the outcome recorded by a doctor after an appointment.
+ */
+public final class AppointmentRecord {
+    private final String appointmentID;
+    private final String diagnosis;
+    private final String prescriptionMedicine;
+    private final int prescriptionQuantity;
+    private final String prescriptionStatus;
+    private final String treatmentPlan;
+    private final String date;
+    private final String typeOfService;
+    private final String consultationNotes;
+
+    /**
+     * Constructs a new AppointmentRecord with the provided details.
+     *
+     * @param appointmentID        The unique ID of the appointment
+     * @param diagnosis            The diagnosis made during the appointment
+     * @param prescriptionMedicine The prescribed medicine
+     * @param prescriptionQuantity The quantity of prescribed medicine
+     * @param prescriptionStatus   The dispensing status of the prescription
+     * @param treatmentPlan        The treatment plan
+     * @param date                 The date of the appointment in DD-MM-YY format
+     * @param typeOfService        The type of service provided
+     * @param consultationNotes    The consultation notes
+     */
+    public AppointmentRecord(String appointmentID, String diagnosis, String prescriptionMedicine, int prescriptionQuantity,
+                             String prescriptionStatus, String treatmentPlan, String date, String typeOfService, String consultationNotes) {
+        this.appointmentID = appointmentID;
+        this.diagnosis = diagnosis;
+        this.prescriptionMedicine = prescriptionMedicine;
+        this.prescriptionQuantity = prescriptionQuantity;
+        this.prescriptionStatus = prescriptionStatus;
+        this.treatmentPlan = treatmentPlan;
+        this.date = date;
+        this.typeOfService = typeOfService;
+        this.consultationNotes = consultationNotes;
+    }
+
+    /**
+     * Creates an AppointmentRecord from the fields of a row in AppointmentRecord.csv.
+     *
+     * @param fields The split fields of the row
+     * @return The record, or null if the row is malformed
+     */
+    public static AppointmentRecord fromFields(String[] fields) {
+        if (fields.length < 9) {
+            return null;
+        }
+        try {
+            return new AppointmentRecord(fields[0], fields[1], fields[2], Integer.parseInt(fields[3].trim()),
+                    fields[4], fields[5], fields[6], fields[7], fields[8]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Gets the unique ID of the appointment.
+     *
+     * @return The appointment ID
+     */
+    public String getAppointmentID() {
+        return appointmentID;
+    }
+
+    /**
+     * Gets the diagnosis made during the appointment.
+     *
+     * @return The diagnosis
+     */
+    public String getDiagnosis() {
+        return diagnosis;
+    }
+
+    /**
+     * Gets the prescribed medicine.
+     *
+     * @return The medicine name, or NA if nothing was prescribed
+     */
+    public String getPrescriptionMedicine() {
+        return prescriptionMedicine;
+    }
+
+    /**
+     * Gets the quantity of prescribed medicine.
+     *
+     * @return The prescription quantity
+     */
+    public int getPrescriptionQuantity() {
+        return prescriptionQuantity;
+    }
+
+    /**
+     * Gets the dispensing status of the prescription.
+     *
+     * @return The prescription status
+     */
+    public String getPrescriptionStatus() {
+        return prescriptionStatus;
+    }
+
+    /**
+     * Gets the treatment plan.
+     *
+     * @return The treatment plan
+     */
+    public String getTreatmentPlan() {
+        return treatmentPlan;
+    }
+
+    /**
+     * Gets the date of the appointment.
+     *
+     * @return The date in DD-MM-YY format
+     */
+    public String getDate() {
+        return date;
+    }
+
+    /**
+     * Gets the type of service provided.
+     *
+     * @return The type of service
+     */
+    public String getTypeOfService() {
+        return typeOfService;
+    }
+
+    /**
+     * Gets the consultation notes.
+     *
+     * @return The consultation notes
+     */
+    public String getConsultationNotes() {
+        return consultationNotes;
+    }
+}
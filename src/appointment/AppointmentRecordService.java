@@ -2,18 +2,19 @@ package appointment;
 
 import enums.AppointmentStatus;
 import java.io.*;
-import java.util.*;
+import storage.Storage;
+import storage.Transaction;
+import storage.WriteConflictException;
 
 /**
  * The AppointmentRecordService class provides functionality to manage appointment outcome
  * records and update the status of appointments in the hospital management system.
  */
 public class AppointmentRecordService {
-    private static final String APPOINTMENT_RECORD_FILE = "resources/AppointmentRecord.csv";
-
     /**
      * Adds an appointment outcome record to the system and updates the appointment status
-     * to "completed" in the Appointment.csv file.
+     * to "completed", in a single transaction. Nothing is recorded if the appointment has been
+     * cancelled or declined in the meantime, as its slot has been released.
      *
      * @param appointmentID        The unique ID of the appointment
      * @param diagnosis            The diagnosis made during the appointment
@@ -34,69 +35,39 @@ public class AppointmentRecordService {
             String typeOfService,
             String consultationNotes) {
 
-        // Step 1: Add the outcome record to AppointmentRecord.csv
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(APPOINTMENT_RECORD_FILE, true))) {
-            String line = String.join(",",
-                    appointmentID,
-                    diagnosis,
-                    prescriptionMedicine,
-                    String.valueOf(prescriptionQuantity),
-                    AppointmentStatus.PENDING.name(), // Prescription status is initially set to "pending"
-                    treatmentPlan,
-                    date,
-                    typeOfService,
-                    consultationNotes
-            );
-            writer.write(line);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        // Step 2: Update the status in Appointment.csv to "completed" for the given AppointmentID
-        List<String[]> appointments = loadAppointments();
-
-        for (String[] appointment : appointments) {
-            if (appointment[0].equals(appointmentID)) {
-                appointment[5] = AppointmentStatus.COMPLETED.name(); // Update the Status column (index 5) to "completed"
-                break;
-            }
-        }
-
-        // Step 3: Save the updated appointments back to Appointment.csv
-        saveAppointments(appointments);
-    }
-
-    /**
-     * Loads all appointments from the Appointment.csv file.
-     *
-     * @return A list of string arrays, where each array represents an appointment record
-     */
-    private List<String[]> loadAppointments() {
-        List<String[]> appointments = new ArrayList<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader("resources/Appointment.csv"))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                appointments.add(line.split(","));
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return appointments;
-    }
+        String[] record = {
+                appointmentID,
+                diagnosis,
+                prescriptionMedicine,
+                String.valueOf(prescriptionQuantity),
+                AppointmentStatus.PENDING.name(), // Prescription status is initially set to "pending"
+                treatmentPlan,
+                date,
+                typeOfService,
+                consultationNotes
+        };
 
-    /**
-     * Saves the updated appointments back to the Appointment.csv file.
-     *
-     * @param appointments The list of updated appointment records
-     */
-    private void saveAppointments(List<String[]> appointments) {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter("resources/Appointment.csv"))) {
-            for (String[] appointment : appointments) {
-                writer.write(String.join(",", appointment));
-                writer.newLine();
-            }
+        // Add the outcome record and mark the appointment completed together
+        try (Transaction transaction = Storage.getEngine().begin()) {
+            transaction.append(Storage.APPOINTMENT_RECORD, record);
+            transaction.update(Storage.APPOINTMENT, appointmentID, appointment -> {
+                if (appointment.length > 5) {
+                    if (!AppointmentStatus.isActive(appointment[5])) {
+                        throw new WriteConflictException(Storage.APPOINTMENT, "Appointment " + appointmentID + " is " + appointment[5]);
+                    }
+                    appointment[5] = AppointmentStatus.COMPLETED.name(); // Update the Status column (index 5) to "completed"
+                }
+                return appointment;
+            });
+            transaction.commit();
+        } catch (WriteConflictException e) {
+            System.out.println(e.getMessage() + "; the outcome was not recorded.");
+            return;
         } catch (IOException e) {
             e.printStackTrace();
+            return;
         }
+        RecordSearchIndex.getInstance().index(record);
+        DoctorScheduleIndex.getInstance().refresh(appointmentID);
     }
-}
\ No newline at end of file
+}
@@ -1,14 +1,20 @@
 package appointment;
 
 import enums.AppointmentStatus;
+import enums.BookingResult;
 import enums.UserRole;
 import enums.DoctorAvailabilityStatus;
 import java.io.*;
 import java.util.*;
-import java.util.Random;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
-import java.util.regex.Pattern;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import paging.Page;
+import storage.Storage;
+import storage.Transaction;
+import trace.TraceOperation;
+import trace.TraceRecorder;
 
 /**
  * The AppointmentService class provides functionality for managing appointments,
@@ -16,9 +22,7 @@ import java.util.regex.Pattern;
  * It extends the DoctorAvailabilityService and implements the AppointmentManager interface.
  */
 public class AppointmentService extends DoctorAvailabilityService implements AppointmentManager {
-    private static final String APPOINTMENT_FILE = "resources/Appointment.csv";
-    private static final String USER_FILE = "resources/User.csv";
-    private static final String DOCTOR_AVAILABILITY_FILE = "resources/DoctorAvailability.csv";
+    private static final String APPOINTMENT_ID_PREFIX = "AP";
 
     /**
      * Schedules a new appointment for a patient, validating doctor availability, date, and time slot.
@@ -57,25 +61,56 @@ public class AppointmentService extends DoctorAvailabilityService implements App
             }
         }
 
-        // Step 3: Validate Time Slot
+        // Step 3: Validate Time Slot and book it with a versioned compare-and-set
         while (true) {
             System.out.print("Enter the time slot (e.g., 09:00): ");
             timeSlot = scanner.nextLine();
-            String formattedTimeSlot = formatToHalfHourSlot(timeSlot);
+            String formattedTimeSlot = DoctorAvailabilityIndex.getInstance().slotStartingAt(doctorID, date, timeSlot);
 
-            if (!formattedTimeSlot.isEmpty() && isValidTimeSlotFormat(formattedTimeSlot) && isAvailableSlot(doctorID, date, formattedTimeSlot)) {
+            if (formattedTimeSlot.isEmpty() || !isAvailableSlot(doctorID, date, formattedTimeSlot)) {
+                System.out.println("Invalid time slot or unavailable. Please check available slots for this doctor.");
+                continue;
+            }
+
+            BookingResult result = DoctorAvailabilityIndex.getInstance().book(doctorID, date, formattedTimeSlot);
+            if (result == BookingResult.BOOKED) {
                 timeSlot = formattedTimeSlot; // Use the correctly formatted time slot
                 break;
+            } else if (result == BookingResult.CONFLICT) {
+                System.out.println("This time slot was just booked by another patient. Please choose another time slot.");
             } else {
                 System.out.println("Invalid time slot or unavailable. Please check available slots for this doctor.");
             }
         }
 
-        // Generate and save appointment details
-        String appointmentID = generateAppointmentID();
-        saveAppointmentDetails(appointmentID, doctorID, patientID, date, timeSlot, AppointmentStatus.PENDING.name());
-        updateSlotStatus(doctorID, date, timeSlot, DoctorAvailabilityStatus.BOOKED.name());
-        return appointmentID;
+        // Save the appointment details under a new appointment ID
+        return saveAppointmentDetails(doctorID, patientID, date, timeSlot, AppointmentStatus.PENDING.name());
+    }
+
+    /**
+     * Schedules a new appointment for a patient in a known slot, without prompting. Used by
+     * callers that drive the service programmatically, such as the workload simulator.
+     *
+     * @param patientID The unique ID of the patient requesting the appointment
+     * @param doctorID  The unique ID of the doctor
+     * @param date      The date of the appointment in DD-MM-YY format
+     * @param time      The start time of the slot in HH:MM format
+     * @return The unique ID of the scheduled appointment, or null if the date or time is invalid
+     *         or the slot could not be booked
+     */
+    public String scheduleAppointment(String patientID, String doctorID, String date, String time) {
+        if (!isValidDateFormat(date)) {
+            return null;
+        }
+        String timeSlot = DoctorAvailabilityIndex.getInstance().slotStartingAt(doctorID, date, time);
+        if (timeSlot.isEmpty()) {
+            return null;
+        }
+        if (DoctorAvailabilityIndex.getInstance().book(doctorID, date, timeSlot) != BookingResult.BOOKED) {
+            return null;
+        }
+
+        return saveAppointmentDetails(doctorID, patientID, date, timeSlot, AppointmentStatus.PENDING.name());
     }
 
     /**
@@ -85,18 +120,7 @@ public class AppointmentService extends DoctorAvailabilityService implements App
      * @return true if the doctor has available slots; false otherwise
      */
     private boolean hasAvailableSlots(String doctorID) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(DOCTOR_AVAILABILITY_FILE))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] fields = line.split(",");
-                if (fields[0].equals(doctorID) && fields[4].equalsIgnoreCase(DoctorAvailabilityStatus.AVAILABLE.name())) {
-                    return true; // Doctor has at least one available slot
-                }
-            }
-        } catch (IOException e) {
-            System.err.println("Error reading DoctorAvailability.csv: " + e.getMessage());
-        }
-        return false; // All slots are booked
+        return DoctorAvailabilityIndex.getInstance().hasAvailableSlot(doctorID, null);
     }
 
     /**
@@ -107,20 +131,28 @@ public class AppointmentService extends DoctorAvailabilityService implements App
      * @return true if the doctor is available on the date; false otherwise
      */
     public boolean isDoctorAvailableOnDate(String doctorID, String date) {
-        boolean hasAvailableSlots = false;
-        try (BufferedReader reader = new BufferedReader(new FileReader(DOCTOR_AVAILABILITY_FILE))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] fields = line.split(",");
-                if (fields[0].equals(doctorID) && fields[2].equals(date) && fields[4].equalsIgnoreCase(DoctorAvailabilityStatus.AVAILABLE.name())) {
-                    hasAvailableSlots = true;
-                    break;
-                }
-            }
+        return DoctorAvailabilityIndex.getInstance().hasAvailableSlot(doctorID, date);
+    }
+
+    /**
+     * Retrieves one page of a patient's appointments with the given status, in booking order.
+     *
+     * @param patientID The unique ID of the patient
+     * @param status    The status to filter by
+     * @param cursor    The cursor returned with the previous page, or null for the first page
+     * @param pageSize  The maximum number of appointments on the page
+     * @return The page of matching appointments, or an empty page if the appointments cannot be read
+     */
+    public Page<Appointment> getPatientAppointments(String patientID, String status, String cursor, int pageSize) {
+        TraceRecorder.record(TraceOperation.LIST_PATIENT_APPOINTMENTS, patientID, status, cursor, String.valueOf(pageSize));
+        try {
+            return Storage.table(Storage.APPOINTMENT)
+                    .scan(cursor, pageSize, fields -> fields.length >= 6 && fields[2].equals(patientID) && fields[5].equalsIgnoreCase(status))
+                    .map(Appointment::fromFields);
         } catch (IOException e) {
-            System.err.println("Error reading DoctorAvailability.csv: " + e.getMessage());
+            System.err.println("Error reading Appointment.csv: " + e.getMessage());
+            return Page.empty();
         }
-        return hasAvailableSlots;
     }
 
     /**
@@ -132,15 +164,9 @@ public class AppointmentService extends DoctorAvailabilityService implements App
     public boolean isValidDoctorID(String doctorID) {
         // Check if doctor ID exists in User.csv
         boolean doctorExistsInUser = false;
-        try (BufferedReader reader = new BufferedReader(new FileReader(USER_FILE))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] fields = line.split(",");
-                if (fields[0].equals(doctorID) && fields[2].equalsIgnoreCase(UserRole.DOCTOR.name())) {
-                    doctorExistsInUser = true;
-                    break;
-                }
-            }
+        try {
+            String[] fields = Storage.table(Storage.USER).find(doctorID);
+            doctorExistsInUser = fields != null && fields.length > 2 && fields[2].equalsIgnoreCase(UserRole.DOCTOR.name());
         } catch (IOException e) {
             System.err.println("Error reading User.csv: " + e.getMessage());
         }
@@ -157,24 +183,13 @@ public class AppointmentService extends DoctorAvailabilityService implements App
     }
 
     /**
-     * Checks if a given doctor ID exists in the DoctorAvailability.csv file.
+     * Checks if a given doctor ID has any slot in the availability records.
      *
      * @param doctorID The unique ID of the doctor to check
-     * @return true if the doctor ID exists in the availability file; false otherwise
+     * @return true if the doctor ID exists in the availability records; false otherwise
      */
     private boolean isDoctorInAvailability(String doctorID) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(DOCTOR_AVAILABILITY_FILE))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] fields = line.split(",");
-                if (fields[0].equals(doctorID)) {
-                    return true;
-                }
-            }
-        } catch (IOException e) {
-            System.err.println("Error reading DoctorAvailability.csv: " + e.getMessage());
-        }
-        return false;
+        return DoctorAvailabilityIndex.getInstance().containsDoctor(doctorID);
     }
 
     /**
@@ -194,17 +209,6 @@ public class AppointmentService extends DoctorAvailabilityService implements App
         }
     }
 
-    /**
-     * Validates whether a given time slot is in the correct HH:MM-HH:MM format.
-     *
-     * @param timeSlot The time slot string to be validated
-     * @return true if the time slot matches the HH:MM-HH:MM format; false otherwise
-     */
-    private boolean isValidTimeSlotFormat(String timeSlot) {
-        String timeSlotPattern = "^\\d{2}:\\d{2}-\\d{2}:\\d{2}$";
-        return Pattern.matches(timeSlotPattern, timeSlot);
-    }
-
     /**
      * Checks if the time slot is available for a specific doctor on a given date.
      *
@@ -214,106 +218,54 @@ public class AppointmentService extends DoctorAvailabilityService implements App
      * @return true if the time slot is available; false otherwise
      */
     private boolean isAvailableSlot(String doctorID, String date, String timeSlot) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(DOCTOR_AVAILABILITY_FILE))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] data = line.split(",");
-                if (data[0].equals(doctorID) && data[2].equals(date) && data[3].equals(timeSlot) && data[4].equalsIgnoreCase(DoctorAvailabilityStatus.AVAILABLE.name())) {
-                    return true;
-                }
-            }
-        } catch (IOException e) {
-            System.err.println("Error reading DoctorAvailability.csv: " + e.getMessage());
-        }
-        return false;
-    }
-
-    /**
-     * Generates a unique appointment ID.
-     *
-     * @return A unique appointment ID
-     */
-    private String generateAppointmentID() {
-        Random random = new Random();
-        return "AP" + (random.nextInt(900) + 100);
+        AvailabilitySlot slot = DoctorAvailabilityIndex.getInstance().getSlot(doctorID, date, timeSlot);
+        return slot != null && slot.getStatus().equalsIgnoreCase(DoctorAvailabilityStatus.AVAILABLE.name());
     }
 
     /**
-     * Saves appointment details to the Appointment.csv file.
+     * Saves a new appointment to the Appointment.csv file under the next appointment ID, stamped
+     * with the booking date. The ID follows the highest one in the Appointment table and in the
+     * schedule index, which also holds archived appointments. It is chosen in the transaction
+     * that appends the row, so a booking that appends first makes the commit conflict and the
+     * ID is chosen again. If the appointment cannot be saved, its slot is released.
      *
-     * @param appointmentID The unique ID of the appointment
      * @param doctorID      The unique ID of the doctor
      * @param patientID     The unique ID of the patient
      * @param date          The date of the appointment
-     * @param timeSlot      The time slot of the appointment
+     * @param timeSlot      The time slot of the appointment, already booked by the caller
      * @param status        The status of the appointment
+     * @return The unique ID of the saved appointment, or null if it could not be saved
      */
-    private void saveAppointmentDetails(String appointmentID, String doctorID, String patientID, String date, String timeSlot, String status) {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(APPOINTMENT_FILE, true))) {
-            String line = String.join(",", appointmentID, doctorID, patientID, date, timeSlot, status);
-            writer.write(line);
-            writer.newLine();
+    private String saveAppointmentDetails(String doctorID, String patientID, String date, String timeSlot, String status) {
+        String bookedOn = LocalDate.now().format(DateTimeFormatter.ofPattern("dd-MM-yy"));
+        String[] appointment;
+        try {
+            appointment = Storage.inTransaction(transaction -> nextAppointment(transaction,
+                    doctorID, patientID, date, timeSlot, status, bookedOn));
         } catch (IOException e) {
             System.err.println("Error saving appointment: " + e.getMessage());
+            DoctorAvailabilityIndex.getInstance().release(doctorID, date, timeSlot);
+            return null;
         }
+        DoctorScheduleIndex.getInstance().refresh(appointment[0]);
+        TraceRecorder.record(TraceOperation.SCHEDULE_APPOINTMENT, patientID, doctorID, date, timeSlot, appointment[0]);
+        return appointment[0];
     }
 
     /**
-     * Retrieves the name of a doctor based on their unique ID from the User.csv file.
-     *
-     * @param doctorID The unique ID of the doctor
-     * @return The name of the doctor if found; "Unknown Doctor" otherwise
+     * Appends a new appointment under the ID after the highest one in use.
      */
-    private String getDoctorNameByID(String doctorID) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(USER_FILE))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] fields = line.split(",");
-                if (fields[0].equals(doctorID) && fields[2].equalsIgnoreCase(UserRole.DOCTOR.name())) {
-                    return fields[3];
-                }
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return "Unknown Doctor";
-    }
-
-    /**
-     * Loads all appointments from the Appointment.csv file into a list.
-     * Each appointment is represented as a string array where each element corresponds to a column in the file.
-     *
-     * @return A list of string arrays representing the appointments
-     */
-    private List<String[]> loadAppointments() {
-        List<String[]> appointments = new ArrayList<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader(APPOINTMENT_FILE))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                appointments.add(line.split(","));
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+    private static String[] nextAppointment(Transaction transaction, String doctorID, String patientID, String date,
+                                            String timeSlot, String status, String bookedOn) throws IOException {
+        long highest = DoctorScheduleIndex.getInstance().getHighestAppointmentNumber();
+        for (String[] fields : transaction.read(Storage.APPOINTMENT)) {
+            highest = Math.max(highest, DoctorScheduleIndex.appointmentNumber(fields[0]));
         }
-        return appointments;
+        String[] appointment = {APPOINTMENT_ID_PREFIX + (highest + 1), doctorID, patientID, date, timeSlot, status, bookedOn};
+        transaction.append(Storage.APPOINTMENT, appointment);
+        return appointment;
     }
 
-    /**
-     * Saves a list of appointment records back to the Appointment.csv file.
-     * Each appointment is represented as a string array where each element corresponds to a column in the file.
-     *
-     * @param appointments The list of updated appointment records to be saved
-     */
-    private void saveAppointments(List<String[]> appointments) {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(APPOINTMENT_FILE))) {
-            for (String[] appointment : appointments) {
-                writer.write(String.join(",", appointment));
-                writer.newLine();
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
 
     /**
      * Reschedules an appointment, allowing the patient to select a new date and time slot.
@@ -322,234 +274,201 @@ public class AppointmentService extends DoctorAvailabilityService implements App
      */
     @Override
     public void rescheduleAppointment(String appointmentID) {
-        List<String[]> appointments = loadAppointments();
-        boolean valid = false;
+        String doctorID = getDoctorIDByAppointment(appointmentID);
+        if (doctorID == null) {
+            System.out.println("Appointment ID not found.");
+            return;
+        }
         Scanner scanner = new Scanner(System.in);
 
-        for (String[] appointment : appointments) {
-            if (appointment[0].equals(appointmentID)) {
-                String doctorID = appointment[1];
-                // Save the old date and time slot before updating
-                String oldDate = appointment[3];
-                String oldTimeSlot = appointment[4];
-
-                // Step 1: Validate New Date and Check Availability
-                String newDate;
-                while (true) {
-                    System.out.print("Enter the new date (e.g., DD-MM-YY): ");
-                    newDate = scanner.nextLine();
-                    if (isValidDateFormat(newDate) && isDoctorAvailableOnDate(doctorID, newDate)) {
-                        break;
-                    } else if (!isValidDateFormat(newDate)) {
-                        System.out.println("Invalid date format. Please use DD-MM-YY.");
-                    } else {
-                        System.out.println("The doctor is not available on this date. Please choose another date.");
-                    }
-                }
+        // Step 1: Validate New Date and Check Availability
+        String newDate;
+        while (true) {
+            System.out.print("Enter the new date (e.g., DD-MM-YY): ");
+            newDate = scanner.nextLine();
+            if (isValidDateFormat(newDate) && isDoctorAvailableOnDate(doctorID, newDate)) {
+                break;
+            } else if (!isValidDateFormat(newDate)) {
+                System.out.println("Invalid date format. Please use DD-MM-YY.");
+            } else {
+                System.out.println("The doctor is not available on this date. Please choose another date.");
+            }
+        }
 
-                // Step 2: Validate New Time Slot
-                String newTimeSlot;
-                while (true) {
-                    System.out.print("Enter the new time slot (e.g., 09:00): ");
-                    newTimeSlot = scanner.nextLine();
-                    newTimeSlot = formatToHalfHourSlot(newTimeSlot);
-                    if (isValidTimeSlotFormat(newTimeSlot) && isAvailableSlot(doctorID, newDate, newTimeSlot)) {
-                        break;
-                    } else {
-                        System.out.println("Invalid time slot or unavailable. Please check available slots for this doctor.");
-                    }
-                }
+        // Step 2: Validate New Time Slot and book it with a versioned compare-and-set
+        String newTimeSlot;
+        while (true) {
+            System.out.print("Enter the new time slot (e.g., 09:00): ");
+            newTimeSlot = scanner.nextLine();
+            newTimeSlot = DoctorAvailabilityIndex.getInstance().slotStartingAt(doctorID, newDate, newTimeSlot);
+            if (newTimeSlot.isEmpty() || !isAvailableSlot(doctorID, newDate, newTimeSlot)) {
+                System.out.println("Invalid time slot or unavailable. Please check available slots for this doctor.");
+                continue;
+            }
 
-                String doctorName = getDoctorNameByID(doctorID);
-                updateDoctorAvailability(doctorID, doctorName, appointment[3], appointment[4], true);
-                appointment[3] = newDate;
-                appointment[4] = newTimeSlot;
-                appointment[5] = AppointmentStatus.PENDING.name();
-                updateDoctorAvailability(doctorID, doctorName, newDate, newTimeSlot, false);
-                valid = true;
-                rescheduleSlotStatus(doctorID, oldDate, oldTimeSlot, newDate, newTimeSlot);
+            BookingResult result = DoctorAvailabilityIndex.getInstance().book(doctorID, newDate, newTimeSlot);
+            if (result == BookingResult.BOOKED) {
                 break;
+            } else if (result == BookingResult.CONFLICT) {
+                System.out.println("This time slot was just booked by another patient. Please choose another time slot.");
+            } else {
+                System.out.println("Invalid time slot or unavailable. Please check available slots for this doctor.");
             }
         }
 
-        if (valid) {
-            saveAppointments(appointments);
+        if (moveAppointment(appointmentID, newDate, newTimeSlot)) {
             System.out.println("Appointment rescheduled successfully.");
         } else {
-            System.out.println("Appointment ID not found.");
+            System.out.println("Appointment ID not found or no longer active.");
         }
     }
 
     /**
-     * Cancels an appointment and updates the slot to be available.
+     * Reschedules an appointment to a known slot, without prompting.
      *
-     * @param appointmentID The unique ID of the appointment to cancel
+     * @param appointmentID The unique ID of the appointment to reschedule
+     * @param newDate       The new date in DD-MM-YY format
+     * @param newTime       The start time of the new slot in HH:MM format
+     * @return true if the new slot was booked and the appointment moved to it; false otherwise
      */
-    @Override
-    public void cancelAppointment(String appointmentID) {
-        List<String[]> appointments = loadAppointments();
-        boolean appointmentFound = false;
-
-        for (String[] appointment : appointments) {
-            if (appointment[0].equals(appointmentID)) {
-                String doctorID = appointment[1];
-                String date = appointment[3];
-                String timeSlot = appointment[4];
-
-                // Update the appointment status to canceled
-                appointment[5] = AppointmentStatus.CANCELLED.name();
-                appointmentFound = true;
-                updateSlotStatus(doctorID, date, timeSlot, DoctorAvailabilityStatus.AVAILABLE.name());
-
-                break;
-            }
+    public boolean rescheduleAppointment(String appointmentID, String newDate, String newTime) {
+        String doctorID = getDoctorIDByAppointment(appointmentID);
+        if (doctorID == null || !isValidDateFormat(newDate)) {
+            return false;
         }
-
-        if (appointmentFound) {
-            saveAppointments(appointments);
-            System.out.println("Appointment canceled successfully.");
-        } else {
-            System.out.println("Appointment ID not found.");
+        String newTimeSlot = DoctorAvailabilityIndex.getInstance().slotStartingAt(doctorID, newDate, newTime);
+        if (newTimeSlot.isEmpty()) {
+            return false;
         }
+        if (DoctorAvailabilityIndex.getInstance().book(doctorID, newDate, newTimeSlot) != BookingResult.BOOKED) {
+            return false;
+        }
+        return moveAppointment(appointmentID, newDate, newTimeSlot);
     }
 
     /**
-     * Views the current status of a specific appointment.
+     * Moves an active appointment to a new slot that the caller has already booked, releasing
+     * the old slot only once the new one is secured. The appointment goes back to PENDING. If
+     * the appointment is missing or no longer active, the new slot is released instead.
      *
      * @param appointmentID The unique ID of the appointment
-     * @return The status of the appointment
+     * @param newDate       The new date
+     * @param newTimeSlot   The new time slot in HH:MM-HH:MM format
+     * @return true if the appointment was found and moved; false otherwise
      */
-    @Override
-    public String viewAppointmentStatus(String appointmentID) {
-        List<String[]> appointments = loadAppointments();
-        for (String[] appointment : appointments) {
-            if (appointment[0].equals(appointmentID)) {
-                return appointment[5];
+    private boolean moveAppointment(String appointmentID, String newDate, String newTimeSlot) {
+        String[] before;
+        boolean[] moved = new boolean[1];
+        try {
+            before = Storage.updateRow(Storage.APPOINTMENT, appointmentID, appointment -> {
+                if (AppointmentStatus.isActive(appointment[5])) {
+                    appointment[3] = newDate;
+                    appointment[4] = newTimeSlot;
+                    appointment[5] = AppointmentStatus.PENDING.name();
+                    moved[0] = true;
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("Error writing to Appointment.csv: " + e.getMessage());
+            before = null;
+        }
+        if (!moved[0]) {
+            // The appointment disappeared or ended after the new slot was booked; give the slot back
+            String doctorID = before != null ? before[1] : getDoctorIDByAppointment(appointmentID);
+            if (doctorID != null) {
+                DoctorAvailabilityIndex.getInstance().release(doctorID, newDate, newTimeSlot);
             }
+            return false;
         }
-        return "Appointment not found.";
+        DoctorAvailabilityIndex.getInstance().release(before[1], before[3], before[4]);
+        DoctorScheduleIndex.getInstance().refresh(appointmentID);
+        TraceRecorder.record(TraceOperation.RESCHEDULE_APPOINTMENT, appointmentID, newDate, newTimeSlot);
+        return true;
     }
 
     /**
-     * Updates the status of a specific slot in the DoctorAvailability.csv file.
+     * Retrieves the doctor of a specific appointment.
      *
-     * @param doctorID    The unique ID of the doctor
-     * @param date        The date of the slot
-     * @param timeSlot    The time slot to update
-     * @param newStatus   The new status to set (e.g., "Available" or "Booked")
+     * @param appointmentID The unique ID of the appointment
+     * @return The doctor ID, or null if the appointment is not found
      */
-    public void updateSlotStatus(String doctorID, String date, String timeSlot, String newStatus) {
-        List<String[]> availabilityData = loadDoctorAvailability();
-        boolean slotUpdated = false;
-
-        for (String[] entry : availabilityData) {
-            if (entry[0].equals(doctorID) && entry[2].equals(date) && entry[3].equals(timeSlot)) {
-                entry[4] = newStatus; // Update status to either "available" or "booked"
-                slotUpdated = true;
-                break;
+    private String getDoctorIDByAppointment(String appointmentID) {
+        try {
+            String[] appointment = Storage.table(Storage.APPOINTMENT).find(appointmentID);
+            if (appointment != null && appointment.length > 1) {
+                return appointment[1];
             }
+        } catch (IOException e) {
+            System.err.println("Error reading Appointment.csv: " + e.getMessage());
         }
-
-        if (slotUpdated) {
-            saveDoctorAvailability(availabilityData);
-        } else {
-            System.out.println("Slot not found in DoctorAvailability.csv.");
-        }
+        return null;
     }
 
     /**
-     * Reschedules the status of old and new time slots during an appointment rescheduling.
+     * Cancels an appointment and updates the slot to be available.
      *
-     * @param doctorID    The unique ID of the doctor
-     * @param oldDate     The original date of the slot
-     * @param oldTimeSlot The original time slot
-     * @param newDate     The new date of the slot
-     * @param newTimeSlot The new time slot
+     * @param appointmentID The unique ID of the appointment to cancel
      */
-    private void rescheduleSlotStatus(String doctorID, String oldDate, String oldTimeSlot, String newDate, String newTimeSlot) {
-        List<String[]> availabilityData = loadDoctorAvailability();
-        boolean oldSlotUpdated = false;
-        boolean newSlotUpdated = false;
-
-        for (String[] entry : availabilityData) {
-            if (entry[0].equals(doctorID) && entry[2].equals(oldDate) && entry[3].equals(oldTimeSlot)) {
-                entry[4] = "available"; // Set the old slot to "available"
-                oldSlotUpdated = true;
-            }
-            if (entry[0].equals(doctorID) && entry[2].equals(newDate) && entry[3].equals(newTimeSlot)) {
-                entry[4] = DoctorAvailabilityStatus.BOOKED.name(); // Set the new slot to "unavailable"
-                newSlotUpdated = true;
-            }
+    @Override
+    public void cancelAppointment(String appointmentID) {
+        String[] appointment;
+        try {
+            appointment = Storage.updateRow(Storage.APPOINTMENT, appointmentID, fields -> {
+                if (AppointmentStatus.isActive(fields[5])) {
+                    fields[5] = AppointmentStatus.CANCELLED.name();
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("Error writing to Appointment.csv: " + e.getMessage());
+            return;
         }
 
-        if (oldSlotUpdated && newSlotUpdated) {
-            saveDoctorAvailability(availabilityData);
+        if (appointment == null) {
+            System.out.println("Appointment ID not found.");
+        } else if (!AppointmentStatus.isActive(appointment[5])) {
+            System.out.println("Appointment is already " + appointment[5].toLowerCase() + ".");
         } else {
-            //System.out.println("One or both slots not found in DoctorAvailability.csv.");
-        }
-    }
-
-    /**
-     * Loads all availability records from DoctorAvailability.csv.
-     *
-     * @return A list of string arrays representing the availability records
-     */
-    private List<String[]> loadDoctorAvailability() {
-        List<String[]> availabilityData = new ArrayList<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader(DOCTOR_AVAILABILITY_FILE))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                availabilityData.add(line.split(","));
-            }
-        } catch (IOException e) {
-            System.err.println("Error reading DoctorAvailability.csv: " + e.getMessage());
+            // Only the cancel that ended the appointment releases its slot
+            DoctorAvailabilityIndex.getInstance().release(appointment[1], appointment[3], appointment[4]);
+            DoctorScheduleIndex.getInstance().refresh(appointmentID);
+            TraceRecorder.record(TraceOperation.CANCEL_APPOINTMENT, appointmentID);
+            System.out.println("Appointment canceled successfully.");
         }
-        return availabilityData;
     }
 
     /**
-     * Saves updated availability records back to DoctorAvailability.csv.
+     * Views the current status of a specific appointment.
      *
-     * @param availabilityData The updated availability records
+     * @param appointmentID The unique ID of the appointment
+     * @return The status of the appointment
      */
-    private void saveDoctorAvailability(List<String[]> availabilityData) {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(DOCTOR_AVAILABILITY_FILE))) {
-            for (String[] entry : availabilityData) {
-                writer.write(String.join(",", entry));
-                writer.newLine();
+    @Override
+    public String viewAppointmentStatus(String appointmentID) {
+        try {
+            String[] appointment = Storage.table(Storage.APPOINTMENT).find(appointmentID);
+            if (appointment != null && appointment.length > 5) {
+                return appointment[5];
             }
-            //System.out.println("Doctor availability saved successfully."); // Debugging output
         } catch (IOException e) {
-            System.err.println("Error saving DoctorAvailability.csv: " + e.getMessage());
+            System.err.println("Error reading Appointment.csv: " + e.getMessage());
         }
+        return "Appointment not found.";
     }
 
     /**
-     * Formats a time string into a half-hour slot range.
+     * Updates the status of a specific slot in the doctor availability records. An available
+     * slot can only be booked and a booked slot only released.
      *
-     * @param time The input time string in HH:MM format
-     * @return The formatted time slot as a string in HH:MM-HH:MM format, or an empty string if invalid
+     * @param doctorID    The unique ID of the doctor
+     * @param date        The date of the slot
+     * @param timeSlot    The time slot to update
+     * @param newStatus   The new status to set (e.g., "Available" or "Booked")
      */
-    private String formatToHalfHourSlot(String time) {
-        try {
-            String[] parts = time.split(":");
-            int hour = Integer.parseInt(parts[0]); // Attempt to parse hour
-            int minute = Integer.parseInt(parts[1]); // Attempt to parse minute
-
-            String start = String.format("%02d:%02d", hour, minute);
-            String end;
-
-            if (minute == 0) {
-                end = String.format("%02d:%02d", hour, 30);
-            } else {
-                end = String.format("%02d:%02d", (hour + 1) % 24, 0);
-            }
-
-            return start + "-" + end;
-
-        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
-            //System.out.println("Invalid time format. Please enter time in HH:MM format.");
-            return ""; // Return an empty string to indicate invalid format
+    public void updateSlotStatus(String doctorID, String date, String timeSlot, String newStatus) {
+        String expected = newStatus.equalsIgnoreCase(DoctorAvailabilityStatus.AVAILABLE.name())
+                ? DoctorAvailabilityStatus.BOOKED.name() : DoctorAvailabilityStatus.AVAILABLE.name();
+        if (!DoctorAvailabilityIndex.getInstance().setStatus(doctorID, date, timeSlot, expected, newStatus)) {
+            System.out.println("Slot not found in DoctorAvailability.csv or already " + newStatus.toLowerCase() + ".");
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,98 @@
+package appointment;
+
+/**
+ * The AvailabilitySlot class is an immutable view of a single doctor availability slot.
+ * Every change to a slot produces a new instance with the version incremented, which lets
+ * bookings be applied as a compare-and-set against the version that was read.
+ */
+public final class AvailabilitySlot {
+    private final String doctorID;
+    private final String doctorName;
+    private final String date;
+    private final String timeSlot;
+    private final String status;
+    private final long version;
+
+    /**
+     * Constructs a new AvailabilitySlot with the provided details.
+     *
+     * @param doctorID   The unique ID of the doctor
+     * @param doctorName The name of the doctor
+     * @param date       The date of the slot in DD-MM-YY format
+     * @param timeSlot   The time slot in HH:MM-HH:MM format
+     * @param status     The availability status of the slot
+     * @param version    The version stamp of the slot
+     */
+    public AvailabilitySlot(String doctorID, String doctorName, String date, String timeSlot, String status, long version) {
+        this.doctorID = doctorID;
+        this.doctorName = doctorName;
+        this.date = date;
+        this.timeSlot = timeSlot;
+        this.status = status;
+        this.version = version;
+    }
+
+    /**
+     * Returns the next version of this slot with a different status.
+     *
+     * @param newStatus The new availability status
+     * @return The updated slot with its version incremented
+     */
+    public AvailabilitySlot withStatus(String newStatus) {
+        return new AvailabilitySlot(doctorID, doctorName, date, timeSlot, newStatus, version + 1);
+    }
+
+    /**
+     * Gets the unique ID of the doctor.
+     *
+     * @return The doctor ID
+     */
+    public String getDoctorID() {
+        return doctorID;
+    }
+
+    /**
+     * Gets the name of the doctor.
+     *
+     * @return The doctor name
+     */
+    public String getDoctorName() {
+        return doctorName;
+    }
+
+    /**
+     * Gets the date of the slot.
+     *
+     * @return The date in DD-MM-YY format
+     */
+    public String getDate() {
+        return date;
+    }
+
+    /**
+     * Gets the time slot.
+     *
+     * @return The time slot in HH:MM-HH:MM format
+     */
+    public String getTimeSlot() {
+        return timeSlot;
+    }
+
+    /**
+     * Gets the availability status of the slot.
+     *
+     * @return The slot status
+     */
+    public String getStatus() {
+        return status;
+    }
+
+    /**
+     * Gets the version stamp of the slot.
+     *
+     * @return The version
+     */
+    public long getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,590 @@
+package appointment;
+
+import enums.BookingResult;
+import enums.DoctorAvailabilityStatus;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import storage.Storage;
+import storage.Transaction;
+import storage.WriteConflictException;
+
+/**
+ * The DoctorAvailabilityIndex class holds every doctor availability slot in memory with a
+ * version stamp. Bookings are applied as a single compare-and-set from AVAILABLE at version v
+ * to BOOKED at version v+1, so two sessions that both saw a slot as free cannot both book it,
+ * and no lock is held while a patient is choosing a slot.
+ *
+ * <p>The version is stored with the slot, in the last column of its DoctorAvailability row, and
+ * the compare-and-set is made on the row: a keyed update that fails unless the stored status and
+ * version are the ones read, committed before the index changes. A booking therefore loses to a
+ * booking made by another process sharing the data directory, and a release only frees a slot
+ * that is still booked. When the stored slot differs, the index adopts it. Rows written before
+ * slots had versions are at version 0. No lock is held while the row is written; the index then
+ * records the slot under its day's lock unless it already holds a later version.</p>
+ *
+ * <p>Slots are kept in a navigable map sorted by doctor, epoch day and slot start, as DD-MM-YY
+ * dates do not sort chronologically as strings. A doctor's free slots over a range of dates are
+ * read with one ordered range scan, and a query over every doctor skips from one doctor's range
+ * to the next.</p>
+ *
+ * <p>Each doctor divides the day into slots of their own length, kept in the DoctorSlotLength
+ * table and 30 minutes by default; see {@link SlotTable}. A day keeps the slot length it was
+ * first opened with, and for every doctor and day the index keeps a bitmap, sized to that day's
+ * {@link SlotTable}, of the available slots, so checking whether a doctor has
+ * a free slot does not look at the slots themselves.</p>
+ */
+public final class DoctorAvailabilityIndex {
+
+    private static final Map<String, DoctorAvailabilityIndex> INSTANCES = new ConcurrentHashMap<>();
+
+    private final ConcurrentNavigableMap<SlotKey, AvailabilitySlot> slots = new ConcurrentSkipListMap<>();
+    private final Map<String, Map<String, DaySlots>> days = new ConcurrentHashMap<>();
+    private final Map<String, Integer> slotLengths = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs an empty index. Use {@link #getInstance()} to obtain the shared index.
+     */
+    private DoctorAvailabilityIndex() {
+    }
+
+    /**
+     * Returns the current shard's availability index, loading it from the DoctorAvailability
+     * table on first use. Each shard has an index of its own.
+     *
+     * @return The current shard's DoctorAvailabilityIndex
+     */
+    public static DoctorAvailabilityIndex getInstance() {
+        return INSTANCES.computeIfAbsent(Storage.currentShard().getName(), shard -> {
+            DoctorAvailabilityIndex index = new DoctorAvailabilityIndex();
+            index.load();
+            return index;
+        });
+    }
+
+    /**
+     * Replaces the current shard's index with one loaded afresh from the DoctorSlotLength and
+     * DoctorAvailability tables.
+     */
+    public static void reload() {
+        DoctorAvailabilityIndex index = new DoctorAvailabilityIndex();
+        index.load();
+        INSTANCES.put(Storage.currentShard().getName(), index);
+    }
+
+    /**
+     * Loads the doctors' slot lengths, then every well-formed slot from the DoctorAvailability
+     * table into the index at its stored version.
+     */
+    private void load() {
+        try {
+            Storage.table(Storage.DOCTOR_SLOT_LENGTH).scan(data -> {
+                if (data.length >= 2) {
+                    try {
+                        int length = Integer.parseInt(data[1].trim());
+                        if (SlotTable.isSupportedLength(length)) {
+                            slotLengths.put(data[0], length);
+                        }
+                    } catch (NumberFormatException e) {
+                        // Skip malformed lengths; the doctor keeps the default
+                    }
+                }
+                return true;
+            });
+        } catch (IOException e) {
+            System.err.println("Error reading DoctorSlotLength.csv: " + e.getMessage());
+        }
+
+        try {
+            Storage.table(Storage.DOCTOR_AVAILABILITY).scan(data -> {
+                if (data.length >= 5) {
+                    SlotKey key = SlotKey.of(data[0], data[2], data[3]);
+                    if (slots.putIfAbsent(key, fromRow(data)) == null) {
+                        refresh(key);
+                    }
+                }
+                return true;
+            });
+        } catch (IOException e) {
+            System.err.println("Error reading DoctorAvailability.csv: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Gets the slot table a doctor opens new days with.
+     *
+     * @param doctorID The unique ID of the doctor
+     * @return The doctor's slot table
+     */
+    public SlotTable getSlotTable(String doctorID) {
+        return SlotTable.forLength(slotLengths.getOrDefault(doctorID, SlotTable.DEFAULT_LENGTH));
+    }
+
+    /**
+     * Gets the slot table of a doctor's day: the one the day was first opened with, or the
+     * doctor's current one if the day has not been opened.
+     *
+     * @param doctorID The unique ID of the doctor
+     * @param date     The date in DD-MM-YY format
+     * @return The slot table of the day
+     */
+    public SlotTable getSlotTable(String doctorID, String date) {
+        Map<String, DaySlots> doctorDays = days.get(doctorID);
+        DaySlots day = doctorDays == null ? null : doctorDays.get(date);
+        return day != null ? day.table : getSlotTable(doctorID);
+    }
+
+    /**
+     * Sets the length of the slots a doctor opens new days with. Days already opened keep
+     * their slot length.
+     *
+     * @param doctorID The unique ID of the doctor
+     * @param length   The slot length in minutes
+     * @throws IllegalArgumentException if the length is not supported
+     */
+    public void setSlotLength(String doctorID, int length) {
+        SlotTable.forLength(length);
+        String[] row = {doctorID, String.valueOf(length)};
+        try {
+            Storage.inTransaction(transaction -> {
+                boolean exists = false;
+                for (String[] data : transaction.read(Storage.DOCTOR_SLOT_LENGTH)) {
+                    exists |= data[0].equals(doctorID);
+                }
+                if (exists) {
+                    transaction.update(Storage.DOCTOR_SLOT_LENGTH, doctorID, data -> row.clone());
+                } else {
+                    transaction.append(Storage.DOCTOR_SLOT_LENGTH, row);
+                }
+                return null;
+            });
+        } catch (IOException e) {
+            System.err.println("Error saving DoctorSlotLength.csv: " + e.getMessage());
+            return;
+        }
+        slotLengths.put(doctorID, length);
+    }
+
+    /**
+     * Adds new available slots for a doctor. Slots that already exist keep their current
+     * status so that setting availability again cannot reopen a booked slot, and slots that are
+     * not slots of the day's {@link SlotTable} are ignored.
+     *
+     * @param doctorID   The unique ID of the doctor
+     * @param doctorName The name of the doctor
+     * @param date       The date of the slots
+     * @param timeSlots  The time slots to add
+     * @return The number of given slots that are open on the day
+     */
+    public int addSlots(String doctorID, String doctorName, String date, String[] timeSlots) {
+        SlotTable table = getSlotTable(doctorID, date);
+        Set<String> open = new LinkedHashSet<>();
+        for (String timeSlot : timeSlots) {
+            if (table.indexOf(timeSlot) >= 0) {
+                open.add(timeSlot);
+            }
+        }
+        Map<String, String[]> stored = new HashMap<>();
+        try {
+            Storage.inTransaction(transaction -> {
+                stored.clear();
+                for (String[] data : transaction.read(Storage.DOCTOR_AVAILABILITY)) {
+                    if (data.length >= 5 && data[0].equals(doctorID) && data[2].equals(date) && open.contains(data[3])) {
+                        stored.putIfAbsent(data[3], data);
+                    }
+                }
+                for (String timeSlot : open) {
+                    if (!stored.containsKey(timeSlot)) {
+                        transaction.append(Storage.DOCTOR_AVAILABILITY, new String[]{doctorID, doctorName, date, timeSlot,
+                                DoctorAvailabilityStatus.AVAILABLE.name(), "0"});
+                    }
+                }
+                return null;
+            });
+        } catch (IOException e) {
+            System.err.println("Error saving DoctorAvailability.csv: " + e.getMessage());
+            return 0;
+        }
+        for (String timeSlot : open) {
+            SlotKey key = SlotKey.of(doctorID, date, timeSlot);
+            String[] row = stored.get(timeSlot);
+            AvailabilitySlot slot = row != null ? fromRow(row)
+                    : new AvailabilitySlot(doctorID, doctorName, date, timeSlot, DoctorAvailabilityStatus.AVAILABLE.name(), 0);
+            if (slots.putIfAbsent(key, slot) == null) {
+                refresh(key);
+            }
+        }
+        return open.size();
+    }
+
+    /**
+     * Gets the slot of a doctor's day that starts at a typed time.
+     *
+     * @param doctorID The unique ID of the doctor
+     * @param date     The date in DD-MM-YY format
+     * @param time     The start time in HH:MM format
+     * @return The time slot in HH:MM-HH:MM format, or an empty string if no slot of the day's
+     *         length starts at the time
+     */
+    public String slotStartingAt(String doctorID, String date, String time) {
+        return getSlotTable(doctorID, date).slotStartingAt(time);
+    }
+
+    /**
+     * Reads the current version of a slot.
+     *
+     * @param doctorID The unique ID of the doctor
+     * @param date     The date of the slot
+     * @param timeSlot The time slot
+     * @return The slot, or null if the doctor has not opened it
+     */
+    public AvailabilitySlot getSlot(String doctorID, String date, String timeSlot) {
+        return slots.get(SlotKey.of(doctorID, date, timeSlot));
+    }
+
+    /**
+     * Retrieves the available slots between two dates, for one doctor or for every doctor.
+     *
+     * @param doctorID The unique ID of the doctor, or null for every doctor
+     * @param fromDate The first date in DD-MM-YY format
+     * @param toDate   The last date in DD-MM-YY format
+     * @return The available slots in chronological order, by doctor within the same slot time;
+     *         empty if a date cannot be parsed or the range is reversed
+     */
+    public List<AvailabilitySlot> getAvailableSlots(String doctorID, String fromDate, String toDate) {
+        long fromDay = DoctorScheduleIndex.toEpochDay(fromDate);
+        long toDay = DoctorScheduleIndex.toEpochDay(toDate);
+        List<AvailabilitySlot> result = new ArrayList<>();
+        if (fromDay == Long.MIN_VALUE || toDay == Long.MIN_VALUE || fromDay > toDay) {
+            return result;
+        }
+        if (doctorID != null) {
+            collectAvailable(doctorID, fromDay, toDay, result);
+            return result;
+        }
+
+        // Visit each doctor's range in turn, jumping over the slots outside the dates
+        SlotKey next = slots.isEmpty() ? null : slots.firstKey();
+        while (next != null) {
+            collectAvailable(next.doctorID, fromDay, toDay, result);
+            next = slots.ceilingKey(SlotKey.startOf(next.doctorID + Character.MIN_VALUE, Long.MIN_VALUE));
+        }
+        result.sort(Comparator.comparingLong((AvailabilitySlot slot) -> DoctorScheduleIndex.toEpochDay(slot.getDate()))
+                .thenComparingInt(slot -> DoctorScheduleIndex.toStartMinute(slot.getTimeSlot()))
+                .thenComparing(AvailabilitySlot::getDoctorID));
+        return result;
+    }
+
+    /**
+     * Adds a doctor's available slots between two epoch days to a list, in the index's order.
+     */
+    private void collectAvailable(String doctorID, long fromDay, long toDay, List<AvailabilitySlot> result) {
+        for (AvailabilitySlot slot : slots.subMap(SlotKey.startOf(doctorID, fromDay), true, SlotKey.startOf(doctorID, toDay + 1), false).values()) {
+            if (slot.getStatus().equalsIgnoreCase(DoctorAvailabilityStatus.AVAILABLE.name())) {
+                result.add(slot);
+            }
+        }
+    }
+
+    /**
+     * Books a slot that was previously read, succeeding only if it is still available and
+     * still at the version that was read.
+     *
+     * @param expected The slot as it was read by the caller
+     * @return BOOKED on success, CONFLICT if the slot changed since it was read,
+     *         or UNAVAILABLE if the slot was not available when read
+     */
+    public BookingResult compareAndBook(AvailabilitySlot expected) {
+        if (!expected.getStatus().equalsIgnoreCase(DoctorAvailabilityStatus.AVAILABLE.name())) {
+            return BookingResult.UNAVAILABLE;
+        }
+        return compareAndSet(expected, DoctorAvailabilityStatus.BOOKED.name());
+    }
+
+    /**
+     * Books a slot, re-reading it once if another session changed it in between.
+     *
+     * @param doctorID The unique ID of the doctor
+     * @param date     The date of the slot
+     * @param timeSlot The time slot
+     * @return The result of the booking attempt
+     */
+    public BookingResult book(String doctorID, String date, String timeSlot) {
+        BookingResult result = BookingResult.UNAVAILABLE;
+        for (int attempt = 0; attempt < 2; attempt++) {
+            AvailabilitySlot slot = getSlot(doctorID, date, timeSlot);
+            if (slot == null) {
+                return BookingResult.UNAVAILABLE;
+            }
+            result = compareAndBook(slot);
+            if (result != BookingResult.CONFLICT) {
+                return result;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Changes the status of a slot from an expected status, for example when an appointment is
+     * cancelled or declined and the slot it held is released. Nothing changes if the slot is no
+     * longer in the expected status, so a late release cannot free a slot booked again since.
+     *
+     * @param doctorID       The unique ID of the doctor
+     * @param date           The date of the slot
+     * @param timeSlot       The time slot
+     * @param expectedStatus The status the slot must be in
+     * @param newStatus      The new availability status
+     * @return true if the slot exists, was in the expected status and was updated; false otherwise
+     */
+    public boolean setStatus(String doctorID, String date, String timeSlot, String expectedStatus, String newStatus) {
+        AvailabilitySlot slot = getSlot(doctorID, date, timeSlot);
+        if (slot == null || !slot.getStatus().equalsIgnoreCase(expectedStatus)) {
+            return false;
+        }
+        return compareAndSet(slot, newStatus.toUpperCase()) == BookingResult.BOOKED;
+    }
+
+    /**
+     * Releases a booked slot, making it available again.
+     *
+     * @param doctorID The unique ID of the doctor
+     * @param date     The date of the slot
+     * @param timeSlot The time slot
+     * @return true if the slot was booked and has been released; false otherwise
+     */
+    public boolean release(String doctorID, String date, String timeSlot) {
+        return setStatus(doctorID, date, timeSlot, DoctorAvailabilityStatus.BOOKED.name(), DoctorAvailabilityStatus.AVAILABLE.name());
+    }
+
+    /**
+     * Changes a slot that was previously read to a new status, first in its stored row and then
+     * in the index, succeeding only if the row still has the status and version that were read.
+     * No lock is held while the row is written.
+     *
+     * @param expected  The slot as it was read by the caller
+     * @param newStatus The new availability status
+     * @return BOOKED if the status was changed, CONFLICT if the slot changed since it was read,
+     *         or UNAVAILABLE if its row cannot be found or written
+     */
+    private BookingResult compareAndSet(AvailabilitySlot expected, String newStatus) {
+        SlotKey key = SlotKey.of(expected.getDoctorID(), expected.getDate(), expected.getTimeSlot());
+        AvailabilitySlot current = slots.get(key);
+        if (current == null || current.getVersion() > expected.getVersion()) {
+            return BookingResult.CONFLICT;
+        }
+        AvailabilitySlot[] stored = new AvailabilitySlot[1];
+        try (Transaction transaction = Storage.getEngine().begin()) {
+            transaction.update(Storage.DOCTOR_AVAILABILITY, expected.getDoctorID(), row -> {
+                if (row.length < 5 || !row[2].equals(expected.getDate()) || !row[3].equals(expected.getTimeSlot())) {
+                    return row;
+                }
+                stored[0] = fromRow(row);
+                if (stored[0].getVersion() != expected.getVersion() || !row[4].equalsIgnoreCase(expected.getStatus())) {
+                    throw new WriteConflictException(Storage.DOCTOR_AVAILABILITY, "The slot is already " + row[4] + " at version " + stored[0].getVersion());
+                }
+                String[] updated = Arrays.copyOf(row, 6);
+                updated[4] = newStatus;
+                updated[5] = String.valueOf(expected.getVersion() + 1);
+                return updated;
+            });
+            transaction.commit();
+        } catch (WriteConflictException e) {
+            // Another session changed the slot first; adopt what it stored
+            if (stored[0] != null) {
+                adopt(key, stored[0]);
+            }
+            return BookingResult.CONFLICT;
+        } catch (IOException e) {
+            System.err.println("Error saving DoctorAvailability.csv: " + e.getMessage());
+            return BookingResult.UNAVAILABLE;
+        }
+        if (stored[0] == null) {
+            return BookingResult.UNAVAILABLE;
+        }
+        adopt(key, expected.withStatus(newStatus));
+        return BookingResult.BOOKED;
+    }
+
+    /**
+     * Records a slot as stored in the index, unless the index already holds a later version of
+     * it. The day's lock is held so that versions committed in quick succession are recorded in
+     * version order whichever session records them first.
+     *
+     * @param key  The key of the slot
+     * @param slot The slot as stored
+     */
+    private void adopt(SlotKey key, AvailabilitySlot slot) {
+        synchronized (day(slot)) {
+            AvailabilitySlot current = slots.get(key);
+            if (current != null && current.getVersion() >= slot.getVersion()) {
+                return;
+            }
+            slots.put(key, slot);
+        }
+        refresh(key);
+    }
+
+    /**
+     * Creates a slot from its DoctorAvailability row, at version 0 if the row has no version.
+     */
+    private static AvailabilitySlot fromRow(String[] row) {
+        long version = 0;
+        if (row.length > 5) {
+            try {
+                version = Long.parseLong(row[5].trim());
+            } catch (NumberFormatException e) {
+                // Keep version 0; the next change of the slot stores a valid one
+            }
+        }
+        return new AvailabilitySlot(row[0], row[1], row[2], row[3], row[4].toUpperCase(), version);
+    }
+
+    /**
+     * Checks whether a doctor has any available slot, optionally restricted to one date.
+     *
+     * @param doctorID The unique ID of the doctor
+     * @param date     The date to check, or null for any date
+     * @return true if at least one matching slot is available; false otherwise
+     */
+    public boolean hasAvailableSlot(String doctorID, String date) {
+        Map<String, DaySlots> doctorDays = days.get(doctorID);
+        if (doctorDays == null) {
+            return false;
+        }
+        if (date != null) {
+            DaySlots day = doctorDays.get(date);
+            return day != null && day.hasAvailable();
+        }
+        for (DaySlots day : doctorDays.values()) {
+            if (day.hasAvailable()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether a doctor has opened any slot at all.
+     *
+     * @param doctorID The unique ID of the doctor
+     * @return true if the doctor has at least one slot; false otherwise
+     */
+    public boolean containsDoctor(String doctorID) {
+        return days.containsKey(doctorID);
+    }
+
+    /**
+     * Updates the bitmap of a slot's day after the slot changed. The slot is re-read while the
+     * day is locked, so whichever refresh of a slot runs last records its latest status.
+     *
+     * @param key The key of the slot
+     */
+    private void refresh(SlotKey key) {
+        AvailabilitySlot slot = slots.get(key);
+        if (slot == null) {
+            return;
+        }
+        DaySlots day = day(slot);
+        synchronized (day) {
+            AvailabilitySlot current = slots.get(key);
+            day.update(current.getTimeSlot(), current.getStatus().equalsIgnoreCase(DoctorAvailabilityStatus.AVAILABLE.name()));
+        }
+    }
+
+    /**
+     * Gets the day a slot belongs to, opening it with the slot's table if needed.
+     */
+    private DaySlots day(AvailabilitySlot slot) {
+        return days.computeIfAbsent(slot.getDoctorID(), id -> new ConcurrentHashMap<>()).computeIfAbsent(slot.getDate(), date -> {
+            SlotTable table = SlotTable.forSlot(slot.getTimeSlot());
+            return new DaySlots(table != null ? table : getSlotTable(slot.getDoctorID()));
+        });
+    }
+
+    /**
+     * The sort key of a slot: doctor, epoch day, then slot start. The date and time slot
+     * strings break ties between slots whose date or time cannot be parsed.
+     */
+    private static final class SlotKey implements Comparable<SlotKey> {
+        private final String doctorID;
+        private final long epochDay;
+        private final int startMinute;
+        private final String date;
+        private final String timeSlot;
+
+        private SlotKey(String doctorID, long epochDay, int startMinute, String date, String timeSlot) {
+            this.doctorID = doctorID;
+            this.epochDay = epochDay;
+            this.startMinute = startMinute;
+            this.date = date;
+            this.timeSlot = timeSlot;
+        }
+
+        private static SlotKey of(String doctorID, String date, String timeSlot) {
+            return new SlotKey(doctorID, DoctorScheduleIndex.toEpochDay(date), DoctorScheduleIndex.toStartMinute(timeSlot), date, timeSlot);
+        }
+
+        /**
+         * Returns a key that sorts before every slot of a doctor on or after an epoch day.
+         */
+        private static SlotKey startOf(String doctorID, long epochDay) {
+            return new SlotKey(doctorID, epochDay, Integer.MIN_VALUE, "", "");
+        }
+
+        @Override
+        public int compareTo(SlotKey other) {
+            int result = doctorID.compareTo(other.doctorID);
+            if (result == 0) {
+                result = Long.compare(epochDay, other.epochDay);
+            }
+            if (result == 0) {
+                result = Integer.compare(startMinute, other.startMinute);
+            }
+            if (result == 0) {
+                result = date.compareTo(other.date);
+            }
+            if (result == 0) {
+                result = timeSlot.compareTo(other.timeSlot);
+            }
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof SlotKey && compareTo((SlotKey) other) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(doctorID, epochDay, startMinute, date, timeSlot);
+        }
+    }
+
+    /**
+     * The slots of one doctor's day: the slot table the day was opened with and a bitmap of the
+     * available slots, indexed by slot position. Slots that do not belong to the table, which can
+     * only come from hand-edited data, are not tracked.
+     */
+    private static final class DaySlots {
+        private final SlotTable table;
+        private final BitSet available;
+
+        private DaySlots(SlotTable table) {
+            this.table = table;
+            this.available = new BitSet(table.size());
+        }
+
+        private synchronized void update(String timeSlot, boolean isAvailable) {
+            int index = table.indexOf(timeSlot);
+            if (index >= 0) {
+                available.set(index, isAvailable);
+            }
+        }
+
+        private synchronized boolean hasAvailable() {
+            return !available.isEmpty();
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package appointment;
 
+import java.util.List;
+
 /**
  * The DoctorAvailabilityManager interface defines the methods required for managing
  * doctor availability in the hospital management system. It includes functionalities
@@ -25,4 +27,33 @@ public interface DoctorAvailabilityManager {
      * @return An array of available time slots for the doctor on the specified date
      */
     String[] viewDoctorAvailability(String doctorID, String date);
+
+    /**
+     * Retrieves the available slots between two dates, for one doctor or for every doctor.
+     *
+     * @param doctorID The unique ID of the doctor, or null for every doctor
+     * @param fromDate The first date in DD-MM-YY format
+     * @param toDate   The last date in DD-MM-YY format
+     * @return The available slots in chronological order
+     */
+    List<AvailabilitySlot> findAvailableSlots(String doctorID, String fromDate, String toDate);
+
+    /**
+     * Retrieves the slot table of a doctor's day: the one the day was opened with, or the
+     * doctor's current one if the day has not been opened yet.
+     *
+     * @param doctorID The unique ID of the doctor
+     * @param date     The date in DD-MM-YY format
+     * @return The slot table of the day
+     */
+    SlotTable getSlotTable(String doctorID, String date);
+
+    /**
+     * Sets the length of the slots a doctor opens new days with.
+     *
+     * @param doctorID The unique ID of the doctor
+     * @param minutes  The slot length in minutes, one of {@link SlotTable#getSupportedLengths()}
+     * @throws IllegalArgumentException if the length is not supported
+     */
+    void setSlotLength(String doctorID, int minutes);
 }
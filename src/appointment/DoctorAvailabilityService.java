@@ -1,8 +1,9 @@
 package appointment;
 
 import enums.DoctorAvailabilityStatus; // Import the enum for availability status
-import java.io.*;
 import java.util.*;
+import trace.TraceOperation;
+import trace.TraceRecorder;
 
 /**
  * The DoctorAvailabilityService class implements the DoctorAvailabilityManager interface
@@ -10,8 +11,6 @@ import java.util.*;
  * It includes functionalities for setting, viewing, and updating doctor availability.
  */
 public class DoctorAvailabilityService implements DoctorAvailabilityManager {
-    private static final String DOCTOR_AVAILABILITY_FILE = "resources/DoctorAvailability.csv";
-
     /**
      * Sets the availability of a doctor with specified time slots.
      * Each time slot is marked as "Available" in the availability record.
@@ -23,16 +22,8 @@ public class DoctorAvailabilityService implements DoctorAvailabilityManager {
      */
     @Override
     public void setDoctorAvailability(String doctorID, String doctorName, String date, String[] availableSlots) {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(DOCTOR_AVAILABILITY_FILE, true))) {
-            for (String slot : availableSlots) {
-                // Use enum for availability status
-                String line = String.join(",", doctorID, doctorName, date, slot, DoctorAvailabilityStatus.AVAILABLE.name());
-                writer.write(line);
-                writer.newLine();
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        DoctorAvailabilityIndex.getInstance().addSlots(doctorID, doctorName, date, availableSlots);
+        TraceRecorder.record(TraceOperation.SET_AVAILABILITY, doctorID, doctorName, date, String.join(";", availableSlots));
     }
 
     /**
@@ -46,22 +37,52 @@ public class DoctorAvailabilityService implements DoctorAvailabilityManager {
     @Override
     public String[] viewDoctorAvailability(String doctorID, String date) {
         List<String> availableSlots = new ArrayList<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader(DOCTOR_AVAILABILITY_FILE))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] data = line.split(",");
-                // Assuming data structure: doctorID, doctorName, date, slot, status
-                if (data[0].equals(doctorID) && data[2].equals(date) && data[4].equals(DoctorAvailabilityStatus.AVAILABLE.name())) {
-                    String formattedSlot = String.format("Doctor: %s, Date: %s, Time Slot: %s", data[1], data[2], data[3]);
-                    availableSlots.add(formattedSlot);
-                }
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+        for (AvailabilitySlot slot : findAvailableSlots(doctorID, date, date)) {
+            availableSlots.add(String.format("Doctor: %s, Date: %s, Time Slot: %s", slot.getDoctorName(), slot.getDate(), slot.getTimeSlot()));
         }
         return availableSlots.toArray(new String[0]);
     }
 
+    /**
+     * Retrieves the available slots between two dates, for one doctor or for every doctor,
+     * with a range scan of the availability index.
+     *
+     * @param doctorID The unique ID of the doctor, or null for every doctor
+     * @param fromDate The first date in DD-MM-YY format
+     * @param toDate   The last date in DD-MM-YY format
+     * @return The available slots in chronological order
+     */
+    @Override
+    public List<AvailabilitySlot> findAvailableSlots(String doctorID, String fromDate, String toDate) {
+        return DoctorAvailabilityIndex.getInstance().getAvailableSlots(doctorID, fromDate, toDate);
+    }
+
+    /**
+     * Retrieves the slot table of a doctor's day.
+     *
+     * @param doctorID The unique ID of the doctor
+     * @param date     The date in DD-MM-YY format
+     * @return The slot table of the day
+     */
+    @Override
+    public SlotTable getSlotTable(String doctorID, String date) {
+        return DoctorAvailabilityIndex.getInstance().getSlotTable(doctorID, date);
+    }
+
+    /**
+     * Sets the length of the slots a doctor opens new days with. Days already opened keep
+     * their slot length.
+     *
+     * @param doctorID The unique ID of the doctor
+     * @param minutes  The slot length in minutes
+     * @throws IllegalArgumentException if the length is not supported
+     */
+    @Override
+    public void setSlotLength(String doctorID, int minutes) {
+        DoctorAvailabilityIndex.getInstance().setSlotLength(doctorID, minutes);
+        TraceRecorder.record(TraceOperation.SET_SLOT_LENGTH, doctorID, String.valueOf(minutes));
+    }
+
     /**
      * Updates the availability status of a specific time slot for a doctor.
      * The time slot is marked as "Available" or "Booked" based on the provided status.
@@ -73,31 +94,9 @@ public class DoctorAvailabilityService implements DoctorAvailabilityManager {
      * @param isAvailable A boolean indicating whether the time slot is available (true) or booked (false)
      */
     public void updateDoctorAvailability(String doctorID, String doctorName, String date, String timeSlot, boolean isAvailable) {
-        List<String[]> availabilityData = new ArrayList<>();
-
-        // Load current availability data
-        try (BufferedReader reader = new BufferedReader(new FileReader(DOCTOR_AVAILABILITY_FILE))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] data = line.split(",");
-                if (data[0].equals(doctorID) && data[2].equals(date) && data[3].equals(timeSlot)) {
-                    // Use enum for status based on the boolean isAvailable
-                    data[4] = isAvailable ? DoctorAvailabilityStatus.AVAILABLE.name() : DoctorAvailabilityStatus.BOOKED.name();
-                }
-                availabilityData.add(data);
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        // Save the updated availability data back to DoctorAvailability.csv
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(DOCTOR_AVAILABILITY_FILE))) {
-            for (String[] data : availabilityData) {
-                writer.write(String.join(",", data));
-                writer.newLine();
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        // Use enum for status based on the boolean isAvailable
+        String status = isAvailable ? DoctorAvailabilityStatus.AVAILABLE.name() : DoctorAvailabilityStatus.BOOKED.name();
+        String expected = isAvailable ? DoctorAvailabilityStatus.BOOKED.name() : DoctorAvailabilityStatus.AVAILABLE.name();
+        DoctorAvailabilityIndex.getInstance().setStatus(doctorID, date, timeSlot, expected, status);
     }
 }
\ No newline at end of file
@@ -0,0 +1,390 @@
+package appointment;
+
+import java.io.*;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import paging.Page;
+import storage.Storage;
+
+/**
+ * The DoctorScheduleIndex class keeps a materialised schedule for every doctor, sorted by
+ * date and time slot. It is loaded from Appointment.csv and then updated incrementally
+ * whenever an appointment is booked, rescheduled, accepted, declined, cancelled or completed,
+ * by reading the changed appointment again, so that reading a doctor's agenda only touches that
+ * doctor's own appointments.
+ *
+ * <p>Patients book and cancel from sessions of their own, so {@link #getInstance()} compares
+ * the Appointment table's version with the one the index was loaded from and loads the index
+ * again if another process has written the table since.</p>
+ */
+public final class DoctorScheduleIndex {
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd-MM-yy");
+
+    private static final Map<String, DoctorScheduleIndex> INSTANCES = new ConcurrentHashMap<>();
+
+    private final Map<String, TreeMap<ScheduleKey, Appointment>> schedules = new HashMap<>();
+    private final Map<String, Appointment> appointmentsByID = new HashMap<>();
+    private long highestAppointmentNumber;
+    private Object loadedVersion;
+
+    /**
+     * Constructs an empty index. Use {@link #getInstance()} to obtain the shared index.
+     */
+    private DoctorScheduleIndex() {
+    }
+
+    /**
+     * Returns the current shard's schedule index, loading it from Appointment.csv on first use
+     * and again whenever the table has been written since. Each shard has an index of its own.
+     *
+     * @return The current shard's DoctorScheduleIndex
+     */
+    public static DoctorScheduleIndex getInstance() {
+        DoctorScheduleIndex index = INSTANCES.computeIfAbsent(Storage.currentShard().getName(), shard -> new DoctorScheduleIndex());
+        index.load();
+        return index;
+    }
+
+    /**
+     * Replaces the current shard's index with one loaded afresh from the Appointment history, for
+     * example after a replica received appointments written by its primary. Readers keep
+     * using the old index until the new one is complete.
+     */
+    public static void reload() {
+        DoctorScheduleIndex index = new DoctorScheduleIndex();
+        index.load();
+        INSTANCES.put(Storage.currentShard().getName(), index);
+    }
+
+    /**
+     * Loads every well-formed appointment from the history of the Appointment table, archived
+     * appointments included, into the index, unless the index was already loaded from the
+     * table's current version.
+     */
+    private synchronized void load() {
+        try {
+            Object version = Storage.currentVersion(Storage.APPOINTMENT);
+            if (version.equals(loadedVersion)) {
+                return;
+            }
+            schedules.clear();
+            appointmentsByID.clear();
+            Storage.history(Storage.APPOINTMENT).scan(fields -> {
+                Appointment appointment = Appointment.fromFields(fields);
+                if (appointment != null) {
+                    put(appointment);
+                }
+                return true;
+            });
+            loadedVersion = version;
+        } catch (IOException e) {
+            System.err.println("Error reading Appointment.csv: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Adds an appointment to the index, replacing any previous entry with the same ID.
+     * Rows whose date or time slot cannot be parsed are ignored, though they still replace the
+     * previous entry, which no longer describes the appointment.
+     *
+     * @param appointment The appointment to add or replace
+     */
+    public synchronized void put(Appointment appointment) {
+        remove(appointment.getAppointmentID());
+        highestAppointmentNumber = Math.max(highestAppointmentNumber, appointmentNumber(appointment.getAppointmentID()));
+        ScheduleKey key = ScheduleKey.of(appointment);
+        if (key == null) {
+            return;
+        }
+        schedules.computeIfAbsent(appointment.getDoctorID(), id -> new TreeMap<>()).put(key, appointment);
+        appointmentsByID.put(appointment.getAppointmentID(), appointment);
+    }
+
+    /**
+     * Gets the highest number of any appointment ID the index has seen, archived appointments
+     * included.
+     *
+     * @return The highest appointment number, or 0 if there is none
+     */
+    public synchronized long getHighestAppointmentNumber() {
+        return highestAppointmentNumber;
+    }
+
+    /**
+     * Gets the number of an appointment ID made of a two-letter prefix and digits, such as AP123.
+     *
+     * @param appointmentID The appointment ID
+     * @return The number, or 0 if the ID is not numbered
+     */
+    public static long appointmentNumber(String appointmentID) {
+        if (appointmentID.length() < 3 || appointmentID.length() > 20) {
+            return 0;
+        }
+        for (int i = 2; i < appointmentID.length(); i++) {
+            if (!Character.isDigit(appointmentID.charAt(i))) {
+                return 0;
+            }
+        }
+        return Long.parseLong(appointmentID.substring(2));
+    }
+
+    /**
+     * Reads an appointment from Appointment.csv again and indexes it as stored. Call it after
+     * committing a change to the appointment: the read and the update of the index are made
+     * together, so when sessions change the same appointment at once, the index ends up with the
+     * appointment as the last change left it, whatever order the sessions update the index in.
+     *
+     * @param appointmentID The unique ID of the appointment
+     */
+    public synchronized void refresh(String appointmentID) {
+        try {
+            String[] fields = Storage.table(Storage.APPOINTMENT).find(appointmentID);
+            Appointment appointment = fields != null ? Appointment.fromFields(fields) : null;
+            if (appointment != null) {
+                put(appointment);
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading Appointment.csv: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Removes an appointment from the index.
+     *
+     * @param appointmentID The unique ID of the appointment
+     */
+    public synchronized void remove(String appointmentID) {
+        Appointment appointment = appointmentsByID.remove(appointmentID);
+        if (appointment != null) {
+            schedules.get(appointment.getDoctorID()).remove(ScheduleKey.of(appointment));
+        }
+    }
+
+    /**
+     * Looks up an appointment by its ID.
+     *
+     * @param appointmentID The unique ID of the appointment
+     * @return The appointment, or null if it is not indexed
+     */
+    public synchronized Appointment get(String appointmentID) {
+        return appointmentsByID.get(appointmentID);
+    }
+
+    /**
+     * Retrieves a doctor's appointments with the given status, ordered by date and time slot.
+     *
+     * @param doctorID The unique ID of the doctor
+     * @param status   The status to filter by, or null for every status
+     * @return The matching appointments in chronological order
+     */
+    public synchronized List<Appointment> getAppointments(String doctorID, String status) {
+        TreeMap<ScheduleKey, Appointment> schedule = schedules.get(doctorID);
+        if (schedule == null) {
+            return new ArrayList<>();
+        }
+        return filter(schedule.values(), status);
+    }
+
+    /**
+     * Retrieves a doctor's appointments between two dates (inclusive) with the given status,
+     * ordered by date and time slot. Only the doctor's entries inside the range are visited.
+     *
+     * @param doctorID The unique ID of the doctor
+     * @param fromDate The first date of the range in DD-MM-YY format
+     * @param toDate   The last date of the range in DD-MM-YY format
+     * @param status   The status to filter by, or null for every status
+     * @return The matching appointments in chronological order
+     */
+    public synchronized List<Appointment> getAppointmentsBetween(String doctorID, String fromDate, String toDate, String status) {
+        TreeMap<ScheduleKey, Appointment> schedule = schedules.get(doctorID);
+        long fromDay = toEpochDay(fromDate);
+        long toDay = toEpochDay(toDate);
+        if (schedule == null || fromDay == Long.MIN_VALUE || toDay == Long.MIN_VALUE || fromDay > toDay) {
+            return new ArrayList<>();
+        }
+        return filter(schedule.subMap(ScheduleKey.startOf(fromDay), true, ScheduleKey.startOf(toDay + 1), false).values(), status);
+    }
+
+    /**
+     * Retrieves a doctor's appointments on a single date with the given status.
+     *
+     * @param doctorID The unique ID of the doctor
+     * @param date     The date in DD-MM-YY format
+     * @param status   The status to filter by, or null for every status
+     * @return The matching appointments ordered by time slot
+     */
+    public synchronized List<Appointment> getAppointmentsOnDate(String doctorID, String date, String status) {
+        return getAppointmentsBetween(doctorID, date, date, status);
+    }
+
+    /**
+     * Retrieves one page of a doctor's appointments with the given status, ordered by date and
+     * time slot. The cursor holds the schedule position of the last appointment returned, so
+     * appointments booked or removed between pages do not shift the rest of the listing.
+     *
+     * @param doctorID The unique ID of the doctor
+     * @param fromDate The first date of the range in DD-MM-YY format, or null for no lower bound
+     * @param toDate   The last date of the range in DD-MM-YY format, or null for no upper bound
+     * @param status   The status to filter by, or null for every status
+     * @param cursor   The cursor returned with the previous page, or null for the first page
+     * @param pageSize The maximum number of appointments on the page
+     * @return The page of matching appointments
+     * @throws IllegalArgumentException if the cursor was not produced by this index
+     */
+    public synchronized Page<Appointment> getAppointmentsPage(String doctorID, String fromDate, String toDate, String status, String cursor, int pageSize) {
+        TreeMap<ScheduleKey, Appointment> schedule = schedules.get(doctorID);
+        if (schedule == null) {
+            return Page.empty();
+        }
+
+        NavigableMap<ScheduleKey, Appointment> range = schedule;
+        if (fromDate != null) {
+            long fromDay = toEpochDay(fromDate);
+            if (fromDay == Long.MIN_VALUE) {
+                return Page.empty();
+            }
+            range = range.tailMap(ScheduleKey.startOf(fromDay), true);
+        }
+        if (toDate != null) {
+            long toDay = toEpochDay(toDate);
+            if (toDay == Long.MIN_VALUE) {
+                return Page.empty();
+            }
+            range = range.headMap(ScheduleKey.startOf(toDay + 1), false);
+        }
+        if (cursor != null) {
+            range = range.tailMap(ScheduleKey.fromCursor(cursor), false);
+        }
+
+        List<Appointment> items = new ArrayList<>();
+        for (Map.Entry<ScheduleKey, Appointment> entry : range.entrySet()) {
+            Appointment appointment = entry.getValue();
+            if (status != null && !appointment.getStatus().equals(status)) {
+                continue;
+            }
+            if (items.size() == pageSize) {
+                return new Page<>(items, ScheduleKey.of(items.get(items.size() - 1)).toCursor());
+            }
+            items.add(appointment);
+        }
+        return new Page<>(items, null);
+    }
+
+    /**
+     * Copies the appointments that match a status into a new list.
+     *
+     * @param appointments The appointments to filter
+     * @param status       The status to keep, or null to keep all
+     * @return The filtered appointments
+     */
+    private static List<Appointment> filter(Collection<Appointment> appointments, String status) {
+        List<Appointment> result = new ArrayList<>();
+        for (Appointment appointment : appointments) {
+            if (status == null || appointment.getStatus().equals(status)) {
+                result.add(appointment);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Converts a DD-MM-YY date into an epoch day so that dates sort chronologically.
+     *
+     * @param date The date string
+     * @return The epoch day, or Long.MIN_VALUE if the date cannot be parsed
+     */
+    static long toEpochDay(String date) {
+        try {
+            return LocalDate.parse(date, DATE_FORMAT).toEpochDay();
+        } catch (DateTimeParseException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Converts the start of an HH:MM-HH:MM time slot into minutes since midnight.
+     *
+     * @param timeSlot The time slot string
+     * @return The start minute, or -1 if the slot cannot be parsed
+     */
+    static int toStartMinute(String timeSlot) {
+        try {
+            String[] parts = timeSlot.split("-")[0].split(":");
+            return Integer.parseInt(parts[0].trim()) * 60 + Integer.parseInt(parts[1].trim());
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * The sort key of an appointment within a doctor's schedule: epoch day, then slot start,
+     * then appointment ID to keep entries for the same slot distinct.
+     */
+    private static final class ScheduleKey implements Comparable<ScheduleKey> {
+        private static final String CURSOR_PREFIX = "schedule";
+
+        private final long epochDay;
+        private final int startMinute;
+        private final String appointmentID;
+
+        private ScheduleKey(long epochDay, int startMinute, String appointmentID) {
+            this.epochDay = epochDay;
+            this.startMinute = startMinute;
+            this.appointmentID = appointmentID;
+        }
+
+        static ScheduleKey of(Appointment appointment) {
+            long epochDay = toEpochDay(appointment.getDate());
+            int startMinute = toStartMinute(appointment.getTimeSlot());
+            if (epochDay == Long.MIN_VALUE || startMinute < 0) {
+                return null;
+            }
+            return new ScheduleKey(epochDay, startMinute, appointment.getAppointmentID());
+        }
+
+        static ScheduleKey startOf(long epochDay) {
+            return new ScheduleKey(epochDay, -1, "");
+        }
+
+        static ScheduleKey fromCursor(String cursor) {
+            String[] parts = Page.decodeCursor(cursor).split(":", 4);
+            if (parts.length != 4 || !parts[0].equals(CURSOR_PREFIX)) {
+                throw new IllegalArgumentException("Not a schedule cursor: " + cursor);
+            }
+            try {
+                return new ScheduleKey(Long.parseLong(parts[1]), Integer.parseInt(parts[2]), parts[3]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Malformed cursor: " + cursor, e);
+            }
+        }
+
+        String toCursor() {
+            return Page.encodeCursor(CURSOR_PREFIX + ":" + epochDay + ":" + startMinute + ":" + appointmentID);
+        }
+
+        @Override
+        public int compareTo(ScheduleKey other) {
+            int result = Long.compare(epochDay, other.epochDay);
+            if (result == 0) {
+                result = Integer.compare(startMinute, other.startMinute);
+            }
+            if (result == 0) {
+                result = appointmentID.compareTo(other.appointmentID);
+            }
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ScheduleKey && compareTo((ScheduleKey) o) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(epochDay, startMinute, appointmentID);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package appointment;
+
+import enums.PrescriptionStatus;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import storage.Storage;
+
+/**
+ * The PrescriptionQueue class keeps the prescriptions waiting to be dispensed, oldest first. It is
+ * loaded from the pending records of the AppointmentRecord table and then kept up to date:
+ * a doctor recording an appointment outcome adds its prescription at the back, and dispensing
+ * removes it, so pharmacists find what to dispense, and check an appointment ID, without reading
+ * the records again. Records that prescribe no medicine ({@code NA}) have nothing to dispense
+ * and are not queued.
+ *
+ * <p>Doctors and pharmacists in other processes write the same table, so {@link #getInstance()}
+ * compares the table's version with the one the queue was loaded from and loads the queue again
+ * if the table has been written since.</p>
+ *
+ * <p>A pharmacist claims a prescription before dispensing it, so that two pharmacists never
+ * dispense the same one. A claimed prescription that could not be dispensed, for lack of stock
+ * for example, is released back to its place in the queue.</p>
+ */
+public final class PrescriptionQueue {
+    private static final String NO_MEDICINE = "NA";
+
+    private static final Map<String, PrescriptionQueue> INSTANCES = new ConcurrentHashMap<>();
+
+    private final NavigableMap<Long, String[]> waiting = new TreeMap<>();
+    private final Map<String, Long> positions = new HashMap<>();
+    private final Map<String, String[]> claimed = new HashMap<>();
+    private long nextPosition;
+    private Object loadedVersion;
+
+    /**
+     * Constructs an empty queue. Use {@link #getInstance()} to obtain the shared queue.
+     */
+    private PrescriptionQueue() {
+    }
+
+    /**
+     * Returns the current shard's prescription queue, loading it from the AppointmentRecord table
+     * on first use and again whenever the table has been written since. Each shard has a queue
+     * of its own.
+     *
+     * @return The current shard's PrescriptionQueue
+     */
+    public static PrescriptionQueue getInstance() {
+        PrescriptionQueue queue = INSTANCES.computeIfAbsent(Storage.currentShard().getName(), shard -> new PrescriptionQueue());
+        queue.load();
+        return queue;
+    }
+
+    /**
+     * Replaces the current shard's queue with one loaded afresh from the AppointmentRecord table,
+     * for example after a replica received the whole table from its primary.
+     */
+    public static void reload() {
+        PrescriptionQueue queue = new PrescriptionQueue();
+        queue.load();
+        INSTANCES.put(Storage.currentShard().getName(), queue);
+    }
+
+    /**
+     * Queues every pending prescription of the live AppointmentRecord table in file order,
+     * unless the queue was already loaded from the table's current version. Prescriptions
+     * claimed by this process keep their claim and get their new place for a release.
+     * Archived records have all been dispensed.
+     */
+    private synchronized void load() {
+        try {
+            Object version = Storage.currentVersion(Storage.APPOINTMENT_RECORD);
+            if (version.equals(loadedVersion)) {
+                return;
+            }
+            waiting.clear();
+            positions.clear();
+            Storage.table(Storage.APPOINTMENT_RECORD).scan(fields -> {
+                if (isWaiting(fields) && !positions.containsKey(fields[0])) {
+                    long position = nextPosition++;
+                    positions.put(fields[0], position);
+                    if (!claimed.containsKey(fields[0])) {
+                        waiting.put(position, fields);
+                    }
+                }
+                return true;
+            });
+            loadedVersion = version;
+        } catch (IOException e) {
+            System.err.println("Error reading AppointmentRecord.csv: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Adds a record's prescription at the back of the queue if it is waiting to be dispensed and
+     * is not queued already.
+     *
+     * @param record The AppointmentRecord row
+     * @return true if the prescription was queued
+     */
+    public synchronized boolean offer(String[] record) {
+        if (!isWaiting(record) || positions.containsKey(record[0]) || claimed.containsKey(record[0])) {
+            return false;
+        }
+        long position = nextPosition++;
+        waiting.put(position, record);
+        positions.put(record[0], position);
+        return true;
+    }
+
+    /**
+     * Brings the queue in line with a record written elsewhere, such as one received by a
+     * replica: a waiting prescription is queued, any other is removed.
+     *
+     * @param record The AppointmentRecord row
+     */
+    public synchronized void update(String[] record) {
+        if (record.length == 0) {
+            return;
+        }
+        if (isWaiting(record)) {
+            offer(record);
+        } else {
+            Long position = positions.remove(record[0]);
+            if (position != null) {
+                waiting.remove(position);
+            }
+            claimed.remove(record[0]);
+        }
+    }
+
+    /**
+     * Gets the prescription at the front of the queue.
+     *
+     * @return The oldest waiting record, or null if none is waiting
+     */
+    public synchronized String[] peek() {
+        Map.Entry<Long, String[]> first = waiting.firstEntry();
+        return first != null ? first.getValue() : null;
+    }
+
+    /**
+     * Gets the prescriptions at the front of the queue.
+     *
+     * @param limit The most records to return
+     * @return The oldest waiting records, oldest first
+     */
+    public synchronized List<String[]> peek(int limit) {
+        List<String[]> records = new ArrayList<>(Math.min(limit, waiting.size()));
+        for (String[] record : waiting.values()) {
+            if (records.size() >= limit) {
+                break;
+            }
+            records.add(record);
+        }
+        return records;
+    }
+
+    /**
+     * Gets the waiting prescription of an appointment.
+     *
+     * @param appointmentID The appointment ID
+     * @return The record, or null if the appointment has no prescription waiting
+     */
+    public synchronized String[] get(String appointmentID) {
+        Long position = positions.get(appointmentID);
+        return position != null ? waiting.get(position) : null;
+    }
+
+    /**
+     * Gets the number of prescriptions waiting.
+     *
+     * @return The queue length
+     */
+    public synchronized int size() {
+        return waiting.size();
+    }
+
+    /**
+     * Takes an appointment's prescription out of the queue to dispense it.
+     *
+     * @param appointmentID The appointment ID
+     * @return The record, or null if no prescription is waiting or another pharmacist claimed it
+     */
+    public synchronized String[] claim(String appointmentID) {
+        Long position = positions.get(appointmentID);
+        if (position == null) {
+            return null;
+        }
+        String[] record = waiting.remove(position);
+        claimed.put(appointmentID, record);
+        return record;
+    }
+
+    /**
+     * Puts a claimed prescription that was not dispensed back in its place in the queue.
+     *
+     * @param appointmentID The appointment ID
+     */
+    public synchronized void release(String appointmentID) {
+        String[] record = claimed.remove(appointmentID);
+        Long position = positions.get(appointmentID);
+        if (record != null && position != null) {
+            waiting.put(position, record);
+        }
+    }
+
+    /**
+     * Forgets a claimed prescription once it has been dispensed.
+     *
+     * @param appointmentID The appointment ID
+     */
+    public synchronized void complete(String appointmentID) {
+        claimed.remove(appointmentID);
+        positions.remove(appointmentID);
+    }
+
+    private static boolean isWaiting(String[] record) {
+        return record.length >= 5 && record[4].trim().equalsIgnoreCase(PrescriptionStatus.PENDING.name())
+                && !record[2].trim().equalsIgnoreCase(NO_MEDICINE);
+    }
+}
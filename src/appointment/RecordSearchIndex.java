@@ -0,0 +1,270 @@
+package appointment;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import storage.Storage;
+
+/**
+ * The RecordSearchIndex class is an in-memory inverted index over the free-text columns of
+ * AppointmentRecord.csv: diagnosis, treatment plan and consultation notes. Each record is given
+ * an increasing document number, and each term maps to a posting list of document numbers stored
+ * as delta-encoded variable-length integers. The index is built from the file once and then
+ * updated whenever an outcome is recorded or a medical record is changed.
+ *
+ * <p>Queries are a list of terms that must all match; alternatives are separated by {@code OR},
+ * for example {@code "penicillin rash OR hives"}.</p>
+ */
+public final class RecordSearchIndex {
+    private static final String OR_OPERATOR = "OR";
+
+    private static final Map<String, RecordSearchIndex> INSTANCES = new ConcurrentHashMap<>();
+
+    private final Map<String, PostingList> postings = new HashMap<>();
+    private final List<String[]> documents = new ArrayList<>();
+    private final Map<String, Integer> documentByAppointment = new HashMap<>();
+
+    /**
+     * Constructs an empty index. Use {@link #getInstance()} to obtain the shared index.
+     */
+    private RecordSearchIndex() {
+    }
+
+    /**
+     * Returns the current shard's search index, building it from AppointmentRecord.csv on first
+     * use. Each shard has an index of its own.
+     *
+     * @return The current shard's RecordSearchIndex
+     */
+    public static RecordSearchIndex getInstance() {
+        return INSTANCES.computeIfAbsent(Storage.currentShard().getName(), shard -> {
+            RecordSearchIndex index = new RecordSearchIndex();
+            index.load();
+            return index;
+        });
+    }
+
+    /**
+     * Replaces the current shard's index with one built afresh from the AppointmentRecord history.
+     * Searches keep using the old index until the new one is complete.
+     */
+    public static void reload() {
+        RecordSearchIndex index = new RecordSearchIndex();
+        index.load();
+        INSTANCES.put(Storage.currentShard().getName(), index);
+    }
+
+    /**
+     * Indexes every well-formed record in the history of the AppointmentRecord table, archived
+     * records included.
+     */
+    private void load() {
+        try {
+            Storage.history(Storage.APPOINTMENT_RECORD).scan(fields -> {
+                if (fields.length >= 9) {
+                    index(fields);
+                }
+                return true;
+            });
+        } catch (IOException e) {
+            System.err.println("Error reading AppointmentRecord.csv: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Adds or replaces the indexed outcome record of an appointment. A replaced record keeps its
+     * old postings, which are skipped at query time because the document is no longer current.
+     *
+     * @param fields The fields of the record, in AppointmentRecord.csv column order
+     */
+    public synchronized void index(String[] fields) {
+        String appointmentID = fields[0];
+        Integer previous = documentByAppointment.get(appointmentID);
+        if (previous != null) {
+            documents.set(previous, null);
+        }
+
+        int document = documents.size();
+        documents.add(fields.clone());
+        documentByAppointment.put(appointmentID, document);
+
+        Set<String> terms = new HashSet<>();
+        terms.addAll(tokenize(fields[1])); // Diagnosis
+        terms.addAll(tokenize(fields[5])); // Treatment plan
+        terms.addAll(tokenize(fields[8])); // Consultation notes
+        for (String term : terms) {
+            postings.computeIfAbsent(term, t -> new PostingList()).add(document);
+        }
+    }
+
+    /**
+     * Searches the indexed records.
+     *
+     * @param query Terms that must all appear, with alternatives separated by OR
+     * @return The matching records, oldest first, each in AppointmentRecord.csv column order
+     */
+    public synchronized List<String[]> search(String query) {
+        int[] union = new int[0];
+        for (String alternative : query.split("\\s+" + OR_OPERATOR + "\\s+")) {
+            List<String> terms = new ArrayList<>(new LinkedHashSet<>(tokenize(alternative)));
+            if (terms.isEmpty()) {
+                continue;
+            }
+            union = unite(union, matchAll(terms));
+        }
+
+        List<String[]> results = new ArrayList<>();
+        for (int document : union) {
+            String[] fields = documents.get(document);
+            if (fields != null) {
+                results.add(fields.clone());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Finds the documents that contain every one of the given terms, intersecting the
+     * shortest posting lists first.
+     *
+     * @param terms The terms to match
+     * @return The sorted document numbers that contain all terms
+     */
+    private int[] matchAll(List<String> terms) {
+        List<PostingList> lists = new ArrayList<>();
+        for (String term : terms) {
+            PostingList list = postings.get(term);
+            if (list == null) {
+                return new int[0];
+            }
+            lists.add(list);
+        }
+        lists.sort(Comparator.comparingInt(PostingList::size));
+
+        int[] result = lists.get(0).toArray();
+        for (int i = 1; i < lists.size() && result.length > 0; i++) {
+            result = intersect(result, lists.get(i).toArray());
+        }
+        return result;
+    }
+
+    /**
+     * Intersects two sorted arrays of document numbers.
+     *
+     * @param first  The first sorted array
+     * @param second The second sorted array
+     * @return The sorted document numbers present in both
+     */
+    private static int[] intersect(int[] first, int[] second) {
+        int[] result = new int[Math.min(first.length, second.length)];
+        int i = 0, j = 0, count = 0;
+        while (i < first.length && j < second.length) {
+            if (first[i] < second[j]) {
+                i++;
+            } else if (first[i] > second[j]) {
+                j++;
+            } else {
+                result[count++] = first[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Merges two sorted arrays of document numbers without duplicates.
+     *
+     * @param first  The first sorted array
+     * @param second The second sorted array
+     * @return The sorted document numbers present in either
+     */
+    private static int[] unite(int[] first, int[] second) {
+        int[] result = new int[first.length + second.length];
+        int i = 0, j = 0, count = 0;
+        while (i < first.length || j < second.length) {
+            if (j == second.length || (i < first.length && first[i] < second[j])) {
+                result[count++] = first[i++];
+            } else if (i == first.length || second[j] < first[i]) {
+                result[count++] = second[j++];
+            } else {
+                result[count++] = first[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Splits text into lower-case alphanumeric terms.
+     *
+     * @param text The text to split
+     * @return The terms in the text, in order of appearance
+     */
+    static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        StringBuilder term = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                term.append(Character.toLowerCase(c));
+            } else if (term.length() > 0) {
+                terms.add(term.toString());
+                term.setLength(0);
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * A posting list of increasing document numbers, stored as the gaps between consecutive
+     * numbers in variable-length 7-bit groups.
+     */
+    private static final class PostingList {
+        private byte[] bytes = new byte[8];
+        private int length;
+        private int size;
+        private int last = -1;
+
+        void add(int document) {
+            if (document <= last) {
+                return;
+            }
+            int gap = document - last;
+            last = document;
+            size++;
+            if (length + 5 > bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            while ((gap & ~0x7F) != 0) {
+                bytes[length++] = (byte) ((gap & 0x7F) | 0x80);
+                gap >>>= 7;
+            }
+            bytes[length++] = (byte) gap;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int[] toArray() {
+            int[] documents = new int[size];
+            int position = 0;
+            int document = -1;
+            for (int i = 0; i < size; i++) {
+                int gap = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = bytes[position++];
+                    gap |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0);
+                document += gap;
+                documents[i] = document;
+            }
+            return documents;
+        }
+    }
+}
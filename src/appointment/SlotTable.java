@@ -0,0 +1,200 @@
+package appointment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The SlotTable class describes how a day is divided into appointment slots of one length.
+ * Every slot label ("09:00-09:20") is built once when the table is created and indexed by the
+ * minute of the day it starts at, so turning a typed start time into a slot, or checking that
+ * a slot label is valid, is an array lookup. Tables are immutable and shared; one exists for
+ * each supported slot length.
+ */
+public final class SlotTable {
+    public static final int DEFAULT_LENGTH = 30;
+    public static final int MINUTES_PER_DAY = 24 * 60;
+
+    private static final int[] SUPPORTED_LENGTHS = {10, 15, 20, 30, 60};
+    private static final SlotTable[] TABLES = new SlotTable[SUPPORTED_LENGTHS.length];
+
+    static {
+        for (int i = 0; i < SUPPORTED_LENGTHS.length; i++) {
+            TABLES[i] = new SlotTable(SUPPORTED_LENGTHS[i]);
+        }
+    }
+
+    private final int length;
+    private final String[] slots;
+    private final String[] slotsByMinute = new String[MINUTES_PER_DAY];
+
+    private SlotTable(int length) {
+        this.length = length;
+        this.slots = new String[MINUTES_PER_DAY / length];
+        for (int index = 0; index < slots.length; index++) {
+            int start = index * length;
+            int end = (start + length) % MINUTES_PER_DAY;
+            slots[index] = String.format("%02d:%02d-%02d:%02d", start / 60, start % 60, end / 60, end % 60);
+            slotsByMinute[start] = slots[index];
+        }
+    }
+
+    /**
+     * Returns the slot table for a slot length.
+     *
+     * @param length The slot length in minutes
+     * @return The shared table
+     * @throws IllegalArgumentException if the length is not supported
+     */
+    public static SlotTable forLength(int length) {
+        for (int i = 0; i < SUPPORTED_LENGTHS.length; i++) {
+            if (SUPPORTED_LENGTHS[i] == length) {
+                return TABLES[i];
+            }
+        }
+        throw new IllegalArgumentException("Unsupported slot length: " + length + " minutes");
+    }
+
+    /**
+     * Returns the slot table a slot label belongs to, judged by its length.
+     *
+     * @param timeSlot The slot label in HH:MM-HH:MM format
+     * @return The table holding the slot, or null if the label is not a slot of any supported length
+     */
+    public static SlotTable forSlot(String timeSlot) {
+        for (SlotTable table : TABLES) {
+            if (table.indexOf(timeSlot) >= 0) {
+                return table;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks whether a slot length is supported.
+     *
+     * @param length The slot length in minutes
+     * @return true if a table exists for the length; false otherwise
+     */
+    public static boolean isSupportedLength(int length) {
+        for (int supported : SUPPORTED_LENGTHS) {
+            if (supported == length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the supported slot lengths.
+     *
+     * @return The lengths in minutes, shortest first
+     */
+    public static int[] getSupportedLengths() {
+        return SUPPORTED_LENGTHS.clone();
+    }
+
+    /**
+     * Gets the length of the slots in this table.
+     *
+     * @return The slot length in minutes
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Gets the number of slots in a day.
+     *
+     * @return The slot count
+     */
+    public int size() {
+        return slots.length;
+    }
+
+    /**
+     * Gets a slot by its position in the day.
+     *
+     * @param index The slot index, 0 for the slot starting at midnight
+     * @return The slot label in HH:MM-HH:MM format
+     */
+    public String get(int index) {
+        return slots[index];
+    }
+
+    /**
+     * Gets the slot that starts at a typed time.
+     *
+     * @param time The start time in H:MM or HH:MM format
+     * @return The slot label in HH:MM-HH:MM format, or an empty string if the time is invalid
+     *         or is not the start of a slot
+     */
+    public String slotStartingAt(String time) {
+        int minute = parseTime(time, 0, time.length());
+        if (minute < 0 || slotsByMinute[minute] == null) {
+            return "";
+        }
+        return slotsByMinute[minute];
+    }
+
+    /**
+     * Gets the position of a slot in the day.
+     *
+     * @param timeSlot The slot label in HH:MM-HH:MM format
+     * @return The slot index, or -1 if the label is not a slot of this table
+     */
+    public int indexOf(String timeSlot) {
+        int separator = timeSlot.indexOf('-');
+        if (separator < 0) {
+            return -1;
+        }
+        int minute = parseTime(timeSlot, 0, separator);
+        if (minute < 0 || slotsByMinute[minute] == null || !slotsByMinute[minute].equals(timeSlot)) {
+            return -1;
+        }
+        return minute / length;
+    }
+
+    /**
+     * Gets the slots that lie between two times of the day, for example a working day.
+     *
+     * @param fromMinute The first minute, inclusive
+     * @param toMinute   The last minute, exclusive; a slot must end by then
+     * @return The slot labels in order
+     */
+    public List<String> slotsBetween(int fromMinute, int toMinute) {
+        int from = Math.max(0, (fromMinute + length - 1) / length);
+        int to = Math.min(slots.length, toMinute / length);
+        if (from >= to) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(new ArrayList<>(Arrays.asList(slots).subList(from, to)));
+    }
+
+    /**
+     * Parses an H:MM or HH:MM time within a string into minutes since midnight.
+     *
+     * @return The minute of the day, or -1 if the text is not a valid time
+     */
+    private static int parseTime(String text, int start, int end) {
+        int colon = end - 3;
+        if (colon <= start || colon > start + 2 || text.charAt(colon) != ':') {
+            return -1;
+        }
+        int hour = 0;
+        for (int i = start; i < colon; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            hour = hour * 10 + (c - '0');
+        }
+        char tens = text.charAt(colon + 1);
+        char units = text.charAt(colon + 2);
+        if (tens < '0' || tens > '5' || units < '0' || units > '9' || hour > 23) {
+            return -1;
+        }
+        return hour * 60 + (tens - '0') * 10 + (units - '0');
+    }
+}
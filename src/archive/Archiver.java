@@ -0,0 +1,210 @@
+package archive;
+
+import enums.AppointmentStatus;
+import enums.BillStatus;
+import enums.PrescriptionStatus;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import storage.Archive;
+import storage.Shard;
+import storage.Snapshot;
+import storage.Storage;
+
+/**
+ * The Archiver class moves closed appointments out of the live Appointment, AppointmentRecord
+ * and Bill tables into the {@link Archive}, so that the live tables only hold what day-to-day
+ * operations still act on. History readers see archived rows through {@link Storage#history}.
+ *
+ * <p>An appointment is archived once its date is older than the configured age and nothing
+ * about it can change any more: it is completed, cancelled or declined, its prescription has
+ * been dispensed and its bill has been paid. Its outcome record and bill are archived with it.
+ * Appointments whose ID is held by more than one appointment row are left alone.</p>
+ *
+ * <p>A run writes the selected rows to new segments first and then removes from the live tables,
+ * in one transaction, every row that is now archived unchanged. If a run is interrupted between
+ * the two steps, the next run finishes removing the rows. Run it from the command line:</p>
+ *
+ * <pre>
+ * java -Dhms.archive.age.days=180 archive.Archiver
+ * java archive.Archiver --older-than-days=180
+ * </pre>
+ */
+public class Archiver {
+    public static final String AGE_PROPERTY = "hms.archive.age.days";
+    public static final int DEFAULT_AGE_DAYS = 365;
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd-MM-yy");
+    private static final List<String> TABLES = List.of(Storage.APPOINTMENT, Storage.APPOINTMENT_RECORD, Storage.BILL, Storage.BILL_PAYMENT);
+
+    private final int ageDays;
+
+    /**
+     * Constructs an Archiver with the age set by the {@code hms.archive.age.days} property.
+     */
+    public Archiver() {
+        this(Integer.getInteger(AGE_PROPERTY, DEFAULT_AGE_DAYS));
+    }
+
+    /**
+     * Constructs an Archiver.
+     *
+     * @param ageDays The number of days after its date that a closed appointment is archived
+     * @throws IllegalArgumentException if the age is negative
+     */
+    public Archiver(int ageDays) {
+        if (ageDays < 0) {
+            throw new IllegalArgumentException("The archive age cannot be negative: " + ageDays);
+        }
+        this.ageDays = ageDays;
+    }
+
+    /**
+     * Archives every closed appointment older than the configured age, with its record and bill.
+     *
+     * @return The number of rows removed from each live table, keyed by table name
+     * @throws IOException if the tables cannot be read or the archive cannot be written
+     */
+    public Map<String, Integer> run() throws IOException {
+        LocalDate cutoff = LocalDate.now().minusDays(ageDays);
+        Archive archive = Storage.getArchive();
+
+        Map<String, List<String[]>> selected = new LinkedHashMap<>();
+        Map<String, String> headers = new HashMap<>();
+        try (Snapshot snapshot = Storage.snapshot()) {
+            Map<String, List<String[]>> rows = new HashMap<>();
+            for (String table : TABLES) {
+                rows.put(table, snapshot.table(table).readAll());
+                headers.put(table, snapshot.table(table).getHeader());
+            }
+            Set<String> closedIDs = closedAppointments(rows, cutoff);
+            for (String table : TABLES) {
+                List<String[]> tableRows = new ArrayList<>();
+                for (String[] row : rows.get(table)) {
+                    if (closedIDs.contains(row[0]) && archive.find(table, row[0]) == null) {
+                        tableRows.add(row);
+                    }
+                }
+                selected.put(table, tableRows);
+            }
+        }
+
+        for (String table : TABLES) {
+            archive.write(table, headers.get(table), selected.get(table));
+        }
+        return removeArchivedRows(archive);
+    }
+
+    /**
+     * Runs the archiver from the command line on the configured data directory and prints how
+     * many rows were archived, one shard after another. The age can be given as
+     * {@code --older-than-days=N}.
+     *
+     * @param args The options
+     * @throws IOException if archiving fails
+     */
+    public static void main(String[] args) throws IOException {
+        Integer ageDays = null;
+        for (String arg : args) {
+            String[] option = arg.replaceFirst("^--", "").split("=", 2);
+            if (option[0].equals("older-than-days") && option.length > 1) {
+                ageDays = Integer.parseInt(option[1]);
+            } else {
+                System.err.println("Unknown option: " + arg);
+                return;
+            }
+        }
+
+        Archiver archiver = ageDays == null ? new Archiver() : new Archiver(ageDays);
+        for (Shard shard : Storage.getShards()) {
+            Shard.Scope scope = shard.bind();
+            try (scope) {
+                Map<String, Integer> archived = archiver.run();
+                System.out.println("Archived closed appointments dated before " + LocalDate.now().minusDays(archiver.ageDays).format(DATE_FORMAT)
+                        + " to " + Storage.getArchive().getDirectory());
+                for (Map.Entry<String, Integer> entry : archived.entrySet()) {
+                    System.out.printf("%-20s %d rows%n", entry.getKey(), entry.getValue());
+                }
+                Storage.getEngine().close();
+            }
+        }
+    }
+
+    /**
+     * Finds the appointments that can be archived: closed, older than the cutoff, with every
+     * record dispensed and every bill paid, and with an ID no other appointment row uses.
+     */
+    private static Set<String> closedAppointments(Map<String, List<String[]>> rows, LocalDate cutoff) {
+        Map<String, Integer> idCounts = new HashMap<>();
+        for (String[] fields : rows.get(Storage.APPOINTMENT)) {
+            idCounts.merge(fields[0], 1, Integer::sum);
+        }
+        Set<String> openIDs = new HashSet<>();
+        for (String[] fields : rows.get(Storage.APPOINTMENT_RECORD)) {
+            if (fields.length < 5 || !fields[4].trim().equalsIgnoreCase(PrescriptionStatus.DISPENSED.name())) {
+                openIDs.add(fields[0]);
+            }
+        }
+        Map<String, Integer> payments = new HashMap<>();
+        for (String[] fields : rows.get(Storage.BILL_PAYMENT)) {
+            payments.merge(fields[0], 1, Integer::sum);
+        }
+        for (String[] fields : rows.get(Storage.BILL)) {
+            if (fields.length >= 3 && fields[2].trim().equalsIgnoreCase(BillStatus.PAID.name())) {
+                continue;
+            }
+            // A pending bill is paid if a payment for its appointment is recorded
+            if (fields.length < 3 || payments.merge(fields[0], -1, Integer::sum) < 0) {
+                openIDs.add(fields[0]);
+            }
+        }
+
+        Set<String> closedIDs = new HashSet<>();
+        for (String[] fields : rows.get(Storage.APPOINTMENT)) {
+            if (fields.length < 6 || idCounts.get(fields[0]) > 1 || openIDs.contains(fields[0]) || !isClosed(fields[5])) {
+                continue;
+            }
+            try {
+                if (LocalDate.parse(fields[3], DATE_FORMAT).isBefore(cutoff)) {
+                    closedIDs.add(fields[0]);
+                }
+            } catch (DateTimeParseException e) {
+                // Leave appointments with an unreadable date in the live table
+            }
+        }
+        return closedIDs;
+    }
+
+    private static boolean isClosed(String status) {
+        return status.equalsIgnoreCase(AppointmentStatus.COMPLETED.name()) || status.equalsIgnoreCase(AppointmentStatus.CANCELLED.name())
+                || status.equalsIgnoreCase(AppointmentStatus.DECLINED.name());
+    }
+
+    /**
+     * Removes from the live tables every row that the archive holds unchanged, in one transaction.
+     * The transaction is run again if a session changes one of the tables in between, so no row
+     * written meanwhile is lost.
+     */
+    private static Map<String, Integer> removeArchivedRows(Archive archive) throws IOException {
+        return Storage.inTransaction(transaction -> {
+            Map<String, Integer> removed = new LinkedHashMap<>();
+            for (String table : TABLES) {
+                List<String[]> rows = transaction.read(table);
+                List<String[]> kept = new ArrayList<>();
+                for (String[] row : rows) {
+                    if (!Arrays.equals(row, archive.find(table, row[0]))) {
+                        kept.add(row);
+                    }
+                }
+                int count = rows.size() - kept.size();
+                removed.put(table, count);
+                if (count > 0) {
+                    transaction.rewrite(table, kept);
+                }
+            }
+            return removed;
+        });
+    }
+}
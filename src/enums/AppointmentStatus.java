@@ -20,8 +20,24 @@ public enum AppointmentStatus {
      */
     CANCELLED,
 
+    /**
+     * Indicates that the appointment request has been declined by the doctor.
+     */
+    DECLINED,
+
     /**
      * Indicates that the appointment is pending and yet to be confirmed.
      */
-    PENDING
+    PENDING;
+
+    /**
+     * Checks whether an appointment in a status is still to take place. An active appointment
+     * holds its slot, which is released when the appointment is cancelled or declined.
+     *
+     * @param status The status, in any case
+     * @return true if the status is PENDING or CONFIRMED; false otherwise
+     */
+    public static boolean isActive(String status) {
+        return PENDING.name().equalsIgnoreCase(status) || CONFIRMED.name().equalsIgnoreCase(status);
+    }
 }
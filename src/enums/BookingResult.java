@@ -0,0 +1,23 @@
+package enums;
+
+/**
+ * The BookingResult enum represents the outcome of an attempt to book a doctor's
+ * availability slot in the hospital management system.
+ */
+public enum BookingResult {
+    /**
+     * Indicates that the slot was booked successfully.
+     */
+    BOOKED,
+
+    /**
+     * Indicates that the slot changed after it was read, for example because another
+     * session booked it first, so the booking was not applied.
+     */
+    CONFLICT,
+
+    /**
+     * Indicates that the slot does not exist or is not available.
+     */
+    UNAVAILABLE
+}
@@ -1,27 +0,0 @@
-package enums;
-
-/**
- * The MedicineList enum represents a predefined list of medicines available
- * in the hospital management system.
- */
-public enum MedicineList {
-    /**
-     * Represents the medicine Paracetamol.
-     */
-    PARACETAMOL,
-
-    /**
-     * Represents the medicine Ibuprofen.
-     */
-    IBUPROFEN,
-
-    /**
-     * Represents the medicine Amoxicillin.
-     */
-    AMOXICILLIN,
-
-    /**
-     * Represents an unspecified or unavailable medicine.
-     */
-    NA
-}
@@ -0,0 +1,113 @@
+package paging;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * The Page class holds one page of a listing together with an opaque cursor that resumes the
+ * listing after the last item of the page. Callers pass the cursor back unchanged to fetch the
+ * next page; a null cursor requests the first page and a null next cursor marks the last page.
+ *
+ * @param <T> The type of the items on the page
+ */
+public final class Page<T> {
+    private static final Base64.Encoder CURSOR_ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder CURSOR_DECODER = Base64.getUrlDecoder();
+
+    private final List<T> items;
+    private final String nextCursor;
+
+    /**
+     * Constructs a new Page.
+     *
+     * @param items      The items on the page, in listing order
+     * @param nextCursor The cursor of the following page, or null if this is the last page
+     */
+    public Page(List<T> items, String nextCursor) {
+        this.items = Collections.unmodifiableList(items);
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Creates an empty last page.
+     *
+     * @param <T> The type of the items on the page
+     * @return A page with no items and no next cursor
+     */
+    public static <T> Page<T> empty() {
+        return new Page<>(new ArrayList<>(), null);
+    }
+
+    /**
+     * Gets the items on the page.
+     *
+     * @return An unmodifiable list of the items, in listing order
+     */
+    public List<T> getItems() {
+        return items;
+    }
+
+    /**
+     * Gets the cursor that resumes the listing after this page.
+     *
+     * @return The next cursor, or null if this is the last page
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * Checks whether there is a page after this one.
+     *
+     * @return true if more items follow; false otherwise
+     */
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+
+    /**
+     * Checks whether the page has no items.
+     *
+     * @return true if the page is empty; false otherwise
+     */
+    public boolean isEmpty() {
+        return items.isEmpty();
+    }
+
+    /**
+     * Converts the items of the page, keeping its cursor.
+     *
+     * @param mapper Converts a single item
+     * @param <R>    The type of the converted items
+     * @return A page of the converted items
+     */
+    public <R> Page<R> map(Function<? super T, ? extends R> mapper) {
+        List<R> mapped = new ArrayList<>(items.size());
+        for (T item : items) {
+            mapped.add(mapper.apply(item));
+        }
+        return new Page<>(mapped, nextCursor);
+    }
+
+    /**
+     * Encodes a listing position into an opaque cursor.
+     *
+     * @param position The position, in a format known only to the listing that produced it
+     * @return The cursor
+     */
+    public static String encodeCursor(String position) {
+        return CURSOR_ENCODER.encodeToString(position.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes a cursor produced by {@link #encodeCursor(String)}.
+     *
+     * @param cursor The cursor
+     * @return The position it encodes
+     * @throws IllegalArgumentException if the cursor is not a valid cursor
+     */
+    public static String decodeCursor(String cursor) {
+        return new String(CURSOR_DECODER.decode(cursor), StandardCharsets.UTF_8);
+    }
+}
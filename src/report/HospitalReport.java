@@ -0,0 +1,127 @@
+package report;
+
+import java.util.*;
+
+/**
+ * The HospitalReport class holds the results of one run of the {@link ReportEngine}:
+ * appointments per doctor per day, appointment status rates, booking lead time,
+ * prescriptions per medicine and revenue per month.
+ */
+public class HospitalReport {
+    private final Map<String, Map<String, Long>> appointmentsPerDoctorPerDay;
+    private final Map<String, Long> appointmentsByStatus;
+    private final long totalAppointments;
+    private final long leadTimeCount;
+    private final long leadTimeTotalDays;
+    private final long leadTimeMaxDays;
+    private final Map<String, long[]> prescriptionsPerMedicine;
+    private final SortedMap<String, Long> revenueCentsPerMonth;
+
+    /**
+     * Constructs a new HospitalReport with the aggregated results.
+     *
+     * @param appointmentsPerDoctorPerDay Appointment counts keyed by doctor ID, then by date in chronological order
+     * @param appointmentsByStatus        Appointment counts keyed by status
+     * @param totalAppointments           The total number of appointments
+     * @param leadTimeCount               The number of appointments with a known booking date
+     * @param leadTimeTotalDays           The sum of booking-to-visit lead times in days
+     * @param leadTimeMaxDays             The longest booking-to-visit lead time in days
+     * @param prescriptionsPerMedicine    Prescription count and total quantity keyed by medicine
+     * @param revenueCentsPerMonth        Billed revenue in cents keyed by month (YYYY-MM)
+     */
+    public HospitalReport(Map<String, Map<String, Long>> appointmentsPerDoctorPerDay, Map<String, Long> appointmentsByStatus,
+                          long totalAppointments, long leadTimeCount, long leadTimeTotalDays, long leadTimeMaxDays,
+                          Map<String, long[]> prescriptionsPerMedicine, SortedMap<String, Long> revenueCentsPerMonth) {
+        this.appointmentsPerDoctorPerDay = appointmentsPerDoctorPerDay;
+        this.appointmentsByStatus = appointmentsByStatus;
+        this.totalAppointments = totalAppointments;
+        this.leadTimeCount = leadTimeCount;
+        this.leadTimeTotalDays = leadTimeTotalDays;
+        this.leadTimeMaxDays = leadTimeMaxDays;
+        this.prescriptionsPerMedicine = prescriptionsPerMedicine;
+        this.revenueCentsPerMonth = revenueCentsPerMonth;
+    }
+
+    /**
+     * Gets the number of appointments per doctor per day.
+     *
+     * @return Counts keyed by doctor ID, then by date (DD-MM-YY) in chronological order
+     */
+    public Map<String, Map<String, Long>> getAppointmentsPerDoctorPerDay() {
+        return appointmentsPerDoctorPerDay;
+    }
+
+    /**
+     * Gets the total number of appointments.
+     *
+     * @return The total number of appointments
+     */
+    public long getTotalAppointments() {
+        return totalAppointments;
+    }
+
+    /**
+     * Gets the number of appointments with a specific status.
+     *
+     * @param status The appointment status
+     * @return The number of appointments with that status
+     */
+    public long getAppointmentCount(String status) {
+        return appointmentsByStatus.getOrDefault(status, 0L);
+    }
+
+    /**
+     * Gets the share of all appointments that have a specific status.
+     *
+     * @param status The appointment status
+     * @return The rate between 0 and 1, or 0 if there are no appointments
+     */
+    public double getStatusRate(String status) {
+        return totalAppointments == 0 ? 0 : (double) getAppointmentCount(status) / totalAppointments;
+    }
+
+    /**
+     * Gets the average lead time from booking to visit.
+     *
+     * @return The average lead time in days, or 0 if no booking dates are known
+     */
+    public double getAverageLeadTimeDays() {
+        return leadTimeCount == 0 ? 0 : (double) leadTimeTotalDays / leadTimeCount;
+    }
+
+    /**
+     * Gets the longest lead time from booking to visit.
+     *
+     * @return The maximum lead time in days
+     */
+    public long getMaxLeadTimeDays() {
+        return leadTimeMaxDays;
+    }
+
+    /**
+     * Gets the number of appointments whose booking date is known.
+     *
+     * @return The number of appointments included in the lead time figures
+     */
+    public long getLeadTimeCount() {
+        return leadTimeCount;
+    }
+
+    /**
+     * Gets the prescriptions issued per medicine.
+     *
+     * @return A map from medicine name to {prescription count, total quantity}
+     */
+    public Map<String, long[]> getPrescriptionsPerMedicine() {
+        return prescriptionsPerMedicine;
+    }
+
+    /**
+     * Gets the billed revenue per month.
+     *
+     * @return Revenue in cents keyed by month (YYYY-MM) in chronological order
+     */
+    public SortedMap<String, Long> getRevenueCentsPerMonth() {
+        return revenueCentsPerMonth;
+    }
+}
@@ -0,0 +1,341 @@
+package report;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+import storage.Shard;
+import storage.Snapshot;
+import storage.Storage;
+import usermain.BillingLedger;
+
+/**
+ * The ReportEngine class builds hospital-wide reports from the Appointment,
+ * AppointmentRecord and Bill tables, archived rows included. The tables are read from a single
+ * storage snapshot, so a report reflects one point in time even while bookings and dispensing
+ * carry on. In a sharded hospital, the shards are read and aggregated side by side, each from
+ * a snapshot of its own, and their results merged.
+ * Each table is split into chunks of rows that are aggregated in parallel on a fork-join
+ * pool, and the partial results are merged pairwise as the tasks join.
+ */
+public class ReportEngine {
+    /**
+     * The number of rows a single fork-join task aggregates before it stops splitting.
+     */
+    private static final int CHUNK_SIZE = 20_000;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * Constructs a ReportEngine that runs on the common fork-join pool.
+     */
+    public ReportEngine() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructs a ReportEngine that runs on the given fork-join pool.
+     *
+     * @param pool The pool used to aggregate chunks in parallel
+     */
+    public ReportEngine(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Generates the full hospital report. In a sharded hospital, every shard is aggregated at
+     * the same time on the pool and the shards' results are merged.
+     *
+     * @return The aggregated report
+     * @throws IOException if one of the data files cannot be read
+     */
+    public HospitalReport generateReport() throws IOException {
+        List<Shard> shards = Storage.getShards();
+        ShardStats stats;
+        if (shards.size() == 1) {
+            stats = aggregateShard(shards.get(0));
+        } else {
+            List<ForkJoinTask<ShardStats>> tasks = new ArrayList<>();
+            for (Shard shard : shards) {
+                tasks.add(pool.submit(() -> aggregateShard(shard)));
+            }
+            stats = null;
+            for (ForkJoinTask<ShardStats> task : tasks) {
+                ShardStats shardStats;
+                try {
+                    shardStats = task.join();
+                } catch (RuntimeException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw e;
+                }
+                stats = stats == null ? shardStats : stats.merge(shardStats);
+            }
+        }
+
+        AppointmentStats appointments = stats.appointments;
+        return new HospitalReport(appointments.perDoctorPerDay(), appointments.byStatus, appointments.total,
+                appointments.leadTimeCount, appointments.leadTimeTotalDays, appointments.leadTimeMaxDays,
+                stats.prescriptions.perMedicine, new TreeMap<>(stats.revenue.centsByMonth));
+    }
+
+    /**
+     * Aggregates the tables of one shard, read from a single snapshot of it.
+     *
+     * @param shard The shard
+     * @return The shard's partial results
+     * @throws IOException if one of the shard's data files cannot be read
+     */
+    private ShardStats aggregateShard(Shard shard) throws IOException {
+        List<String[]> appointmentRows;
+        List<String[]> recordRows;
+        List<String[]> billRows;
+        Shard.Scope scope = shard.bind();
+        try (scope; Snapshot snapshot = Storage.snapshot()) {
+            appointmentRows = Storage.history(snapshot.table(Storage.APPOINTMENT)).readAll();
+            recordRows = Storage.history(snapshot.table(Storage.APPOINTMENT_RECORD)).readAll();
+            billRows = Storage.history(snapshot.table(Storage.BILL)).readAll();
+        }
+
+        AppointmentStats appointments = aggregate(appointmentRows, AppointmentStats::new, AppointmentStats::add, AppointmentStats::merge);
+        PrescriptionStats prescriptions = aggregate(recordRows, PrescriptionStats::new, PrescriptionStats::add, PrescriptionStats::merge);
+        RevenueStats revenue = aggregate(billRows, () -> new RevenueStats(appointments.monthByAppointment), RevenueStats::add, RevenueStats::merge);
+        return new ShardStats(appointments, prescriptions, revenue);
+    }
+
+    /**
+     * Aggregates rows in parallel by splitting them into chunks on the fork-join pool.
+     *
+     * @param rows        The rows to aggregate
+     * @param supplier    Creates an empty partial result
+     * @param accumulator Adds one row to a partial result
+     * @param combiner    Merges two partial results
+     * @param <A>         The type of the partial result
+     * @return The merged result for all rows
+     */
+    private <A> A aggregate(List<String[]> rows, Supplier<A> supplier, BiConsumer<A, String[]> accumulator, BinaryOperator<A> combiner) {
+        return pool.invoke(new ChunkTask<>(rows, 0, rows.size(), supplier, accumulator, combiner));
+    }
+
+    /**
+     * Converts a DD-MM-YY date into an epoch day without allocating a formatter.
+     *
+     * @param date The date string
+     * @return The epoch day, or Long.MIN_VALUE if the date is malformed
+     */
+    static long toEpochDay(String date) {
+        if (date.length() != 8 || date.charAt(2) != '-' || date.charAt(5) != '-') {
+            return Long.MIN_VALUE;
+        }
+        try {
+            int day = Integer.parseInt(date, 0, 2, 10);
+            int month = Integer.parseInt(date, 3, 5, 10);
+            int year = 2000 + Integer.parseInt(date, 6, 8, 10);
+            return LocalDate.of(year, month, day).toEpochDay();
+        } catch (RuntimeException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * A fork-join task that splits a range of rows in half until it is small enough,
+     * aggregates each chunk sequentially and merges the results on the way back up.
+     *
+     * @param <A> The type of the partial result
+     */
+    private static final class ChunkTask<A> extends RecursiveTask<A> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<String[]> rows;
+        private final int from;
+        private final int to;
+        private final Supplier<A> supplier;
+        private final BiConsumer<A, String[]> accumulator;
+        private final BinaryOperator<A> combiner;
+
+        ChunkTask(List<String[]> rows, int from, int to, Supplier<A> supplier, BiConsumer<A, String[]> accumulator, BinaryOperator<A> combiner) {
+            this.rows = rows;
+            this.from = from;
+            this.to = to;
+            this.supplier = supplier;
+            this.accumulator = accumulator;
+            this.combiner = combiner;
+        }
+
+        @Override
+        protected A compute() {
+            if (to - from <= CHUNK_SIZE) {
+                A result = supplier.get();
+                for (int i = from; i < to; i++) {
+                    accumulator.accept(result, rows.get(i));
+                }
+                return result;
+            }
+            int middle = (from + to) >>> 1;
+            ChunkTask<A> left = new ChunkTask<>(rows, from, middle, supplier, accumulator, combiner);
+            ChunkTask<A> right = new ChunkTask<>(rows, middle, to, supplier, accumulator, combiner);
+            left.fork();
+            A rightResult = right.compute();
+            return combiner.apply(left.join(), rightResult);
+        }
+    }
+
+    /**
+     * The partial results of one shard, or of several merged. Bills are attributed to months
+     * within each shard, whose appointments they belong to, before shards are merged.
+     */
+    private static final class ShardStats {
+        private final AppointmentStats appointments;
+        private final PrescriptionStats prescriptions;
+        private final RevenueStats revenue;
+
+        ShardStats(AppointmentStats appointments, PrescriptionStats prescriptions, RevenueStats revenue) {
+            this.appointments = appointments;
+            this.prescriptions = prescriptions;
+            this.revenue = revenue;
+        }
+
+        ShardStats merge(ShardStats other) {
+            appointments.merge(other.appointments);
+            prescriptions.merge(other.prescriptions);
+            revenue.merge(other.revenue);
+            return this;
+        }
+    }
+
+    /**
+     * Partial aggregates over Appointment.csv.
+     */
+    private static final class AppointmentStats {
+        private final Map<String, Map<Long, Long>> countsByDoctorAndDay = new HashMap<>();
+        private final Map<String, Long> byStatus = new HashMap<>();
+        private final Map<String, String> monthByAppointment = new HashMap<>();
+        private long total;
+        private long leadTimeCount;
+        private long leadTimeTotalDays;
+        private long leadTimeMaxDays;
+
+        void add(String[] fields) {
+            if (fields.length < 6) {
+                return;
+            }
+            total++;
+            byStatus.merge(fields[5].toUpperCase(), 1L, Long::sum);
+
+            long visitDay = toEpochDay(fields[3]);
+            if (visitDay == Long.MIN_VALUE) {
+                return;
+            }
+            countsByDoctorAndDay.computeIfAbsent(fields[1], id -> new HashMap<>()).merge(visitDay, 1L, Long::sum);
+            monthByAppointment.put(fields[0], LocalDate.ofEpochDay(visitDay).toString().substring(0, 7));
+
+            if (fields.length > 6) {
+                long bookedDay = toEpochDay(fields[6]);
+                if (bookedDay != Long.MIN_VALUE) {
+                    long leadTime = Math.max(0, visitDay - bookedDay);
+                    leadTimeCount++;
+                    leadTimeTotalDays += leadTime;
+                    leadTimeMaxDays = Math.max(leadTimeMaxDays, leadTime);
+                }
+            }
+        }
+
+        AppointmentStats merge(AppointmentStats other) {
+            other.countsByDoctorAndDay.forEach((doctorID, counts) ->
+                    counts.forEach((day, count) -> countsByDoctorAndDay.computeIfAbsent(doctorID, id -> new HashMap<>()).merge(day, count, Long::sum)));
+            other.byStatus.forEach((status, count) -> byStatus.merge(status, count, Long::sum));
+            monthByAppointment.putAll(other.monthByAppointment);
+            total += other.total;
+            leadTimeCount += other.leadTimeCount;
+            leadTimeTotalDays += other.leadTimeTotalDays;
+            leadTimeMaxDays = Math.max(leadTimeMaxDays, other.leadTimeMaxDays);
+            return this;
+        }
+
+        Map<String, Map<String, Long>> perDoctorPerDay() {
+            Map<String, Map<String, Long>> result = new TreeMap<>();
+            countsByDoctorAndDay.forEach((doctorID, counts) -> {
+                Map<String, Long> byDate = new LinkedHashMap<>();
+                new TreeMap<>(counts).forEach((day, count) -> byDate.put(formatDate(day), count));
+                result.put(doctorID, byDate);
+            });
+            return result;
+        }
+
+        private static String formatDate(long epochDay) {
+            LocalDate date = LocalDate.ofEpochDay(epochDay);
+            return String.format("%02d-%02d-%02d", date.getDayOfMonth(), date.getMonthValue(), date.getYear() % 100);
+        }
+    }
+
+    /**
+     * Partial aggregates over AppointmentRecord.csv.
+     */
+    private static final class PrescriptionStats {
+        private final Map<String, long[]> perMedicine = new TreeMap<>();
+
+        void add(String[] fields) {
+            if (fields.length < 4 || fields[2].equalsIgnoreCase("NA")) {
+                return;
+            }
+            long quantity;
+            try {
+                quantity = Long.parseLong(fields[3].trim());
+            } catch (NumberFormatException e) {
+                return;
+            }
+            long[] totals = perMedicine.computeIfAbsent(fields[2].toUpperCase(), name -> new long[2]);
+            totals[0]++;
+            totals[1] += quantity;
+        }
+
+        PrescriptionStats merge(PrescriptionStats other) {
+            other.perMedicine.forEach((name, totals) -> {
+                long[] mine = perMedicine.computeIfAbsent(name, n -> new long[2]);
+                mine[0] += totals[0];
+                mine[1] += totals[1];
+            });
+            return this;
+        }
+    }
+
+    /**
+     * Partial aggregates over Bill.csv. Each bill is attributed to the month of its own date, or,
+     * if it has none, as bills written by older versions do not, to the month of its appointment.
+     */
+    private static final class RevenueStats {
+        private final Map<String, String> monthByAppointment;
+        private final Map<String, Long> centsByMonth = new HashMap<>();
+
+        RevenueStats(Map<String, String> monthByAppointment) {
+            this.monthByAppointment = monthByAppointment;
+        }
+
+        void add(String[] fields) {
+            if (fields.length < 2) {
+                return;
+            }
+            long cents;
+            try {
+                cents = BillingLedger.toCents(fields[1]);
+            } catch (NumberFormatException e) {
+                return;
+            }
+            long billDay = fields.length > 5 ? toEpochDay(fields[5]) : Long.MIN_VALUE;
+            String month = billDay != Long.MIN_VALUE ? LocalDate.ofEpochDay(billDay).toString().substring(0, 7)
+                    : monthByAppointment.getOrDefault(fields[0], "Unknown");
+            centsByMonth.merge(month, cents, Long::sum);
+        }
+
+        RevenueStats merge(RevenueStats other) {
+            other.centsByMonth.forEach((month, cents) -> centsByMonth.merge(month, cents, Long::sum));
+            return this;
+        }
+    }
+}
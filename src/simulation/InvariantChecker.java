@@ -0,0 +1,209 @@
+package simulation;
+
+import appointment.Appointment;
+import appointment.AvailabilitySlot;
+import appointment.DoctorAvailabilityIndex;
+import appointment.DoctorScheduleIndex;
+import enums.AppointmentStatus;
+import enums.DoctorAvailabilityStatus;
+import enums.PrescriptionStatus;
+import enums.ReplenishmentRequestStatus;
+import java.io.IOException;
+import java.util.*;
+import storage.Snapshot;
+import storage.Storage;
+import usermain.BillingLedger;
+
+/**
+ * The InvariantChecker class checks that the stored state is still consistent after a
+ * simulation run. It reads every table from one {@link Snapshot} and checks that:
+ *
+ * <ul>
+ *   <li>no slot is held by more than one active appointment (a double booking);</li>
+ *   <li>appointment IDs are unique;</li>
+ *   <li>the slot of every active appointment is booked, and every booked slot has an appointment;</li>
+ *   <li>the in-memory availability and schedule indexes agree with the tables;</li>
+ *   <li>the stock of every medicine changed by exactly what was approved less what was dispensed;</li>
+ *   <li>every dispensed prescription has one bill, and the running billing totals match the bills.</li>
+ * </ul>
+ *
+ * <p>The stock check compares against the totals captured by {@link #capture()} before the run,
+ * so existing data need not be consistent for the run's own changes to be checked.</p>
+ */
+public class InvariantChecker {
+    private static final Set<String> INACTIVE_STATUSES = new HashSet<>(Arrays.asList(
+            AppointmentStatus.CANCELLED.name(), AppointmentStatus.DECLINED.name()));
+
+    private final Map<String, Long> initialStock;
+    private final Map<String, Long> initialDispensed;
+    private final Map<String, Long> initialApproved;
+    private int doubleBookings;
+
+    private InvariantChecker(Map<String, Long> initialStock, Map<String, Long> initialDispensed, Map<String, Long> initialApproved) {
+        this.initialStock = initialStock;
+        this.initialDispensed = initialDispensed;
+        this.initialApproved = initialApproved;
+    }
+
+    /**
+     * Captures the stock totals the run is checked against.
+     *
+     * @return The checker for the state after the run
+     * @throws IOException if the tables cannot be read
+     */
+    public static InvariantChecker capture() throws IOException {
+        try (Snapshot snapshot = Storage.snapshot()) {
+            return new InvariantChecker(stock(snapshot), dispensed(snapshot), approved(snapshot));
+        }
+    }
+
+    /**
+     * Checks the current state.
+     *
+     * @return A description of every violation found, empty if the state is consistent
+     * @throws IOException if the tables cannot be read
+     */
+    public List<String> check() throws IOException {
+        List<String> violations = new ArrayList<>();
+        doubleBookings = 0;
+        try (Snapshot snapshot = Storage.snapshot()) {
+            checkAppointments(snapshot, violations);
+            checkStock(snapshot, violations);
+            checkBills(snapshot, violations);
+        }
+        if (!BillingLedger.getInstance().verify(false)) {
+            violations.add("Running billing totals do not match Bill.csv");
+        }
+        return violations;
+    }
+
+    /**
+     * Gets the number of double bookings found by the last check: for every slot, the number of
+     * active appointments holding it beyond the first.
+     *
+     * @return The double booking count
+     */
+    public int getDoubleBookings() {
+        return doubleBookings;
+    }
+
+    private void checkAppointments(Snapshot snapshot, List<String> violations) throws IOException {
+        Map<String, String> slotStatus = new HashMap<>();
+        for (String[] slot : snapshot.table(Storage.DOCTOR_AVAILABILITY).readAll()) {
+            if (slot.length >= 5) {
+                String key = slotKey(slot[0], slot[2], slot[3]);
+                slotStatus.put(key, slot[4].toUpperCase());
+                AvailabilitySlot indexed = DoctorAvailabilityIndex.getInstance().getSlot(slot[0], slot[2], slot[3]);
+                if (indexed == null || !indexed.getStatus().equalsIgnoreCase(slot[4])) {
+                    violations.add("Availability index disagrees with DoctorAvailability.csv for slot " + key);
+                }
+            }
+        }
+
+        Map<String, Integer> idCounts = new HashMap<>();
+        Map<String, List<String>> activeBySlot = new HashMap<>();
+        Set<String> heldSlots = new HashSet<>();
+        for (String[] fields : snapshot.table(Storage.APPOINTMENT).readAll()) {
+            if (fields.length < 6) {
+                continue;
+            }
+            idCounts.merge(fields[0], 1, Integer::sum);
+            String key = slotKey(fields[1], fields[3], fields[4]);
+            if (!fields[5].equalsIgnoreCase(AppointmentStatus.CANCELLED.name())) {
+                heldSlots.add(key);
+            }
+            if (!INACTIVE_STATUSES.contains(fields[5].toUpperCase())) {
+                activeBySlot.computeIfAbsent(key, k -> new ArrayList<>()).add(fields[0]);
+                if (!DoctorAvailabilityStatus.BOOKED.name().equals(slotStatus.get(key))) {
+                    violations.add("Appointment " + fields[0] + " is " + fields[5] + " but its slot " + key + " is " + slotStatus.getOrDefault(key, "missing"));
+                }
+            }
+            Appointment indexed = DoctorScheduleIndex.getInstance().get(fields[0]);
+            if (indexed == null || !indexed.getStatus().equalsIgnoreCase(fields[5])) {
+                violations.add("Schedule index disagrees with Appointment.csv for appointment " + fields[0]);
+            }
+        }
+
+        for (Map.Entry<String, List<String>> entry : activeBySlot.entrySet()) {
+            if (entry.getValue().size() > 1) {
+                doubleBookings += entry.getValue().size() - 1;
+                violations.add("Slot " + entry.getKey() + " is double-booked by " + entry.getValue());
+            }
+        }
+        for (Map.Entry<String, Integer> entry : idCounts.entrySet()) {
+            if (entry.getValue() > 1) {
+                violations.add("Appointment ID " + entry.getKey() + " is used " + entry.getValue() + " times");
+            }
+        }
+        for (Map.Entry<String, String> entry : slotStatus.entrySet()) {
+            if (entry.getValue().equals(DoctorAvailabilityStatus.BOOKED.name()) && !heldSlots.contains(entry.getKey())) {
+                violations.add("Slot " + entry.getKey() + " is booked but no appointment holds it");
+            }
+        }
+    }
+
+    private void checkStock(Snapshot snapshot, List<String> violations) throws IOException {
+        Map<String, Long> stock = stock(snapshot);
+        Map<String, Long> dispensed = dispensed(snapshot);
+        Map<String, Long> approved = approved(snapshot);
+        for (Map.Entry<String, Long> entry : stock.entrySet()) {
+            String medicine = entry.getKey();
+            if (!initialStock.containsKey(medicine)) {
+                continue;
+            }
+            long expected = initialStock.get(medicine)
+                    + approved.getOrDefault(medicine, 0L) - initialApproved.getOrDefault(medicine, 0L)
+                    - dispensed.getOrDefault(medicine, 0L) + initialDispensed.getOrDefault(medicine, 0L);
+            if (entry.getValue() != expected) {
+                violations.add("Stock of " + medicine + " is " + entry.getValue() + " but approvals and dispenses give " + expected);
+            }
+        }
+    }
+
+    private void checkBills(Snapshot snapshot, List<String> violations) throws IOException {
+        Map<String, Integer> bills = new HashMap<>();
+        for (String[] bill : snapshot.table(Storage.BILL).readAll()) {
+            bills.merge(bill[0], 1, Integer::sum);
+        }
+        for (String[] record : snapshot.table(Storage.APPOINTMENT_RECORD).readAll()) {
+            if (record.length > 4 && record[4].equalsIgnoreCase(PrescriptionStatus.DISPENSED.name())) {
+                int count = bills.getOrDefault(record[0], 0);
+                if (count != 1) {
+                    violations.add("Dispensed prescription " + record[0] + " has " + count + " bills");
+                }
+            }
+        }
+    }
+
+    private static Map<String, Long> stock(Snapshot snapshot) throws IOException {
+        Map<String, Long> stock = new HashMap<>();
+        for (String[] medicine : snapshot.table(Storage.MEDICINE_LIST).readAll()) {
+            stock.put(medicine[0].trim().toUpperCase(), Long.parseLong(medicine[1].trim()));
+        }
+        return stock;
+    }
+
+    private static Map<String, Long> dispensed(Snapshot snapshot) throws IOException {
+        Map<String, Long> dispensed = new HashMap<>();
+        for (String[] record : snapshot.table(Storage.APPOINTMENT_RECORD).readAll()) {
+            if (record.length > 4 && record[4].equalsIgnoreCase(PrescriptionStatus.DISPENSED.name())) {
+                dispensed.merge(record[2].trim().toUpperCase(), Long.parseLong(record[3].trim()), Long::sum);
+            }
+        }
+        return dispensed;
+    }
+
+    private static Map<String, Long> approved(Snapshot snapshot) throws IOException {
+        Map<String, Long> approved = new HashMap<>();
+        for (String[] request : snapshot.table(Storage.REPLENISHMENT_REQUEST).readAll()) {
+            if (request.length > 3 && request[3].equalsIgnoreCase(ReplenishmentRequestStatus.APPROVED.name())) {
+                approved.merge(request[1].trim().toUpperCase(), Long.parseLong(request[2].trim()), Long::sum);
+            }
+        }
+        return approved;
+    }
+
+    private static String slotKey(String doctorID, String date, String timeSlot) {
+        return doctorID + " " + date + " " + timeSlot;
+    }
+}
@@ -0,0 +1,81 @@
+package simulation;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * The LatencyStats class collects the latencies and outcomes of one kind of operation. Every
+ * latency is kept, so percentiles are exact; recording is synchronized, which is cheap next to
+ * the file I/O of the operations being measured.
+ */
+public class LatencyStats {
+    private long[] latencies = new long[1024];
+    private int count;
+    private final Map<Operation.Outcome, Integer> outcomes = new EnumMap<>(Operation.Outcome.class);
+
+    /**
+     * Records one performed operation.
+     *
+     * @param latencyNanos The latency of the operation in nanoseconds
+     * @param outcome      The result of the operation
+     */
+    public synchronized void record(long latencyNanos, Operation.Outcome outcome) {
+        if (count == latencies.length) {
+            latencies = Arrays.copyOf(latencies, count * 2);
+        }
+        latencies[count++] = latencyNanos;
+        outcomes.merge(outcome, 1, Integer::sum);
+    }
+
+    /**
+     * Gets the number of operations recorded.
+     *
+     * @return The operation count
+     */
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the number of operations that had a given result.
+     *
+     * @param outcome The result
+     * @return The operation count
+     */
+    public synchronized int getCount(Operation.Outcome outcome) {
+        return outcomes.getOrDefault(outcome, 0);
+    }
+
+    /**
+     * Gets a latency percentile, using the nearest-rank method.
+     *
+     * @param percentile The percentile, from 0 to 100
+     * @return The latency in nanoseconds, or 0 if nothing was recorded
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100 * count);
+        return sorted[Math.max(0, Math.min(count, rank) - 1)];
+    }
+
+    /**
+     * Gets the mean latency.
+     *
+     * @return The mean latency in nanoseconds, or 0 if nothing was recorded
+     */
+    public synchronized long getMean() {
+        if (count == 0) {
+            return 0;
+        }
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            total += latencies[i];
+        }
+        return total / count;
+    }
+}
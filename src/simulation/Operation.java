@@ -0,0 +1,110 @@
+package simulation;
+
+import enums.UserRole;
+
+/**
+ * The Operation enum lists the service operations a virtual user can perform during a
+ * simulation, each tied to the role of the user that performs it.
+ */
+public enum Operation {
+    /**
+     * A doctor opens the slots of another day.
+     */
+    SET_AVAILABILITY(UserRole.DOCTOR),
+
+    /**
+     * A patient books a slot they saw as available.
+     */
+    BOOK(UserRole.PATIENT),
+
+    /**
+     * A patient moves a pending appointment to another slot.
+     */
+    RESCHEDULE(UserRole.PATIENT),
+
+    /**
+     * A patient cancels a pending appointment.
+     */
+    CANCEL(UserRole.PATIENT),
+
+    /**
+     * A doctor accepts a pending appointment.
+     */
+    ACCEPT(UserRole.DOCTOR),
+
+    /**
+     * A doctor declines a pending appointment.
+     */
+    DECLINE(UserRole.DOCTOR),
+
+    /**
+     * A doctor records the outcome of a confirmed appointment.
+     */
+    RECORD_OUTCOME(UserRole.DOCTOR),
+
+    /**
+     * A pharmacist dispenses a pending prescription.
+     */
+    DISPENSE(UserRole.PHARMACIST),
+
+    /**
+     * A pharmacist asks for a medicine to be restocked.
+     */
+    REQUEST_STOCK(UserRole.PHARMACIST),
+
+    /**
+     * A patient pays their pending bills.
+     */
+    PAY_BILLS(UserRole.PATIENT),
+
+    /**
+     * An administrator approves the pending replenishment requests.
+     */
+    APPROVE_STOCK(UserRole.ADMINISTRATOR),
+
+    /**
+     * An administrator generates the hospital reports.
+     */
+    VIEW_REPORTS(UserRole.ADMINISTRATOR);
+
+    /**
+     * The result of one performed operation.
+     */
+    public enum Outcome {
+        /**
+         * The operation changed or read what it meant to.
+         */
+        SUCCESS,
+
+        /**
+         * The operation had nothing to act on, such as a doctor with no pending appointments,
+         * or was refused because what the user saw was no longer true.
+         */
+        REJECTED,
+
+        /**
+         * The user saw a slot as available, but another user booked it first.
+         */
+        CONFLICT,
+
+        /**
+         * The operation threw an exception.
+         */
+        ERROR
+    }
+
+    private final UserRole role;
+
+    Operation(UserRole role) {
+        this.role = role;
+    }
+
+    /**
+     * Gets the role of the users that perform this operation.
+     *
+     * @return The user role
+     */
+    public UserRole getRole() {
+        return role;
+    }
+}
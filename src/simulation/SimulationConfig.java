@@ -0,0 +1,270 @@
+package simulation;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * The SimulationConfig class holds the settings of a {@link WorkloadSimulator} run: how many
+ * virtual users of each role take part, how fast operations arrive, how they are mixed, and how
+ * much of the schedule is opened for booking before the run starts.
+ *
+ * <p>With an arrival rate above zero the simulator is open-loop: operations arrive at that
+ * average rate, with exponentially distributed gaps, whether or not earlier ones have finished,
+ * and their latency includes any time spent queued. With a rate of zero every worker thread
+ * performs operations back to back, which measures the highest sustainable throughput.</p>
+ */
+public class SimulationConfig {
+    private int patients = 1000;
+    private int doctors = 20;
+    private int pharmacists = 5;
+    private int administrators = 2;
+    private int threads = 16;
+    private double arrivalRate = 0;
+    private int operations = 5000;
+    private int days = 5;
+    private int slotsPerDay = 16;
+    private long seed = 42;
+    private boolean quiet = true;
+    private final Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+
+    /**
+     * Constructs a configuration with the default settings and operation mix.
+     */
+    public SimulationConfig() {
+        mix.put(Operation.SET_AVAILABILITY, 1);
+        mix.put(Operation.BOOK, 30);
+        mix.put(Operation.RESCHEDULE, 5);
+        mix.put(Operation.CANCEL, 5);
+        mix.put(Operation.ACCEPT, 20);
+        mix.put(Operation.DECLINE, 3);
+        mix.put(Operation.RECORD_OUTCOME, 15);
+        mix.put(Operation.DISPENSE, 10);
+        mix.put(Operation.REQUEST_STOCK, 2);
+        mix.put(Operation.PAY_BILLS, 7);
+        mix.put(Operation.APPROVE_STOCK, 1);
+        mix.put(Operation.VIEW_REPORTS, 1);
+    }
+
+    /**
+     * Gets the number of virtual patients.
+     *
+     * @return The patient count
+     */
+    public int getPatients() {
+        return patients;
+    }
+
+    /**
+     * Sets the number of virtual patients.
+     *
+     * @param patients The patient count
+     */
+    public void setPatients(int patients) {
+        this.patients = patients;
+    }
+
+    /**
+     * Gets the number of virtual doctors.
+     *
+     * @return The doctor count
+     */
+    public int getDoctors() {
+        return doctors;
+    }
+
+    /**
+     * Sets the number of virtual doctors.
+     *
+     * @param doctors The doctor count
+     */
+    public void setDoctors(int doctors) {
+        this.doctors = doctors;
+    }
+
+    /**
+     * Gets the number of virtual pharmacists.
+     *
+     * @return The pharmacist count
+     */
+    public int getPharmacists() {
+        return pharmacists;
+    }
+
+    /**
+     * Sets the number of virtual pharmacists.
+     *
+     * @param pharmacists The pharmacist count
+     */
+    public void setPharmacists(int pharmacists) {
+        this.pharmacists = pharmacists;
+    }
+
+    /**
+     * Gets the number of virtual administrators.
+     *
+     * @return The administrator count
+     */
+    public int getAdministrators() {
+        return administrators;
+    }
+
+    /**
+     * Sets the number of virtual administrators.
+     *
+     * @param administrators The administrator count
+     */
+    public void setAdministrators(int administrators) {
+        this.administrators = administrators;
+    }
+
+    /**
+     * Gets the number of worker threads operations are performed on.
+     *
+     * @return The thread count
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Sets the number of worker threads operations are performed on.
+     *
+     * @param threads The thread count
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Gets the average number of operations arriving per second.
+     *
+     * @return The arrival rate, or 0 to run closed-loop as fast as the workers allow
+     */
+    public double getArrivalRate() {
+        return arrivalRate;
+    }
+
+    /**
+     * Sets the average number of operations arriving per second.
+     *
+     * @param arrivalRate The arrival rate, or 0 to run closed-loop
+     */
+    public void setArrivalRate(double arrivalRate) {
+        this.arrivalRate = arrivalRate;
+    }
+
+    /**
+     * Gets the total number of operations performed during the run.
+     *
+     * @return The operation count
+     */
+    public int getOperations() {
+        return operations;
+    }
+
+    /**
+     * Sets the total number of operations performed during the run.
+     *
+     * @param operations The operation count
+     */
+    public void setOperations(int operations) {
+        this.operations = operations;
+    }
+
+    /**
+     * Gets the number of days, starting tomorrow, each doctor opens before the run.
+     *
+     * @return The day count
+     */
+    public int getDays() {
+        return days;
+    }
+
+    /**
+     * Sets the number of days, starting tomorrow, each doctor opens before the run.
+     *
+     * @param days The day count
+     */
+    public void setDays(int days) {
+        this.days = days;
+    }
+
+    /**
+     * Gets the number of half-hour slots, starting at 09:00, each doctor opens per day.
+     *
+     * @return The slot count, at most 30
+     */
+    public int getSlotsPerDay() {
+        return slotsPerDay;
+    }
+
+    /**
+     * Sets the number of half-hour slots each doctor opens per day.
+     *
+     * @param slotsPerDay The slot count, at most 30
+     */
+    public void setSlotsPerDay(int slotsPerDay) {
+        this.slotsPerDay = slotsPerDay;
+    }
+
+    /**
+     * Gets the seed of the random choices of operations, users and slots. The choices of
+     * different runs with the same seed only match exactly with a single thread.
+     *
+     * @return The seed
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Sets the seed of the random choices of operations, users and slots.
+     *
+     * @param seed The seed
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Checks whether the services' console output is discarded during the run.
+     *
+     * @return true if the output is discarded; false otherwise
+     */
+    public boolean isQuiet() {
+        return quiet;
+    }
+
+    /**
+     * Sets whether the services' console output is discarded during the run.
+     *
+     * @param quiet true to discard the output
+     */
+    public void setQuiet(boolean quiet) {
+        this.quiet = quiet;
+    }
+
+    /**
+     * Gets the relative weight of every operation in the mix.
+     *
+     * @return A read-only view of the weights
+     */
+    public Map<Operation, Integer> getMix() {
+        return Collections.unmodifiableMap(mix);
+    }
+
+    /**
+     * Sets the relative weight of an operation in the mix; a weight of 0 leaves it out.
+     *
+     * @param operation The operation
+     * @param weight    The weight, not negative
+     * @throws IllegalArgumentException if the weight is negative
+     */
+    public void setWeight(Operation operation, int weight) {
+        if (weight < 0) {
+            throw new IllegalArgumentException("Negative weight for " + operation + ": " + weight);
+        }
+        mix.put(operation, weight);
+    }
+}
@@ -0,0 +1,173 @@
+package simulation;
+
+import java.io.PrintStream;
+import java.util.*;
+
+/**
+ * The SimulationReport class holds the results of a {@link WorkloadSimulator} run: throughput,
+ * latency and outcome counts per operation, booking conflicts, and the invariant violations
+ * found in the final state.
+ */
+public class SimulationReport {
+    private static final int MAX_PRINTED_VIOLATIONS = 50;
+
+    private final long elapsedNanos;
+    private final Map<Operation, LatencyStats> stats;
+    private final int doubleBookings;
+    private final List<String> violations;
+    private final List<String> errors;
+
+    /**
+     * Constructs a SimulationReport.
+     *
+     * @param elapsedNanos   The wall-clock duration of the run in nanoseconds
+     * @param stats          The statistics of every operation
+     * @param doubleBookings The number of double bookings in the final state
+     * @param violations     The invariant violations in the final state
+     * @param errors         The first errors thrown by operations
+     */
+    public SimulationReport(long elapsedNanos, Map<Operation, LatencyStats> stats, int doubleBookings, List<String> violations, List<String> errors) {
+        this.elapsedNanos = elapsedNanos;
+        this.stats = new EnumMap<>(stats);
+        this.doubleBookings = doubleBookings;
+        this.violations = new ArrayList<>(violations);
+        this.errors = new ArrayList<>(errors);
+    }
+
+    /**
+     * Gets the wall-clock duration of the run.
+     *
+     * @return The duration in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Gets the total number of operations performed.
+     *
+     * @return The operation count
+     */
+    public int getOperationCount() {
+        int total = 0;
+        for (LatencyStats operationStats : stats.values()) {
+            total += operationStats.getCount();
+        }
+        return total;
+    }
+
+    /**
+     * Gets the number of operations completed per second over the whole run.
+     *
+     * @return The throughput
+     */
+    public double getThroughput() {
+        return elapsedNanos == 0 ? 0 : getOperationCount() * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * Gets the statistics of one operation.
+     *
+     * @param operation The operation
+     * @return The statistics, empty if the operation was never performed
+     */
+    public LatencyStats getStats(Operation operation) {
+        return stats.getOrDefault(operation, new LatencyStats());
+    }
+
+    /**
+     * Gets the number of operations of any kind that had a given result.
+     *
+     * @param outcome The result
+     * @return The operation count
+     */
+    public int getCount(Operation.Outcome outcome) {
+        int total = 0;
+        for (LatencyStats operationStats : stats.values()) {
+            total += operationStats.getCount(outcome);
+        }
+        return total;
+    }
+
+    /**
+     * Gets the number of bookings and reschedules that lost a race for a slot.
+     *
+     * @return The conflict count
+     */
+    public int getConflicts() {
+        return getCount(Operation.Outcome.CONFLICT);
+    }
+
+    /**
+     * Gets the number of double bookings in the final state.
+     *
+     * @return The double booking count
+     */
+    public int getDoubleBookings() {
+        return doubleBookings;
+    }
+
+    /**
+     * Gets the invariant violations found in the final state.
+     *
+     * @return The violations, empty if the final state is consistent
+     */
+    public List<String> getViolations() {
+        return Collections.unmodifiableList(violations);
+    }
+
+    /**
+     * Gets the first errors thrown by operations during the run.
+     *
+     * @return The error descriptions
+     */
+    public List<String> getErrors() {
+        return Collections.unmodifiableList(errors);
+    }
+
+    /**
+     * Prints the report, listing only the first violations when there are many.
+     *
+     * @param out The stream to print to
+     */
+    public void print(PrintStream out) {
+        out.println("==== Simulation Report ====");
+        out.printf("Operations: %d in %.2f s (%.1f ops/s)%n", getOperationCount(), elapsedNanos / 1e9, getThroughput());
+        out.printf("Outcomes: %d succeeded, %d rejected, %d conflicts, %d errors%n",
+                getCount(Operation.Outcome.SUCCESS), getCount(Operation.Outcome.REJECTED), getConflicts(), getCount(Operation.Outcome.ERROR));
+
+        out.println("\n==== Latency (ms) ====");
+        out.printf("%-18s %7s %7s %8s %9s %9s %9s %9s %9s%n", "Operation", "Count", "OK", "Conflict", "Mean", "p50", "p95", "p99", "Max");
+        for (Map.Entry<Operation, LatencyStats> entry : stats.entrySet()) {
+            LatencyStats operationStats = entry.getValue();
+            if (operationStats.getCount() == 0) {
+                continue;
+            }
+            out.printf("%-18s %7d %7d %8d %9.2f %9.2f %9.2f %9.2f %9.2f%n", entry.getKey(), operationStats.getCount(),
+                    operationStats.getCount(Operation.Outcome.SUCCESS), operationStats.getCount(Operation.Outcome.CONFLICT),
+                    operationStats.getMean() / 1e6, operationStats.getPercentile(50) / 1e6, operationStats.getPercentile(95) / 1e6,
+                    operationStats.getPercentile(99) / 1e6, operationStats.getPercentile(100) / 1e6);
+        }
+
+        out.println("\n==== Invariants ====");
+        out.println("Double bookings: " + doubleBookings);
+        if (violations.isEmpty()) {
+            out.println("All invariants hold.");
+        } else {
+            out.println("Violations: " + violations.size());
+            for (String violation : violations.subList(0, Math.min(violations.size(), MAX_PRINTED_VIOLATIONS))) {
+                out.println("  " + violation);
+            }
+            if (violations.size() > MAX_PRINTED_VIOLATIONS) {
+                out.println("  ... and " + (violations.size() - MAX_PRINTED_VIOLATIONS) + " more");
+            }
+        }
+
+        if (!errors.isEmpty()) {
+            out.println("\n==== Errors ====");
+            for (String error : errors) {
+                out.println("  " + error);
+            }
+        }
+    }
+}
@@ -0,0 +1,491 @@
+package simulation;
+
+import appointment.Appointment;
+import appointment.AppointmentService;
+import appointment.AvailabilitySlot;
+import appointment.DoctorAvailabilityIndex;
+import appointment.DoctorScheduleIndex;
+import appointment.PrescriptionQueue;
+import appointment.SlotTable;
+import enums.AppointmentStatus;
+import enums.DoctorAvailabilityStatus;
+import enums.UserRole;
+import java.io.*;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import paging.Page;
+import storage.Storage;
+import storage.Table;
+import storage.Transaction;
+import usermain.Administrator;
+import usermain.Billing;
+import usermain.Doctor;
+import usermain.PatientBillIndex;
+import usermain.Pharmacist;
+
+/**
+ * The WorkloadSimulator class drives the hospital's services with many concurrent virtual
+ * patients, doctors, pharmacists and administrators, calling the same public methods the menus
+ * call but with generated input instead of console input. It reports throughput, latency
+ * percentiles and booking conflicts per operation, then checks the final state with an
+ * {@link InvariantChecker}, so capacity can be planned and races found before they reach users.
+ *
+ * <p>Before the run, the virtual staff are added through {@link Administrator#addStaff}, the
+ * virtual patients are registered, and every virtual doctor opens the configured days. Each
+ * operation then acts the way a user would: it looks at what the system shows, picks something
+ * to act on, and calls the service. A booking of a slot that looked free but was taken by the
+ * time it was made counts as a conflict.</p>
+ *
+ * <p>The simulator writes to whatever data directory {@link Storage} is configured with. Run from
+ * the command line it works on a copy of the data directory, leaving the original untouched:</p>
+ *
+ * <pre>
+ * java simulation.WorkloadSimulator --patients=2000 --threads=32 --rate=200 --operations=20000 --mix.BOOK=50
+ * </pre>
+ *
+ * <p>On the bundled data, a baseline run such as the one below ends with "All invariants hold."
+ * on either storage engine; any violation it reports is a bug to fix, not noise.</p>
+ *
+ * <pre>
+ * java simulation.WorkloadSimulator --threads=8 --operations=3000 --seed=7
+ * </pre>
+ */
+public class WorkloadSimulator {
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd-MM-yy");
+    private static final int MAX_ERRORS = 10;
+    private static final int PAGE_SIZE = 20;
+
+    private final SimulationConfig config;
+    private final AppointmentService appointmentService = new AppointmentService();
+    private final List<String> patientIDs = new ArrayList<>();
+    private final List<Doctor> doctors = new ArrayList<>();
+    private final List<Pharmacist> pharmacists = new ArrayList<>();
+    private final List<Administrator> administrators = new ArrayList<>();
+    private final List<String> medicines = new ArrayList<>();
+    private final List<String> openDates = new CopyOnWriteArrayList<>();
+    private final AtomicInteger nextDay = new AtomicInteger(1);
+    private final String[] timeSlots;
+    private final Operation[] operations;
+    private final int[] cumulativeWeights;
+    private final Map<Operation, LatencyStats> stats = new EnumMap<>(Operation.class);
+    private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * Constructs a WorkloadSimulator.
+     *
+     * @param config The settings of the run
+     * @throws IllegalArgumentException if the mix has no operation with a positive weight
+     */
+    public WorkloadSimulator(SimulationConfig config) {
+        this.config = config;
+
+        int dayStart = 9 * 60;
+        timeSlots = SlotTable.forLength(SlotTable.DEFAULT_LENGTH)
+                .slotsBetween(dayStart, dayStart + Math.min(config.getSlotsPerDay(), 30) * SlotTable.DEFAULT_LENGTH).toArray(new String[0]);
+
+        List<Operation> weighted = new ArrayList<>();
+        List<Integer> cumulative = new ArrayList<>();
+        int total = 0;
+        for (Map.Entry<Operation, Integer> entry : config.getMix().entrySet()) {
+            if (entry.getValue() > 0) {
+                total += entry.getValue();
+                weighted.add(entry.getKey());
+                cumulative.add(total);
+            }
+        }
+        if (weighted.isEmpty()) {
+            throw new IllegalArgumentException("The operation mix is empty");
+        }
+        operations = weighted.toArray(new Operation[0]);
+        cumulativeWeights = cumulative.stream().mapToInt(Integer::intValue).toArray();
+        for (Operation operation : Operation.values()) {
+            stats.put(operation, new LatencyStats());
+        }
+    }
+
+    /**
+     * Sets up the virtual users, performs the configured operations and checks the final state.
+     *
+     * @return The report of the run
+     * @throws IOException          if the data cannot be read or set up
+     * @throws InterruptedException if interrupted while waiting for the operations to finish
+     */
+    public SimulationReport run() throws IOException, InterruptedException {
+        PrintStream console = System.out;
+        if (config.isQuiet()) {
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        }
+        try {
+            setUp();
+            InvariantChecker checker = InvariantChecker.capture();
+
+            long start = System.nanoTime();
+            if (config.getArrivalRate() > 0) {
+                runOpenLoop();
+            } else {
+                runClosedLoop();
+            }
+            long elapsed = System.nanoTime() - start;
+
+            List<String> violations = checker.check();
+            return new SimulationReport(elapsed, stats, checker.getDoubleBookings(), violations, errors);
+        } finally {
+            System.setOut(console);
+        }
+    }
+
+    /**
+     * Runs the simulator from the command line on a copy of the data directory and prints the
+     * report. Options are given as {@code --name=value}: patients, doctors, pharmacists,
+     * administrators, threads, rate, operations, days, slots, seed, verbose, data-dir (to run on
+     * a directory in place) and {@code mix.OPERATION} for the weight of an operation.
+     *
+     * @param args The options
+     * @throws Exception if the simulation cannot be run
+     */
+    public static void main(String[] args) throws Exception {
+        SimulationConfig config = new SimulationConfig();
+        String dataDirectory = null;
+        for (String arg : args) {
+            String[] option = arg.replaceFirst("^--", "").split("=", 2);
+            String value = option.length > 1 ? option[1] : "true";
+            switch (option[0]) {
+                case "patients": config.setPatients(Integer.parseInt(value)); break;
+                case "doctors": config.setDoctors(Integer.parseInt(value)); break;
+                case "pharmacists": config.setPharmacists(Integer.parseInt(value)); break;
+                case "administrators": config.setAdministrators(Integer.parseInt(value)); break;
+                case "threads": config.setThreads(Integer.parseInt(value)); break;
+                case "rate": config.setArrivalRate(Double.parseDouble(value)); break;
+                case "operations": config.setOperations(Integer.parseInt(value)); break;
+                case "days": config.setDays(Integer.parseInt(value)); break;
+                case "slots": config.setSlotsPerDay(Integer.parseInt(value)); break;
+                case "seed": config.setSeed(Long.parseLong(value)); break;
+                case "verbose": config.setQuiet(!Boolean.parseBoolean(value)); break;
+                case "data-dir": dataDirectory = value; break;
+                default:
+                    if (option[0].startsWith("mix.")) {
+                        config.setWeight(Operation.valueOf(option[0].substring(4).toUpperCase()), Integer.parseInt(value));
+                    } else {
+                        System.err.println("Unknown option: " + arg);
+                        return;
+                    }
+            }
+        }
+
+        if (dataDirectory == null) {
+            Path copy = copyDataDirectory(Storage.getDataDirectory(), "hms-simulation");
+            dataDirectory = copy.toString();
+            System.out.println("Simulating on a copy of the data in " + copy);
+        }
+        System.setProperty(Storage.DATA_DIR_PROPERTY, dataDirectory);
+
+        SimulationReport report = new WorkloadSimulator(config).run();
+        report.print(System.out);
+        Storage.getEngine().close();
+    }
+
+    /**
+     * Adds the virtual staff and patients that do not exist yet and opens the doctors' days.
+     */
+    private void setUp() throws IOException {
+        Administrator setupAdministrator = new Administrator();
+        Table users = Storage.table(Storage.USER);
+
+        for (int i = 1; i <= config.getAdministrators(); i++) {
+            String id = String.format("SIMA%03d", i);
+            addStaff(setupAdministrator, users, id, "Sim Admin " + i, UserRole.ADMINISTRATOR);
+            administrators.add(new Administrator(id));
+        }
+        for (int i = 1; i <= config.getPharmacists(); i++) {
+            String id = String.format("SIMF%03d", i);
+            addStaff(setupAdministrator, users, id, "Sim Pharmacist " + i, UserRole.PHARMACIST);
+            pharmacists.add(new Pharmacist(id, "password", UserRole.PHARMACIST.name(), "Sim Pharmacist " + i));
+        }
+        for (int i = 1; i <= config.getDoctors(); i++) {
+            String id = String.format("SIMD%03d", i);
+            addStaff(setupAdministrator, users, id, "Sim Doctor " + i, UserRole.DOCTOR);
+            doctors.add(new Doctor(id, "password", UserRole.DOCTOR.name(), "Sim Doctor " + i, appointmentService, appointmentService));
+        }
+
+        // Patients register outside the services, so they are added to the tables directly
+        try (Transaction transaction = Storage.getEngine().begin()) {
+            for (int i = 1; i <= config.getPatients(); i++) {
+                String id = String.format("SIMP%05d", i);
+                patientIDs.add(id);
+                if (users.find(id) == null) {
+                    String name = "Sim Patient " + i;
+                    transaction.append(Storage.PATIENT_LIST, new String[]{id, "password", name, "Female", "1/1/1990", "00000000", id.toLowerCase() + "@example.com", "O+", "NA"});
+                    transaction.append(Storage.USER, new String[]{id, "password", UserRole.PATIENT.name(), name});
+                }
+            }
+            transaction.commit();
+        }
+
+        for (String[] medicine : Storage.table(Storage.MEDICINE_LIST).readAll()) {
+            medicines.add(medicine[0].trim());
+        }
+
+        for (int day = 0; day < config.getDays(); day++) {
+            openDay(doctors);
+        }
+    }
+
+    private static void addStaff(Administrator administrator, Table users, String id, String name, UserRole role) throws IOException {
+        if (users.find(id) == null) {
+            administrator.addStaff(id, name, role.name(), "Female", 40);
+        }
+    }
+
+    /**
+     * Opens the next day's slots for some doctors.
+     */
+    private void openDay(List<Doctor> openingDoctors) {
+        String date = LocalDate.now().plusDays(nextDay.getAndIncrement()).format(DATE_FORMAT);
+        for (Doctor doctor : openingDoctors) {
+            doctor.setAvailability(date, timeSlots);
+        }
+        openDates.add(date);
+    }
+
+    /**
+     * Performs the operations on the worker threads back to back.
+     */
+    private void runClosedLoop() throws InterruptedException {
+        ExecutorService workers = Executors.newFixedThreadPool(config.getThreads());
+        AtomicInteger next = new AtomicInteger();
+        for (int i = 0; i < config.getThreads(); i++) {
+            workers.execute(() -> {
+                int index;
+                while ((index = next.getAndIncrement()) < config.getOperations()) {
+                    Random random = new Random(config.getSeed() * 31 + index);
+                    Operation operation = chooseOperation(random);
+                    long start = System.nanoTime();
+                    Operation.Outcome outcome = perform(operation, random);
+                    stats.get(operation).record(System.nanoTime() - start, outcome);
+                }
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Submits the operations at their arrival times. Latency is measured from the arrival time,
+     * so time spent waiting for a free worker counts.
+     */
+    private void runOpenLoop() throws InterruptedException {
+        ExecutorService workers = Executors.newFixedThreadPool(config.getThreads());
+        Random arrivals = new Random(config.getSeed());
+        long meanGapNanos = (long) (1e9 / config.getArrivalRate());
+        long arrival = System.nanoTime();
+        for (int i = 0; i < config.getOperations(); i++) {
+            arrival += (long) (-Math.log(1 - arrivals.nextDouble()) * meanGapNanos);
+            long wait = arrival - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            Random random = new Random(config.getSeed() * 31 + i);
+            Operation operation = chooseOperation(random);
+            long arrivedAt = arrival;
+            workers.execute(() -> {
+                Operation.Outcome outcome = perform(operation, random);
+                stats.get(operation).record(System.nanoTime() - arrivedAt, outcome);
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    private Operation chooseOperation(Random random) {
+        int pick = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < operations.length; i++) {
+            if (pick < cumulativeWeights[i]) {
+                return operations[i];
+            }
+        }
+        return operations[operations.length - 1];
+    }
+
+    /**
+     * Performs one operation as a randomly chosen user of the operation's role.
+     */
+    private Operation.Outcome perform(Operation operation, Random random) {
+        try {
+            switch (operation) {
+                case SET_AVAILABILITY:
+                    openDay(Collections.singletonList(pick(doctors, random)));
+                    return Operation.Outcome.SUCCESS;
+                case BOOK:
+                    return book(random);
+                case RESCHEDULE:
+                    return reschedule(random);
+                case CANCEL:
+                    return cancel(random);
+                case ACCEPT:
+                case DECLINE:
+                    return respond(operation, random);
+                case RECORD_OUTCOME:
+                    return recordOutcome(random);
+                case DISPENSE:
+                    return dispense(random);
+                case REQUEST_STOCK:
+                    if (medicines.isEmpty()) {
+                        return Operation.Outcome.REJECTED;
+                    }
+                    pick(pharmacists, random).submitReplenishmentRequest(pick(medicines, random), 10 + random.nextInt(91));
+                    return Operation.Outcome.SUCCESS;
+                case PAY_BILLS:
+                    return payBills(random);
+                case APPROVE_STOCK:
+                    return pick(administrators, random).approvePendingReplenishmentRequests() > 0
+                            ? Operation.Outcome.SUCCESS : Operation.Outcome.REJECTED;
+                case VIEW_REPORTS:
+                    pick(administrators, random).viewHospitalReports();
+                    return Operation.Outcome.SUCCESS;
+                default:
+                    return Operation.Outcome.REJECTED;
+            }
+        } catch (RejectedExecutionException e) {
+            // Turned away by admission control
+            return Operation.Outcome.REJECTED;
+        } catch (Exception e) {
+            if (errors.size() < MAX_ERRORS) {
+                errors.add(operation + ": " + e);
+            }
+            return Operation.Outcome.ERROR;
+        }
+    }
+
+    private Operation.Outcome book(Random random) {
+        Doctor doctor = pick(doctors, random);
+        String date = pick(openDates, random);
+        String timeSlot = pick(Arrays.asList(timeSlots), random);
+        if (!looksAvailable(doctor.getDoctorID(), date, timeSlot)) {
+            return Operation.Outcome.REJECTED;
+        }
+        String appointmentID = appointmentService.scheduleAppointment(pick(patientIDs, random), doctor.getDoctorID(), date, startTime(timeSlot));
+        return appointmentID != null ? Operation.Outcome.SUCCESS : Operation.Outcome.CONFLICT;
+    }
+
+    private Operation.Outcome reschedule(Random random) {
+        Appointment appointment = pickAppointment(AppointmentStatus.PENDING, random);
+        if (appointment == null) {
+            return Operation.Outcome.REJECTED;
+        }
+        String date = pick(openDates, random);
+        String timeSlot = pick(Arrays.asList(timeSlots), random);
+        if (!looksAvailable(appointment.getDoctorID(), date, timeSlot)) {
+            return Operation.Outcome.REJECTED;
+        }
+        return appointmentService.rescheduleAppointment(appointment.getAppointmentID(), date, startTime(timeSlot))
+                ? Operation.Outcome.SUCCESS : Operation.Outcome.CONFLICT;
+    }
+
+    private Operation.Outcome cancel(Random random) {
+        Appointment appointment = pickAppointment(AppointmentStatus.PENDING, random);
+        if (appointment == null) {
+            return Operation.Outcome.REJECTED;
+        }
+        appointmentService.cancelAppointment(appointment.getAppointmentID());
+        return Operation.Outcome.SUCCESS;
+    }
+
+    private Operation.Outcome respond(Operation operation, Random random) {
+        Doctor doctor = pick(doctors, random);
+        List<Appointment> pending = DoctorScheduleIndex.getInstance().getAppointments(doctor.getDoctorID(), AppointmentStatus.PENDING.name());
+        if (pending.isEmpty()) {
+            return Operation.Outcome.REJECTED;
+        }
+        String appointmentID = pick(pending, random).getAppointmentID();
+        if (operation == Operation.ACCEPT) {
+            doctor.acceptAppointment(appointmentID);
+        } else {
+            doctor.declineAppointment(appointmentID);
+        }
+        return Operation.Outcome.SUCCESS;
+    }
+
+    private Operation.Outcome recordOutcome(Random random) {
+        Doctor doctor = pick(doctors, random);
+        List<Appointment> confirmed = doctor.getUpcomingAppointments(null, PAGE_SIZE).getItems();
+        if (confirmed.isEmpty() || medicines.isEmpty()) {
+            return Operation.Outcome.REJECTED;
+        }
+        Appointment appointment = pick(confirmed, random);
+        doctor.recordAppointmentOutcome(appointment.getAppointmentID(), "checkup", pick(medicines, random), 1 + random.nextInt(5),
+                "rest", appointment.getDate(), "consultation", "simulated visit");
+        return Operation.Outcome.SUCCESS;
+    }
+
+    private Operation.Outcome dispense(Random random) {
+        List<String[]> pending = PrescriptionQueue.getInstance().peek(PAGE_SIZE);
+        if (pending.isEmpty()) {
+            return Operation.Outcome.REJECTED;
+        }
+        pick(pharmacists, random).updatePrescriptionStatus(pick(pending, random)[0]);
+        return Operation.Outcome.SUCCESS;
+    }
+
+    private Operation.Outcome payBills(Random random) throws IOException {
+        PatientBillIndex bills = PatientBillIndex.getInstance();
+        Page<String[]> pending = Storage.table(Storage.BILL).scan(null, PAGE_SIZE, bill -> bills.isOutstanding(bill[0]));
+        if (pending.isEmpty()) {
+            return Operation.Outcome.REJECTED;
+        }
+        Appointment appointment = DoctorScheduleIndex.getInstance().get(pick(pending.getItems(), random)[0]);
+        if (appointment == null) {
+            return Operation.Outcome.REJECTED;
+        }
+        return new Billing(appointment.getPatientID()).payPendingBills("Good service") > 0
+                ? Operation.Outcome.SUCCESS : Operation.Outcome.REJECTED;
+    }
+
+    /**
+     * Picks an appointment with a given status from the schedule of a random doctor.
+     */
+    private Appointment pickAppointment(AppointmentStatus status, Random random) {
+        List<Appointment> appointments = DoctorScheduleIndex.getInstance().getAppointments(pick(doctors, random).getDoctorID(), status.name());
+        return appointments.isEmpty() ? null : pick(appointments, random);
+    }
+
+    private static boolean looksAvailable(String doctorID, String date, String timeSlot) {
+        AvailabilitySlot slot = DoctorAvailabilityIndex.getInstance().getSlot(doctorID, date, timeSlot);
+        return slot != null && slot.getStatus().equalsIgnoreCase(DoctorAvailabilityStatus.AVAILABLE.name());
+    }
+
+    private static String startTime(String timeSlot) {
+        return timeSlot.substring(0, timeSlot.indexOf('-'));
+    }
+
+    private static <T> T pick(List<T> items, Random random) {
+        return items.get(random.nextInt(items.size()));
+    }
+
+    /**
+     * Copies the data files of a directory into a new temporary directory, so that a run can
+     * change them without touching the original.
+     *
+     * @param source The data directory to copy
+     * @param prefix The prefix of the temporary directory's name
+     * @return The temporary directory holding the copy
+     * @throws IOException if the files cannot be copied
+     */
+    public static Path copyDataDirectory(Path source, String prefix) throws IOException {
+        Path copy = Files.createTempDirectory(prefix);
+        if (Files.isDirectory(source)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(source)) {
+                for (Path file : files) {
+                    if (Files.isRegularFile(file)) {
+                        Files.copy(file, copy.resolve(file.getFileName()));
+                    }
+                }
+            }
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,179 @@
+package storage;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * The Archive class is the cold tier of the hospital's data: rows moved out of a table's live
+ * storage into immutable, compressed {@link ArchiveSegment} files in the {@code archive}
+ * subdirectory of the data directory. Each archiving run adds one segment per table, named after
+ * the table and a sequence number ({@code Appointment-000003.seg}); segments are never changed
+ * once written.
+ *
+ * <p>Services keep reading and writing the live tables as before. Readers that need the full
+ * history wrap a live table with {@link #history(Table)}, which consults the segments' indexes
+ * as well, so nothing is lost to them when rows are archived.</p>
+ */
+public final class Archive {
+    private final Path directory;
+    private final Map<Path, ArchiveSegment> openSegments = new HashMap<>();
+    private Map<String, List<ArchiveSegment>> segmentsByTable = new HashMap<>();
+    private long listedModified = Long.MIN_VALUE;
+
+    /**
+     * Constructs an Archive over a directory. The directory is created when the first segment
+     * is written.
+     *
+     * @param directory The directory holding the segment files
+     */
+    public Archive(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Gets the directory holding the segment files.
+     *
+     * @return The archive directory
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Writes rows of a table to a new segment, after every existing segment of the table. The
+     * segment is complete and on disk before it becomes visible to readers.
+     *
+     * @param tableName The table the rows were taken from
+     * @param header    The header line of the table
+     * @param rows      The rows to archive; nothing is written if there are none
+     * @throws IOException if the segment cannot be written
+     */
+    public synchronized void write(String tableName, String header, List<String[]> rows) throws IOException {
+        if (rows.isEmpty()) {
+            return;
+        }
+        Files.createDirectories(directory);
+        List<ArchiveSegment> existing = segments(tableName);
+        int sequence = existing.isEmpty() ? 1 : existing.get(existing.size() - 1).getSequence() + 1;
+        Path file = directory.resolve(String.format("%s-%06d%s", tableName, sequence, ArchiveSegment.SUFFIX));
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+
+        ArchiveSegment.write(temporary, tableName, header, rows);
+        try {
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, file);
+        }
+        listedModified = Long.MIN_VALUE;
+    }
+
+    /**
+     * Looks up the first archived row of a table with a key, using the segments' indexes.
+     *
+     * @param tableName The table name
+     * @param key       The value of the first column
+     * @return The row, or null if no archived row has that key
+     * @throws IOException if a segment cannot be read
+     */
+    public String[] find(String tableName, String key) throws IOException {
+        for (ArchiveSegment segment : segments(tableName)) {
+            String[] row = segment.find(key);
+            if (row != null) {
+                return row;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Visits the archived rows of a table, oldest segment first, until the visitor asks to stop.
+     *
+     * @param tableName The table name
+     * @param visitor   The visitor called for each row
+     * @throws IOException if a segment cannot be read
+     */
+    public void scan(String tableName, RowVisitor visitor) throws IOException {
+        for (ArchiveSegment segment : segments(tableName)) {
+            if (!segment.scan(0, visitor)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Counts the archived rows of a table.
+     *
+     * @param tableName The table name
+     * @return The number of rows in the table's segments
+     * @throws IOException if a segment cannot be read
+     */
+    public int count(String tableName) throws IOException {
+        int count = 0;
+        for (ArchiveSegment segment : segments(tableName)) {
+            count += segment.getRowCount();
+        }
+        return count;
+    }
+
+    /**
+     * Wraps a live table in a read-only view of its full history: the table's archived rows,
+     * oldest first, followed by its live rows. Lookups by key try the live table first. An
+     * archived row that is also still in the live table, as happens if archiving is interrupted,
+     * is only visited once.
+     *
+     * @param table The live table, or a table of a {@link Snapshot}
+     * @return The read-only history of the table
+     */
+    public Table history(Table table) {
+        return new HistoryTable(table, this);
+    }
+
+    /**
+     * Gets the segments of a table in sequence order, listing the directory again only if it
+     * has changed since it was last listed.
+     *
+     * @param tableName The table name
+     * @return The table's segments
+     * @throws IOException if the directory or a segment cannot be read
+     */
+    synchronized List<ArchiveSegment> segments(String tableName) throws IOException {
+        long modified;
+        try {
+            modified = Files.getLastModifiedTime(directory).toMillis();
+        } catch (NoSuchFileException e) {
+            return Collections.emptyList();
+        }
+        if (modified != listedModified) {
+            Map<String, List<ArchiveSegment>> listed = new HashMap<>();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + ArchiveSegment.SUFFIX)) {
+                for (Path file : files) {
+                    String name = file.getFileName().toString();
+                    int separator = name.lastIndexOf('-');
+                    if (separator <= 0) {
+                        continue;
+                    }
+                    String table = name.substring(0, separator);
+                    int sequence;
+                    try {
+                        sequence = Integer.parseInt(name.substring(separator + 1, name.length() - ArchiveSegment.SUFFIX.length()));
+                    } catch (NumberFormatException e) {
+                        continue;
+                    }
+                    ArchiveSegment segment = openSegments.get(file);
+                    if (segment == null) {
+                        segment = ArchiveSegment.open(file, table, sequence);
+                        openSegments.put(file, segment);
+                    }
+                    listed.computeIfAbsent(table, key -> new ArrayList<>()).add(segment);
+                }
+            }
+            for (List<ArchiveSegment> segments : listed.values()) {
+                segments.sort(Comparator.comparingInt(ArchiveSegment::getSequence));
+            }
+            segmentsByTable = listed;
+            listedModified = modified;
+        }
+        return segmentsByTable.getOrDefault(tableName, Collections.emptyList());
+    }
+}
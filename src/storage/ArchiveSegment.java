@@ -0,0 +1,307 @@
+package storage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The ArchiveSegment class is one immutable file of archived rows of a single table. Rows are
+ * stored in blocks of about {@link #BLOCK_BYTES} of CSV text, each compressed on its own with a
+ * {@link Deflater}, followed by an index of the blocks and of the first block holding each key.
+ * A lookup by key reads and inflates a single block; a scan inflates the blocks in order.
+ *
+ * <p>The file starts with a magic number, the format version, the table name and its header
+ * line. The index is written after the last block, and the file ends with the position of the
+ * index and the magic number again, so a segment cut short while being written is rejected.</p>
+ */
+final class ArchiveSegment {
+    static final String SUFFIX = ".seg";
+    static final int BLOCK_BYTES = 64 * 1024;
+
+    private static final int MAGIC = 0x484D5341;
+    private static final int VERSION = 1;
+    private static final int TRAILER_BYTES = Long.BYTES + Integer.BYTES;
+
+    private final Path file;
+    private final String tableName;
+    private final int sequence;
+    private final String header;
+    private final long[] blockOffsets;
+    private final int[] blockRawLengths;
+    private final int[] blockCompressedLengths;
+    private final int[] blockRowCounts;
+    private final Map<String, Integer> blockByKey;
+
+    private ArchiveSegment(Path file, String tableName, int sequence, String header, long[] blockOffsets, int[] blockRawLengths,
+                           int[] blockCompressedLengths, int[] blockRowCounts, Map<String, Integer> blockByKey) {
+        this.file = file;
+        this.tableName = tableName;
+        this.sequence = sequence;
+        this.header = header;
+        this.blockOffsets = blockOffsets;
+        this.blockRawLengths = blockRawLengths;
+        this.blockCompressedLengths = blockCompressedLengths;
+        this.blockRowCounts = blockRowCounts;
+        this.blockByKey = blockByKey;
+    }
+
+    /**
+     * Writes rows to a new segment file and forces it to disk.
+     *
+     * @param file      The file to create
+     * @param tableName The name of the table the rows belong to
+     * @param header    The header line of the table
+     * @param rows      The rows, in the order they are to be scanned
+     * @throws IOException if the file cannot be written
+     */
+    static void write(Path file, String tableName, String header, List<String[]> rows) throws IOException {
+        List<long[]> blocks = new ArrayList<>();
+        Map<String, Integer> blockByKey = new LinkedHashMap<>();
+        Deflater deflater = new Deflater();
+        try (FileOutputStream stream = new FileOutputStream(file.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeUTF(tableName);
+            out.writeUTF(header);
+            long position = out.size();
+
+            ByteArrayOutputStream block = new ByteArrayOutputStream(BLOCK_BYTES + 1024);
+            int blockRows = 0;
+            for (int i = 0; i < rows.size(); i++) {
+                String[] row = rows.get(i);
+                blockByKey.putIfAbsent(row.length > 0 ? row[0] : "", blocks.size());
+                block.write(String.join(",", row).getBytes(StandardCharsets.UTF_8));
+                block.write('\n');
+                blockRows++;
+                if (block.size() >= BLOCK_BYTES || i == rows.size() - 1) {
+                    byte[] compressed = deflate(deflater, block.toByteArray());
+                    out.writeInt(compressed.length);
+                    out.write(compressed);
+                    blocks.add(new long[]{position + Integer.BYTES, block.size(), compressed.length, blockRows});
+                    position += Integer.BYTES + compressed.length;
+                    block.reset();
+                    blockRows = 0;
+                }
+            }
+
+            long indexOffset = position;
+            out.writeInt(blocks.size());
+            for (long[] entry : blocks) {
+                out.writeLong(entry[0]);
+                out.writeInt((int) entry[1]);
+                out.writeInt((int) entry[2]);
+                out.writeInt((int) entry[3]);
+            }
+            out.writeInt(blockByKey.size());
+            for (Map.Entry<String, Integer> entry : blockByKey.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue());
+            }
+            out.writeLong(indexOffset);
+            out.writeInt(MAGIC);
+            out.flush();
+            stream.getFD().sync();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Opens a segment file and reads its index.
+     *
+     * @param file      The segment file
+     * @param tableName The name of the table the segment belongs to
+     * @param sequence  The number of the segment within its table
+     * @return The segment
+     * @throws IOException if the file cannot be read or is not a complete segment
+     */
+    static ArchiveSegment open(Path file, String tableName, int sequence) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_BYTES);
+            if (length < TRAILER_BYTES || channel.read(trailer, length - TRAILER_BYTES) != TRAILER_BYTES) {
+                throw new IOException(file + " is not a complete archive segment");
+            }
+            trailer.flip();
+            long indexOffset = trailer.getLong();
+            if (trailer.getInt() != MAGIC || indexOffset < 0 || indexOffset > length - TRAILER_BYTES) {
+                throw new IOException(file + " is not a complete archive segment");
+            }
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(0))));
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not an archive segment");
+            }
+            int version = in.readUnsignedByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported archive segment version " + version + " in " + file);
+            }
+            String storedName = in.readUTF();
+            if (!storedName.equals(tableName)) {
+                throw new IOException(file + " holds rows of " + storedName + ", not " + tableName);
+            }
+            String header = in.readUTF();
+
+            in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(indexOffset))));
+            int blockCount = in.readInt();
+            long[] offsets = new long[blockCount];
+            int[] rawLengths = new int[blockCount];
+            int[] compressedLengths = new int[blockCount];
+            int[] rowCounts = new int[blockCount];
+            for (int i = 0; i < blockCount; i++) {
+                offsets[i] = in.readLong();
+                rawLengths[i] = in.readInt();
+                compressedLengths[i] = in.readInt();
+                rowCounts[i] = in.readInt();
+            }
+            int keyCount = in.readInt();
+            Map<String, Integer> blockByKey = new HashMap<>(keyCount * 2);
+            for (int i = 0; i < keyCount; i++) {
+                blockByKey.put(in.readUTF(), in.readInt());
+            }
+            return new ArchiveSegment(file, tableName, sequence, header, offsets, rawLengths, compressedLengths, rowCounts, blockByKey);
+        } catch (EOFException e) {
+            throw new IOException(file + " is not a complete archive segment", e);
+        }
+    }
+
+    /**
+     * Gets the number of the segment within its table; later segments have higher numbers.
+     *
+     * @return The segment number
+     */
+    int getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Gets the header line the table had when the segment was written.
+     *
+     * @return The comma-separated column names
+     */
+    String getHeader() {
+        return header;
+    }
+
+    /**
+     * Gets the number of rows in the segment.
+     *
+     * @return The row count
+     */
+    int getRowCount() {
+        int count = 0;
+        for (int rows : blockRowCounts) {
+            count += rows;
+        }
+        return count;
+    }
+
+    /**
+     * Looks up the first row of the segment with a key, inflating only the block that holds it.
+     *
+     * @param key The value of the first column
+     * @return The row, or null if the segment has no row with that key
+     * @throws IOException if the segment cannot be read
+     */
+    String[] find(String key) throws IOException {
+        Integer block = blockByKey.get(key);
+        if (block == null) {
+            return null;
+        }
+        for (String[] row : readBlock(block)) {
+            if (row[0].equals(key)) {
+                return row;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Visits the rows of the segment in order, starting from a row number. Blocks that lie
+     * wholly before the starting row are skipped without being read.
+     *
+     * @param fromRow The number of the first row to visit, 0 for the first row of the segment
+     * @param visitor The visitor called for each row
+     * @return true if every row was visited; false if the visitor stopped the scan
+     * @throws IOException if the segment cannot be read
+     */
+    boolean scan(int fromRow, RowVisitor visitor) throws IOException {
+        int skip = fromRow;
+        for (int block = 0; block < blockRowCounts.length; block++) {
+            if (skip >= blockRowCounts[block]) {
+                skip -= blockRowCounts[block];
+                continue;
+            }
+            List<String[]> rows = readBlock(block);
+            for (int i = skip; i < rows.size(); i++) {
+                if (!visitor.visit(rows.get(i))) {
+                    return false;
+                }
+            }
+            skip = 0;
+        }
+        return true;
+    }
+
+    private List<String[]> readBlock(int block) throws IOException {
+        ByteBuffer compressed = ByteBuffer.allocate(blockCompressedLengths[block]);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (compressed.hasRemaining()) {
+                if (channel.read(compressed, blockOffsets[block] + compressed.position()) < 0) {
+                    throw new EOFException("Archive segment " + file + " is truncated");
+                }
+            }
+        }
+
+        byte[] raw = new byte[blockRawLengths[block]];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed.array());
+            int length = 0;
+            while (length < raw.length && !inflater.finished()) {
+                int inflated = inflater.inflate(raw, length, raw.length - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += inflated;
+            }
+            if (length != raw.length) {
+                throw new IOException("Corrupt block " + block + " in archive segment " + file);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt block " + block + " in archive segment " + file, e);
+        } finally {
+            inflater.end();
+        }
+
+        List<String[]> rows = new ArrayList<>(blockRowCounts[block]);
+        int start = 0;
+        String text = new String(raw, StandardCharsets.UTF_8);
+        for (int end = text.indexOf('\n'); end >= 0; end = text.indexOf('\n', start)) {
+            rows.add(text.substring(start, end).split(","));
+            start = end + 1;
+        }
+        return rows;
+    }
+
+    private static byte[] deflate(Deflater deflater, byte[] raw) {
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 2 + 64);
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            int length = deflater.deflate(buffer);
+            compressed.write(buffer, 0, length);
+        }
+        return compressed.toByteArray();
+    }
+}
@@ -0,0 +1,719 @@
+package storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.BiPredicate;
+import java.util.zip.CRC32;
+
+/**
+ * The BTreeFile class is an embedded key-value store kept in a single file as a B+ tree of
+ * fixed-size pages. Keys are ordered as unsigned bytes.
+ *
+ * <p>Pages are copy-on-write: a change never overwrites a page that the last commit refers to.
+ * Changed nodes are kept in memory until {@link #commit()}, which writes them to free or new
+ * pages, syncs the file, and then publishes the new root in one of two alternating header pages.
+ * A crash before the header is written leaves the previous commit intact. Pages released by a
+ * commit are recorded in a free-page chain and reused by later commits.</p>
+ *
+ * <p>Because committed pages never change, a {@link View} of the tree as of one commit stays
+ * valid while later commits are made: it only has to keep the pages it can reach from being
+ * reused. Pages released while a view of an earlier commit is open are held back from reuse
+ * until every such view is closed. They are still recorded in the free-page chain, so a restart
+ * reclaims them.</p>
+ *
+ * <p>Committed pages are read through an LRU page cache. The class is not thread-safe on its
+ * own; {@link BTreeStorageEngine} serialises access to it. As the cache and the free pages are
+ * only known to the process that has the file open, the file is locked while it is open, and
+ * opening it again, from another process or this one, is refused.</p>
+ */
+final class BTreeFile implements AutoCloseable {
+    static final int PAGE_SIZE = 4096;
+
+    /**
+     * The largest key plus value that fits in a leaf, chosen so that any node split in half by
+     * size fits in a page.
+     */
+    static final int MAX_ENTRY_SIZE = (PAGE_SIZE - 16) / 4;
+
+    private static final long MAGIC = 0x484D534254524545L; // "HMSBTREE"
+    private static final int VERSION = 1;
+    private static final int CACHE_PAGES = 1024;
+    private static final byte LEAF = 1;
+    private static final byte BRANCH = 2;
+    private static final byte FREE_LIST = 3;
+    private static final int FREE_IDS_PER_PAGE = (PAGE_SIZE - 1 - 8 - 4) / 8;
+    private static final long NO_PAGE = -1;
+
+    private final FileChannel channel;
+    private final Map<Long, Node> cache = new LinkedHashMap<Long, Node>(CACHE_PAGES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Node> eldest) {
+            return size() > CACHE_PAGES;
+        }
+    };
+
+    private long committedRoot;
+    private long pageCount;
+    private long transactionID;
+    private List<Long> durableFreeChain = new ArrayList<>();
+    private TreeSet<Long> freePages = new TreeSet<>();
+    private final Set<Long> pendingFree = new HashSet<>();
+    private final TreeMap<Long, Integer> pinnedTransactions = new TreeMap<>();
+    private final TreeMap<Long, List<Long>> retiredPages = new TreeMap<>();
+    private Object root;
+
+    /**
+     * Opens a B-tree file, creating an empty tree if the file is new.
+     *
+     * @param path The path to the file
+     * @throws IOException if the file cannot be opened, is open elsewhere or is not a valid B-tree
+     *                     file
+     */
+    BTreeFile(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // The lock is held until the channel is closed
+        String holder = null;
+        try {
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                holder = "another process";
+            }
+        } catch (OverlappingFileLockException e) {
+            holder = "this process";
+        }
+        if (holder != null) {
+            channel.close();
+            throw new IOException(path + " is in use by " + holder + "; only one may have a B-tree file open at a time");
+        }
+        if (channel.size() == 0) {
+            pageCount = 2; // Two header pages
+            root = new Node(true);
+            transactionID = 0;
+            commit();
+        } else {
+            readHeader();
+            root = committedRoot;
+        }
+    }
+
+    /**
+     * Looks up the value stored under a key.
+     *
+     * @param key The key
+     * @return The value, or null if the key is absent
+     * @throws IOException if a page cannot be read
+     */
+    byte[] get(byte[] key) throws IOException {
+        return get(root, key);
+    }
+
+    private byte[] get(Object from, byte[] key) throws IOException {
+        Node node = load(from);
+        while (!node.leaf) {
+            node = load(node.children.get(childIndex(node, key)));
+        }
+        int index = search(node.keys, key);
+        return index >= 0 ? node.values.get(index) : null;
+    }
+
+    /**
+     * Visits the entries whose keys lie in [from, to) in key order.
+     *
+     * @param from    The first key to visit
+     * @param to      The key to stop before
+     * @param visitor Called with each key and value; returns false to stop
+     * @throws IOException if a page cannot be read
+     */
+    void scan(byte[] from, byte[] to, BiPredicate<byte[], byte[]> visitor) throws IOException {
+        scanNode(load(root), from, to, visitor);
+    }
+
+    /**
+     * Opens a read-only view of the last commit. Uncommitted changes are not visible in it.
+     *
+     * @return The view, to be closed when no longer needed
+     */
+    View openView() {
+        pinnedTransactions.merge(transactionID, 1, Integer::sum);
+        return new View(transactionID, committedRoot);
+    }
+
+    /**
+     * Stores a value under a key, replacing any previous value.
+     *
+     * @param key   The key
+     * @param value The value
+     * @throws IOException              if a page cannot be read
+     * @throws IllegalArgumentException if the key and value are too large for a page
+     */
+    void put(byte[] key, byte[] value) throws IOException {
+        if (key.length + value.length > MAX_ENTRY_SIZE) {
+            throw new IllegalArgumentException("Entry of " + (key.length + value.length) + " bytes exceeds " + MAX_ENTRY_SIZE);
+        }
+        Object result = insert(load(root), key, value);
+        if (result instanceof Split) {
+            Split split = (Split) result;
+            Node newRoot = new Node(false);
+            newRoot.children.add(split.left);
+            newRoot.keys.add(split.separator);
+            newRoot.children.add(split.right);
+            root = newRoot;
+        } else {
+            root = result;
+        }
+    }
+
+    /**
+     * Removes a key.
+     *
+     * @param key The key
+     * @throws IOException if a page cannot be read
+     */
+    void delete(byte[] key) throws IOException {
+        Node current = load(root);
+        Node result = remove(current, key);
+        if (result == current) {
+            return;
+        }
+        if (result == null) {
+            root = new Node(true);
+            return;
+        }
+        while (!result.leaf && result.children.size() == 1) {
+            release(result);
+            result = load(result.children.get(0));
+        }
+        root = result;
+    }
+
+    /**
+     * Makes every change since the last commit durable.
+     *
+     * @throws IOException if the file cannot be written; the uncommitted changes are then discarded
+     */
+    void commit() throws IOException {
+        if (!(root instanceof Node) && pendingFree.isEmpty()) {
+            return;
+        }
+        long savedPageCount = pageCount;
+        long savedTransactionID = transactionID;
+        TreeSet<Long> savedFreePages = new TreeSet<>(freePages);
+        try {
+            long newRoot = write(root);
+
+            // Pages released now may still be read through an open view of an earlier commit
+            boolean retire = !pinnedTransactions.isEmpty();
+            TreeSet<Long> nextFree = new TreeSet<>(freePages);
+            nextFree.addAll(durableFreeChain);
+            List<Long> held = new ArrayList<>();
+            retiredPages.values().forEach(held::addAll);
+            if (retire) {
+                held.addAll(pendingFree);
+            } else {
+                nextFree.addAll(pendingFree);
+            }
+
+            List<Long> chain = new ArrayList<>();
+            while ((long) chain.size() * FREE_IDS_PER_PAGE < nextFree.size() + held.size()) {
+                Long page = freePages.pollFirst();
+                if (page == null) {
+                    page = pageCount++;
+                }
+                nextFree.remove(page);
+                chain.add(page);
+            }
+            List<Long> recorded = new ArrayList<>(nextFree);
+            recorded.addAll(held);
+            writeFreeChain(chain, recorded);
+            channel.force(false);
+
+            transactionID++;
+            writeHeader(newRoot, chain.isEmpty() ? NO_PAGE : chain.get(0));
+            channel.force(false);
+
+            committedRoot = newRoot;
+            root = newRoot;
+            freePages = nextFree;
+            durableFreeChain = chain;
+            if (retire && !pendingFree.isEmpty()) {
+                retiredPages.put(transactionID, new ArrayList<>(pendingFree));
+            }
+            pendingFree.clear();
+        } catch (IOException | RuntimeException e) {
+            pageCount = savedPageCount;
+            transactionID = savedTransactionID;
+            freePages = savedFreePages;
+            rollback();
+            throw e;
+        }
+    }
+
+    /**
+     * Discards every change since the last commit.
+     */
+    void rollback() {
+        root = committedRoot;
+        pendingFree.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Releases a view's hold on its commit, and makes the pages that no open view can reach any
+     * more available for reuse.
+     */
+    private void unpin(long transaction) {
+        pinnedTransactions.computeIfPresent(transaction, (t, count) -> count == 1 ? null : count - 1);
+        // A page retired by commit T is reachable only from commits before T
+        long oldest = pinnedTransactions.isEmpty() ? Long.MAX_VALUE : pinnedTransactions.firstKey();
+        Map<Long, List<Long>> reusable = retiredPages.headMap(oldest, true);
+        reusable.values().forEach(freePages::addAll);
+        reusable.clear();
+    }
+
+    // ---- Tree operations -------------------------------------------------------------------
+
+    private boolean scanNode(Node node, byte[] from, byte[] to, BiPredicate<byte[], byte[]> visitor) throws IOException {
+        if (node.leaf) {
+            int index = search(node.keys, from);
+            for (int i = index >= 0 ? index : -(index + 1); i < node.keys.size(); i++) {
+                byte[] key = node.keys.get(i);
+                if (compare(key, to) >= 0 || !visitor.test(key, node.values.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        for (int i = childIndex(node, from); i < node.children.size(); i++) {
+            if (i > 0 && compare(node.keys.get(i - 1), to) >= 0) {
+                return false;
+            }
+            if (!scanNode(load(node.children.get(i)), from, to, visitor)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Object insert(Node node, byte[] key, byte[] value) throws IOException {
+        Node target;
+        if (node.leaf) {
+            int index = search(node.keys, key);
+            target = mutable(node);
+            if (index >= 0) {
+                target.values.set(index, value);
+            } else {
+                target.keys.add(-(index + 1), key);
+                target.values.add(-(index + 1), value);
+            }
+        } else {
+            int index = childIndex(node, key);
+            Object result = insert(load(node.children.get(index)), key, value);
+            target = mutable(node);
+            if (result instanceof Split) {
+                Split split = (Split) result;
+                target.children.set(index, split.left);
+                target.keys.add(index, split.separator);
+                target.children.add(index + 1, split.right);
+            } else {
+                target.children.set(index, result);
+            }
+        }
+        return target.size() > PAGE_SIZE ? split(target) : target;
+    }
+
+    private Split split(Node node) {
+        Node right = new Node(node.leaf);
+        if (node.leaf) {
+            int half = node.size() / 2;
+            int size = 3;
+            int at = 0;
+            while (at < node.keys.size() - 1 && size < half) {
+                size += 4 + node.keys.get(at).length + node.values.get(at).length;
+                at++;
+            }
+            at = Math.max(at, 1);
+            right.keys.addAll(node.keys.subList(at, node.keys.size()));
+            right.values.addAll(node.values.subList(at, node.values.size()));
+            node.keys.subList(at, node.keys.size()).clear();
+            node.values.subList(at, node.values.size()).clear();
+            return new Split(node, right.keys.get(0), right);
+        }
+        int half = node.size() / 2;
+        int size = 11;
+        int middle = 0;
+        while (middle < node.keys.size() - 2 && size < half) {
+            size += 10 + node.keys.get(middle).length;
+            middle++;
+        }
+        middle = Math.max(middle, 1);
+        byte[] separator = node.keys.get(middle);
+        right.keys.addAll(node.keys.subList(middle + 1, node.keys.size()));
+        right.children.addAll(node.children.subList(middle + 1, node.children.size()));
+        node.keys.subList(middle, node.keys.size()).clear();
+        node.children.subList(middle + 1, node.children.size()).clear();
+        return new Split(node, separator, right);
+    }
+
+    /**
+     * Removes a key below a node.
+     *
+     * @return The same node if nothing changed, null if the node became empty, or the changed copy
+     */
+    private Node remove(Node node, byte[] key) throws IOException {
+        if (node.leaf) {
+            int index = search(node.keys, key);
+            if (index < 0) {
+                return node;
+            }
+            Node target = mutable(node);
+            target.keys.remove(index);
+            target.values.remove(index);
+            return target.keys.isEmpty() ? null : target;
+        }
+        int index = childIndex(node, key);
+        Node child = load(node.children.get(index));
+        Node result = remove(child, key);
+        if (result == child) {
+            return node;
+        }
+        Node target = mutable(node);
+        if (result != null) {
+            target.children.set(index, result);
+            return target;
+        }
+        target.children.remove(index);
+        if (!target.keys.isEmpty()) {
+            target.keys.remove(index > 0 ? index - 1 : 0);
+        }
+        return target.children.isEmpty() ? null : target;
+    }
+
+    /**
+     * Returns a node that may be changed in this transaction: the node itself if it has not been
+     * written yet, or a copy of a committed node whose page is released on commit.
+     */
+    private Node mutable(Node node) {
+        if (node.pageID == NO_PAGE) {
+            return node;
+        }
+        pendingFree.add(node.pageID);
+        return node.copy();
+    }
+
+    private void release(Node node) {
+        if (node.pageID != NO_PAGE) {
+            pendingFree.add(node.pageID);
+        }
+    }
+
+    private static int childIndex(Node branch, byte[] key) {
+        int index = search(branch.keys, key);
+        return index >= 0 ? index + 1 : -(index + 1);
+    }
+
+    private static int search(List<byte[]> keys, byte[] key) {
+        int low = 0;
+        int high = keys.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int result = compare(keys.get(middle), key);
+            if (result < 0) {
+                low = middle + 1;
+            } else if (result > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    static int compare(byte[] first, byte[] second) {
+        return Arrays.compareUnsigned(first, second);
+    }
+
+    // ---- Pages -----------------------------------------------------------------------------
+
+    private Node load(Object reference) throws IOException {
+        if (reference instanceof Node) {
+            return (Node) reference;
+        }
+        long pageID = (Long) reference;
+        Node node = cache.get(pageID);
+        if (node == null) {
+            node = Node.decode(readPage(pageID), pageID);
+            cache.put(pageID, node);
+        }
+        return node;
+    }
+
+    /**
+     * Writes the unwritten nodes below a reference, children first.
+     *
+     * @return The page ID of the reference
+     */
+    private long write(Object reference) throws IOException {
+        if (!(reference instanceof Node)) {
+            return (Long) reference;
+        }
+        Node node = (Node) reference;
+        if (node.pageID != NO_PAGE) {
+            return node.pageID;
+        }
+        if (!node.leaf) {
+            for (int i = 0; i < node.children.size(); i++) {
+                node.children.set(i, write(node.children.get(i)));
+            }
+        }
+        Long pageID = freePages.pollFirst();
+        node.pageID = pageID != null ? pageID : pageCount++;
+        writePage(node.pageID, node.encode());
+        cache.put(node.pageID, node);
+        return node.pageID;
+    }
+
+    private void writeFreeChain(List<Long> chain, List<Long> free) throws IOException {
+        for (int i = 0; i < chain.size(); i++) {
+            ByteBuffer page = ByteBuffer.allocate(PAGE_SIZE);
+            page.put(FREE_LIST);
+            page.putLong(i + 1 < chain.size() ? chain.get(i + 1) : NO_PAGE);
+            int from = i * FREE_IDS_PER_PAGE;
+            int to = Math.min(free.size(), from + FREE_IDS_PER_PAGE);
+            page.putInt(to - from);
+            for (int j = from; j < to; j++) {
+                page.putLong(free.get(j));
+            }
+            writePage(chain.get(i), page);
+        }
+    }
+
+    private void writeHeader(long rootPage, long freeChainHead) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(PAGE_SIZE);
+        header.putLong(MAGIC).putInt(VERSION).putInt(PAGE_SIZE);
+        header.putLong(transactionID).putLong(rootPage).putLong(pageCount).putLong(freeChainHead);
+        CRC32 crc = new CRC32();
+        crc.update(header.array(), 0, header.position());
+        header.putLong(crc.getValue());
+        writePage(transactionID % 2, header);
+    }
+
+    private void readHeader() throws IOException {
+        long bestTransaction = -1;
+        long freeChainHead = NO_PAGE;
+        for (long slot = 0; slot < 2; slot++) {
+            ByteBuffer header = readPage(slot);
+            if (header.getLong() != MAGIC || header.getInt() != VERSION || header.getInt() != PAGE_SIZE) {
+                continue;
+            }
+            long transaction = header.getLong();
+            long rootPage = header.getLong();
+            long pages = header.getLong();
+            long chainHead = header.getLong();
+            CRC32 crc = new CRC32();
+            crc.update(header.array(), 0, header.position());
+            if (header.getLong() != crc.getValue() || transaction <= bestTransaction) {
+                continue;
+            }
+            bestTransaction = transaction;
+            committedRoot = rootPage;
+            pageCount = pages;
+            freeChainHead = chainHead;
+        }
+        if (bestTransaction < 0) {
+            throw new IOException("Not a valid B-tree file");
+        }
+        transactionID = bestTransaction;
+
+        for (long page = freeChainHead; page != NO_PAGE; ) {
+            ByteBuffer buffer = readPage(page);
+            if (buffer.get() != FREE_LIST) {
+                throw new IOException("Corrupt free-page chain at page " + page);
+            }
+            durableFreeChain.add(page);
+            long next = buffer.getLong();
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                freePages.add(buffer.getLong());
+            }
+            page = next;
+        }
+    }
+
+    private ByteBuffer readPage(long pageID) throws IOException {
+        ByteBuffer page = ByteBuffer.allocate(PAGE_SIZE);
+        long position = pageID * PAGE_SIZE;
+        while (page.hasRemaining()) {
+            if (channel.read(page, position + page.position()) < 0) {
+                throw new IOException("Unexpected end of file at page " + pageID);
+            }
+        }
+        page.flip();
+        return page;
+    }
+
+    private void writePage(long pageID, ByteBuffer page) throws IOException {
+        page.clear();
+        long position = pageID * PAGE_SIZE;
+        while (page.hasRemaining()) {
+            channel.write(page, position + page.position());
+        }
+    }
+
+    /**
+     * A node of the tree. Committed nodes have a page ID and are never changed; nodes created
+     * or copied in the current transaction have no page ID until they are written.
+     */
+    private static final class Node {
+        final boolean leaf;
+        final List<byte[]> keys = new ArrayList<>();
+        final List<byte[]> values = new ArrayList<>();
+        final List<Object> children = new ArrayList<>();
+        long pageID = NO_PAGE;
+
+        Node(boolean leaf) {
+            this.leaf = leaf;
+        }
+
+        Node copy() {
+            Node copy = new Node(leaf);
+            copy.keys.addAll(keys);
+            copy.values.addAll(values);
+            copy.children.addAll(children);
+            return copy;
+        }
+
+        int size() {
+            int size = 3;
+            if (leaf) {
+                for (int i = 0; i < keys.size(); i++) {
+                    size += 4 + keys.get(i).length + values.get(i).length;
+                }
+            } else {
+                size += 8;
+                for (byte[] key : keys) {
+                    size += 10 + key.length;
+                }
+            }
+            return size;
+        }
+
+        ByteBuffer encode() {
+            ByteBuffer page = ByteBuffer.allocate(PAGE_SIZE);
+            page.put(leaf ? LEAF : BRANCH);
+            page.putShort((short) keys.size());
+            if (leaf) {
+                for (int i = 0; i < keys.size(); i++) {
+                    page.putShort((short) keys.get(i).length).put(keys.get(i));
+                    page.putShort((short) values.get(i).length).put(values.get(i));
+                }
+            } else {
+                page.putLong((Long) children.get(0));
+                for (int i = 0; i < keys.size(); i++) {
+                    page.putShort((short) keys.get(i).length).put(keys.get(i));
+                    page.putLong((Long) children.get(i + 1));
+                }
+            }
+            return page;
+        }
+
+        static Node decode(ByteBuffer page, long pageID) throws IOException {
+            byte type = page.get();
+            if (type != LEAF && type != BRANCH) {
+                throw new IOException("Page " + pageID + " is not a tree node");
+            }
+            Node node = new Node(type == LEAF);
+            int count = page.getShort() & 0xFFFF;
+            if (node.leaf) {
+                for (int i = 0; i < count; i++) {
+                    node.keys.add(bytes(page));
+                    node.values.add(bytes(page));
+                }
+            } else {
+                node.children.add(page.getLong());
+                for (int i = 0; i < count; i++) {
+                    node.keys.add(bytes(page));
+                    node.children.add(page.getLong());
+                }
+            }
+            node.pageID = pageID;
+            return node;
+        }
+
+        private static byte[] bytes(ByteBuffer page) {
+            byte[] bytes = new byte[page.getShort() & 0xFFFF];
+            page.get(bytes);
+            return bytes;
+        }
+    }
+
+    /**
+     * A read-only view of the tree as of one commit. Like the file itself, a view is not
+     * thread-safe and must be used under the same lock.
+     */
+    final class View implements AutoCloseable {
+        private final long transaction;
+        private final Long rootPage;
+        private boolean closed;
+
+        private View(long transaction, long rootPage) {
+            this.transaction = transaction;
+            this.rootPage = rootPage;
+        }
+
+        /**
+         * Looks up the value stored under a key as of the view's commit.
+         *
+         * @param key The key
+         * @return The value, or null if the key was absent
+         * @throws IOException if a page cannot be read
+         */
+        byte[] get(byte[] key) throws IOException {
+            return BTreeFile.this.get(rootPage, key);
+        }
+
+        /**
+         * Visits the entries whose keys lie in [from, to) as of the view's commit, in key order.
+         *
+         * @param from    The first key to visit
+         * @param to      The key to stop before
+         * @param visitor Called with each key and value; returns false to stop
+         * @throws IOException if a page cannot be read
+         */
+        void scan(byte[] from, byte[] to, BiPredicate<byte[], byte[]> visitor) throws IOException {
+            scanNode(load(rootPage), from, to, visitor);
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                unpin(transaction);
+            }
+        }
+    }
+
+    /**
+     * The result of splitting an overfull node.
+     */
+    private static final class Split {
+        final Node left;
+        final byte[] separator;
+        final Node right;
+
+        Split(Node left, byte[] separator, Node right) {
+            this.left = left;
+            this.separator = separator;
+            this.right = right;
+        }
+    }
+}
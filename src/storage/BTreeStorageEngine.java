@@ -0,0 +1,449 @@
+package storage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The BTreeStorageEngine class keeps every table in a single embedded {@link BTreeFile}.
+ * Each row is stored under its table name and a sequence number, so rows keep their order,
+ * and an index entry maps the row's key column to its sequence number for lookups.
+ *
+ * <p>Transactions are applied and committed as one B-tree commit, so all of their writes become
+ * durable together or not at all. A table that does not exist in the B-tree file yet is imported
+ * from the CSV file of the same name in the import directory the first time it is used, which
+ * lets an existing data directory switch backends without any manual migration.</p>
+ *
+ * <p>A row too large for one B-tree entry is split into chunks stored under their own keys, and
+ * its row entry holds only a marker and the number of chunks; readers join the chunks again.</p>
+ *
+ * <p>Every table keeps a generation counting the commits that wrote it, and a transaction
+ * compares it with the generation of each table it read before it writes anything. Updates
+ * change the rows with their key in place, found through the key index.</p>
+ *
+ * <p>A {@link Snapshot} reads through a view of the commit that was current when it was taken.
+ * Commits made while it is open write new pages rather than changing the ones it reads.</p>
+ *
+ * <p>With a {@link ChangeLog}, the changes of each transaction are logged once its B-tree commit
+ * has succeeded, before the file's lock is released. Importing a table from CSV is not logged.</p>
+ */
+public class BTreeStorageEngine implements StorageEngine {
+    static final byte CHUNK = 'c';
+    static final byte GENERATION = 'g';
+    static final byte HEADER = 'h';
+    static final byte INDEX = 'k';
+    static final byte NEXT_SEQUENCE = 'n';
+    static final byte ROW = 'r';
+    private static final byte CHUNKED_ROW = 0;
+
+    private final BTreeFile file;
+    private final Path importDirectory;
+    private final Map<String, BTreeTable> tables = new ConcurrentHashMap<>();
+    private final ChangeLog changeLog;
+
+    /**
+     * Opens a BTreeStorageEngine.
+     *
+     * @param path            The B-tree file, created if it does not exist
+     * @param importDirectory The directory holding CSV files to import tables from
+     * @throws IOException if the B-tree file cannot be opened
+     */
+    public BTreeStorageEngine(Path path, Path importDirectory) throws IOException {
+        this(path, importDirectory, null);
+    }
+
+    /**
+     * Opens a BTreeStorageEngine that logs its changes.
+     *
+     * @param path            The B-tree file, created if it does not exist
+     * @param importDirectory The directory holding CSV files to import tables from
+     * @param changeLog       The log to record changes in, or null to record none
+     * @throws IOException if the B-tree file cannot be opened
+     */
+    public BTreeStorageEngine(Path path, Path importDirectory, ChangeLog changeLog) throws IOException {
+        this.file = new BTreeFile(path);
+        this.importDirectory = importDirectory;
+        this.changeLog = changeLog;
+    }
+
+    @Override
+    public Table table(String name) {
+        return tables.computeIfAbsent(name, n -> {
+            try {
+                synchronized (file) {
+                    ensureTable(n);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Error opening table " + n, e);
+            }
+            return new BTreeTable(n, file, this);
+        });
+    }
+
+    @Override
+    public Transaction begin() {
+        return new BufferedTransaction() {
+            @Override
+            protected Object read(String tableName, List<String[]> rows) throws IOException {
+                synchronized (file) {
+                    ensureTable(tableName);
+                    rows.addAll(readRows(tableName));
+                    return readCounter(tableName, GENERATION);
+                }
+            }
+
+            @Override
+            protected void apply(Map<String, TableWrites> writes) throws IOException {
+                synchronized (file) {
+                    List<ChangeEvent> changes = new ArrayList<>();
+                    long timestamp = System.currentTimeMillis();
+                    try {
+                        for (Map.Entry<String, Object> read : getReadVersions().entrySet()) {
+                            ensureTable(read.getKey());
+                            if (!read.getValue().equals(readCounter(read.getKey(), GENERATION))) {
+                                throw new WriteConflictException(read.getKey(), read.getKey() + " was changed by another writer");
+                            }
+                        }
+                        for (Map.Entry<String, TableWrites> entry : writes.entrySet()) {
+                            String name = entry.getKey();
+                            TableWrites tableWrites = entry.getValue();
+                            ensureTable(name);
+
+                            if (changeLog != null) {
+                                List<String[]> before = tableWrites.replacement != null && changeLog.captures(name)
+                                        ? readRows(name) : null;
+                                changes.addAll(changeLog.changes(name, timestamp, before, tableWrites.replacement, tableWrites.appended));
+                            }
+
+                            long sequence;
+                            if (tableWrites.replacement != null) {
+                                deleteRows(name);
+                                sequence = putRows(name, 0, tableWrites.replacement);
+                            } else {
+                                sequence = readCounter(name, NEXT_SEQUENCE);
+                            }
+                            sequence = putRows(name, sequence, tableWrites.appended);
+                            file.put(key(name, NEXT_SEQUENCE), Long.toString(sequence).getBytes(StandardCharsets.UTF_8));
+                            for (KeyedUpdate update : tableWrites.updates) {
+                                updateRows(name, update, timestamp, changes);
+                            }
+                            long generation = readCounter(name, GENERATION) + 1;
+                            file.put(key(name, GENERATION), Long.toString(generation).getBytes(StandardCharsets.UTF_8));
+                        }
+                        file.commit();
+                    } catch (IOException | RuntimeException e) {
+                        file.rollback();
+                        throw e instanceof IOException ? (IOException) e : new IOException(e.getMessage(), e);
+                    }
+                    if (changeLog != null) {
+                        changeLog.append(changes);
+                    }
+                }
+            }
+        };
+    }
+
+    @Override
+    public Object currentVersion(String name) throws IOException {
+        synchronized (file) {
+            ensureTable(name);
+            return readCounter(name, GENERATION);
+        }
+    }
+
+    @Override
+    public Snapshot snapshot() throws IOException {
+        Set<String> names = new TreeSet<>(Storage.tableNames());
+        names.addAll(tables.keySet());
+        BTreeFile.View view;
+        long changeOffset;
+        synchronized (file) {
+            for (String name : names) {
+                ensureTable(name);
+            }
+            view = file.openView();
+            changeOffset = changeLog != null ? changeLog.getNextOffset() : -1;
+        }
+        return new Snapshot() {
+            @Override
+            public Table table(String name) {
+                return new BTreeTable(name, file, BTreeStorageEngine.this, view);
+            }
+
+            @Override
+            public long getChangeOffset() {
+                return changeOffset;
+            }
+
+            @Override
+            public void close() {
+                synchronized (file) {
+                    view.close();
+                }
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (file) {
+            file.close();
+        }
+        if (changeLog != null) {
+            changeLog.close();
+        }
+    }
+
+    /**
+     * Creates a table that is not in the B-tree file yet, importing its rows from CSV if possible.
+     * Must be called while holding the file's lock.
+     */
+    private void ensureTable(String name) throws IOException {
+        if (file.get(key(name, HEADER)) != null) {
+            return;
+        }
+        String header = Storage.defaultHeader(name);
+        List<String[]> rows = new ArrayList<>();
+        Path csv = importDirectory.resolve(name + ".csv");
+        if (Files.exists(csv)) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(csv.toFile()))) {
+                String line = reader.readLine();
+                if (line != null) {
+                    header = RowChecksum.stripHeader(line);
+                }
+                while ((line = reader.readLine()) != null) {
+                    if (!line.isBlank() && RowChecksum.check(line) != RowChecksum.Status.CORRUPT) {
+                        rows.add(RowChecksum.strip(line).split(","));
+                    }
+                }
+            }
+        }
+
+        try {
+            file.put(key(name, HEADER), header.getBytes(StandardCharsets.UTF_8));
+            long sequence = putRows(name, 0, rows);
+            file.put(key(name, NEXT_SEQUENCE), Long.toString(sequence).getBytes(StandardCharsets.UTF_8));
+            file.commit();
+        } catch (IOException | RuntimeException e) {
+            file.rollback();
+            throw e instanceof IOException ? (IOException) e : new IOException("Error importing " + csv + ": " + e.getMessage(), e);
+        }
+    }
+
+    private long putRows(String name, long sequence, List<String[]> rows) throws IOException {
+        for (String[] row : rows) {
+            putRow(name, sequence, row);
+            putIndex(name, row[0], sequence);
+            sequence++;
+        }
+        return sequence;
+    }
+
+    /**
+     * Stores a row under its sequence number, in chunks if it is too large for one entry, and
+     * removes the chunks of any row it replaces. Must be called while holding the file's lock.
+     */
+    private void putRow(String name, long sequence, String[] row) throws IOException {
+        deleteChunks(name, sequence);
+        byte[] key = rowKey(name, sequence);
+        byte[] value = encodeRow(row);
+        if (key.length + value.length <= BTreeFile.MAX_ENTRY_SIZE) {
+            file.put(key, value);
+            return;
+        }
+        int chunkSize = BTreeFile.MAX_ENTRY_SIZE - chunkKey(name, sequence, 0).length;
+        int chunks = (value.length + chunkSize - 1) / chunkSize;
+        for (int i = 0; i < chunks; i++) {
+            file.put(chunkKey(name, sequence, i),
+                    Arrays.copyOfRange(value, i * chunkSize, Math.min(value.length, (i + 1) * chunkSize)));
+        }
+        file.put(key, ByteBuffer.allocate(5).put(CHUNKED_ROW).putInt(chunks).array());
+    }
+
+    /**
+     * Stores the index entry of a row. Keys are not chunked, so a key too large for one entry is
+     * rejected. Must be called while holding the file's lock.
+     */
+    private void putIndex(String name, String keyValue, long sequence) throws IOException {
+        byte[] key = indexKey(name, keyValue, sequence);
+        if (key.length > BTreeFile.MAX_ENTRY_SIZE) {
+            throw new IOException("The key of a row in " + name + " is " + keyValue.length()
+                    + " characters long, too long to index");
+        }
+        file.put(key, new byte[0]);
+    }
+
+    private void deleteRow(String name, long sequence) throws IOException {
+        deleteChunks(name, sequence);
+        file.delete(rowKey(name, sequence));
+    }
+
+    private void deleteChunks(String name, long sequence) throws IOException {
+        byte[] prefix = chunkKey(name, sequence, 0);
+        prefix = Arrays.copyOf(prefix, prefix.length - 4);
+        List<byte[]> keys = new ArrayList<>();
+        file.scan(prefix, prefixEnd(prefix), (k, v) -> keys.add(k));
+        for (byte[] k : keys) {
+            file.delete(k);
+        }
+    }
+
+    private List<String[]> readRows(String name) throws IOException {
+        List<String[]> rows = new ArrayList<>();
+        List<byte[]> keys = new ArrayList<>();
+        List<byte[]> values = new ArrayList<>();
+        file.scan(key(name, ROW), key(name, (byte) (ROW + 1)), (k, v) -> keys.add(k) && values.add(v));
+        for (int i = 0; i < keys.size(); i++) {
+            rows.add(decodeRow(joinChunks(name, keys.get(i), values.get(i), file::get)));
+        }
+        return rows;
+    }
+
+    private void deleteRows(String name) throws IOException {
+        List<byte[]> keys = new ArrayList<>();
+        file.scan(key(name, CHUNK), key(name, (byte) (CHUNK + 1)), (k, v) -> keys.add(k));
+        file.scan(key(name, INDEX), key(name, (byte) (INDEX + 1)), (k, v) -> keys.add(k));
+        file.scan(key(name, ROW), key(name, (byte) (ROW + 1)), (k, v) -> keys.add(k));
+        for (byte[] k : keys) {
+            file.delete(k);
+        }
+    }
+
+    /**
+     * Applies an update to the rows with its key in place, found through the key index, and
+     * logs the changes. Must be called while holding the file's lock.
+     */
+    private void updateRows(String name, BufferedTransaction.KeyedUpdate update, long timestamp, List<ChangeEvent> changes) throws IOException {
+        byte[] prefix = indexPrefix(name, update.key);
+        List<Long> sequences = new ArrayList<>();
+        file.scan(prefix, prefixEnd(prefix), (k, v) -> sequences.add(ByteBuffer.wrap(k, k.length - 8, 8).getLong()));
+        for (long sequence : sequences) {
+            byte[] rowKey = rowKey(name, sequence);
+            byte[] value = file.get(rowKey);
+            if (value == null) {
+                continue;
+            }
+            value = joinChunks(name, rowKey, value, file::get);
+            String[] before = decodeRow(value);
+            String[] after = update.update.apply(decodeRow(value));
+            if (after != null && Arrays.equals(before, after)) {
+                continue;
+            }
+            file.delete(indexKey(name, before[0], sequence));
+            if (after == null) {
+                deleteRow(name, sequence);
+            } else {
+                putRow(name, sequence, after);
+                putIndex(name, after[0], sequence);
+            }
+            if (changeLog != null) {
+                changes.addAll(changeLog.changes(name, timestamp, Collections.singletonList(before),
+                        after == null ? Collections.emptyList() : Collections.singletonList(after), Collections.emptyList()));
+            }
+        }
+    }
+
+    /**
+     * Reads a table's next row sequence number or its generation, which counts the commits
+     * that wrote the table. Must be called while holding the file's lock.
+     */
+    private long readCounter(String name, byte type) throws IOException {
+        byte[] value = file.get(key(name, type));
+        return value == null ? 0 : Long.parseLong(new String(value, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Builds the key of a table entry of a given type: the table name, a zero byte and the type.
+     */
+    static byte[] key(String name, byte type) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        byte[] key = Arrays.copyOf(nameBytes, nameBytes.length + 2);
+        key[nameBytes.length + 1] = type;
+        return key;
+    }
+
+    static byte[] rowKey(String name, long sequence) {
+        byte[] prefix = key(name, ROW);
+        return ByteBuffer.allocate(prefix.length + 8).put(prefix).putLong(sequence).array();
+    }
+
+    /**
+     * Builds the key of one chunk of a row: the chunk prefix, the row's sequence number and the
+     * chunk's position.
+     */
+    static byte[] chunkKey(String name, long sequence, int chunk) {
+        byte[] prefix = key(name, CHUNK);
+        return ByteBuffer.allocate(prefix.length + 12).put(prefix).putLong(sequence).putInt(chunk).array();
+    }
+
+    /**
+     * Gets the encoded row stored under a row key, joining its chunks if the row entry only
+     * holds the chunk count. Must be called while holding the file's lock.
+     *
+     * @param name   The table name
+     * @param rowKey The row's key
+     * @param value  The value stored under the row key
+     * @param lookup Looks up the chunks in the file or a view of it
+     * @return The encoded row
+     * @throws IOException if a chunk cannot be read or is missing
+     */
+    static byte[] joinChunks(String name, byte[] rowKey, byte[] value, ChunkLookup lookup) throws IOException {
+        if (value.length != 5 || value[0] != CHUNKED_ROW) {
+            return value;
+        }
+        long sequence = ByteBuffer.wrap(rowKey, rowKey.length - 8, 8).getLong();
+        int chunks = ByteBuffer.wrap(value, 1, 4).getInt();
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        for (int i = 0; i < chunks; i++) {
+            byte[] chunk = lookup.get(chunkKey(name, sequence, i));
+            if (chunk == null) {
+                throw new IOException("Chunk " + i + " of row " + sequence + " in " + name + " is missing");
+            }
+            joined.write(chunk);
+        }
+        return joined.toByteArray();
+    }
+
+    /**
+     * Builds the prefix shared by every index entry of a key: table, type, key and a zero byte.
+     */
+    static byte[] indexPrefix(String name, String keyValue) {
+        byte[] prefix = key(name, INDEX);
+        byte[] keyBytes = keyValue.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(prefix.length + keyBytes.length + 1).put(prefix).put(keyBytes).put((byte) 0).array();
+    }
+
+    static byte[] indexKey(String name, String keyValue, long sequence) {
+        byte[] prefix = indexPrefix(name, keyValue);
+        return ByteBuffer.allocate(prefix.length + 8).put(prefix).putLong(sequence).array();
+    }
+
+    /**
+     * Gets the smallest key greater than every key starting with a prefix.
+     */
+    static byte[] prefixEnd(byte[] prefix) {
+        byte[] end = prefix.clone();
+        end[end.length - 1]++;
+        return end;
+    }
+
+    static byte[] encodeRow(String[] row) {
+        return String.join(",", row).getBytes(StandardCharsets.UTF_8);
+    }
+
+    static String[] decodeRow(byte[] value) {
+        return new String(value, StandardCharsets.UTF_8).split(",");
+    }
+
+    /**
+     * Looks up the value stored under a key, in the file or in a view of it.
+     */
+    @FunctionalInterface
+    interface ChunkLookup {
+        byte[] get(byte[] key) throws IOException;
+    }
+}
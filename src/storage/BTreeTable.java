@@ -0,0 +1,220 @@
+package storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+import paging.Page;
+
+/**
+ * The BTreeTable class is a {@link Table} stored in a {@link BTreeFile}. Scans read the rows
+ * in batches, holding the file's lock only while a batch is copied out, so long scans do not
+ * hold up writers between batches. Writes go through a transaction of the owning engine.
+ *
+ * <p>Rows stored in chunks are joined while the batch holding them is copied out.</p>
+ *
+ * <p>A table read through a {@link BTreeFile.View} shows the rows as of the view's commit and
+ * is read-only.</p>
+ */
+class BTreeTable implements Table {
+    private static final int SCAN_BATCH = 256;
+    private static final String CURSOR_PREFIX = "row:";
+
+    private final String name;
+    private final BTreeFile file;
+    private final StorageEngine engine;
+    private final BTreeFile.View view;
+
+    /**
+     * Constructs a BTreeTable over the latest commit.
+     *
+     * @param name   The table name
+     * @param file   The B-tree file holding the table
+     * @param engine The engine that owns the file, used for writes
+     */
+    BTreeTable(String name, BTreeFile file, StorageEngine engine) {
+        this(name, file, engine, null);
+    }
+
+    /**
+     * Constructs a read-only BTreeTable over a view of the file.
+     *
+     * @param name   The table name
+     * @param file   The B-tree file holding the table
+     * @param engine The engine that owns the file
+     * @param view   The view to read through, or null to read the latest commit
+     */
+    BTreeTable(String name, BTreeFile file, StorageEngine engine, BTreeFile.View view) {
+        this.name = name;
+        this.file = file;
+        this.engine = engine;
+        this.view = view;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getHeader() throws IOException {
+        synchronized (file) {
+            byte[] header = get(BTreeStorageEngine.key(name, BTreeStorageEngine.HEADER));
+            return header == null ? Storage.defaultHeader(name) : new String(header, StandardCharsets.UTF_8);
+        }
+    }
+
+    @Override
+    public void scan(RowVisitor visitor) throws IOException {
+        scanFrom(0, (sequence, row) -> visitor.visit(row));
+    }
+
+    @Override
+    public Page<String[]> scan(String cursor, int pageSize, Predicate<String[]> filter) throws IOException {
+        long start = cursor == null ? 0 : decodeCursor(cursor);
+        List<String[]> items = new ArrayList<>();
+        long[] next = {-1};
+        scanFrom(start, (sequence, row) -> {
+            if (!filter.test(row)) {
+                return true;
+            }
+            if (items.size() == pageSize) {
+                next[0] = sequence;
+                return false;
+            }
+            items.add(row);
+            return true;
+        });
+        return new Page<>(items, next[0] < 0 ? null : Page.encodeCursor(CURSOR_PREFIX + next[0]));
+    }
+
+    @Override
+    public List<String[]> readAll() throws IOException {
+        List<String[]> rows = new ArrayList<>();
+        scan(row -> rows.add(row));
+        return rows;
+    }
+
+    @Override
+    public String[] find(String key) throws IOException {
+        byte[] prefix = BTreeStorageEngine.indexPrefix(name, key);
+        synchronized (file) {
+            byte[][] found = new byte[1][];
+            scanRange(prefix, BTreeStorageEngine.prefixEnd(prefix), (k, v) -> {
+                found[0] = k;
+                return false;
+            });
+            if (found[0] == null) {
+                return null;
+            }
+            long sequence = ByteBuffer.wrap(found[0], found[0].length - 8, 8).getLong();
+            byte[] rowKey = BTreeStorageEngine.rowKey(name, sequence);
+            byte[] row = get(rowKey);
+            return row == null ? null
+                    : BTreeStorageEngine.decodeRow(BTreeStorageEngine.joinChunks(name, rowKey, row, this::get));
+        }
+    }
+
+    @Override
+    public void append(String[] row) throws IOException {
+        checkWritable();
+        try (Transaction transaction = engine.begin()) {
+            transaction.append(name, row);
+            transaction.commit();
+        }
+    }
+
+    @Override
+    public void rewrite(List<String[]> rows) throws IOException {
+        checkWritable();
+        try (Transaction transaction = engine.begin()) {
+            transaction.rewrite(name, rows);
+            transaction.commit();
+        }
+    }
+
+    /**
+     * Visits the rows from a sequence number onwards, copying them out of the file in batches.
+     *
+     * @param start   The first sequence number to visit
+     * @param visitor Called with each sequence number and row; returns false to stop
+     * @throws IOException if the file cannot be read
+     */
+    private void scanFrom(long start, SequenceVisitor visitor) throws IOException {
+        byte[] end = BTreeStorageEngine.key(name, (byte) (BTreeStorageEngine.ROW + 1));
+        byte[] from = BTreeStorageEngine.rowKey(name, start);
+
+        while (true) {
+            List<byte[]> keys = new ArrayList<>(SCAN_BATCH);
+            List<byte[]> values = new ArrayList<>(SCAN_BATCH);
+            synchronized (file) {
+                scanRange(from, end, (k, v) -> {
+                    keys.add(k);
+                    values.add(v);
+                    return keys.size() < SCAN_BATCH;
+                });
+                for (int i = 0; i < keys.size(); i++) {
+                    values.set(i, BTreeStorageEngine.joinChunks(name, keys.get(i), values.get(i), this::get));
+                }
+            }
+            for (int i = 0; i < keys.size(); i++) {
+                byte[] k = keys.get(i);
+                if (values.get(i).length == 0) {
+                    continue;
+                }
+                long sequence = ByteBuffer.wrap(k, k.length - 8, 8).getLong();
+                if (!visitor.visit(sequence, BTreeStorageEngine.decodeRow(values.get(i)))) {
+                    return;
+                }
+            }
+            if (keys.size() < SCAN_BATCH) {
+                return;
+            }
+            byte[] last = keys.get(keys.size() - 1);
+            from = Arrays.copyOf(last, last.length + 1); // The smallest key after the last one
+        }
+    }
+
+    /**
+     * Looks up a key in the view or the latest commit. Must be called while holding the file's lock.
+     */
+    private byte[] get(byte[] key) throws IOException {
+        return view != null ? view.get(key) : file.get(key);
+    }
+
+    /**
+     * Scans a key range of the view or the latest commit. Must be called while holding the file's lock.
+     */
+    private void scanRange(byte[] from, byte[] to, BiPredicate<byte[], byte[]> visitor) throws IOException {
+        if (view != null) {
+            view.scan(from, to, visitor);
+        } else {
+            file.scan(from, to, visitor);
+        }
+    }
+
+    private void checkWritable() {
+        if (view != null) {
+            throw new UnsupportedOperationException("Snapshot table " + name + " is read-only");
+        }
+    }
+
+    private static long decodeCursor(String cursor) {
+        String position = Page.decodeCursor(cursor);
+        if (!position.startsWith(CURSOR_PREFIX)) {
+            throw new IllegalArgumentException("Not a table cursor: " + cursor);
+        }
+        try {
+            return Long.parseLong(position.substring(CURSOR_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed cursor: " + cursor, e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface SequenceVisitor {
+        boolean visit(long sequence, String[] row);
+    }
+}
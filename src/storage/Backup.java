@@ -0,0 +1,333 @@
+package storage;
+
+import java.io.*;
+import java.nio.file.*;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+
+/**
+ * The Backup class takes online backups of the hospital's data into a backup directory while
+ * the system is in use. The first backup is a full copy of every table, taken from one
+ * {@link Snapshot}. Every later backup only stores the {@link ChangeLog} events committed since
+ * the previous one, up to the change offset of a new snapshot. The uncaptured tables (credentials
+ * and billing aggregates) are small and are copied whole each time. Archive segments are
+ * immutable, so each one is copied once. A nightly backup therefore costs about as much as the
+ * day's changes, however long the history is.
+ *
+ * <p>Each backup is a directory named after the time it was taken, holding a
+ * {@code backup.properties} manifest, the copied tables as CSV files and, for incremental
+ * backups, the events in {@code changes.log}. A backup directory is written under a temporary
+ * name and renamed when complete, so an interrupted backup is ignored. {@link #restore}
+ * rebuilds a data directory as it was at any moment covered by the backups:</p>
+ *
+ * <pre>
+ * java storage.Backup backup /mnt/backups/hms
+ * java storage.Backup restore /mnt/backups/hms restored --at=2026-10-19T08:30:00
+ * </pre>
+ */
+public final class Backup {
+    private static final String RUN_PREFIX = "backup-";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final String MANIFEST = "backup.properties";
+    private static final String CHANGES_FILE = "changes.log";
+    private static final String ARCHIVE_DIRECTORY = "archive";
+    private static final int READ_BATCH = 10_000;
+
+    private final Path directory;
+
+    /**
+     * Constructs a Backup that keeps its backups in a directory.
+     *
+     * @param directory The backup directory, created by the first backup
+     */
+    public Backup(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Takes a backup of the shared storage engine: a full one if the backup directory holds
+     * none yet, otherwise an incremental one.
+     *
+     * @return A one-line description of the backup
+     * @throws IOException if the data cannot be read, the backup cannot be written, or the
+     *                     change log no longer holds every change since the last backup
+     */
+    public synchronized String backup() throws IOException {
+        List<Path> runs = runs();
+        Properties previous = runs.isEmpty() ? null : manifest(runs.get(runs.size() - 1));
+        ChangeLog changeLog = Storage.getChangeLog();
+        Files.createDirectories(directory);
+
+        try (Snapshot snapshot = Storage.snapshot()) {
+            long time = System.currentTimeMillis();
+            long toOffset = snapshot.getChangeOffset();
+            boolean full = previous == null;
+            long fromOffset = full ? toOffset : Long.parseLong(previous.getProperty("toOffset"));
+            if (!full && toOffset >= 0 && (fromOffset < 0 || fromOffset > toOffset)) {
+                throw new IOException("The change log does not continue from the last backup in " + directory
+                        + "; start a new backup directory");
+            }
+
+            Path run = directory.resolve(String.format("%s%013d", RUN_PREFIX, time));
+            Path temporary = run.resolveSibling(run.getFileName() + TEMPORARY_SUFFIX);
+            Files.createDirectories(temporary);
+
+            List<String> copied = new ArrayList<>();
+            for (String name : new TreeSet<>(Storage.tableNames())) {
+                if (full || changeLog == null || toOffset < 0 || !changeLog.captures(name)) {
+                    writeTable(temporary.resolve(name + ".csv"), snapshot.table(name));
+                    copied.add(name);
+                }
+            }
+            long events = full || toOffset < 0 ? 0 : writeChanges(changeLog, fromOffset, toOffset, temporary.resolve(CHANGES_FILE));
+            List<String> segments = copyArchiveSegments();
+
+            Properties manifest = new Properties();
+            manifest.setProperty("type", full ? "full" : "incremental");
+            manifest.setProperty("time", Long.toString(time));
+            manifest.setProperty("fromOffset", Long.toString(fromOffset));
+            manifest.setProperty("toOffset", Long.toString(toOffset));
+            manifest.setProperty("events", Long.toString(events));
+            manifest.setProperty("tables", String.join(",", copied));
+            manifest.setProperty("archiveSegments", String.join(",", segments));
+            try (OutputStream out = Files.newOutputStream(temporary.resolve(MANIFEST))) {
+                manifest.store(out, "Hospital data backup");
+            }
+            Files.move(temporary, run, StandardCopyOption.ATOMIC_MOVE);
+
+            return String.format("%s backup %s: %d table(s) copied, %d change(s), %d archive segment(s)",
+                    full ? "Full" : "Incremental", run.getFileName(), copied.size(), events, segments.size());
+        }
+    }
+
+    /**
+     * Rebuilds a data directory from the backups as it was at a moment in time: the last full
+     * backup taken by then, with the changes of later backups applied up to that moment.
+     * Changes are applied a whole commit at a time. The uncaptured tables are restored as
+     * copied by the last backup taken by that moment.
+     *
+     * @param target The data directory to create; it must not hold any table files yet
+     * @param at     The moment to restore, in milliseconds since the epoch
+     * @throws IOException if the backups cannot be read, none was taken by that moment, or the
+     *                     target already holds data
+     */
+    public void restore(Path target, long at) throws IOException {
+        List<Path> runs = new ArrayList<>();
+        for (Path run : runs()) {
+            Properties manifest = manifest(run);
+            long time = Long.parseLong(manifest.getProperty("time"));
+            if ("full".equals(manifest.getProperty("type"))) {
+                if (time > at) {
+                    break;
+                }
+                runs.clear();
+            }
+            runs.add(run);
+            if (time > at) {
+                break;
+            }
+        }
+        if (runs.isEmpty() || Long.parseLong(manifest(runs.get(0)).getProperty("time")) > at) {
+            throw new IOException("No full backup in " + directory + " was taken by " + Instant.ofEpochMilli(at));
+        }
+        for (String name : Storage.tableNames()) {
+            if (Files.exists(target.resolve(name + ".csv"))) {
+                throw new IOException("The restore target " + target + " already holds " + name + ".csv");
+            }
+        }
+
+        Map<String, ChangeApplier> tables = new TreeMap<>();
+        List<String> segments = new ArrayList<>();
+        for (Path run : runs) {
+            Properties manifest = manifest(run);
+            boolean complete = Long.parseLong(manifest.getProperty("time")) <= at;
+            if (!applyChanges(run.resolve(CHANGES_FILE), at, tables)) {
+                complete = false;
+            }
+            if (!complete) {
+                break;
+            }
+            for (String name : split(manifest.getProperty("tables"))) {
+                tables.put(name, new ChangeApplier(name, readTable(run.resolve(name + ".csv"))));
+            }
+            segments.addAll(split(manifest.getProperty("archiveSegments")));
+        }
+
+        Files.createDirectories(target);
+        CsvStorageEngine engine = new CsvStorageEngine(target);
+        try (Transaction transaction = engine.begin()) {
+            for (Map.Entry<String, ChangeApplier> entry : tables.entrySet()) {
+                transaction.rewrite(entry.getKey(), entry.getValue().getRows());
+            }
+            transaction.commit();
+        }
+        if (!segments.isEmpty()) {
+            Path archive = target.resolve(ARCHIVE_DIRECTORY);
+            Files.createDirectories(archive);
+            for (String segment : segments) {
+                Files.copy(directory.resolve(ARCHIVE_DIRECTORY).resolve(segment), archive.resolve(segment),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    /**
+     * Runs a backup or a restore from the command line:
+     * {@code backup <backup-dir>} or {@code restore <backup-dir> <target-dir> [--at=<time>]},
+     * where the time is an ISO local date-time such as 2026-10-19T08:30:00 and defaults to now.
+     *
+     * @param args The command and its arguments
+     * @throws IOException if the backup or restore fails
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length >= 2 && args[0].equals("backup")) {
+            System.out.println(new Backup(Paths.get(args[1])).backup());
+            Storage.getEngine().close();
+        } else if (args.length >= 3 && args[0].equals("restore")) {
+            long at = System.currentTimeMillis();
+            for (int i = 3; i < args.length; i++) {
+                if (args[i].startsWith("--at=")) {
+                    try {
+                        at = LocalDateTime.parse(args[i].substring(5)).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+                    } catch (DateTimeParseException e) {
+                        System.err.println("Invalid time: " + args[i].substring(5));
+                        return;
+                    }
+                }
+            }
+            new Backup(Paths.get(args[1])).restore(Paths.get(args[2]), at);
+            System.out.println("Restored the data as of " + Instant.ofEpochMilli(at) + " to " + args[2]);
+        } else {
+            System.err.println("Usage: java storage.Backup backup <backup-dir>");
+            System.err.println("       java storage.Backup restore <backup-dir> <target-dir> [--at=yyyy-MM-ddTHH:mm:ss]");
+        }
+    }
+
+    /**
+     * Gets the completed backups, oldest first.
+     */
+    private List<Path> runs() throws IOException {
+        List<Path> runs = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return runs;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, RUN_PREFIX + "*")) {
+            for (Path file : files) {
+                if (!file.getFileName().toString().endsWith(TEMPORARY_SUFFIX) && Files.exists(file.resolve(MANIFEST))) {
+                    runs.add(file);
+                }
+            }
+        }
+        Collections.sort(runs);
+        return runs;
+    }
+
+    private static Properties manifest(Path run) throws IOException {
+        Properties manifest = new Properties();
+        try (InputStream in = Files.newInputStream(run.resolve(MANIFEST))) {
+            manifest.load(in);
+        }
+        return manifest;
+    }
+
+    /**
+     * Copies the logged events from one offset up to another into a file.
+     *
+     * @return The number of events copied
+     */
+    private static long writeChanges(ChangeLog changeLog, long fromOffset, long toOffset, Path file) throws IOException {
+        long offset = fromOffset;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            while (offset < toOffset) {
+                List<ChangeEvent> events = changeLog.read(offset, (int) Math.min(READ_BATCH, toOffset - offset));
+                if (events.isEmpty() || events.get(0).getOffset() != offset) {
+                    throw new IOException("The change log no longer holds the change at offset " + offset
+                            + "; start a new backup directory");
+                }
+                for (ChangeEvent event : events) {
+                    ChangeLog.writeRecord(out, event);
+                }
+                offset += events.size();
+            }
+        }
+        return offset - fromOffset;
+    }
+
+    /**
+     * Applies the events of a backup's change file up to a moment in time.
+     *
+     * @return true if every event was applied; false if the file has events after that moment
+     */
+    private static boolean applyChanges(Path file, long at, Map<String, ChangeApplier> tables) throws IOException {
+        if (!Files.exists(file)) {
+            return true;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            ChangeEvent event;
+            while ((event = ChangeLog.readRecord(in)) != null) {
+                if (event.getTimestamp() > at) {
+                    return false;
+                }
+                tables.computeIfAbsent(event.getTable(), name -> new ChangeApplier(name, Collections.emptyList())).apply(event);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies the archive segments not backed up yet into the backup's archive directory.
+     *
+     * @return The names of the segments copied
+     */
+    private List<String> copyArchiveSegments() throws IOException {
+        List<String> copied = new ArrayList<>();
+        Path source = Storage.getArchive().getDirectory();
+        if (!Files.isDirectory(source)) {
+            return copied;
+        }
+        Path target = directory.resolve(ARCHIVE_DIRECTORY);
+        Files.createDirectories(target);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(source, "*" + ArchiveSegment.SUFFIX)) {
+            for (Path file : files) {
+                Path copy = target.resolve(file.getFileName());
+                if (!Files.exists(copy)) {
+                    Files.copy(file, copy);
+                    copied.add(file.getFileName().toString());
+                }
+            }
+        }
+        Collections.sort(copied);
+        return copied;
+    }
+
+    private static void writeTable(Path file, Table table) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            writer.write(table.getHeader());
+            writer.newLine();
+            for (String[] row : table.readAll()) {
+                writer.write(String.join(",", row));
+                writer.newLine();
+            }
+        }
+    }
+
+    private static List<String[]> readTable(Path file) throws IOException {
+        List<String[]> rows = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String line = reader.readLine();
+            while ((line = reader.readLine()) != null) {
+                if (!line.isBlank()) {
+                    rows.add(line.split(","));
+                }
+            }
+        }
+        return rows;
+    }
+
+    private static List<String> split(String list) {
+        return list == null || list.isEmpty() ? Collections.emptyList() : Arrays.asList(list.split(","));
+    }
+}
@@ -0,0 +1,177 @@
+package storage;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * The BufferedTransaction class collects the writes of a {@link Transaction} per table and hands
+ * them to the engine in one piece on commit, together with the versions of the tables it read.
+ * Engines only implement {@link #read(String, List)} and {@link #apply(Map)}.
+ */
+abstract class BufferedTransaction implements Transaction {
+    private final Map<String, TableWrites> writes = new LinkedHashMap<>();
+    private final Map<String, Object> readVersions = new LinkedHashMap<>();
+    private boolean finished;
+    private boolean sync;
+
+    @Override
+    public List<String[]> read(String tableName) throws IOException {
+        checkOpen();
+        List<String[]> rows = new ArrayList<>();
+        // A second read of the same table keeps the first version, so the commit still fails if they differ
+        readVersions.putIfAbsent(tableName, read(tableName, rows));
+        return rows;
+    }
+
+    @Override
+    public void append(String tableName, String[] row) {
+        checkOpen();
+        writes.computeIfAbsent(tableName, name -> new TableWrites()).appended.add(row.clone());
+    }
+
+    @Override
+    public void rewrite(String tableName, List<String[]> rows) {
+        checkOpen();
+        TableWrites tableWrites = writes.computeIfAbsent(tableName, name -> new TableWrites());
+        tableWrites.replacement = new ArrayList<>(rows.size());
+        for (String[] row : rows) {
+            tableWrites.replacement.add(row.clone());
+        }
+        tableWrites.appended.clear();
+        tableWrites.updates.clear();
+    }
+
+    @Override
+    public void update(String tableName, String key, RowUpdate update) {
+        checkOpen();
+        writes.computeIfAbsent(tableName, name -> new TableWrites()).updates.add(new KeyedUpdate(key, update));
+    }
+
+    @Override
+    public void syncOnCommit() {
+        checkOpen();
+        sync = true;
+    }
+
+    @Override
+    public void commit() throws IOException {
+        checkOpen();
+        finished = true;
+        if (!writes.isEmpty() || !readVersions.isEmpty()) {
+            apply(writes);
+        }
+    }
+
+    @Override
+    public void close() {
+        finished = true;
+    }
+
+    /**
+     * Reads every row of a table together with a token for the version read, which the engine
+     * compares with the table's version at commit.
+     *
+     * @param tableName The name of the table
+     * @param rows      The list to add the rows to
+     * @return The version token, equal to the token of a later read only if the table has not
+     *         been written in between
+     * @throws IOException if the table cannot be read
+     */
+    protected abstract Object read(String tableName, List<String[]> rows) throws IOException;
+
+    /**
+     * Applies the collected writes to the engine's tables. Before anything is written, the
+     * engine checks the tables in {@link #getReadVersions()} and evaluates every update, and
+     * throws a {@link WriteConflictException} if a table changed or an update rejected its row.
+     *
+     * @param writes The writes keyed by table name, in the order the tables were first written
+     * @throws IOException if the writes cannot be applied
+     */
+    protected abstract void apply(Map<String, TableWrites> writes) throws IOException;
+
+    /**
+     * Gets the versions of the tables read through the transaction.
+     *
+     * @return The version tokens keyed by table name
+     */
+    protected Map<String, Object> getReadVersions() {
+        return readVersions;
+    }
+
+    /**
+     * Tells whether the written files must be forced to disk before the commit returns.
+     *
+     * @return true if {@link #syncOnCommit()} was called
+     */
+    protected boolean isSync() {
+        return sync;
+    }
+
+    private void checkOpen() {
+        if (finished) {
+            throw new IllegalStateException("Transaction already committed or closed");
+        }
+    }
+
+    /**
+     * Applies the updates of a table to its rows in table order. The updates of a row are
+     * applied in the order they were made, each to the result of the one before.
+     *
+     * @param rows    The rows as they are before the updates, changed in place
+     * @param updates The updates
+     * @return true if any row was changed or deleted
+     * @throws WriteConflictException if an update rejected its row
+     */
+    static boolean applyUpdates(List<String[]> rows, List<KeyedUpdate> updates) throws WriteConflictException {
+        Map<String, List<RowUpdate>> updatesByKey = new HashMap<>();
+        for (KeyedUpdate update : updates) {
+            updatesByKey.computeIfAbsent(update.key, key -> new ArrayList<>()).add(update.update);
+        }
+        boolean changed = false;
+        for (ListIterator<String[]> iterator = rows.listIterator(); iterator.hasNext(); ) {
+            String[] row = iterator.next();
+            List<RowUpdate> rowUpdates = updatesByKey.get(row[0]);
+            if (rowUpdates == null) {
+                continue;
+            }
+            String[] after = row.clone();
+            for (RowUpdate update : rowUpdates) {
+                after = update.apply(after);
+                if (after == null) {
+                    break;
+                }
+            }
+            if (after == null) {
+                iterator.remove();
+                changed = true;
+            } else if (!Arrays.equals(row, after)) {
+                iterator.set(after.clone());
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * The pending writes to a single table: an optional replacement of every row, followed by
+     * rows appended after it, followed by updates of rows by key.
+     */
+    static final class TableWrites {
+        List<String[]> replacement;
+        final List<String[]> appended = new ArrayList<>();
+        final List<KeyedUpdate> updates = new ArrayList<>();
+    }
+
+    /**
+     * An update of the rows with a given key.
+     */
+    static final class KeyedUpdate {
+        final String key;
+        final RowUpdate update;
+
+        KeyedUpdate(String key, RowUpdate update) {
+            this.key = key;
+            this.update = update;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package storage;
+
+import java.util.*;
+
+/**
+ * The ChangeApplier class applies {@link ChangeEvent}s to the rows of one table held in memory,
+ * as a backup restore or a replica does. An update or delete applies to the first row equal to
+ * the event's before image, or failing that to the first row with the same key; an update of a
+ * key that is not there inserts the new row. Rows are found through an index of their keys, so
+ * applying an event does not scan the table.
+ */
+final class ChangeApplier {
+    private final String table;
+    private final List<String[]> rows;
+    private final Map<String, List<Integer>> positions = new HashMap<>();
+    private int deleted;
+
+    /**
+     * Constructs a ChangeApplier over the current rows of a table.
+     *
+     * @param table The table name
+     * @param rows  The rows of the table, in order
+     */
+    ChangeApplier(String table, List<String[]> rows) {
+        this.table = table;
+        this.rows = new ArrayList<>(rows);
+        for (int i = 0; i < this.rows.size(); i++) {
+            positions.computeIfAbsent(Storage.changeKey(table, this.rows.get(i)), key -> new ArrayList<>()).add(i);
+        }
+    }
+
+    /**
+     * Applies one event of the table.
+     *
+     * @param event The event
+     */
+    void apply(ChangeEvent event) {
+        if (event.getOperation() == ChangeEvent.Operation.INSERT) {
+            insert(event.getAfter());
+            return;
+        }
+        List<Integer> candidates = positions.get(event.getKey());
+        int found = -1;
+        if (candidates != null) {
+            for (int i = 0; i < candidates.size() && found < 0; i++) {
+                if (Arrays.equals(rows.get(candidates.get(i)), event.getBefore())) {
+                    found = i;
+                }
+            }
+            if (found < 0 && !candidates.isEmpty()) {
+                found = 0;
+            }
+        }
+        if (event.getOperation() == ChangeEvent.Operation.DELETE) {
+            if (found >= 0) {
+                rows.set(candidates.remove(found), null);
+                deleted++;
+            }
+        } else if (found >= 0) {
+            int position = candidates.get(found);
+            String[] after = event.getAfter();
+            rows.set(position, after);
+            String key = Storage.changeKey(table, after);
+            if (!key.equals(event.getKey())) {
+                candidates.remove(found);
+                List<Integer> moved = positions.computeIfAbsent(key, k -> new ArrayList<>());
+                int index = Collections.binarySearch(moved, position);
+                moved.add(index < 0 ? -index - 1 : index, position);
+            }
+        } else {
+            insert(event.getAfter());
+        }
+    }
+
+    /**
+     * Gets the rows of the table with every applied event.
+     *
+     * @return The rows, in order
+     */
+    List<String[]> getRows() {
+        if (deleted == 0) {
+            return rows;
+        }
+        List<String[]> remaining = new ArrayList<>(rows.size() - deleted);
+        for (String[] row : rows) {
+            if (row != null) {
+                remaining.add(row);
+            }
+        }
+        return remaining;
+    }
+
+    private void insert(String[] row) {
+        positions.computeIfAbsent(Storage.changeKey(table, row), key -> new ArrayList<>()).add(rows.size());
+        rows.add(row);
+    }
+}
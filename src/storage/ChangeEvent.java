@@ -0,0 +1,130 @@
+package storage;
+
+import java.util.Arrays;
+
+/**
+ * The ChangeEvent class describes one committed change to a row of a table, as recorded in the
+ * {@link ChangeLog}. Events carry a position in the log, their offset, which increases by one
+ * for every event; a consumer that remembers the offset of the last event it handled can resume
+ * from the next one.
+ */
+public final class ChangeEvent {
+
+    /**
+     * The kind of change made to a row.
+     */
+    public enum Operation {
+        INSERT,
+        UPDATE,
+        DELETE
+    }
+
+    private final long offset;
+    private final long timestamp;
+    private final String table;
+    private final Operation operation;
+    private final String key;
+    private final String[] before;
+    private final String[] after;
+
+    /**
+     * Constructs a new ChangeEvent.
+     *
+     * @param offset    The position of the event in the change log, or -1 if not yet logged
+     * @param timestamp The commit time in milliseconds since the epoch
+     * @param table     The name of the changed table
+     * @param operation The kind of change
+     * @param key       The key columns of the row, comma-separated
+     * @param before    The row before the change, or null for an insert
+     * @param after     The row after the change, or null for a delete
+     */
+    public ChangeEvent(long offset, long timestamp, String table, Operation operation, String key, String[] before, String[] after) {
+        this.offset = offset;
+        this.timestamp = timestamp;
+        this.table = table;
+        this.operation = operation;
+        this.key = key;
+        this.before = before;
+        this.after = after;
+    }
+
+    /**
+     * Gets the position of the event in the change log.
+     *
+     * @return The offset
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Gets the time the change was committed.
+     *
+     * @return The commit time in milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Gets the name of the changed table.
+     *
+     * @return The table name
+     */
+    public String getTable() {
+        return table;
+    }
+
+    /**
+     * Gets the kind of change.
+     *
+     * @return The operation
+     */
+    public Operation getOperation() {
+        return operation;
+    }
+
+    /**
+     * Gets the key of the changed row.
+     *
+     * @return The key columns of the row, comma-separated
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Gets the row as it was before the change.
+     *
+     * @return A copy of the row, or null for an insert
+     */
+    public String[] getBefore() {
+        return before == null ? null : before.clone();
+    }
+
+    /**
+     * Gets the row as it is after the change.
+     *
+     * @return A copy of the row, or null for a delete
+     */
+    public String[] getAfter() {
+        return after == null ? null : after.clone();
+    }
+
+    /**
+     * Returns a copy of this event at a position in the change log.
+     *
+     * @param logOffset The offset assigned by the log
+     * @return The positioned event
+     */
+    ChangeEvent at(long logOffset) {
+        return new ChangeEvent(logOffset, timestamp, table, operation, key, before, after);
+    }
+
+    @Override
+    public String toString() {
+        return offset + " " + operation + " " + table + " [" + key + "] "
+                + (before == null ? "" : Arrays.toString(before)) + (before != null && after != null ? " -> " : "")
+                + (after == null ? "" : Arrays.toString(after));
+    }
+}
@@ -0,0 +1,433 @@
+package storage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.zip.CRC32;
+
+/**
+ * The ChangeLog class records every committed insert, update and delete of the captured tables
+ * as an ordered stream of {@link ChangeEvent}s. Events are appended to segment files in a log
+ * directory, each named after the offset of its first event, and a new segment is started once
+ * the current one grows past {@link #SEGMENT_BYTES}. Consumers in other processes tail the
+ * segments with {@link #read(long, int)}, resuming from the offset after the last event they
+ * handled; consumers in this process can also subscribe to the log as a {@link Flow.Publisher}.
+ *
+ * <p>Several processes sharing the data directory log to the same segments. Each append holds
+ * an OS lock on the log's lock file, reads whatever other processes logged since its last look,
+ * and only then gives out offsets and writes at the end of the latest segment, so no two
+ * processes write over each other or give out the same offset.</p>
+ *
+ * <p>Each record is its length, the encoded event and a CRC32 of the encoding. A final record
+ * cut short by a crash is discarded by the next process to take the lock. Events are logged after the storage engine has
+ * written the change, so a crash between the two can lose the events of the last commit but
+ * never records a change that did not happen.</p>
+ *
+ * <p>Live subscribers are fed through a bounded buffer so that a slow subscriber never holds up
+ * writers. A subscriber that falls a full buffer behind misses events; it sees the gap in the
+ * offsets and can fill it from the log with {@link #read(long, int)}.</p>
+ */
+public final class ChangeLog implements Flow.Publisher<ChangeEvent>, Closeable {
+    static final long SEGMENT_BYTES = 16L * 1024 * 1024;
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String LOCK_FILE = "append.lock";
+    private static final int NO_ROW = -1;
+
+    private final Path directory;
+    private final Set<String> capturedTables;
+    private final SubmissionPublisher<ChangeEvent> publisher = new SubmissionPublisher<>();
+    private final FileChannel lockChannel;
+    private FileChannel segment;
+    private long segmentBase;
+    private long segmentSize;
+    private long nextOffset;
+
+    /**
+     * Opens the change log in a directory, creating the directory if needed, and continues after
+     * the last complete event already logged there.
+     *
+     * @param directory      The log directory
+     * @param capturedTables The names of the tables whose changes are logged
+     * @throws IOException if the log cannot be opened
+     */
+    public ChangeLog(Path directory, Set<String> capturedTables) throws IOException {
+        this.directory = directory;
+        this.capturedTables = Collections.unmodifiableSet(new HashSet<>(capturedTables));
+        Files.createDirectories(directory);
+        lockChannel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        FileLock lock = lockChannel.lock();
+        try (lock) {
+            catchUp();
+        }
+    }
+
+    /**
+     * Checks whether changes to a table are logged.
+     *
+     * @param table The table name
+     * @return true if the table is captured; false otherwise
+     */
+    public boolean captures(String table) {
+        return capturedTables.contains(table);
+    }
+
+    /**
+     * Gets the offset the next logged event will receive.
+     *
+     * @return The next offset, counting the events logged by every process
+     * @throws UncheckedIOException if the log cannot be read
+     */
+    public synchronized long getNextOffset() {
+        try {
+            FileLock lock = lockChannel.lock();
+            try (lock) {
+                catchUp();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error reading the change log in " + directory, e);
+        }
+        return nextOffset;
+    }
+
+    /**
+     * Reads logged events in offset order.
+     *
+     * @param fromOffset The offset of the first event to read
+     * @param maxEvents  The maximum number of events to return
+     * @return The events from that offset onwards, empty if there are none yet
+     * @throws IOException if the log cannot be read
+     */
+    public List<ChangeEvent> read(long fromOffset, int maxEvents) throws IOException {
+        List<ChangeEvent> events = new ArrayList<>();
+        List<Long> bases = segmentBases();
+        int first = 0;
+        for (int i = 0; i < bases.size(); i++) {
+            if (bases.get(i) <= fromOffset) {
+                first = i;
+            }
+        }
+        for (int i = first; i < bases.size() && events.size() < maxEvents; i++) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segmentPath(bases.get(i)))))) {
+                ChangeEvent event;
+                while (events.size() < maxEvents && (event = readRecord(in)) != null) {
+                    if (event.getOffset() >= fromOffset) {
+                        events.add(event);
+                    }
+                }
+            } catch (NoSuchFileException e) {
+                // The segment was removed while reading; continue with the next one
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Subscribes to the events logged from now on. Events already in the log are not replayed;
+     * use {@link #read(long, int)} to catch up first.
+     *
+     * @param subscriber The subscriber
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super ChangeEvent> subscriber) {
+        publisher.subscribe(subscriber);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        publisher.close();
+        segment.close();
+        lockChannel.close();
+    }
+
+    /**
+     * Works out the events of one table's part of a commit: the rows it replaced the table's
+     * contents with, if any, followed by the rows it appended.
+     *
+     * @param table       The table name
+     * @param timestamp   The commit time in milliseconds
+     * @param before      The rows of the table before the commit; only needed with a replacement
+     * @param replacement The rows that replaced the table's contents, or null if none
+     * @param appended    The rows appended after any replacement
+     * @return The unlogged events, in the order they should be logged
+     */
+    List<ChangeEvent> changes(String table, long timestamp, List<String[]> before, List<String[]> replacement, List<String[]> appended) {
+        List<ChangeEvent> events = new ArrayList<>();
+        if (!captures(table)) {
+            return events;
+        }
+        if (replacement != null) {
+            diff(table, timestamp, before, replacement, events);
+        }
+        for (String[] row : appended) {
+            events.add(new ChangeEvent(-1, timestamp, table, ChangeEvent.Operation.INSERT, Storage.changeKey(table, row), null, row.clone()));
+        }
+        return events;
+    }
+
+    /**
+     * Logs events and hands them to live subscribers. Each event is given the next offset.
+     *
+     * @param events The events of one commit, in order
+     * @throws IOException if the events cannot be written
+     */
+    synchronized void append(List<ChangeEvent> events) throws IOException {
+        if (events.isEmpty()) {
+            return;
+        }
+
+        List<ChangeEvent> logged = new ArrayList<>(events.size());
+        FileLock lock = lockChannel.lock();
+        try (lock) {
+            catchUp();
+            if (segmentSize >= SEGMENT_BYTES) {
+                openSegment(nextOffset);
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            for (ChangeEvent event : events) {
+                ChangeEvent positioned = event.at(nextOffset + logged.size());
+                writeRecord(out, positioned);
+                logged.add(positioned);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            segment.position(segmentSize);
+            while (buffer.hasRemaining()) {
+                segment.write(buffer);
+            }
+            segmentSize += bytes.size();
+            nextOffset += logged.size();
+        }
+
+        for (ChangeEvent event : logged) {
+            publisher.offer(event, (subscriber, dropped) -> false);
+        }
+    }
+
+    /**
+     * Pairs up the rows before and after a rewrite by key. A key held by one row on each side
+     * is an update if the rows differ; otherwise rows present on only one side are deletes or
+     * inserts, so keys shared by several rows are compared row by row.
+     */
+    private static void diff(String table, long timestamp, List<String[]> before, List<String[]> after, List<ChangeEvent> events) {
+        Map<String, List<String[]>> oldRows = groupByKey(table, before);
+        Map<String, List<String[]>> newRows = groupByKey(table, after);
+        Set<String> keys = new LinkedHashSet<>(oldRows.keySet());
+        keys.addAll(newRows.keySet());
+
+        for (String key : keys) {
+            List<String[]> olds = oldRows.getOrDefault(key, Collections.emptyList());
+            List<String[]> news = newRows.getOrDefault(key, Collections.emptyList());
+            if (olds.size() == 1 && news.size() == 1) {
+                if (!Arrays.equals(olds.get(0), news.get(0))) {
+                    events.add(new ChangeEvent(-1, timestamp, table, ChangeEvent.Operation.UPDATE, key, olds.get(0).clone(), news.get(0).clone()));
+                }
+                continue;
+            }
+            Map<List<String>, Integer> unmatched = new HashMap<>();
+            for (String[] row : olds) {
+                unmatched.merge(Arrays.asList(row), 1, Integer::sum);
+            }
+            List<String[]> inserted = new ArrayList<>();
+            for (String[] row : news) {
+                if (!take(unmatched, Arrays.asList(row))) {
+                    inserted.add(row);
+                }
+            }
+            // Whatever is left unmatched on the old side was deleted
+            for (String[] row : olds) {
+                if (take(unmatched, Arrays.asList(row))) {
+                    events.add(new ChangeEvent(-1, timestamp, table, ChangeEvent.Operation.DELETE, key, row.clone(), null));
+                }
+            }
+            for (String[] row : inserted) {
+                events.add(new ChangeEvent(-1, timestamp, table, ChangeEvent.Operation.INSERT, key, null, row.clone()));
+            }
+        }
+    }
+
+    /**
+     * Removes one occurrence of a row from a multiset, returning whether there was one.
+     */
+    private static boolean take(Map<List<String>, Integer> rows, List<String> row) {
+        Integer count = rows.get(row);
+        if (count == null) {
+            return false;
+        }
+        if (count == 1) {
+            rows.remove(row);
+        } else {
+            rows.put(row, count - 1);
+        }
+        return true;
+    }
+
+    private static Map<String, List<String[]>> groupByKey(String table, List<String[]> rows) {
+        Map<String, List<String[]>> groups = new LinkedHashMap<>();
+        for (String[] row : rows) {
+            groups.computeIfAbsent(Storage.changeKey(table, row), k -> new ArrayList<>()).add(row);
+        }
+        return groups;
+    }
+
+    // ---- Segments --------------------------------------------------------------------------
+
+    /**
+     * Moves to the end of the log as other processes have left it: opens the latest segment if
+     * a new one was started, reads the events appended since the last look and discards a final
+     * record cut short by a crash. Must be called while holding the lock file's lock.
+     */
+    private void catchUp() throws IOException {
+        List<Long> bases = segmentBases();
+        long base = bases.isEmpty() ? 0 : bases.get(bases.size() - 1);
+        if (segment == null || base != segmentBase) {
+            openSegment(base);
+        }
+        long size = segment.size();
+        if (size < segmentSize) {
+            segmentSize = 0;
+            nextOffset = segmentBase;
+        }
+        if (size == segmentSize) {
+            return;
+        }
+        long validEnd = segmentSize;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segmentPath(segmentBase))))) {
+            in.skipNBytes(segmentSize);
+            byte[] payload;
+            while ((payload = readPayload(in)) != null) {
+                nextOffset = decode(payload).getOffset() + 1;
+                validEnd += Integer.BYTES + payload.length + Integer.BYTES;
+            }
+        }
+        if (validEnd < size) {
+            segment.truncate(validEnd);
+        }
+        segmentSize = validEnd;
+    }
+
+    /**
+     * Opens a segment, creating it if needed, with nothing of it read yet. Must be called while
+     * holding the lock file's lock.
+     */
+    private void openSegment(long baseOffset) throws IOException {
+        if (segment != null) {
+            segment.close();
+        }
+        segment = FileChannel.open(segmentPath(baseOffset), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segmentBase = baseOffset;
+        segmentSize = 0;
+        nextOffset = baseOffset;
+    }
+
+    private Path segmentPath(long baseOffset) {
+        return directory.resolve(String.format("%020d%s", baseOffset, SEGMENT_SUFFIX));
+    }
+
+    private List<Long> segmentBases() throws IOException {
+        List<Long> bases = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    bases.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // Not a segment file
+                }
+            }
+        }
+        Collections.sort(bases);
+        return bases;
+    }
+
+    // ---- Records ---------------------------------------------------------------------------
+
+    /**
+     * Writes an event as a record: its length, its encoding and a CRC32 of the encoding.
+     */
+    static void writeRecord(DataOutputStream out, ChangeEvent event) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(bytes);
+        payload.writeLong(event.getOffset());
+        payload.writeLong(event.getTimestamp());
+        payload.writeUTF(event.getTable());
+        payload.writeByte(event.getOperation().ordinal());
+        payload.writeUTF(event.getKey());
+        writeRow(payload, event.getBefore());
+        writeRow(payload, event.getAfter());
+
+        byte[] encoded = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(encoded);
+        out.writeInt(encoded.length);
+        out.write(encoded);
+        out.writeInt((int) crc.getValue());
+    }
+
+    private static void writeRow(DataOutputStream out, String[] row) throws IOException {
+        if (row == null) {
+            out.writeInt(NO_ROW);
+            return;
+        }
+        out.writeInt(row.length);
+        for (String value : row) {
+            out.writeUTF(value);
+        }
+    }
+
+    /**
+     * Reads the next record, or returns null at the end of the segment or at a record that is
+     * incomplete or fails its checksum.
+     */
+    static ChangeEvent readRecord(DataInputStream in) throws IOException {
+        byte[] payload = readPayload(in);
+        return payload == null ? null : decode(payload);
+    }
+
+    private static byte[] readPayload(DataInputStream in) throws IOException {
+        try {
+            int length = in.readInt();
+            if (length <= 0 || length > SEGMENT_BYTES) {
+                return null;
+            }
+            byte[] encoded = new byte[length];
+            in.readFully(encoded);
+            int checksum = in.readInt();
+            CRC32 crc = new CRC32();
+            crc.update(encoded);
+            return (int) crc.getValue() == checksum ? encoded : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static ChangeEvent decode(byte[] encoded) throws IOException {
+        DataInputStream payload = new DataInputStream(new ByteArrayInputStream(encoded));
+        long offset = payload.readLong();
+        long timestamp = payload.readLong();
+        String table = payload.readUTF();
+        ChangeEvent.Operation operation = ChangeEvent.Operation.values()[payload.readByte()];
+        String key = payload.readUTF();
+        String[] before = readRow(payload);
+        String[] after = readRow(payload);
+        return new ChangeEvent(offset, timestamp, table, operation, key, before, after);
+    }
+
+    private static String[] readRow(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == NO_ROW) {
+            return null;
+        }
+        String[] row = new String[length];
+        for (int i = 0; i < length; i++) {
+            row[i] = in.readUTF();
+        }
+        return row;
+    }
+}
@@ -0,0 +1,279 @@
+package storage;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The CsvStorageEngine class is the default storage backend. Each table is a CSV file named
+ * after it in the data directory, with the header on the first line and one row per line,
+ * so the files stay readable and editable by hand.
+ *
+ * <p>A transaction locks the files it reads or writes in name order, checks that the tables it
+ * read are still at the versions it read, and applies each file in turn. The lock is also taken
+ * on a lock file in the {@code locks} subdirectory, so sessions in other processes sharing the
+ * data directory wait for it too. Every rewrite replaces its file atomically, but a crash
+ * between two files of the same transaction can leave the earlier one applied and the later one
+ * not. A flat file cannot change a row in place, so {@link Transaction#update} rewrites the
+ * file from its rows as they are at commit.</p>
+ *
+ * <p>Readers see tables through immutable in-memory {@link TableVersion}s. The newest version
+ * of every table is held in a single map that is replaced, never changed, so a transaction
+ * publishes the new versions of all of its tables in one step and a {@link Snapshot} is simply
+ * the map as it was when the snapshot was taken. Neither readers nor snapshots take any lock.</p>
+ *
+ * <p>With a {@link ChangeLog}, the changes each transaction made are logged before its new
+ * versions are published, while its tables are still locked, so the log holds the changes to
+ * every table in the order they were made. Logging and publishing happen as one step with
+ * respect to snapshots, so a snapshot knows exactly which logged changes it includes. Writes
+ * through {@link Table} run as transactions too.</p>
+ *
+ * <p>An engine serving a {@link Replica} is read-only: its own transactions fail, and only the
+ * changes received from the primary are written, until the replica is promoted.</p>
+ */
+public class CsvStorageEngine implements StorageEngine {
+    private static final String LOCK_DIRECTORY = "locks";
+
+    private final Path dataDirectory;
+    private final Map<String, CsvTable> tables = new ConcurrentHashMap<>();
+    private final AtomicReference<Map<String, TableVersion>> versions = new AtomicReference<>(Collections.emptyMap());
+    private final ChangeLog changeLog;
+    private final Object commitLock = new Object();
+    private volatile boolean readOnly;
+
+    /**
+     * Constructs a CsvStorageEngine over a data directory.
+     *
+     * @param dataDirectory The directory holding the CSV files
+     */
+    public CsvStorageEngine(Path dataDirectory) {
+        this(dataDirectory, null);
+    }
+
+    /**
+     * Constructs a CsvStorageEngine over a data directory that logs its changes.
+     *
+     * @param dataDirectory The directory holding the CSV files
+     * @param changeLog     The log to record changes in, or null to record none
+     */
+    public CsvStorageEngine(Path dataDirectory, ChangeLog changeLog) {
+        this.dataDirectory = dataDirectory;
+        this.changeLog = changeLog;
+    }
+
+    @Override
+    public Table table(String name) {
+        return csvTable(name);
+    }
+
+    @Override
+    public Transaction begin() {
+        return begin(false);
+    }
+
+    /**
+     * Begins a transaction that applies changes received from a primary, which is allowed
+     * while the engine is read-only.
+     *
+     * @return The transaction
+     */
+    Transaction beginReplicated() {
+        return begin(true);
+    }
+
+    /**
+     * Makes the engine refuse or accept its own transactions.
+     *
+     * @param readOnly true while the engine serves a replica; false once it may be written
+     */
+    void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+
+    private Transaction begin(boolean replicated) {
+        return new BufferedTransaction() {
+            @Override
+            protected Object read(String tableName, List<String[]> rows) throws IOException {
+                TableVersion version = csvTable(tableName).current();
+                rows.addAll(version.readAll());
+                return version;
+            }
+
+            @Override
+            protected void apply(Map<String, TableWrites> writes) throws IOException {
+                if (readOnly && !replicated) {
+                    throw new IOException("The data in " + dataDirectory + " is a read-only replica");
+                }
+                Set<String> names = new TreeSet<>(writes.keySet());
+                names.addAll(getReadVersions().keySet());
+                List<CsvTable> locked = new ArrayList<>();
+                try {
+                    for (String name : names) {
+                        CsvTable table = csvTable(name);
+                        table.lock();
+                        locked.add(table);
+                    }
+                    for (Map.Entry<String, Object> read : getReadVersions().entrySet()) {
+                        if (csvTable(read.getKey()).current() != read.getValue()) {
+                            throw new WriteConflictException(read.getKey(), read.getKey() + " was changed by another writer");
+                        }
+                    }
+                    write(writes);
+                } finally {
+                    for (CsvTable table : locked) {
+                        table.unlock();
+                    }
+                }
+            }
+
+            /**
+             * Writes the tables, which are locked. Updates are applied to the rows first, so an
+             * update that rejects its row fails the transaction before any file is written.
+             */
+            private void write(Map<String, TableWrites> writes) throws IOException {
+                Map<String, List<String[]>> updated = new HashMap<>();
+                for (Map.Entry<String, TableWrites> entry : writes.entrySet()) {
+                    TableWrites tableWrites = entry.getValue();
+                    if (!tableWrites.updates.isEmpty()) {
+                        List<String[]> rows = new ArrayList<>(tableWrites.replacement != null
+                                ? tableWrites.replacement : csvTable(entry.getKey()).current().readAll());
+                        rows.addAll(tableWrites.appended);
+                        if (applyUpdates(rows, tableWrites.updates) || tableWrites.replacement != null) {
+                            updated.put(entry.getKey(), rows);
+                        }
+                    }
+                }
+
+                Map<String, TableVersion> written = new HashMap<>();
+                List<ChangeEvent> changes = new ArrayList<>();
+                long timestamp = System.currentTimeMillis();
+                try {
+                    for (Map.Entry<String, TableWrites> entry : writes.entrySet()) {
+                        String name = entry.getKey();
+                        CsvTable table = csvTable(name);
+                        TableWrites tableWrites = entry.getValue();
+                        List<String[]> replacement = tableWrites.replacement;
+                        List<String[]> appended = tableWrites.appended;
+                        if (updated.containsKey(name)) {
+                            // The updated rows replace the table, appended rows included
+                            replacement = updated.get(name);
+                            appended = Collections.emptyList();
+                        }
+                        List<String[]> before = null;
+                        if (replacement != null) {
+                            if (changeLog != null && changeLog.captures(name)) {
+                                before = table.current().readAll();
+                            }
+                            List<String[]> rows = new ArrayList<>(replacement);
+                            rows.addAll(appended);
+                            written.put(name, table.rewriteLocked(rows, isSync()));
+                        } else {
+                            written.put(name, table.appendLocked(appended, isSync()));
+                        }
+                        if (changeLog != null) {
+                            changes.addAll(changeLog.changes(name, timestamp, before, replacement, appended));
+                        }
+                    }
+                } finally {
+                    // Files written before a failure stay written, so they are logged and published too
+                    synchronized (commitLock) {
+                        try {
+                            if (changeLog != null) {
+                                changeLog.append(changes);
+                            }
+                        } finally {
+                            publish(written);
+                        }
+                    }
+                }
+            }
+        };
+    }
+
+    @Override
+    public Object currentVersion(String name) throws IOException {
+        return csvTable(name).current();
+    }
+
+    @Override
+    public Snapshot snapshot() throws IOException {
+        Set<String> names = new TreeSet<>(Storage.tableNames());
+        names.addAll(tables.keySet());
+        for (String name : names) {
+            csvTable(name).current();
+        }
+        Map<String, TableVersion> pinned;
+        long changeOffset;
+        synchronized (commitLock) {
+            pinned = versions.get();
+            changeOffset = changeLog != null ? changeLog.getNextOffset() : -1;
+        }
+        return new Snapshot() {
+            @Override
+            public Table table(String name) {
+                TableVersion version = pinned.get(name);
+                return version != null ? version : TableVersion.empty(name, Storage.defaultHeader(name), -1);
+            }
+
+            @Override
+            public long getChangeOffset() {
+                return changeOffset;
+            }
+
+            @Override
+            public void close() {
+                // The pinned versions are reclaimed by the garbage collector
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Every write is flushed to its file when it is made
+        if (changeLog != null) {
+            changeLog.close();
+        }
+    }
+
+    /**
+     * Gets the newest published version of a table.
+     *
+     * @param name The table name
+     * @return The version, or null if the table has not been read yet
+     */
+    TableVersion version(String name) {
+        return versions.get().get(name);
+    }
+
+    /**
+     * Makes new versions of one or more tables visible to readers, all at once.
+     *
+     * @param changed The new versions keyed by table name
+     */
+    void publish(Map<String, TableVersion> changed) {
+        versions.updateAndGet(current -> {
+            Map<String, TableVersion> next = new HashMap<>(current);
+            next.putAll(changed);
+            return Collections.unmodifiableMap(next);
+        });
+    }
+
+    /**
+     * Gets the file a table's writers lock, in this and every other process, while they write
+     * the table's CSV file.
+     *
+     * @param dataDirectory The directory holding the CSV files
+     * @param name          The table name
+     * @return The lock file
+     */
+    static Path lockFile(Path dataDirectory, String name) {
+        return dataDirectory.resolve(LOCK_DIRECTORY).resolve(name + ".lock");
+    }
+
+    private CsvTable csvTable(String name) {
+        return tables.computeIfAbsent(name, n -> new CsvTable(n, dataDirectory.resolve(n + ".csv"),
+                lockFile(dataDirectory, n), Storage.defaultHeader(n), this));
+    }
+}
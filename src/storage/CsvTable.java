@@ -0,0 +1,400 @@
+package storage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import paging.Page;
+
+/**
+ * The CsvTable class is a {@link Table} stored as a single CSV file. Appends are written to the
+ * end of the file; rewrites go to a temporary file that then replaces the original, so the file
+ * is never left half-written. Both run as single-table transactions of the owning engine.
+ *
+ * <p>Reads are served from the table's newest in-memory {@link TableVersion}, which is parsed
+ * from the file on first use and replaced after every write. Each read checks the file's length
+ * and modification time first, so edits made to the file outside this engine are picked up.
+ * Lookups by key scan the rows, as flat files carry no index. Files larger than
+ * {@link LineRanges#MIN_RANGE_BYTES} are split into byte ranges at line breaks and the ranges are
+ * parsed in parallel on the common {@link ForkJoinPool}.</p>
+ *
+ * <p>Writers hold the table's lock, which is also taken on a lock file so that writers in other
+ * processes sharing the data directory are excluded as well. The lock file holds a count of the
+ * writes made to the table, which every version records and every read compares, since the
+ * file's length and millisecond modification time alone can miss a write from another
+ * process.</p>
+ *
+ * <p>Every row is written sealed with a {@link RowChecksum}. Rows whose checksum does not match
+ * are left out when the file is read; the {@link IntegrityVerifier} moves them to quarantine.</p>
+ */
+class CsvTable implements Table {
+    private static final long MAX_RANGE_BYTES = 1L << 26;
+
+    private final String name;
+    private final Path file;
+    private final Path lockFile;
+    private final String defaultHeader;
+    private final CsvStorageEngine engine;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private FileChannel lockChannel;
+    private FileLock fileLock;
+
+    /**
+     * Constructs a CsvTable over a file.
+     *
+     * @param name          The table name
+     * @param file          The CSV file
+     * @param lockFile      The file locked while the table is written, shared with other processes
+     * @param defaultHeader The header written if the file does not exist yet
+     * @param engine        The engine that publishes the table's versions
+     */
+    CsvTable(String name, Path file, Path lockFile, String defaultHeader, CsvStorageEngine engine) {
+        this.name = name;
+        this.file = file;
+        this.lockFile = lockFile;
+        this.defaultHeader = defaultHeader;
+        this.engine = engine;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getHeader() throws IOException {
+        return current().getHeader();
+    }
+
+    @Override
+    public void scan(RowVisitor visitor) throws IOException {
+        current().scan(visitor);
+    }
+
+    @Override
+    public Page<String[]> scan(String cursor, int pageSize, Predicate<String[]> filter) throws IOException {
+        return current().scan(cursor, pageSize, filter);
+    }
+
+    @Override
+    public List<String[]> readAll() throws IOException {
+        return current().readAll();
+    }
+
+    @Override
+    public String[] find(String key) throws IOException {
+        return current().find(key);
+    }
+
+    @Override
+    public void append(String[] row) throws IOException {
+        try (Transaction transaction = engine.begin()) {
+            transaction.append(name, row);
+            transaction.commit();
+        }
+    }
+
+    @Override
+    public void rewrite(List<String[]> rows) throws IOException {
+        try (Transaction transaction = engine.begin()) {
+            transaction.rewrite(name, rows);
+            transaction.commit();
+        }
+    }
+
+    /**
+     * Locks the table against other writers in this process and, through its lock file, in
+     * other processes. The lock is reentrant.
+     *
+     * @throws IOException if the lock file cannot be locked
+     */
+    void lock() throws IOException {
+        writeLock.lock();
+        if (writeLock.getHoldCount() > 1) {
+            return;
+        }
+        try {
+            fileLock = lockChannel().lock();
+        } catch (IOException | RuntimeException e) {
+            writeLock.unlock();
+            throw e;
+        }
+    }
+
+    void unlock() {
+        if (writeLock.getHoldCount() == 1 && fileLock != null) {
+            try {
+                fileLock.release();
+            } catch (IOException e) {
+                System.err.println("Error releasing the lock on " + lockFile + ": " + e.getMessage());
+            }
+            fileLock = null;
+        }
+        writeLock.unlock();
+    }
+
+    /**
+     * Gets the channel of the lock file, opening it again if it was closed.
+     */
+    private synchronized FileChannel lockChannel() throws IOException {
+        if (lockChannel == null || !lockChannel.isOpen()) {
+            Files.createDirectories(lockFile.getParent());
+            lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+        }
+        return lockChannel;
+    }
+
+    /**
+     * Reads the number of writes made to the table by any process from the lock file.
+     */
+    private long readWriteCount() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+        while (buffer.hasRemaining()) {
+            if (lockChannel().read(buffer, buffer.position()) < 0) {
+                return 0;
+            }
+        }
+        return buffer.getLong(0);
+    }
+
+    /**
+     * Counts one more write in the lock file. Must be called while holding the table's lock.
+     */
+    private long advanceWriteCount() throws IOException {
+        long writeCount = readWriteCount() + 1;
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES).putLong(0, writeCount);
+        while (buffer.hasRemaining()) {
+            lockChannel().write(buffer, buffer.position());
+        }
+        return writeCount;
+    }
+
+    /**
+     * Gets the newest version of the table, reading the file again if it has changed since
+     * the version was made.
+     *
+     * @return The newest version
+     * @throws IOException if the file cannot be read
+     */
+    TableVersion current() throws IOException {
+        TableVersion version = engine.version(name);
+        if (version != null && isCurrent(version)) {
+            return version;
+        }
+        lock();
+        try {
+            version = engine.version(name);
+            if (version == null || !isCurrent(version)) {
+                version = load();
+                engine.publish(Collections.singletonMap(name, version));
+            }
+            return version;
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Appends rows to the end of the file, creating it with its header if needed. A final line
+     * left without a line break by an earlier writer is terminated first. Must be called while
+     * holding the table's lock; the caller publishes the returned version.
+     *
+     * @param rows The rows to append
+     * @param sync Whether to force the file to disk once the rows are written
+     * @return The version of the table that includes the appended rows
+     * @throws IOException if the file cannot be written
+     */
+    TableVersion appendLocked(List<String[]> rows, boolean sync) throws IOException {
+        TableVersion version = current();
+        if (rows.isEmpty()) {
+            return version;
+        }
+        boolean exists = Files.exists(file) && Files.size(file) > 0;
+        boolean needsLineBreak = exists && endsWithoutLineBreak();
+
+        try (FileOutputStream stream = new FileOutputStream(file.toFile(), true);
+             BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(stream))) {
+            if (!exists) {
+                writer.write(defaultHeader + RowChecksum.HEADER_MARKER);
+                writer.newLine();
+            } else if (needsLineBreak) {
+                writer.newLine();
+            }
+            for (String[] row : rows) {
+                writer.write(RowChecksum.seal(String.join(",", row)));
+                writer.newLine();
+            }
+            if (sync) {
+                writer.flush();
+                stream.getFD().sync();
+            }
+        }
+        return version.append(rows, Files.size(file), Files.getLastModifiedTime(file).toMillis(), advanceWriteCount());
+    }
+
+    /**
+     * Replaces the file with the header and the given rows. Must be called while holding the
+     * table's lock; the caller publishes the returned version.
+     *
+     * @param rows The new rows
+     * @param sync Whether to force the new file to disk before it replaces the old one
+     * @return The version of the table holding exactly the new rows
+     * @throws IOException if the file cannot be written
+     */
+    TableVersion rewriteLocked(List<String[]> rows, boolean sync) throws IOException {
+        String header = current().getHeader();
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (FileOutputStream stream = new FileOutputStream(temporary.toFile());
+             BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(stream))) {
+            writer.write(header + RowChecksum.HEADER_MARKER);
+            writer.newLine();
+            for (String[] row : rows) {
+                writer.write(RowChecksum.seal(String.join(",", row)));
+                writer.newLine();
+            }
+            if (sync) {
+                writer.flush();
+                stream.getFD().sync();
+            }
+        }
+
+        try {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return TableVersion.of(name, header, rows, Files.size(file), Files.getLastModifiedTime(file).toMillis(),
+                advanceWriteCount());
+    }
+
+    private boolean isCurrent(TableVersion version) throws IOException {
+        long writeCount = readWriteCount();
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return version.matchesFile(-1, -1, writeCount);
+        }
+        return version.matchesFile(attributes.size(), attributes.lastModifiedTime().toMillis(), writeCount);
+    }
+
+    /**
+     * Parses the file into a new version. Blank lines and corrupt rows are skipped.
+     */
+    private TableVersion load() throws IOException {
+        long writeCount = readWriteCount();
+        if (!Files.exists(file)) {
+            return TableVersion.empty(name, defaultHeader, writeCount);
+        }
+        long modified = Files.getLastModifiedTime(file).toMillis();
+        String header = defaultHeader;
+        List<String[]> rows = new ArrayList<>();
+        int corrupt = 0;
+        long length;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            length = channel.size();
+            long headerEnd = LineRanges.alignToLine(channel, 0);
+            if (headerEnd > 0) {
+                String line = new String(read(channel, 0, headerEnd), StandardCharsets.UTF_8);
+                header = RowChecksum.stripHeader(line.replaceAll("\\r?\\n$", ""));
+            }
+
+            List<ForkJoinTask<ParsedRange>> tasks = new ArrayList<>();
+            for (long[] range : LineRanges.split(channel, headerEnd, ForkJoinPool.getCommonPoolParallelism() * 4,
+                    MAX_RANGE_BYTES)) {
+                tasks.add(ForkJoinTask.adapt(() -> parseRange(channel, range[0], range[1])));
+            }
+            if (tasks.size() == 1) {
+                tasks.get(0).invoke();
+            } else {
+                ForkJoinTask.invokeAll(tasks);
+            }
+            for (ForkJoinTask<ParsedRange> task : tasks) {
+                ParsedRange parsed = task.join();
+                rows.addAll(parsed.rows);
+                corrupt += parsed.corrupt;
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (corrupt > 0) {
+            System.err.println("Skipping " + corrupt + " corrupt row(s) in " + file.getFileName());
+        }
+        return TableVersion.of(name, header, rows, length, modified, writeCount);
+    }
+
+    /**
+     * Parses the lines of one byte range of the file.
+     */
+    private static ParsedRange parseRange(FileChannel channel, long start, long end) {
+        ByteBuffer buffer;
+        try {
+            buffer = ByteBuffer.wrap(read(channel, start, end));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        byte[] bytes = buffer.array();
+        ParsedRange parsed = new ParsedRange();
+        int lineStart = 0;
+        while (lineStart < bytes.length) {
+            int lineEnd = lineStart;
+            while (lineEnd < bytes.length && bytes[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            int next = lineEnd + 1;
+            if (lineEnd > lineStart && bytes[lineEnd - 1] == '\r') {
+                lineEnd--;
+            }
+            RowChecksum.Status status = RowChecksum.check(buffer, lineStart, lineEnd);
+            if (status == RowChecksum.Status.CORRUPT) {
+                parsed.corrupt++;
+            } else {
+                int textEnd = status == RowChecksum.Status.VALID ? lineEnd - RowChecksum.SUFFIX_LENGTH : lineEnd;
+                String line = new String(bytes, lineStart, textEnd - lineStart, StandardCharsets.UTF_8);
+                if (!line.isBlank()) {
+                    parsed.rows.add(line.split(","));
+                }
+            }
+            lineStart = next;
+        }
+        return parsed;
+    }
+
+    private static byte[] read(FileChannel channel, long start, long end) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) < 0) {
+                break;
+            }
+        }
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    private boolean endsWithoutLineBreak() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "r")) {
+            if (raf.length() == 0) {
+                return false;
+            }
+            raf.seek(raf.length() - 1);
+            return raf.read() != '\n';
+        }
+    }
+
+    /**
+     * The rows and corrupt row count found in one byte range.
+     */
+    private static final class ParsedRange {
+        final List<String[]> rows = new ArrayList<>();
+        int corrupt;
+    }
+}
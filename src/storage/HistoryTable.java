@@ -0,0 +1,141 @@
+package storage;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.function.Predicate;
+import paging.Page;
+
+/**
+ * The HistoryTable class is the read-only view returned by {@link Archive#history(Table)}: the
+ * archived rows of a table followed by its live rows. Archived rows that are still present,
+ * unchanged, in the live table are skipped, so a row is never seen twice.
+ *
+ * <p>Page cursors name either a segment and a row within it, or a cursor of the live table
+ * once every archived row has been listed. Segments are only ever added after existing ones, so
+ * a cursor stays valid while archiving runs.</p>
+ */
+class HistoryTable implements Table {
+    private static final String ARCHIVE_POSITION = "a:";
+    private static final String LIVE_POSITION = "l:";
+
+    private final Table live;
+    private final Archive archive;
+
+    /**
+     * Constructs a HistoryTable.
+     *
+     * @param live    The live table
+     * @param archive The archive holding the table's older rows
+     */
+    HistoryTable(Table live, Archive archive) {
+        this.live = live;
+        this.archive = archive;
+    }
+
+    @Override
+    public String getName() {
+        return live.getName();
+    }
+
+    @Override
+    public String getHeader() throws IOException {
+        return live.getHeader();
+    }
+
+    @Override
+    public void scan(RowVisitor visitor) throws IOException {
+        List<ArchiveSegment> segments = archive.segments(getName());
+        if (!segments.isEmpty()) {
+            Set<String> liveRows = liveRows();
+            for (ArchiveSegment segment : segments) {
+                boolean finished = segment.scan(0, row -> liveRows.contains(String.join(",", row)) || visitor.visit(row));
+                if (!finished) {
+                    return;
+                }
+            }
+        }
+        live.scan(visitor);
+    }
+
+    @Override
+    public Page<String[]> scan(String cursor, int pageSize, Predicate<String[]> filter) throws IOException {
+        String position = cursor == null ? ARCHIVE_POSITION + "0:0" : Page.decodeCursor(cursor);
+        List<String[]> items = new ArrayList<>();
+        if (position.startsWith(LIVE_POSITION)) {
+            return livePage(position.substring(LIVE_POSITION.length()), pageSize, filter, items);
+        }
+        if (!position.startsWith(ARCHIVE_POSITION)) {
+            throw new IllegalArgumentException("Invalid cursor for " + getName() + " history");
+        }
+        String[] parts = position.substring(ARCHIVE_POSITION.length()).split(":");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Invalid cursor for " + getName() + " history");
+        }
+        int fromSequence = Integer.parseInt(parts[0]);
+        int fromRow = Integer.parseInt(parts[1]);
+
+        List<ArchiveSegment> segments = archive.segments(getName());
+        Set<String> liveRows = segments.isEmpty() ? Collections.emptySet() : liveRows();
+        for (ArchiveSegment segment : segments) {
+            if (segment.getSequence() < fromSequence) {
+                continue;
+            }
+            int[] nextRow = {segment.getSequence() == fromSequence ? fromRow : 0};
+            segment.scan(nextRow[0], row -> {
+                nextRow[0]++;
+                if (filter.test(row) && !liveRows.contains(String.join(",", row))) {
+                    items.add(row);
+                }
+                return items.size() < pageSize;
+            });
+            if (items.size() >= pageSize) {
+                return new Page<>(items, Page.encodeCursor(ARCHIVE_POSITION + segment.getSequence() + ":" + nextRow[0]));
+            }
+        }
+        return livePage("", pageSize, filter, items);
+    }
+
+    @Override
+    public List<String[]> readAll() throws IOException {
+        List<String[]> rows = new ArrayList<>();
+        scan(rows::add);
+        return rows;
+    }
+
+    @Override
+    public String[] find(String key) throws IOException {
+        String[] row = live.find(key);
+        return row != null ? row : archive.find(getName(), key);
+    }
+
+    @Override
+    public void append(String[] row) {
+        throw new UnsupportedOperationException("The history of " + getName() + " is read-only");
+    }
+
+    @Override
+    public void rewrite(List<String[]> rows) {
+        throw new UnsupportedOperationException("The history of " + getName() + " is read-only");
+    }
+
+    /**
+     * Completes a page with rows of the live table.
+     */
+    private Page<String[]> livePage(String liveCursor, int pageSize, Predicate<String[]> filter, List<String[]> items) throws IOException {
+        Page<String[]> page = live.scan(liveCursor.isEmpty() ? null : liveCursor, pageSize - items.size(), filter);
+        items.addAll(page.getItems());
+        return new Page<>(items, page.hasNext() ? Page.encodeCursor(LIVE_POSITION + page.getNextCursor()) : null);
+    }
+
+    /**
+     * Gets every live row as a CSV line, to recognise archived rows still in the live table.
+     */
+    private Set<String> liveRows() throws IOException {
+        Set<String> rows = new HashSet<>();
+        live.scan(row -> {
+            rows.add(String.join(",", row));
+            return true;
+        });
+        return rows;
+    }
+}
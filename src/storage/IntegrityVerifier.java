@@ -0,0 +1,302 @@
+package storage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * The IntegrityVerifier class checks the row checksums of every CSV table in a data directory
+ * and moves corrupt rows out of the way. Each file is split into byte ranges that start and end
+ * at line breaks, and the ranges of all files are checked in parallel on a {@link ForkJoinPool}
+ * straight from memory-mapped buffers, without decoding the text, so even large data sets can be
+ * verified on every start.
+ *
+ * <p>A row is corrupt if its checksum does not match its text, or if it is the unfinished last
+ * line of a file whose rows are sealed, as left by a write cut short. Corrupt rows are appended
+ * to a file of the same name in the {@code quarantine} subdirectory, each preceded by the time it
+ * was found and its byte offset in the table file, and the table file is rewritten without them.
+ * Rows with more columns than the header are counted but kept.</p>
+ *
+ * <p>{@link Storage} runs the verifier over the CSV files before it opens the CSV engine, unless
+ * the {@code hms.verify} property is {@code false}. Other sessions may be writing to the files
+ * meanwhile, so the verifier holds the lock file of every table it checks, as the CSV engine's
+ * writers do, from before it reads the table until any rewrite is done. A row another process is
+ * still appending is therefore never taken for a torn one. To verify a data directory by
+ * hand:</p>
+ *
+ * <pre>
+ * java storage.IntegrityVerifier resources
+ * </pre>
+ */
+public final class IntegrityVerifier {
+    public static final String VERIFY_PROPERTY = "hms.verify";
+
+    private static final String QUARANTINE_DIRECTORY = "quarantine";
+    private static final long MAX_RANGE_BYTES = 1L << 28;
+
+    private final Path dataDirectory;
+    private final ForkJoinPool pool;
+
+    /**
+     * Constructs an IntegrityVerifier that runs on the common fork-join pool.
+     *
+     * @param dataDirectory The directory holding the CSV files
+     */
+    public IntegrityVerifier(Path dataDirectory) {
+        this(dataDirectory, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructs an IntegrityVerifier.
+     *
+     * @param dataDirectory The directory holding the CSV files
+     * @param pool          The pool the byte ranges are checked on
+     */
+    public IntegrityVerifier(Path dataDirectory, ForkJoinPool pool) {
+        this.dataDirectory = dataDirectory;
+        this.pool = pool;
+    }
+
+    /**
+     * Verifies the CSV files of the hospital's tables and quarantines their corrupt rows.
+     *
+     * @return The counts found in each table
+     * @throws IOException if a file cannot be read or rewritten
+     */
+    public VerificationReport verify() throws IOException {
+        return verify(Storage.tableNames());
+    }
+
+    /**
+     * Verifies the CSV files of some tables and quarantines their corrupt rows. Tables without
+     * a file are skipped. The tables' lock files are locked in name order, as the CSV engine
+     * locks them, and held until the tables are verified.
+     *
+     * @param tableNames The names of the tables to verify
+     * @return The counts found in each table
+     * @throws IOException if a file cannot be read or rewritten
+     */
+    public VerificationReport verify(Collection<String> tableNames) throws IOException {
+        long start = System.nanoTime();
+        VerificationReport report = new VerificationReport();
+        Map<String, FileChannel> channels = new TreeMap<>();
+        List<FileChannel> lockChannels = new ArrayList<>();
+        Map<String, List<ForkJoinTask<RangeResult>>> tasks = new TreeMap<>();
+        long bytes = 0;
+        try {
+            for (String name : new TreeSet<>(tableNames)) {
+                Path file = dataDirectory.resolve(name + ".csv");
+                if (!Files.isRegularFile(file)) {
+                    continue;
+                }
+                lock(name, lockChannels);
+                FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+                channels.put(name, channel);
+                bytes += channel.size();
+                tasks.put(name, submitRanges(channel));
+            }
+
+            for (Map.Entry<String, List<ForkJoinTask<RangeResult>>> entry : tasks.entrySet()) {
+                String name = entry.getKey();
+                long valid = 0;
+                long unchecked = 0;
+                long malformed = 0;
+                List<long[]> corrupt = new ArrayList<>();
+                for (ForkJoinTask<RangeResult> task : entry.getValue()) {
+                    RangeResult result = task.join();
+                    valid += result.valid;
+                    unchecked += result.unchecked;
+                    malformed += result.malformed;
+                    corrupt.addAll(result.corrupt);
+                }
+                report.add(name, valid, unchecked, corrupt.size(), malformed);
+                if (!corrupt.isEmpty()) {
+                    quarantine(name, channels.get(name), corrupt);
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            for (FileChannel channel : channels.values()) {
+                channel.close();
+            }
+            // Closing a lock file's channel releases its lock
+            for (FileChannel lockChannel : lockChannels) {
+                lockChannel.close();
+            }
+        }
+        report.finish(bytes, System.nanoTime() - start);
+        return report;
+    }
+
+    /**
+     * Verifies a data directory from the command line and prints the report.
+     *
+     * @param args The data directory, or none for the configured one
+     * @throws IOException if a file cannot be read or rewritten
+     */
+    public static void main(String[] args) throws IOException {
+        Path directory = args.length > 0 ? Paths.get(args[0]) : Storage.getDataDirectory();
+        new IntegrityVerifier(directory).verify().print(System.out);
+    }
+
+    /**
+     * Locks a table's lock file against writers in other processes, adding its channel to the
+     * ones to close.
+     */
+    private void lock(String name, List<FileChannel> lockChannels) throws IOException {
+        Path lockFile = CsvStorageEngine.lockFile(dataDirectory, name);
+        Files.createDirectories(lockFile.getParent());
+        FileChannel lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        lockChannels.add(lockChannel);
+        lockChannel.lock();
+    }
+
+    /**
+     * Reads the header of a file and submits a task for each of its byte ranges.
+     */
+    private List<ForkJoinTask<RangeResult>> submitRanges(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long headerEnd = LineRanges.alignToLine(channel, 0);
+        ByteBuffer headerBytes = ByteBuffer.allocate((int) Math.min(headerEnd, Integer.MAX_VALUE));
+        channel.read(headerBytes, 0);
+        String header = new String(headerBytes.array(), 0, headerBytes.position(), StandardCharsets.UTF_8).trim();
+        boolean sealed = RowChecksum.isSealedHeader(header);
+        int columns = RowChecksum.stripHeader(header).split(",", -1).length;
+
+        List<ForkJoinTask<RangeResult>> tasks = new ArrayList<>();
+        for (long[] range : LineRanges.split(channel, headerEnd, pool.getParallelism() * 4, MAX_RANGE_BYTES)) {
+            boolean last = range[1] == size;
+            tasks.add(pool.submit(() -> checkRange(channel, range[0], range[1], last, sealed, columns)));
+        }
+        return tasks;
+    }
+
+    /**
+     * Checks the lines of one byte range of a file.
+     */
+    private static RangeResult checkRange(FileChannel channel, long start, long end, boolean last, boolean sealed, int columns) {
+        RangeResult result = new RangeResult();
+        MappedByteBuffer buffer;
+        try {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        int limit = buffer.limit();
+        int lineStart = 0;
+        int commas = 0;
+        for (int i = 0; i <= limit; i++) {
+            byte b = i < limit ? buffer.get(i) : (byte) '\n';
+            if (b == ',') {
+                commas++;
+                continue;
+            }
+            if (b != '\n') {
+                continue;
+            }
+            int lineEnd = i > lineStart && buffer.get(i - 1) == '\r' ? i - 1 : i;
+            if (!isBlank(buffer, lineStart, lineEnd)) {
+                RowChecksum.Status status = RowChecksum.check(buffer, lineStart, lineEnd);
+                boolean torn = i == limit && last && sealed && lineEnd > lineStart && status == RowChecksum.Status.UNCHECKED;
+                if (status == RowChecksum.Status.CORRUPT || torn) {
+                    result.corrupt.add(new long[]{start + lineStart, Math.min(i + 1, limit) - lineStart});
+                } else {
+                    if (status == RowChecksum.Status.VALID) {
+                        result.valid++;
+                        commas--;
+                    } else {
+                        result.unchecked++;
+                    }
+                    if (commas >= columns) {
+                        result.malformed++;
+                    }
+                }
+            }
+            lineStart = i + 1;
+            commas = 0;
+        }
+        return result;
+    }
+
+    /**
+     * Appends corrupt rows to the table's quarantine file, then rewrites the table file without
+     * them.
+     *
+     * @param corrupt The byte offset and length of each corrupt row, line break included
+     */
+    private void quarantine(String name, FileChannel channel, List<long[]> corrupt) throws IOException {
+        corrupt.sort(Comparator.comparingLong(row -> row[0]));
+        Path directory = dataDirectory.resolve(QUARANTINE_DIRECTORY);
+        Files.createDirectories(directory);
+        String detected = Instant.now().toString();
+        try (FileOutputStream stream = new FileOutputStream(directory.resolve(name + ".csv").toFile(), true);
+             BufferedOutputStream out = new BufferedOutputStream(stream)) {
+            for (long[] row : corrupt) {
+                ByteBuffer line = ByteBuffer.allocate((int) row[1]);
+                channel.read(line, row[0]);
+                int length = line.position();
+                while (length > 0 && (line.get(length - 1) == '\n' || line.get(length - 1) == '\r')) {
+                    length--;
+                }
+                out.write((detected + "," + row[0] + ",").getBytes(StandardCharsets.UTF_8));
+                out.write(line.array(), 0, length);
+                out.write('\n');
+            }
+            out.flush();
+            stream.getFD().sync();
+        }
+
+        Path file = dataDirectory.resolve(name + ".csv");
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            long position = 0;
+            for (long[] row : corrupt) {
+                transfer(channel, position, row[0], out);
+                position = row[0] + row[1];
+            }
+            transfer(channel, position, channel.size(), out);
+            out.force(true);
+        }
+        try {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void transfer(FileChannel source, long from, long to, FileChannel target) throws IOException {
+        while (from < to) {
+            from += source.transferTo(from, to - from, target);
+        }
+    }
+
+    private static boolean isBlank(ByteBuffer buffer, int start, int end) {
+        for (int i = start; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b != ' ' && b != '\t') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The counts and corrupt rows found in one byte range.
+     */
+    private static final class RangeResult {
+        long valid;
+        long unchecked;
+        long malformed;
+        final List<long[]> corrupt = new ArrayList<>();
+    }
+}
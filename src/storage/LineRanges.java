@@ -0,0 +1,73 @@
+package storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The LineRanges class splits a text file into byte ranges that begin and end at line breaks,
+ * so the ranges can be processed in parallel without any line being cut in two.
+ */
+final class LineRanges {
+    static final long MIN_RANGE_BYTES = 1L << 20;
+
+    private static final int ALIGN_BUFFER_BYTES = 8192;
+
+    private LineRanges() {
+    }
+
+    /**
+     * Splits part of a file into about {@code parts} ranges of at least {@link #MIN_RANGE_BYTES}
+     * and at most {@code maxRangeBytes} each, moving every boundary forward to the start of the
+     * next line.
+     *
+     * @param channel       The file
+     * @param from          The position of the first byte of the part, at the start of a line
+     * @param parts         The number of ranges wanted
+     * @param maxRangeBytes The largest size of a range, apart from the line it ends with
+     * @return The start and end position of each range, in file order
+     * @throws IOException if the file cannot be read
+     */
+    static List<long[]> split(FileChannel channel, long from, int parts, long maxRangeBytes) throws IOException {
+        long size = channel.size();
+        long ranges = Math.max(1, Math.min(parts, (size - from) / MIN_RANGE_BYTES));
+        long rangeBytes = Math.min(maxRangeBytes, Math.max(MIN_RANGE_BYTES, (size - from + ranges - 1) / ranges));
+
+        List<long[]> result = new ArrayList<>();
+        while (from < size) {
+            long to = from + rangeBytes >= size ? size : alignToLine(channel, from + rangeBytes);
+            result.add(new long[]{from, to});
+            from = to;
+        }
+        return result;
+    }
+
+    /**
+     * Gets the position just after the first line break at or after a position.
+     *
+     * @param channel  The file
+     * @param position The position to search from
+     * @return The position of the next line, or the size of the file if there is none
+     * @throws IOException if the file cannot be read
+     */
+    static long alignToLine(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(ALIGN_BUFFER_BYTES);
+        long size = channel.size();
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,479 @@
+package storage;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The Replica class keeps a warm standby copy of a primary's data. It connects to the primary's
+ * {@link ReplicationServer}, applies the changes streamed to it to a local, read-only
+ * {@link CsvStorageEngine} in commit order, and reconnects whenever the connection is lost.
+ * The process holding the replica serves read-only queries from the local engine; its own
+ * writes fail until the replica is promoted.
+ *
+ * <p>The primary's source ID and the offset of the next change are kept in
+ * {@code replica.properties} in the data directory, so a restarted replica resumes where it left
+ * off. The file is marked while a change is being applied; a replica that stopped in the middle
+ * of one asks for a new copy of every table instead of resuming.</p>
+ *
+ * <p>{@link #promote()} stops replicating and makes the engine writable, keeping every table in
+ * memory, so a replica takes over from a failed primary without reloading anything. To follow a
+ * primary from the command line and promote the replica by typing {@code promote}:</p>
+ *
+ * <pre>
+ * java -Dhms.data.dir=replica storage.Replica localhost:7400
+ * </pre>
+ */
+public final class Replica implements Closeable {
+    private static final String STATE_FILE = "replica.properties";
+    private static final int CONNECT_TIMEOUT_MILLIS = 2_000;
+    private static final int READ_TIMEOUT_MILLIS = 5_000;
+    private static final long RETRY_MILLIS = 1_000;
+
+    /**
+     * Receives the changes a replica has applied, for example to update in-memory indexes.
+     */
+    public interface Listener {
+        /**
+         * Called after changes have been applied to the replica's tables.
+         *
+         * @param events   The change events applied, in commit order
+         * @param replaced The names of the tables whose rows were replaced as a whole
+         */
+        void applied(List<ChangeEvent> events, Set<String> replaced);
+    }
+
+    private final String host;
+    private final int port;
+    private final CsvStorageEngine engine;
+    private final Path dataDirectory;
+    private final Archive archive;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Object applyLock = new Object();
+    private String source = "";
+    private long nextOffset;
+    private long primaryOffset = -1;
+    private volatile boolean running;
+    private volatile boolean connected;
+    private boolean caughtUp;
+    private Socket socket;
+    private Thread thread;
+
+    /**
+     * Constructs a Replica of a primary. The engine is made read-only until the replica is
+     * promoted.
+     *
+     * @param host          The host name of the primary
+     * @param port          The replication port of the primary
+     * @param engine        The local engine the changes are applied to
+     * @param dataDirectory The data directory of the local engine
+     * @param archive       The local archive the primary's segments are copied to
+     * @throws IOException if the replica's state cannot be read
+     */
+    public Replica(String host, int port, CsvStorageEngine engine, Path dataDirectory, Archive archive) throws IOException {
+        this.host = host;
+        this.port = port;
+        this.engine = engine;
+        this.dataDirectory = dataDirectory;
+        this.archive = archive;
+        Path file = dataDirectory.resolve(STATE_FILE);
+        if (Files.exists(file)) {
+            Properties state = new Properties();
+            try (InputStream in = Files.newInputStream(file)) {
+                state.load(in);
+            }
+            if (!Boolean.parseBoolean(state.getProperty("applying"))) {
+                source = state.getProperty("source", "");
+                nextOffset = Long.parseLong(state.getProperty("offset", "0"));
+            }
+        }
+        engine.setReadOnly(true);
+    }
+
+    /**
+     * Starts replicating in the background.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "replica-" + host + ":" + port);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Waits until the replica has applied every change the primary had when it connected.
+     *
+     * @param timeoutMillis The longest time to wait
+     * @return true if the replica caught up; false if the time ran out first
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public synchronized boolean awaitCaughtUp(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!caughtUp) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    /**
+     * Registers a listener for the changes applied from now on.
+     *
+     * @param listener The listener
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Checks whether the replica is connected to its primary.
+     *
+     * @return true if connected; false otherwise
+     */
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * Gets how many of the primary's logged changes have not been applied yet, as of the last
+     * heartbeat.
+     *
+     * @return The number of changes behind, or -1 if the primary has not been heard from
+     */
+    public synchronized long getLag() {
+        return primaryOffset < 0 ? -1 : Math.max(0, primaryOffset - nextOffset);
+    }
+
+    /**
+     * Stops replicating and makes the local engine writable. The tables stay in memory as they
+     * are, so the process can take over as primary at once.
+     *
+     * @throws IOException if the replica's state cannot be removed
+     */
+    public void promote() throws IOException {
+        close();
+        synchronized (applyLock) {
+            Files.deleteIfExists(dataDirectory.resolve(STATE_FILE));
+            engine.setReadOnly(false);
+        }
+    }
+
+    /**
+     * Stops replicating. The local engine stays read-only.
+     *
+     * @throws IOException if the connection cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        Thread follower;
+        synchronized (this) {
+            running = false;
+            follower = thread;
+            thread = null;
+            if (socket != null) {
+                socket.close();
+            }
+        }
+        if (follower != null && follower != Thread.currentThread()) {
+            follower.interrupt();
+            try {
+                follower.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Follows a primary from the command line until {@code promote} or {@code quit} is typed.
+     *
+     * @param args The primary as {@code host:port}, and optionally the data directory
+     * @throws IOException if the data directory cannot be used
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args[0].lastIndexOf(':') < 0) {
+            System.out.println("Usage: java storage.Replica <host:port> [data-dir]");
+            return;
+        }
+        String primary = args[0];
+        Path directory = args.length > 1 ? Paths.get(args[1]) : Storage.getDataDirectory();
+        CsvStorageEngine engine = new CsvStorageEngine(directory);
+        Replica replica = new Replica(primary.substring(0, primary.lastIndexOf(':')),
+                Integer.parseInt(primary.substring(primary.lastIndexOf(':') + 1)), engine, directory,
+                new Archive(directory.resolve("archive")));
+        replica.start();
+        System.out.println("Replicating " + primary + " into " + directory + "; type promote or quit");
+
+        BufferedReader console = new BufferedReader(new InputStreamReader(System.in));
+        String line;
+        while ((line = console.readLine()) != null) {
+            if (line.trim().equalsIgnoreCase("promote")) {
+                replica.promote();
+                System.out.println("Promoted; " + directory + " is now writable");
+                break;
+            } else if (line.trim().equalsIgnoreCase("quit")) {
+                replica.close();
+                break;
+            } else {
+                System.out.println((replica.isConnected() ? "Connected" : "Disconnected") + ", lag " + replica.getLag());
+            }
+        }
+        engine.close();
+    }
+
+    private void run() {
+        boolean reported = false;
+        while (running) {
+            try (Socket connection = new Socket()) {
+                connection.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+                connection.setSoTimeout(READ_TIMEOUT_MILLIS);
+                connection.setTcpNoDelay(true);
+                synchronized (this) {
+                    if (!running) {
+                        return;
+                    }
+                    socket = connection;
+                }
+                connected = true;
+                reported = false;
+                follow(connection);
+            } catch (IOException e) {
+                if (running && !reported) {
+                    System.err.println("Replication from " + host + ":" + port + " interrupted: " + e.getMessage());
+                    reported = true;
+                }
+            } finally {
+                connected = false;
+                synchronized (this) {
+                    socket = null;
+                }
+            }
+            if (!running) {
+                return;
+            }
+            try {
+                Thread.sleep(RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Applies the messages of one connection until it is closed.
+     */
+    private void follow(Socket connection) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+        out.writeInt(ReplicationProtocol.MAGIC);
+        out.writeInt(ReplicationProtocol.VERSION);
+        out.writeUTF(source);
+        out.writeLong(nextOffset);
+        List<String> segments = segmentNames();
+        out.writeInt(segments.size());
+        for (String segment : segments) {
+            out.writeUTF(segment);
+        }
+        out.flush();
+
+        if (in.readInt() != ReplicationProtocol.MAGIC) {
+            throw new IOException("Not a replication server");
+        }
+        String primarySource = in.readUTF();
+        while (running) {
+            byte type = in.readByte();
+            switch (type) {
+                case ReplicationProtocol.BASE:
+                    applyBase(in, primarySource);
+                    break;
+                case ReplicationProtocol.EVENTS:
+                    applyEvents(in);
+                    break;
+                case ReplicationProtocol.TABLE:
+                    applyTable(in);
+                    break;
+                case ReplicationProtocol.SEGMENT:
+                    copySegment(in);
+                    break;
+                case ReplicationProtocol.HEARTBEAT:
+                    long offset = in.readLong();
+                    synchronized (this) {
+                        primaryOffset = offset;
+                        caughtUp = true;
+                        notifyAll();
+                    }
+                    break;
+                default:
+                    throw new IOException("Unknown replication message " + type);
+            }
+        }
+    }
+
+    private void applyBase(DataInputStream in, String primarySource) throws IOException {
+        long offset = in.readLong();
+        int count = in.readInt();
+        Map<String, List<String[]>> tables = new TreeMap<>();
+        for (int i = 0; i < count; i++) {
+            String name = in.readUTF();
+            tables.put(name, ReplicationProtocol.readRows(in));
+        }
+        synchronized (applyLock) {
+            checkRunning();
+            saveState(true);
+            try (Transaction transaction = engine.beginReplicated()) {
+                for (Map.Entry<String, List<String[]>> entry : tables.entrySet()) {
+                    transaction.rewrite(entry.getKey(), entry.getValue());
+                }
+                transaction.commit();
+            }
+            synchronized (this) {
+                source = primarySource;
+                nextOffset = offset;
+            }
+            saveState(false);
+        }
+        notifyListeners(Collections.emptyList(), tables.keySet());
+    }
+
+    /**
+     * Applies a batch of events in one transaction: rows appended to tables that only received
+     * inserts, and every other touched table rewritten with its events applied.
+     */
+    private void applyEvents(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<ChangeEvent> events = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ChangeEvent event = ChangeLog.readRecord(in);
+            if (event == null) {
+                throw new IOException("Damaged change record from the primary");
+            }
+            events.add(event);
+        }
+        Map<String, List<ChangeEvent>> byTable = new LinkedHashMap<>();
+        for (ChangeEvent event : events) {
+            if (event.getOffset() >= nextOffset) {
+                byTable.computeIfAbsent(event.getTable(), name -> new ArrayList<>()).add(event);
+            }
+        }
+        if (byTable.isEmpty()) {
+            return;
+        }
+        synchronized (applyLock) {
+            checkRunning();
+            saveState(true);
+            try (Transaction transaction = engine.beginReplicated()) {
+                for (Map.Entry<String, List<ChangeEvent>> entry : byTable.entrySet()) {
+                    String name = entry.getKey();
+                    List<ChangeEvent> tableEvents = entry.getValue();
+                    if (tableEvents.stream().allMatch(event -> event.getOperation() == ChangeEvent.Operation.INSERT)) {
+                        for (ChangeEvent event : tableEvents) {
+                            transaction.append(name, event.getAfter());
+                        }
+                    } else {
+                        ChangeApplier applier = new ChangeApplier(name, engine.table(name).readAll());
+                        for (ChangeEvent event : tableEvents) {
+                            applier.apply(event);
+                        }
+                        transaction.rewrite(name, applier.getRows());
+                    }
+                }
+                transaction.commit();
+            }
+            synchronized (this) {
+                nextOffset = events.get(events.size() - 1).getOffset() + 1;
+            }
+            saveState(false);
+        }
+        notifyListeners(events, Collections.emptySet());
+    }
+
+    private void applyTable(DataInputStream in) throws IOException {
+        String name = in.readUTF();
+        List<String[]> rows = ReplicationProtocol.readRows(in);
+        synchronized (applyLock) {
+            checkRunning();
+            try (Transaction transaction = engine.beginReplicated()) {
+                transaction.rewrite(name, rows);
+                transaction.commit();
+            }
+        }
+        notifyListeners(Collections.emptyList(), Collections.singleton(name));
+    }
+
+    private void copySegment(DataInputStream in) throws IOException {
+        String name = Paths.get(in.readUTF()).getFileName().toString();
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        Path directory = archive.getDirectory();
+        Files.createDirectories(directory);
+        Path temporary = directory.resolve(name + ".tmp");
+        Files.write(temporary, bytes);
+        try {
+            Files.move(temporary, directory.resolve(name), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, directory.resolve(name), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private List<String> segmentNames() throws IOException {
+        List<String> names = new ArrayList<>();
+        Path directory = archive.getDirectory();
+        if (Files.isDirectory(directory)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + ArchiveSegment.SUFFIX)) {
+                for (Path file : files) {
+                    names.add(file.getFileName().toString());
+                }
+            }
+        }
+        return names;
+    }
+
+    private void checkRunning() throws IOException {
+        if (!running) {
+            throw new IOException("The replica has been stopped");
+        }
+    }
+
+    /**
+     * Writes the primary's source ID and the next offset, marked as applying while a change is
+     * being written.
+     */
+    private void saveState(boolean applying) throws IOException {
+        Properties state = new Properties();
+        synchronized (this) {
+            state.setProperty("source", source);
+            state.setProperty("offset", Long.toString(nextOffset));
+        }
+        state.setProperty("applying", Boolean.toString(applying));
+        Files.createDirectories(dataDirectory);
+        Path file = dataDirectory.resolve(STATE_FILE);
+        Path temporary = file.resolveSibling(STATE_FILE + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temporary)) {
+            state.store(out, "Replication state");
+        }
+        try {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void notifyListeners(List<ChangeEvent> events, Set<String> replaced) {
+        for (Listener listener : listeners) {
+            try {
+                listener.applied(events, replaced);
+            } catch (RuntimeException e) {
+                System.err.println("Error updating after replication: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package storage;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The ReplicationProtocol class holds the message format spoken between a
+ * {@link ReplicationServer} and its {@link Replica}s over a TCP connection.
+ *
+ * <p>The replica opens the connection with {@link #MAGIC}, {@link #VERSION}, the source ID and
+ * next offset recorded by its last session (an empty source ID and offset 0 if it has none),
+ * and the names of the archive segments it already holds. The primary answers with
+ * {@link #MAGIC} and its own source ID, then sends messages, each starting with its type:</p>
+ *
+ * <ul>
+ *   <li>{@link #BASE} - the change offset of a snapshot followed by every table of it, sent
+ *       when the replica cannot continue from its offset.</li>
+ *   <li>{@link #EVENTS} - a count followed by that many change log records.</li>
+ *   <li>{@link #TABLE} - every row of one uncaptured table, sent whenever the table changes.</li>
+ *   <li>{@link #SEGMENT} - the name, length and bytes of an archive segment.</li>
+ *   <li>{@link #HEARTBEAT} - the primary's next change offset, sent when the replica has been
+ *       sent everything and then periodically while idle.</li>
+ * </ul>
+ */
+final class ReplicationProtocol {
+    static final int MAGIC = 0x484D5352;
+    static final int VERSION = 1;
+
+    static final byte BASE = 'B';
+    static final byte EVENTS = 'E';
+    static final byte TABLE = 'T';
+    static final byte SEGMENT = 'S';
+    static final byte HEARTBEAT = 'H';
+
+    private ReplicationProtocol() {
+    }
+
+    /**
+     * Writes the name and rows of a table.
+     */
+    static void writeTable(DataOutputStream out, String name, List<String[]> rows) throws IOException {
+        out.writeUTF(name);
+        out.writeInt(rows.size());
+        for (String[] row : rows) {
+            out.writeInt(row.length);
+            for (String value : row) {
+                out.writeUTF(value);
+            }
+        }
+    }
+
+    /**
+     * Reads the rows of a table whose name has already been read.
+     */
+    static List<String[]> readRows(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<String[]> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String[] row = new String[in.readInt()];
+            for (int j = 0; j < row.length; j++) {
+                row[j] = in.readUTF();
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,324 @@
+package storage;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.Flow;
+
+/**
+ * The ReplicationServer class makes a primary's data available to {@link Replica}s in other
+ * processes. Each replica connects over TCP and is streamed the primary's {@link ChangeLog} from
+ * the offset it reached last time, so every captured change (appointments, availability, records,
+ * bills, inventory and staff) arrives in the order it was committed. A replica that is new, or
+ * that last followed another primary, is first sent a consistent {@link Snapshot} of every table.
+ *
+ * <p>The uncaptured tables (user credentials, patients and billing aggregates) are not in the
+ * change log, so each one is sent whole whenever it differs from what the replica was last sent.
+ * New archive segments are sent once, before the changes that removed their rows from the live
+ * tables.</p>
+ *
+ * <p>Each connection is served by its own thread, which sleeps until something is logged or the
+ * poll interval passes. {@link Storage} starts a server when the {@code hms.replication.port}
+ * property is set.</p>
+ */
+public final class ReplicationServer implements Closeable {
+    private static final String SOURCE_ID_FILE = "replication.id";
+    private static final int EVENT_BATCH = 1_000;
+    private static final long POLL_MILLIS = 200;
+    private static final long HEARTBEAT_MILLIS = 1_000;
+
+    private final StorageEngine engine;
+    private final ChangeLog changeLog;
+    private final Archive archive;
+    private final String sourceId;
+    private final Object signal = new Object();
+    private final List<Socket> connections = new ArrayList<>();
+    private ServerSocket serverSocket;
+    private volatile boolean running;
+
+    /**
+     * Constructs a ReplicationServer.
+     *
+     * @param engine    The primary's storage engine
+     * @param changeLog The primary's change log
+     * @param archive   The primary's archive
+     * @param sourceId  The ID that tells this primary's change offsets apart from any other's
+     */
+    public ReplicationServer(StorageEngine engine, ChangeLog changeLog, Archive archive, String sourceId) {
+        this.engine = engine;
+        this.changeLog = changeLog;
+        this.archive = archive;
+        this.sourceId = sourceId;
+    }
+
+    /**
+     * Gets the source ID of a data directory, creating one the first time. The ID stays the
+     * same for as long as the directory's change log does.
+     *
+     * @param dataDirectory The primary's data directory
+     * @return The source ID
+     * @throws IOException if the ID cannot be read or written
+     */
+    public static String sourceId(Path dataDirectory) throws IOException {
+        Path file = dataDirectory.resolve(SOURCE_ID_FILE);
+        if (Files.exists(file)) {
+            String id = new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim();
+            if (!id.isEmpty()) {
+                return id;
+            }
+        }
+        String id = UUID.randomUUID().toString();
+        Files.createDirectories(dataDirectory);
+        Files.write(file, (id + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+        return id;
+    }
+
+    /**
+     * Starts accepting replicas on a port.
+     *
+     * @param port The TCP port, or 0 for any free port
+     * @throws IOException if the port cannot be opened
+     */
+    public synchronized void start(int port) throws IOException {
+        serverSocket = new ServerSocket(port);
+        running = true;
+        changeLog.subscribe(new Flow.Subscriber<ChangeEvent>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(ChangeEvent item) {
+                synchronized (signal) {
+                    signal.notifyAll();
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                // Replicas are still served by polling
+            }
+
+            @Override
+            public void onComplete() {
+                // The log is closed; the server is closed with it
+            }
+        });
+        Thread acceptor = new Thread(this::accept, "replication-accept-" + getPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Gets the port the server accepts replicas on.
+     *
+     * @return The port, or -1 if the server has not been started
+     */
+    public synchronized int getPort() {
+        return serverSocket != null ? serverSocket.getLocalPort() : -1;
+    }
+
+    /**
+     * Gets the source ID sent to replicas.
+     *
+     * @return The source ID
+     */
+    public String getSourceId() {
+        return sourceId;
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        synchronized (signal) {
+            signal.notifyAll();
+        }
+        synchronized (this) {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+            for (Socket socket : connections) {
+                socket.close();
+            }
+            connections.clear();
+        }
+    }
+
+    private void accept() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                synchronized (this) {
+                    connections.add(socket);
+                }
+                Thread thread = new Thread(() -> serve(socket), "replication-" + socket.getRemoteSocketAddress());
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Error accepting a replica: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Streams changes to one replica until it disconnects or the server is closed.
+     */
+    private void serve(Socket socket) {
+        try (Socket connection = socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()))) {
+            connection.setTcpNoDelay(true);
+            if (in.readInt() != ReplicationProtocol.MAGIC || in.readInt() != ReplicationProtocol.VERSION) {
+                return;
+            }
+            String replicaSource = in.readUTF();
+            long next = in.readLong();
+            Set<String> sentSegments = new HashSet<>();
+            int segmentCount = in.readInt();
+            for (int i = 0; i < segmentCount; i++) {
+                sentSegments.add(in.readUTF());
+            }
+            out.writeInt(ReplicationProtocol.MAGIC);
+            out.writeUTF(sourceId);
+
+            Map<String, List<String[]>> sentTables = new HashMap<>();
+            Map<String, Table> sentVersions = new HashMap<>();
+            if (!sourceId.equals(replicaSource) || next > changeLog.getNextOffset()) {
+                next = sendBase(out, sentTables, sentVersions);
+            }
+
+            long lastSent = 0;
+            while (running) {
+                boolean sent;
+                try (Snapshot snapshot = engine.snapshot()) {
+                    long end = snapshot.getChangeOffset();
+                    sent = sendSegments(out, sentSegments);
+                    while (next < end) {
+                        List<ChangeEvent> events = changeLog.read(next, (int) Math.min(EVENT_BATCH, end - next));
+                        if (events.isEmpty()) {
+                            break;
+                        }
+                        out.writeByte(ReplicationProtocol.EVENTS);
+                        out.writeInt(events.size());
+                        for (ChangeEvent event : events) {
+                            ChangeLog.writeRecord(out, event);
+                        }
+                        next = events.get(events.size() - 1).getOffset() + 1;
+                        sent = true;
+                    }
+                    sent |= sendChangedTables(out, snapshot, sentTables, sentVersions);
+                }
+                long now = System.currentTimeMillis();
+                if (sent || now - lastSent >= HEARTBEAT_MILLIS) {
+                    out.writeByte(ReplicationProtocol.HEARTBEAT);
+                    out.writeLong(next);
+                    out.flush();
+                    lastSent = now;
+                }
+                synchronized (signal) {
+                    if (running && changeLog.getNextOffset() <= next) {
+                        signal.wait(POLL_MILLIS);
+                    }
+                }
+            }
+        } catch (SocketException | EOFException e) {
+            // The replica disconnected
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("Error replicating to " + socket.getRemoteSocketAddress() + ": " + e.getMessage());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            synchronized (this) {
+                connections.remove(socket);
+            }
+        }
+    }
+
+    /**
+     * Sends every table of a new snapshot.
+     *
+     * @return The change offset the snapshot was taken at
+     */
+    private long sendBase(DataOutputStream out, Map<String, List<String[]>> sentTables, Map<String, Table> sentVersions) throws IOException {
+        try (Snapshot snapshot = engine.snapshot()) {
+            Set<String> names = new TreeSet<>(Storage.tableNames());
+            out.writeByte(ReplicationProtocol.BASE);
+            out.writeLong(snapshot.getChangeOffset());
+            out.writeInt(names.size());
+            for (String name : names) {
+                Table table = snapshot.table(name);
+                List<String[]> rows = table.readAll();
+                ReplicationProtocol.writeTable(out, name, rows);
+                if (!changeLog.captures(name)) {
+                    sentTables.put(name, rows);
+                    sentVersions.put(name, table);
+                }
+            }
+            return snapshot.getChangeOffset();
+        }
+    }
+
+    /**
+     * Sends the uncaptured tables whose rows differ from those the replica was last sent.
+     */
+    private boolean sendChangedTables(DataOutputStream out, Snapshot snapshot, Map<String, List<String[]>> sentTables,
+                                      Map<String, Table> sentVersions) throws IOException {
+        boolean sent = false;
+        for (String name : new TreeSet<>(Storage.tableNames())) {
+            if (changeLog.captures(name)) {
+                continue;
+            }
+            Table table = snapshot.table(name);
+            if (table == sentVersions.get(name)) {
+                continue;
+            }
+            List<String[]> rows = table.readAll();
+            List<String[]> previous = sentTables.get(name);
+            if (previous == null || !Arrays.deepEquals(previous.toArray(), rows.toArray())) {
+                out.writeByte(ReplicationProtocol.TABLE);
+                ReplicationProtocol.writeTable(out, name, rows);
+                sent = true;
+            }
+            sentTables.put(name, rows);
+            sentVersions.put(name, table);
+        }
+        return sent;
+    }
+
+    /**
+     * Sends the archive segments the replica does not hold yet.
+     */
+    private boolean sendSegments(DataOutputStream out, Set<String> sentSegments) throws IOException {
+        Path directory = archive.getDirectory();
+        if (!Files.isDirectory(directory)) {
+            return false;
+        }
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(directory, "*" + ArchiveSegment.SUFFIX)) {
+            for (Path file : segments) {
+                if (!sentSegments.contains(file.getFileName().toString())) {
+                    files.add(file);
+                }
+            }
+        }
+        Collections.sort(files);
+        for (Path file : files) {
+            byte[] bytes = Files.readAllBytes(file);
+            out.writeByte(ReplicationProtocol.SEGMENT);
+            out.writeUTF(file.getFileName().toString());
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            sentSegments.add(file.getFileName().toString());
+        }
+        return !files.isEmpty();
+    }
+}
@@ -0,0 +1,149 @@
+package storage;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32C;
+
+/**
+ * The RowChecksum class seals the lines of a CSV table with a CRC32C checksum so that damaged
+ * rows can be told apart from good ones. A sealed line is the row's CSV text followed by
+ * {@code ,#} and the checksum of that text as eight hexadecimal digits; the header of a file
+ * whose rows are sealed ends with {@link #HEADER_MARKER}.
+ *
+ * <p>Lines without a checksum, such as rows added to a file by hand or written before checksums
+ * were introduced, are accepted as unchecked. A line that ends in a checksum that does not
+ * match its text is corrupt.</p>
+ */
+final class RowChecksum {
+    static final String HEADER_MARKER = ",#CRC32C";
+    static final int SUFFIX_LENGTH = 10;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * The result of checking a line.
+     */
+    enum Status {
+        /**
+         * The line ends in a checksum that matches its text.
+         */
+        VALID,
+
+        /**
+         * The line has no checksum.
+         */
+        UNCHECKED,
+
+        /**
+         * The line ends in a checksum that does not match its text.
+         */
+        CORRUPT
+    }
+
+    private RowChecksum() {
+    }
+
+    /**
+     * Appends the checksum of a line to it.
+     *
+     * @param line The CSV text of a row
+     * @return The sealed line
+     */
+    static String seal(String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        CRC32C crc = new CRC32C();
+        crc.update(bytes, 0, bytes.length);
+        long value = crc.getValue();
+        char[] suffix = new char[SUFFIX_LENGTH];
+        suffix[0] = ',';
+        suffix[1] = '#';
+        for (int i = SUFFIX_LENGTH - 1; i >= 2; i--) {
+            suffix[i] = HEX_DIGITS[(int) (value & 0xF)];
+            value >>>= 4;
+        }
+        return line.concat(new String(suffix));
+    }
+
+    /**
+     * Checks a line read from a file.
+     *
+     * @param line The line, without its line break
+     * @return The status of the line
+     */
+    static Status check(String line) {
+        if (!hasSuffix(line)) {
+            return Status.UNCHECKED;
+        }
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        return check(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+
+    /**
+     * Checks a line held in a buffer, without decoding it.
+     *
+     * @param buffer The buffer holding the line
+     * @param start  The position of the first byte of the line
+     * @param end    The position after the last byte of the line, excluding its line break
+     * @return The status of the line
+     */
+    static Status check(ByteBuffer buffer, int start, int end) {
+        int suffixStart = end - SUFFIX_LENGTH;
+        if (suffixStart < start || buffer.get(suffixStart) != ',' || buffer.get(suffixStart + 1) != '#') {
+            return Status.UNCHECKED;
+        }
+        long expected = 0;
+        for (int i = suffixStart + 2; i < end; i++) {
+            int digit = Character.digit(buffer.get(i), 16);
+            if (digit < 0) {
+                return Status.UNCHECKED;
+            }
+            expected = (expected << 4) | digit;
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate().limit(suffixStart).position(start));
+        return crc.getValue() == expected ? Status.VALID : Status.CORRUPT;
+    }
+
+    /**
+     * Removes the checksum from a sealed line.
+     *
+     * @param line The line, sealed or unchecked
+     * @return The CSV text of the row
+     */
+    static String strip(String line) {
+        return hasSuffix(line) ? line.substring(0, line.length() - SUFFIX_LENGTH) : line;
+    }
+
+    /**
+     * Checks whether the header of a file marks its rows as sealed.
+     *
+     * @param header The first line of the file
+     * @return true if the header ends with the marker; false otherwise
+     */
+    static boolean isSealedHeader(String header) {
+        return header.endsWith(HEADER_MARKER);
+    }
+
+    /**
+     * Removes the marker from the header of a sealed file.
+     *
+     * @param header The first line of the file
+     * @return The column names of the table
+     */
+    static String stripHeader(String header) {
+        return isSealedHeader(header) ? header.substring(0, header.length() - HEADER_MARKER.length()) : header;
+    }
+
+    private static boolean hasSuffix(String line) {
+        int suffixStart = line.length() - SUFFIX_LENGTH;
+        if (suffixStart < 0 || line.charAt(suffixStart) != ',' || line.charAt(suffixStart + 1) != '#') {
+            return false;
+        }
+        for (int i = suffixStart + 2; i < line.length(); i++) {
+            if (Character.digit(line.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,22 @@
+package storage;
+
+/**
+ * The RowUpdate interface changes one row of a table as part of a {@link Transaction}. It is
+ * called when the transaction commits, with the row as it is at that moment and while the table
+ * is locked, so a change such as taking stock away is made to the latest value and never lost
+ * to a concurrent writer.
+ */
+@FunctionalInterface
+public interface RowUpdate {
+
+    /**
+     * Computes the new value of a row.
+     *
+     * @param row The column values of the row as they are when the transaction commits; the
+     *            array may be changed and returned
+     * @return The new row, or null to delete the row
+     * @throws WriteConflictException if the row is not in the state the update expects, which
+     *                                fails the whole transaction
+     */
+    String[] apply(String[] row) throws WriteConflictException;
+}
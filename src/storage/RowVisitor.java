@@ -0,0 +1,16 @@
+package storage;
+
+/**
+ * The RowVisitor interface receives the rows of a {@link Table} scan one at a time.
+ */
+@FunctionalInterface
+public interface RowVisitor {
+
+    /**
+     * Visits a single row.
+     *
+     * @param row The column values of the row
+     * @return true to continue the scan; false to stop it
+     */
+    boolean visit(String[] row);
+}
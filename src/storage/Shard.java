@@ -0,0 +1,179 @@
+package storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+
+/**
+ * The Shard class is one clinic's or department's part of a sharded hospital. Each shard owns a
+ * data directory holding its own copy of every table, and opens its own storage engine, change
+ * log and archive over it, so a busy clinic's appointment rewrites never wait on another's.
+ * An unsharded hospital is a single shard over the whole data directory.
+ *
+ * <p>The {@link Storage} methods work on the shard bound to the calling thread with
+ * {@link #bind()}, or else on the process's default shard; see {@link Storage#currentShard()}.</p>
+ */
+public final class Shard {
+    private static final ThreadLocal<Shard> BOUND = new ThreadLocal<>();
+
+    private static final String BTREE_FILE = "hospital.db";
+    private static final String CHANGE_LOG_DIRECTORY = "changes";
+    private static final String ARCHIVE_DIRECTORY = "archive";
+
+    private final String name;
+    private final Path dataDirectory;
+    private StorageEngine engine;
+    private ChangeLog changeLog;
+    private Archive archive;
+
+    /**
+     * Constructs a Shard. Its engine is opened when first used.
+     *
+     * @param name          The shard name
+     * @param dataDirectory The directory holding the shard's data files
+     */
+    Shard(String name, Path dataDirectory) {
+        this.name = name;
+        this.dataDirectory = dataDirectory;
+    }
+
+    /**
+     * Gets the shard name.
+     *
+     * @return The name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the shard's data directory.
+     *
+     * @return The directory holding the shard's data files
+     */
+    public Path getDataDirectory() {
+        return dataDirectory;
+    }
+
+    /**
+     * Returns the shard's storage engine, opening the configured backend on first use.
+     *
+     * @return The shard's StorageEngine
+     * @throws UncheckedIOException     if the B-tree file or the change log cannot be opened
+     * @throws IllegalArgumentException if the configured backend is unknown
+     */
+    public synchronized StorageEngine getEngine() {
+        if (engine == null) {
+            if (Boolean.parseBoolean(System.getProperty(Storage.CDC_PROPERTY, "true"))) {
+                try {
+                    changeLog = new ChangeLog(dataDirectory.resolve(CHANGE_LOG_DIRECTORY), Storage.capturedTableNames());
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Error opening the change log of shard " + name, e);
+                }
+            }
+            String backend = System.getProperty(Storage.BACKEND_PROPERTY, "csv").trim().toLowerCase();
+            switch (backend) {
+                case "csv":
+                    if (Boolean.parseBoolean(System.getProperty(IntegrityVerifier.VERIFY_PROPERTY, "true"))) {
+                        verify();
+                    }
+                    engine = new CsvStorageEngine(dataDirectory, changeLog);
+                    break;
+                case "btree":
+                    try {
+                        engine = new BTreeStorageEngine(dataDirectory.resolve(BTREE_FILE), dataDirectory, changeLog);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("Error opening " + BTREE_FILE + " of shard " + name, e);
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown storage backend: " + backend);
+            }
+        }
+        return engine;
+    }
+
+    /**
+     * Gets the log of changes made through the shard's storage engine, opening the engine first
+     * if needed.
+     *
+     * @return The change log, or null if change capture is turned off
+     */
+    public synchronized ChangeLog getChangeLog() {
+        getEngine();
+        return changeLog;
+    }
+
+    /**
+     * Gets the archive of the shard's data directory.
+     *
+     * @return The shard's Archive
+     */
+    public synchronized Archive getArchive() {
+        if (archive == null) {
+            archive = new Archive(dataDirectory.resolve(ARCHIVE_DIRECTORY));
+        }
+        return archive;
+    }
+
+    /**
+     * Binds the shard to the calling thread until the returned scope is closed, which restores
+     * the shard bound before.
+     *
+     * @return The scope to close
+     */
+    public Scope bind() {
+        Scope scope = new Scope(BOUND.get());
+        BOUND.set(this);
+        return scope;
+    }
+
+    /**
+     * Gets the shard bound to the calling thread.
+     *
+     * @return The bound shard, or null if none is bound
+     */
+    static Shard bound() {
+        return BOUND.get();
+    }
+
+    /**
+     * Verifies the CSV files before they are first read, reporting any rows moved to quarantine.
+     */
+    private void verify() {
+        try {
+            VerificationReport report = new IntegrityVerifier(dataDirectory).verify();
+            if (report.getTotalCorruptCount() > 0) {
+                System.err.println("Corrupt rows found in " + dataDirectory + " and moved to quarantine:");
+                report.print(System.err);
+            }
+        } catch (IOException e) {
+            System.err.println("Error verifying the data files: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * A binding of a shard to a thread, undone when closed.
+     */
+    public static final class Scope implements AutoCloseable {
+        private final Shard previous;
+
+        private Scope(Shard previous) {
+            this.previous = previous;
+        }
+
+        @Override
+        public void close() {
+            if (previous == null) {
+                BOUND.remove();
+            } else {
+                BOUND.set(previous);
+            }
+        }
+    }
+}
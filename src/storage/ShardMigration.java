@@ -0,0 +1,255 @@
+package storage;
+
+import enums.UserRole;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * The ShardMigration class splits an unsharded data directory into the shards configured with
+ * {@code hms.shards}, one clinic per shard. Doctors and patients who share an appointment, live
+ * or archived, are placed in the same clinic, and the clinics are spread over the shards so
+ * that each shard holds about as many users. Each user's rows go to their clinic's shard:
+ * users, staff, patients, availability and slot lengths by user, and appointments with their
+ * records, bills and payments by the appointment's doctor. Archived rows are split the same way
+ * into each shard's archive.
+ *
+ * <p>Pharmacists and administrators serve every clinic: their users and staff rows are copied
+ * to every shard, as are the medicine list and the replenishment requests, and they log in to
+ * the shards in turn. Billing totals are not copied; each shard rebuilds its own on first use.
+ * The clinic of every user is written to {@code ShardAssignment.csv} for the
+ * {@link ShardRouter}. The unsharded files are left in place and are no longer read once
+ * {@code hms.shards} is set. Run it once, before the first sharded start:</p>
+ *
+ * <pre>
+ * java -Dhms.shards=north,south storage.ShardMigration
+ * </pre>
+ */
+public final class ShardMigration {
+    private static final String SOURCE_SHARD = "unsharded";
+    private static final String BTREE_FILE = "hospital.db";
+    private static final Set<String> COPIED_TABLES = Set.of(Storage.MEDICINE_LIST, Storage.REPLENISHMENT_REQUEST);
+
+    private final Shard source;
+    private final List<Shard> shards;
+    private final Map<String, String> clinics = new HashMap<>();
+    private final Map<String, String> appointmentClinics = new HashMap<>();
+    private final Set<String> sharedStaff = new HashSet<>();
+
+    /**
+     * Constructs a ShardMigration.
+     *
+     * @param source The unsharded data to split
+     * @param shards The shards to split it into
+     */
+    ShardMigration(Shard source, List<Shard> shards) {
+        this.source = source;
+        this.shards = shards;
+    }
+
+    /**
+     * Splits the data into the shards and records the clinic of every user.
+     *
+     * @return The number of rows written to each shard, keyed by shard name
+     * @throws IOException if the data cannot be read or a shard already holds data
+     */
+    public Map<String, Integer> run() throws IOException {
+        for (Shard shard : shards) {
+            if (Files.exists(shard.getDataDirectory().resolve(BTREE_FILE))) {
+                throw new IOException("Shard " + shard + " already holds " + BTREE_FILE);
+            }
+            for (String name : Storage.tableNames()) {
+                if (Files.exists(shard.getDataDirectory().resolve(name + ".csv"))) {
+                    throw new IOException("Shard " + shard + " already holds " + name + ".csv");
+                }
+            }
+        }
+
+        Map<String, List<String[]>> live = new HashMap<>();
+        Map<String, List<String[]>> archived = new HashMap<>();
+        Map<String, String> headers = new HashMap<>();
+        try (Snapshot snapshot = source.getEngine().snapshot()) {
+            for (String name : Storage.tableNames()) {
+                Table table = snapshot.table(name);
+                live.put(name, table.readAll());
+                headers.put(name, table.getHeader());
+                List<String[]> rows = new ArrayList<>();
+                source.getArchive().scan(name, row -> rows.add(row));
+                archived.put(name, rows);
+            }
+        }
+        assignClinics(live, archived);
+
+        Map<String, Integer> written = new LinkedHashMap<>();
+        for (Shard shard : shards) {
+            int count = 0;
+            Files.createDirectories(shard.getDataDirectory());
+            try (Transaction transaction = shard.getEngine().begin()) {
+                for (String name : Storage.tableNames()) {
+                    if (name.equals(Storage.BILL_AGGREGATES)) {
+                        continue;
+                    }
+                    List<String[]> rows = rowsOf(shard, name, live.get(name));
+                    transaction.rewrite(name, rows);
+                    count += rows.size();
+                }
+                transaction.commit();
+            }
+            for (String name : Storage.tableNames()) {
+                List<String[]> rows = rowsOf(shard, name, archived.get(name));
+                shard.getArchive().write(name, headers.get(name), rows);
+                count += rows.size();
+            }
+            shard.getEngine().close();
+            written.put(shard.getName(), count);
+        }
+        source.getEngine().close();
+        ShardRouter.getInstance().assign(new TreeMap<>(clinics));
+        return written;
+    }
+
+    /**
+     * Runs the migration from the command line on the configured data directory and prints how
+     * many rows each shard received.
+     *
+     * @param args Not used
+     * @throws IOException if the migration fails
+     */
+    public static void main(String[] args) throws IOException {
+        if (!Storage.isSharded()) {
+            System.err.println("Set " + Storage.SHARDS_PROPERTY + " to the shards to split " + Storage.getDataDirectory() + " into");
+            return;
+        }
+        Shard source = new Shard(SOURCE_SHARD, Storage.getDataDirectory());
+        Map<String, Integer> written = new ShardMigration(source, Storage.getShards()).run();
+        System.out.println("Split " + Storage.getDataDirectory() + " into " + written.size() + " shards");
+        for (Map.Entry<String, Integer> entry : written.entrySet()) {
+            System.out.printf("%-20s %d rows%n", entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Groups doctors and patients into clinics by their appointments and gives each clinic to
+     * the shard holding the fewest users so far, largest clinic first. Pharmacists and
+     * administrators are given the shards in turn.
+     */
+    private void assignClinics(Map<String, List<String[]>> live, Map<String, List<String[]>> archived) {
+        Map<String, String> parents = new TreeMap<>();
+        List<String> staffIDs = new ArrayList<>();
+        for (String[] row : live.get(Storage.USER)) {
+            if (row.length > 2 && (row[2].equals(UserRole.PHARMACIST.name()) || row[2].equals(UserRole.ADMINISTRATOR.name()))) {
+                staffIDs.add(row[0]);
+            } else {
+                parents.putIfAbsent(row[0], row[0]);
+            }
+        }
+        for (String[] row : live.get(Storage.PATIENT_LIST)) {
+            parents.putIfAbsent(row[0], row[0]);
+        }
+        for (String[] row : live.get(Storage.DOCTOR_AVAILABILITY)) {
+            parents.putIfAbsent(row[0], row[0]);
+        }
+        List<String[]> appointments = new ArrayList<>(archived.get(Storage.APPOINTMENT));
+        appointments.addAll(live.get(Storage.APPOINTMENT));
+        for (String[] row : appointments) {
+            if (row.length > 2) {
+                union(parents, row[1], row[2]);
+            }
+        }
+
+        Map<String, List<String>> groups = new TreeMap<>();
+        for (String id : parents.keySet()) {
+            groups.computeIfAbsent(find(parents, id), root -> new ArrayList<>()).add(id);
+        }
+        List<List<String>> ordered = new ArrayList<>(groups.values());
+        ordered.sort((a, b) -> b.size() - a.size());
+        int[] sizes = new int[shards.size()];
+        for (List<String> group : ordered) {
+            int smallest = 0;
+            for (int i = 1; i < sizes.length; i++) {
+                if (sizes[i] < sizes[smallest]) {
+                    smallest = i;
+                }
+            }
+            sizes[smallest] += group.size();
+            for (String id : group) {
+                clinics.put(id, shards.get(smallest).getName());
+            }
+        }
+        for (int i = 0; i < staffIDs.size(); i++) {
+            clinics.put(staffIDs.get(i), shards.get(i % shards.size()).getName());
+            sharedStaff.add(staffIDs.get(i));
+        }
+
+        for (String[] row : appointments) {
+            if (row.length > 1 && clinics.containsKey(row[1])) {
+                appointmentClinics.putIfAbsent(row[0], clinics.get(row[1]));
+            }
+        }
+    }
+
+    /**
+     * Selects the rows of a table that belong on a shard.
+     */
+    private List<String[]> rowsOf(Shard shard, String name, List<String[]> rows) {
+        List<String[]> selected = new ArrayList<>();
+        for (String[] row : rows) {
+            if (COPIED_TABLES.contains(name) || belongsTo(shard, name, row)) {
+                selected.add(row);
+            }
+        }
+        return selected;
+    }
+
+    private boolean belongsTo(Shard shard, String name, String[] row) {
+        String clinic;
+        switch (name) {
+            case Storage.USER:
+            case Storage.STAFF:
+                if (sharedStaff.contains(row[0])) {
+                    return true;
+                }
+                clinic = clinics.get(row[0]);
+                break;
+            case Storage.PATIENT_LIST:
+            case Storage.DOCTOR_AVAILABILITY:
+            case Storage.DOCTOR_SLOT_LENGTH:
+                clinic = clinics.get(row[0]);
+                break;
+            case Storage.APPOINTMENT:
+            case Storage.APPOINTMENT_RECORD:
+            case Storage.BILL_PAYMENT:
+                clinic = appointmentClinics.get(row[0]);
+                break;
+            case Storage.BILL:
+                clinic = appointmentClinics.get(row[0]);
+                if (clinic == null && row.length > 4) {
+                    clinic = clinics.get(row[4]);
+                }
+                break;
+            default:
+                return false;
+        }
+        // Rows of unknown users and appointments go to the shard unassigned users log in to
+        return shard.getName().equals(clinic == null ? shards.get(0).getName() : clinic);
+    }
+
+    private static String find(Map<String, String> parents, String id) {
+        String root = id;
+        while (!parents.get(root).equals(root)) {
+            root = parents.get(root);
+        }
+        parents.put(id, root);
+        return root;
+    }
+
+    private static void union(Map<String, String> parents, String first, String second) {
+        parents.putIfAbsent(first, first);
+        parents.putIfAbsent(second, second);
+        String a = find(parents, first);
+        String b = find(parents, second);
+        if (!a.equals(b)) {
+            parents.put(b, a);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package storage;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * The ShardRouter class maps a user ID, such as a doctor's or a patient's, to the {@link Shard}
+ * holding that user's data. Users are routed by the clinic they belong to, never by their own
+ * ID, so a patient and the doctors they book with share a shard and an appointment is written
+ * where both of them see it.
+ *
+ * <p>{@code ShardAssignment.csv} in the data directory lists the clinic of each user. A clinic
+ * named like a shard is held by that shard; any other clinic key is placed by a hash of the key
+ * over the sorted shard names, which every process computes alike. Users with no clinic belong
+ * to the first shard. {@link ShardMigration} fills the file when it splits a data directory,
+ * and staff are assigned the clinic they are added to.</p>
+ */
+public final class ShardRouter {
+    private static final String ASSIGNMENT_FILE = "ShardAssignment.csv";
+    private static final String ASSIGNMENT_HEADER = "ID,Clinic";
+
+    private static ShardRouter instance;
+
+    private final Path file;
+    private final Map<String, String> assignments = new HashMap<>();
+    private final List<String> shardNames = new ArrayList<>();
+
+    /**
+     * Constructs a router. Use {@link #getInstance()} to obtain the shared router.
+     */
+    private ShardRouter(Path file) {
+        this.file = file;
+        for (Shard shard : Storage.getShards()) {
+            shardNames.add(shard.getName());
+        }
+    }
+
+    /**
+     * Returns the shared router, reading the shard assignments on first use.
+     *
+     * @return The shared ShardRouter
+     */
+    public static synchronized ShardRouter getInstance() {
+        if (instance == null) {
+            instance = new ShardRouter(Storage.getDataDirectory().resolve(ASSIGNMENT_FILE));
+            instance.load();
+        }
+        return instance;
+    }
+
+    /**
+     * Reads the assignments.
+     */
+    private void load() {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            reader.readLine(); // Skip the header
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(",");
+                if (fields.length < 2) {
+                    continue;
+                }
+                assignments.put(fields[0].trim(), fields[1].trim());
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading " + ASSIGNMENT_FILE + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Gets the name of the shard holding a user's data.
+     *
+     * @param id The user ID
+     * @return The shard name
+     */
+    public synchronized String route(String id) {
+        String clinic = assignments.get(id);
+        return clinic == null ? shardNames.get(0) : shardOfClinic(clinic);
+    }
+
+    /**
+     * Gets the shard holding a user's data.
+     *
+     * @param id The user ID
+     * @return The shard
+     */
+    public Shard shardOf(String id) {
+        return Storage.getShard(route(id));
+    }
+
+    /**
+     * Gets the name of the shard holding a clinic's data.
+     *
+     * @param clinic The clinic key
+     * @return The shard name
+     */
+    public String shardOfClinic(String clinic) {
+        if (shardNames.contains(clinic)) {
+            return clinic;
+        }
+        return shardNames.get(Math.floorMod(clinic.hashCode(), shardNames.size()));
+    }
+
+    /**
+     * Makes a user a member of a clinic.
+     *
+     * @param id     The user ID
+     * @param clinic The clinic key, such as the name of the shard holding the clinic
+     * @throws IOException if the assignment cannot be written
+     */
+    public void assign(String id, String clinic) throws IOException {
+        assign(Collections.singletonMap(id, clinic));
+    }
+
+    /**
+     * Makes users members of clinics, recording the assignments that change in one write.
+     *
+     * @param clinics The clinic key of each user ID
+     * @throws IOException if the assignments cannot be written
+     */
+    synchronized void assign(Map<String, String> clinics) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        if (!Files.exists(file)) {
+            lines.append(ASSIGNMENT_HEADER).append(System.lineSeparator());
+        }
+        Map<String, String> changed = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : clinics.entrySet()) {
+            if (!entry.getValue().equals(assignments.get(entry.getKey()))) {
+                changed.put(entry.getKey(), entry.getValue());
+                lines.append(entry.getKey()).append(',').append(entry.getValue()).append(System.lineSeparator());
+            }
+        }
+        if (changed.isEmpty()) {
+            return;
+        }
+        Files.write(file, lines.toString().getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE);
+        assignments.putAll(changed);
+    }
+}
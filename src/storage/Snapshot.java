@@ -0,0 +1,42 @@
+package storage;
+
+/**
+ * The Snapshot interface is a read-only, point-in-time view of every table of a
+ * {@link StorageEngine}. All tables of a snapshot reflect the same moment: a transaction
+ * committed after the snapshot was taken is not visible in any of them, and one committed
+ * before it is visible in all of them. Writers are neither blocked by an open snapshot nor
+ * able to change what it shows.
+ *
+ * <pre>
+ * try (Snapshot snapshot = Storage.snapshot()) {
+ *     List&lt;String[]&gt; appointments = snapshot.table(Storage.APPOINTMENT).readAll();
+ *     List&lt;String[]&gt; bills = snapshot.table(Storage.BILL).readAll();
+ * }
+ * </pre>
+ */
+public interface Snapshot extends AutoCloseable {
+
+    /**
+     * Gets a table as it was when the snapshot was taken. The table's write methods throw
+     * {@link UnsupportedOperationException}.
+     *
+     * @param name The table name
+     * @return The read-only table
+     */
+    Table table(String name);
+
+    /**
+     * Gets the position in the engine's {@link ChangeLog} that this snapshot corresponds to:
+     * every logged change before it is visible in the snapshot, and none from it onwards.
+     *
+     * @return The offset of the first change not visible in the snapshot, or -1 if the engine
+     *         logs no changes
+     */
+    long getChangeOffset();
+
+    /**
+     * Releases the snapshot, letting the engine reclaim the space of versions no longer in use.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,557 @@
+package storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+/**
+ * The Storage class selects and holds the storage engines shared by every service, and names
+ * the hospital's tables. The engines are chosen with system properties when first used:
+ *
+ * <ul>
+ *   <li>{@code hms.storage} - {@code csv} (the default) keeps one CSV file per table;
+ *       {@code btree} keeps every table in a single embedded B-tree file, which only one process
+ *       may have open at a time.</li>
+ *   <li>{@code hms.data.dir} - the directory holding the data files, {@code resources} by default.</li>
+ *   <li>{@code hms.cdc} - {@code true} (the default) records every change to the captured tables
+ *       in a {@link ChangeLog} in the {@code changes} subdirectory; {@code false} turns it off.</li>
+ *   <li>{@code hms.verify} - {@code true} (the default) checks the row checksums of the CSV files
+ *       with an {@link IntegrityVerifier} before the CSV engine opens them; {@code false} skips it.</li>
+ *   <li>{@code hms.replication.port} - the TCP port a {@link ReplicationServer} streams the
+ *       changes to replicas on; unset by default, when no replica can connect.</li>
+ *   <li>{@code hms.replica.of} - {@code host:port} of a primary's replication server; makes the
+ *       CSV engine a read-only {@link Replica} of that primary until {@link #promote()}.</li>
+ *   <li>{@code hms.shards} - a comma-separated list of {@link Shard}s, one per clinic or
+ *       department, each keeping its tables in the subdirectory of the data directory named after
+ *       it; unset by default, when the whole data directory is one shard. Replication needs an
+ *       unsharded data directory. {@link ShardMigration} splits an unsharded one.</li>
+ *   <li>{@code hms.shard} - the shard this process works on when no other is selected; the
+ *       {@link ShardRouter} selects the shard of each user who logs in.</li>
+ * </ul>
+ *
+ * <p>Credentials ({@code User}, {@code Patient_List}) are never captured, and neither are the
+ * billing aggregates, which are derived from the bills.</p>
+ *
+ * <p>Rows archived out of the live tables are kept in an {@link Archive} in the {@code archive}
+ * subdirectory; {@link #history(String)} reads a table together with its archived rows.</p>
+ */
+public final class Storage {
+    public static final String APPOINTMENT = "Appointment";
+    public static final String APPOINTMENT_RECORD = "AppointmentRecord";
+    public static final String BILL = "Bill";
+    public static final String BILL_AGGREGATES = "BillAggregates";
+    public static final String BILL_PAYMENT = "BillPayment";
+    public static final String DOCTOR_AVAILABILITY = "DoctorAvailability";
+    public static final String DOCTOR_SLOT_LENGTH = "DoctorSlotLength";
+    public static final String MEDICINE_LIST = "Medicine_List";
+    public static final String PATIENT_LIST = "Patient_List";
+    public static final String REPLENISHMENT_REQUEST = "ReplenishmentRequest";
+    public static final String STAFF = "Staff";
+    public static final String USER = "User";
+
+    public static final String BACKEND_PROPERTY = "hms.storage";
+    public static final String DATA_DIR_PROPERTY = "hms.data.dir";
+    public static final String CDC_PROPERTY = "hms.cdc";
+    public static final String REPLICATION_PORT_PROPERTY = "hms.replication.port";
+    public static final String REPLICA_OF_PROPERTY = "hms.replica.of";
+
+    public static final String SHARDS_PROPERTY = "hms.shards";
+    public static final String SHARD_PROPERTY = "hms.shard";
+
+    /**
+     * The number of times {@link #inTransaction(TransactionWork)} runs work that keeps meeting
+     * write conflicts before it gives up.
+     */
+    public static final int MAX_TRANSACTION_ATTEMPTS = 10;
+
+    private static final String DEFAULT_SHARD = "default";
+    private static final long REPLICA_SYNC_MILLIS = 10_000;
+    private static final Map<String, String> DEFAULT_HEADERS = new HashMap<>();
+    private static final Map<String, int[]> CHANGE_KEY_COLUMNS = new HashMap<>();
+    private static final int[] FIRST_COLUMN = {0};
+
+    static {
+        DEFAULT_HEADERS.put(APPOINTMENT, "appointmentID,doctorID,patientID,date,timeSlot,status,bookedOn");
+        DEFAULT_HEADERS.put(APPOINTMENT_RECORD, "appointmentID,diagnosis,prescriptionMedicine,prescriptionQuantity,prescriptionStatus,treatmentPlan,date,typeOfService,consultationNotes");
+        DEFAULT_HEADERS.put(BILL, "appointmentID,BillAmount,Status,Feedback,PatientID,Date");
+        DEFAULT_HEADERS.put(BILL_AGGREGATES, "Scope,Key,PendingCents,PaidCents");
+        DEFAULT_HEADERS.put(BILL_PAYMENT, "appointmentID,Amount,Feedback");
+        DEFAULT_HEADERS.put(DOCTOR_AVAILABILITY, "DoctorID,DoctorName,Date,TimeSlot,Status,Version");
+        DEFAULT_HEADERS.put(DOCTOR_SLOT_LENGTH, "DoctorID,SlotMinutes");
+        DEFAULT_HEADERS.put(MEDICINE_LIST, "Medicine Name,Initial Stock,Low Stock Level Alert,Unit Price");
+        DEFAULT_HEADERS.put(PATIENT_LIST, "PatientID,Password,Name,Gender,DOB,Contact Number,Email,BloodType,PastTreatments");
+        DEFAULT_HEADERS.put(REPLENISHMENT_REQUEST, "RRID,MedName,Quantity,Status");
+        DEFAULT_HEADERS.put(STAFF, "Staff ID,Name,Role,Gender,Age");
+        DEFAULT_HEADERS.put(USER, "ID,Password,Role,Name");
+
+        CHANGE_KEY_COLUMNS.put(APPOINTMENT, FIRST_COLUMN);
+        CHANGE_KEY_COLUMNS.put(APPOINTMENT_RECORD, FIRST_COLUMN);
+        CHANGE_KEY_COLUMNS.put(BILL, FIRST_COLUMN);
+        CHANGE_KEY_COLUMNS.put(BILL_PAYMENT, FIRST_COLUMN);
+        CHANGE_KEY_COLUMNS.put(DOCTOR_AVAILABILITY, new int[]{0, 2, 3});
+        CHANGE_KEY_COLUMNS.put(DOCTOR_SLOT_LENGTH, FIRST_COLUMN);
+        CHANGE_KEY_COLUMNS.put(MEDICINE_LIST, FIRST_COLUMN);
+        CHANGE_KEY_COLUMNS.put(REPLENISHMENT_REQUEST, FIRST_COLUMN);
+        CHANGE_KEY_COLUMNS.put(STAFF, FIRST_COLUMN);
+    }
+
+    private static volatile Map<String, Shard> shards;
+    private static volatile Shard defaultShard;
+    private static volatile boolean replicationStarted;
+    private static ReplicationServer replicationServer;
+    private static Replica replica;
+
+    private Storage() {
+    }
+
+    /**
+     * Returns the storage engine of the current shard, opening the configured backend on first use.
+     *
+     * @return The current shard's StorageEngine
+     * @throws UncheckedIOException     if the B-tree file, the change log or the replication port
+     *                                  cannot be opened
+     * @throws IllegalArgumentException if the configured backend is unknown, or a replica is
+     *                                  configured for a backend other than CSV or for a sharded
+     *                                  data directory
+     * @throws IllegalStateException    if the data directory is sharded and no shard is selected
+     */
+    public static StorageEngine getEngine() {
+        Shard shard = currentShard();
+        if (!replicationStarted) {
+            startReplication(shard);
+        }
+        return shard.getEngine();
+    }
+
+    /**
+     * Gets the shards of the configured data directory, opening none of them. Without the
+     * {@code hms.shards} property, the whole data directory is a single shard named
+     * {@code default}.
+     *
+     * @return The shards, sorted by name
+     */
+    public static List<Shard> getShards() {
+        return new ArrayList<>(shards().values());
+    }
+
+    /**
+     * Gets a shard of the configured data directory by name.
+     *
+     * @param name The shard name
+     * @return The shard
+     * @throws IllegalArgumentException if there is no shard of that name
+     */
+    public static Shard getShard(String name) {
+        Shard shard = shards().get(name);
+        if (shard == null) {
+            throw new IllegalArgumentException("Unknown shard: " + name);
+        }
+        return shard;
+    }
+
+    /**
+     * Tells whether the configured data directory is split into several shards.
+     *
+     * @return true if {@code hms.shards} names more than one shard
+     */
+    public static boolean isSharded() {
+        return shards().size() > 1;
+    }
+
+    /**
+     * Gets the shard the calling thread works on: the shard bound to the thread with
+     * {@link Shard#bind()}, or else the process's default shard, which is the only shard of an
+     * unsharded data directory, the one named by {@code hms.shard}, or the one last chosen with
+     * {@link #useShard(String)}.
+     *
+     * @return The current shard
+     * @throws IllegalStateException if the data directory is sharded and no shard is selected
+     */
+    public static Shard currentShard() {
+        Shard shard = Shard.bound();
+        if (shard != null) {
+            return shard;
+        }
+        shards();
+        shard = defaultShard;
+        if (shard == null) {
+            throw new IllegalStateException("No shard selected; set " + SHARD_PROPERTY + " to one of " + shards().keySet());
+        }
+        return shard;
+    }
+
+    /**
+     * Makes a shard the process's default, for example the shard a logged-in user belongs to.
+     *
+     * @param name The shard name
+     * @throws IllegalArgumentException if there is no shard of that name
+     */
+    public static void useShard(String name) {
+        defaultShard = getShard(name);
+    }
+
+    /**
+     * Reads the shard configuration on first use.
+     */
+    private static Map<String, Shard> shards() {
+        Map<String, Shard> configured = shards;
+        if (configured == null) {
+            synchronized (Storage.class) {
+                if (shards == null) {
+                    Map<String, Shard> found = new TreeMap<>();
+                    String names = System.getProperty(SHARDS_PROPERTY, "").trim();
+                    if (names.isEmpty()) {
+                        found.put(DEFAULT_SHARD, new Shard(DEFAULT_SHARD, getDataDirectory()));
+                    } else {
+                        for (String name : names.split(",")) {
+                            name = name.trim();
+                            if (name.isEmpty() || !name.matches("[A-Za-z0-9_-]+")) {
+                                throw new IllegalArgumentException("Invalid shard name in " + SHARDS_PROPERTY + ": '" + name + "'");
+                            }
+                            found.put(name, new Shard(name, getDataDirectory().resolve(name)));
+                        }
+                    }
+                    String selected = System.getProperty(SHARD_PROPERTY);
+                    if (selected != null) {
+                        defaultShard = found.get(selected.trim());
+                        if (defaultShard == null) {
+                            throw new IllegalArgumentException("Unknown shard in " + SHARD_PROPERTY + ": " + selected);
+                        }
+                    } else if (found.size() == 1) {
+                        defaultShard = found.values().iterator().next();
+                    }
+                    shards = Collections.unmodifiableMap(found);
+                }
+                configured = shards;
+            }
+        }
+        return configured;
+    }
+
+    /**
+     * Gets the replica the storage engine follows its primary with.
+     *
+     * @return The replica, or null if this process is not a replica or has been promoted
+     */
+    public static synchronized Replica getReplica() {
+        if (isSharded()) {
+            return null;
+        }
+        getEngine();
+        return replica;
+    }
+
+    /**
+     * Promotes this process from replica to primary: stops following the old primary, makes the
+     * storage engine writable and starts accepting replicas of its own if a replication port is
+     * configured. Every table stays in memory as it is.
+     *
+     * @throws IOException           if the replica cannot be stopped or the port cannot be opened
+     * @throws IllegalStateException if this process is not a replica
+     */
+    public static synchronized void promote() throws IOException {
+        if (getReplica() == null) {
+            throw new IllegalStateException("This process is not a replica");
+        }
+        replica.promote();
+        replica = null;
+        startReplicationServer(currentShard());
+    }
+
+    /**
+     * Starts following a primary or streaming changes to replicas, as configured, the first
+     * time the engine is used. Replication copies a whole data directory, so it is refused for
+     * a sharded one.
+     */
+    private static synchronized void startReplication(Shard shard) {
+        if (replicationStarted) {
+            return;
+        }
+        String primary = System.getProperty(REPLICA_OF_PROPERTY);
+        if (isSharded() && (primary != null || System.getProperty(REPLICATION_PORT_PROPERTY) != null)) {
+            throw new IllegalArgumentException("Replication needs an unsharded data directory; unset " + SHARDS_PROPERTY);
+        }
+        if (primary != null && !System.getProperty(BACKEND_PROPERTY, "csv").trim().equalsIgnoreCase("csv")) {
+            throw new IllegalArgumentException("Replicas need the csv storage backend");
+        }
+        StorageEngine engine = shard.getEngine();
+        if (primary != null) {
+            startReplica((CsvStorageEngine) engine, shard, primary.trim());
+        } else {
+            startReplicationServer(shard);
+        }
+        replicationStarted = true;
+    }
+
+    /**
+     * Starts following a primary and waits a while for the replica to catch up, so that the
+     * first reads see the primary's data.
+     */
+    private static void startReplica(CsvStorageEngine csvEngine, Shard shard, String primary) {
+        int colon = primary.lastIndexOf(':');
+        if (colon < 0) {
+            throw new IllegalArgumentException("Expected host:port in " + REPLICA_OF_PROPERTY + ": " + primary);
+        }
+        try {
+            replica = new Replica(primary.substring(0, colon), Integer.parseInt(primary.substring(colon + 1)), csvEngine,
+                    shard.getDataDirectory(), shard.getArchive());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error reading the replica state", e);
+        }
+        replica.start();
+        try {
+            if (!replica.awaitCaughtUp(REPLICA_SYNC_MILLIS)) {
+                System.err.println("Primary " + primary + " not reached; serving the replica's last copy");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Starts streaming changes to replicas if a replication port is configured.
+     */
+    private static void startReplicationServer(Shard shard) {
+        String port = System.getProperty(REPLICATION_PORT_PROPERTY);
+        if (port == null || replicationServer != null) {
+            return;
+        }
+        ChangeLog changeLog = shard.getChangeLog();
+        if (changeLog == null) {
+            System.err.println("Replication needs the change log; set " + CDC_PROPERTY + "=true");
+            return;
+        }
+        try {
+            replicationServer = new ReplicationServer(shard.getEngine(), changeLog, shard.getArchive(),
+                    ReplicationServer.sourceId(shard.getDataDirectory()));
+            replicationServer.start(Integer.parseInt(port.trim()));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error opening replication port " + port, e);
+        }
+    }
+
+    /**
+     * Gets the log of changes made through the current shard's storage engine, opening the
+     * engine first if needed.
+     *
+     * @return The change log, or null if change capture is turned off
+     */
+    public static ChangeLog getChangeLog() {
+        getEngine();
+        return currentShard().getChangeLog();
+    }
+
+    /**
+     * Gets a table of the current shard's storage engine.
+     *
+     * @param name The table name, one of the constants of this class
+     * @return The table
+     */
+    public static Table table(String name) {
+        return getEngine().table(name);
+    }
+
+    /**
+     * Gets a token for the version of a table of the current shard, counting the writes of
+     * every process; see {@link StorageEngine#currentVersion(String)}.
+     *
+     * @param name The table name, one of the constants of this class
+     * @return The version token
+     * @throws IOException if the table cannot be read
+     */
+    public static Object currentVersion(String name) throws IOException {
+        return getEngine().currentVersion(name);
+    }
+
+    /**
+     * Runs work in a transaction of the current shard's storage engine and commits it. If the
+     * commit fails because another writer changed a table the work read, or an update of the
+     * work rejected its row, the work is run again in a new transaction, up to
+     * {@link #MAX_TRANSACTION_ATTEMPTS} times in all.
+     *
+     * <pre>
+     * Storage.inTransaction(transaction -&gt; {
+     *     List&lt;String[]&gt; rows = transaction.read(Storage.APPOINTMENT);
+     *     ...
+     *     transaction.rewrite(Storage.APPOINTMENT, rows);
+     *     return null;
+     * });
+     * </pre>
+     *
+     * @param work The work to run
+     * @param <T>  The type of the result
+     * @return The result of the attempt that committed
+     * @throws WriteConflictException if every attempt met a conflict
+     * @throws IOException            if a table cannot be read or written
+     */
+    public static <T> T inTransaction(TransactionWork<T> work) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try (Transaction transaction = getEngine().begin()) {
+                T result = work.run(transaction);
+                transaction.commit();
+                return result;
+            } catch (WriteConflictException e) {
+                if (attempt >= MAX_TRANSACTION_ATTEMPTS) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Changes the first row of a table with a given key in a transaction of its own. The change
+     * is made to the row as it is at commit, so changes other writers made to the table in the
+     * meantime, to this row or any other, are kept.
+     *
+     * @param tableName The name of the table
+     * @param key       The value of the first column of the row
+     * @param change    Changes the row in place
+     * @return A copy of the row as it was before the change, or null if no row has the key
+     * @throws IOException if the table cannot be written
+     */
+    public static String[] updateRow(String tableName, String key, Consumer<String[]> change) throws IOException {
+        String[][] before = new String[1][];
+        try (Transaction transaction = getEngine().begin()) {
+            transaction.update(tableName, key, row -> {
+                if (before[0] == null) {
+                    before[0] = row.clone();
+                    change.accept(row);
+                }
+                return row;
+            });
+            transaction.commit();
+        }
+        return before[0];
+    }
+
+    /**
+     * Takes a consistent, read-only view of every table of the current shard's storage engine.
+     *
+     * @return The snapshot, to be closed when no longer needed
+     * @throws IOException if a table cannot be read
+     */
+    public static Snapshot snapshot() throws IOException {
+        return getEngine().snapshot();
+    }
+
+    /**
+     * Reads every table of the current shard's storage engine into memory at once, each on its
+     * own task of the common {@link ForkJoinPool}, so that the first reads after start-up do not
+     * wait on the files one after another.
+     *
+     * @throws IOException if a table cannot be read
+     */
+    public static void preload() throws IOException {
+        StorageEngine engine = getEngine();
+        List<ForkJoinTask<String>> tasks = new ArrayList<>();
+        for (String name : tableNames()) {
+            tasks.add(ForkJoinTask.adapt(() -> engine.table(name).getHeader()));
+        }
+        try {
+            ForkJoinTask.invokeAll(tasks);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the archive of the current shard.
+     *
+     * @return The current shard's Archive
+     */
+    public static Archive getArchive() {
+        return currentShard().getArchive();
+    }
+
+    /**
+     * Gets the read-only history of a table of the shared storage engine: its archived rows
+     * followed by its live rows.
+     *
+     * @param name The table name, one of the constants of this class
+     * @return The history of the table
+     */
+    public static Table history(String name) {
+        return history(table(name));
+    }
+
+    /**
+     * Gets the read-only history of a table, for example one taken from a {@link Snapshot}.
+     *
+     * @param table The live table
+     * @return The history of the table
+     */
+    public static Table history(Table table) {
+        return getArchive().history(table);
+    }
+
+    /**
+     * Gets the configured data directory. In a sharded hospital, it holds one subdirectory per
+     * shard; see {@link Shard#getDataDirectory()}.
+     *
+     * @return The directory holding the data files
+     */
+    public static Path getDataDirectory() {
+        return Paths.get(System.getProperty(DATA_DIR_PROPERTY, "resources"));
+    }
+
+    /**
+     * Gets the header a table is created with when it does not exist yet.
+     *
+     * @param name The table name
+     * @return The default header line, or an empty string for an unknown table
+     */
+    static String defaultHeader(String name) {
+        return DEFAULT_HEADERS.getOrDefault(name, "");
+    }
+
+    /**
+     * Gets the names of the hospital's tables.
+     *
+     * @return The table names named by the constants of this class
+     */
+    static Set<String> tableNames() {
+        return Collections.unmodifiableSet(DEFAULT_HEADERS.keySet());
+    }
+
+    /**
+     * Gets the names of the tables whose changes are recorded in the change log.
+     *
+     * @return The captured table names
+     */
+    static Set<String> capturedTableNames() {
+        return Collections.unmodifiableSet(CHANGE_KEY_COLUMNS.keySet());
+    }
+
+    /**
+     * Gets the key a row is identified by in the change log: its key columns joined by commas.
+     *
+     * @param name The table name
+     * @param row  The row
+     * @return The row's change key
+     */
+    static String changeKey(String name, String[] row) {
+        int[] columns = CHANGE_KEY_COLUMNS.getOrDefault(name, FIRST_COLUMN);
+        StringJoiner key = new StringJoiner(",");
+        for (int column : columns) {
+            key.add(column < row.length ? row[column] : "");
+        }
+        return key.toString();
+    }
+}
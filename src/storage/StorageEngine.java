@@ -0,0 +1,48 @@
+package storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * The StorageEngine interface is the service-provider interface for persisting the hospital's
+ * tables. Services obtain tables and transactions from the engine returned by
+ * {@link Storage#getEngine()} and never touch data files directly, so the backend can be
+ * switched by configuration alone.
+ */
+public interface StorageEngine extends Closeable {
+
+    /**
+     * Gets a table by name, creating it with its default header if it does not exist yet.
+     *
+     * @param name The table name, for example "Appointment"
+     * @return The table
+     */
+    Table table(String name);
+
+    /**
+     * Starts a transaction over any tables of this engine.
+     *
+     * @return The new transaction
+     */
+    Transaction begin();
+
+    /**
+     * Gets a token for the version of a table as it is now, counting the writes of every
+     * process sharing the data. Holders of in-memory indexes compare it with the token they
+     * loaded from to tell whether the table has been written since.
+     *
+     * @param name The table name
+     * @return A token equal to a later one only if the table has not been written in between
+     * @throws IOException if the table cannot be read
+     */
+    Object currentVersion(String name) throws IOException;
+
+    /**
+     * Takes a consistent, read-only view of every table as of now. Writes committed afterwards
+     * are not visible through the snapshot, and the snapshot does not hold up writers.
+     *
+     * @return The snapshot, to be closed when no longer needed
+     * @throws IOException if a table cannot be read
+     */
+    Snapshot snapshot() throws IOException;
+}
@@ -0,0 +1,86 @@
+package storage;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Predicate;
+import paging.Page;
+
+/**
+ * The Table interface is a named, ordered collection of rows in a {@link StorageEngine}.
+ * A row is the array of column values of one record, in the column order of the table's
+ * header, exactly as it would appear split on commas in the CSV file of the same name.
+ * Rows keep the order in which they were appended or rewritten.
+ *
+ * <p>The first column of every table is its key column, and {@link #find(String)} looks a row
+ * up by it. Keys are not required to be unique; lookups return the first matching row.</p>
+ */
+public interface Table {
+
+    /**
+     * Gets the name of the table, for example "Appointment".
+     *
+     * @return The table name
+     */
+    String getName();
+
+    /**
+     * Gets the header line of the table.
+     *
+     * @return The comma-separated column names
+     * @throws IOException if the table cannot be read
+     */
+    String getHeader() throws IOException;
+
+    /**
+     * Visits the rows of the table in order until the visitor asks to stop. Blank rows are skipped.
+     *
+     * @param visitor The visitor called for each row
+     * @throws IOException if the table cannot be read
+     */
+    void scan(RowVisitor visitor) throws IOException;
+
+    /**
+     * Reads one page of matching rows.
+     *
+     * @param cursor   The cursor returned with the previous page, or null for the first page
+     * @param pageSize The maximum number of rows on the page
+     * @param filter   Selects the rows to include
+     * @return The page of matching rows
+     * @throws IOException              if the table cannot be read
+     * @throws IllegalArgumentException if the cursor was not produced by this table
+     */
+    Page<String[]> scan(String cursor, int pageSize, Predicate<String[]> filter) throws IOException;
+
+    /**
+     * Reads every row of the table.
+     *
+     * @return The rows in table order
+     * @throws IOException if the table cannot be read
+     */
+    List<String[]> readAll() throws IOException;
+
+    /**
+     * Looks up the first row whose key column equals a key.
+     *
+     * @param key The value of the first column
+     * @return The row, or null if no row has that key
+     * @throws IOException if the table cannot be read
+     */
+    String[] find(String key) throws IOException;
+
+    /**
+     * Appends a row to the end of the table in its own transaction.
+     *
+     * @param row The row to append
+     * @throws IOException if the row cannot be written
+     */
+    void append(String[] row) throws IOException;
+
+    /**
+     * Replaces every row of the table in its own transaction.
+     *
+     * @param rows The new rows in table order
+     * @throws IOException if the rows cannot be written
+     */
+    void rewrite(List<String[]> rows) throws IOException;
+}
@@ -0,0 +1,191 @@
+package storage;
+
+import java.util.*;
+import java.util.function.Predicate;
+import paging.Page;
+
+/**
+ * The TableVersion class is one immutable version of a table's rows held in memory. A new
+ * version is made for every write, and readers simply keep using the version they started
+ * with, so they never see a partial write and never wait for a writer.
+ *
+ * <p>Appending does not copy the rows: versions of the same table share a row array, and each
+ * version only looks at the first {@code size} entries, so an append can fill the free slots
+ * after the newest version without changing what any older version shows. Only the newest
+ * version of a table may be appended to, which the table's write lock guarantees.</p>
+ *
+ * <p>A version is itself a read-only {@link Table}; rows are copied on the way out so callers
+ * may change them freely.</p>
+ */
+final class TableVersion implements Table {
+    private static final String CURSOR_PREFIX = "row:";
+    private static final String[][] NO_ROWS = new String[0][];
+
+    private final String name;
+    private final String header;
+    private final String[][] rows;
+    private final int size;
+    private final long fileLength;
+    private final long fileModified;
+    private final long writeCount;
+
+    private TableVersion(String name, String header, String[][] rows, int size, long fileLength, long fileModified,
+                         long writeCount) {
+        this.name = name;
+        this.header = header;
+        this.rows = rows;
+        this.size = size;
+        this.fileLength = fileLength;
+        this.fileModified = fileModified;
+        this.writeCount = writeCount;
+    }
+
+    /**
+     * Creates a version holding the given rows.
+     *
+     * @param name         The table name
+     * @param header       The header line of the table
+     * @param rows         The rows in table order
+     * @param fileLength   The length of the file the rows were read from or written to
+     * @param fileModified The modification time of that file in milliseconds
+     * @param writeCount   The number of writes made to the file by any process, or -1 if unknown
+     * @return The new version
+     */
+    static TableVersion of(String name, String header, List<String[]> rows, long fileLength, long fileModified,
+                           long writeCount) {
+        String[][] copy = new String[Math.max(rows.size(), 8)][];
+        for (int i = 0; i < rows.size(); i++) {
+            copy[i] = rows.get(i).clone();
+        }
+        return new TableVersion(name, header, copy, rows.size(), fileLength, fileModified, writeCount);
+    }
+
+    /**
+     * Creates an empty version of a table that has no file yet.
+     *
+     * @param name       The table name
+     * @param header     The header line of the table
+     * @param writeCount The number of writes made to the file by any process, or -1 if unknown
+     * @return The empty version
+     */
+    static TableVersion empty(String name, String header, long writeCount) {
+        return new TableVersion(name, header, NO_ROWS, 0, -1, -1, writeCount);
+    }
+
+    /**
+     * Creates the version that follows this one after rows are appended. Must only be called
+     * on the newest version of the table, by the holder of the table's write lock.
+     *
+     * @param added        The rows to append
+     * @param fileLength   The length of the file after the append
+     * @param fileModified The modification time of the file after the append
+     * @param writeCount   The number of writes made to the file after the append
+     * @return The new version
+     */
+    TableVersion append(List<String[]> added, long fileLength, long fileModified, long writeCount) {
+        String[][] target = rows;
+        if (size + added.size() > rows.length) {
+            target = Arrays.copyOf(rows, Math.max(size + added.size(), rows.length * 2));
+        }
+        for (int i = 0; i < added.size(); i++) {
+            target[size + i] = added.get(i).clone();
+        }
+        return new TableVersion(name, header, target, size + added.size(), fileLength, fileModified, writeCount);
+    }
+
+    /**
+     * Checks whether this version was read from or written to a file in its current state. The
+     * write count catches writes that leave the length and the modification time unchanged,
+     * such as a same-length rewrite within the same millisecond.
+     *
+     * @param length     The current length of the file
+     * @param modified   The current modification time of the file in milliseconds
+     * @param writeCount The current number of writes made to the file
+     * @return true if the file has not changed since this version was made
+     */
+    boolean matchesFile(long length, long modified, long writeCount) {
+        return length == fileLength && modified == fileModified && writeCount == this.writeCount;
+    }
+
+    /**
+     * Gets the number of rows in this version.
+     *
+     * @return The row count
+     */
+    int size() {
+        return size;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getHeader() {
+        return header;
+    }
+
+    @Override
+    public void scan(RowVisitor visitor) {
+        for (int i = 0; i < size; i++) {
+            if (!visitor.visit(rows[i].clone())) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public Page<String[]> scan(String cursor, int pageSize, Predicate<String[]> filter) {
+        List<String[]> items = new ArrayList<>();
+        for (int i = cursor == null ? 0 : decodeCursor(cursor); i < size; i++) {
+            if (!filter.test(rows[i])) {
+                continue;
+            }
+            if (items.size() == pageSize) {
+                return new Page<>(items, Page.encodeCursor(CURSOR_PREFIX + i));
+            }
+            items.add(rows[i].clone());
+        }
+        return new Page<>(items, null);
+    }
+
+    @Override
+    public List<String[]> readAll() {
+        List<String[]> copy = new ArrayList<>(size);
+        scan(row -> copy.add(row));
+        return copy;
+    }
+
+    @Override
+    public String[] find(String key) {
+        for (int i = 0; i < size; i++) {
+            if (rows[i][0].equals(key)) {
+                return rows[i].clone();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void append(String[] row) {
+        throw new UnsupportedOperationException("Table version " + name + " is read-only");
+    }
+
+    @Override
+    public void rewrite(List<String[]> rows) {
+        throw new UnsupportedOperationException("Table version " + name + " is read-only");
+    }
+
+    private static int decodeCursor(String cursor) {
+        String position = Page.decodeCursor(cursor);
+        if (!position.startsWith(CURSOR_PREFIX)) {
+            throw new IllegalArgumentException("Not a table cursor: " + cursor);
+        }
+        try {
+            return Integer.parseInt(position.substring(CURSOR_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed cursor: " + cursor, e);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package storage;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The Transaction interface groups writes to one or more tables so that they become visible
+ * together when {@link #commit()} is called. Writes made through a transaction are not visible
+ * to readers until then, and closing a transaction without committing discards them.
+ *
+ * <p>Tables read through {@link #read(String)} are checked on commit: if another writer has
+ * changed one of them since, the commit fails with a {@link WriteConflictException} and nothing
+ * is written, so a read-modify-rewrite never overwrites a change it did not see. Changes to
+ * single rows are best made with {@link #update(String, String, RowUpdate)}, which applies them
+ * to the rows as they are at commit and so does not conflict with other writers at all.</p>
+ *
+ * <pre>
+ * try (Transaction transaction = engine.begin()) {
+ *     transaction.append(Storage.BILL, bill);
+ *     transaction.rewrite(Storage.APPOINTMENT_RECORD, records);
+ *     transaction.commit();
+ * }
+ * </pre>
+ */
+public interface Transaction extends AutoCloseable {
+
+    /**
+     * Reads every row of a table as it is now and makes the commit depend on it: the commit
+     * fails with a {@link WriteConflictException} if another writer changes the table first.
+     * Writes recorded in this transaction are not included.
+     *
+     * @param tableName The name of the table
+     * @return The rows in table order
+     * @throws IOException if the table cannot be read
+     */
+    List<String[]> read(String tableName) throws IOException;
+
+    /**
+     * Appends a row to a table when the transaction commits.
+     *
+     * @param tableName The name of the table
+     * @param row       The row to append
+     */
+    void append(String tableName, String[] row);
+
+    /**
+     * Replaces every row of a table when the transaction commits. Rows appended to the same
+     * table earlier in the transaction are discarded; rows appended later are kept.
+     *
+     * @param tableName The name of the table
+     * @param rows      The new rows in table order
+     */
+    void rewrite(String tableName, List<String[]> rows);
+
+    /**
+     * Changes every row of a table whose key column equals a key when the transaction commits,
+     * after the transaction's own rewrite of and appends to the table. The update sees each row
+     * as it is at commit, so changes committed by other writers in the meantime are kept. Tables
+     * are updated in the order the transaction first wrote to them, and the updates of a row in
+     * the order they were made.
+     *
+     * @param tableName The name of the table
+     * @param key       The value of the first column of the rows to change
+     * @param update    Computes the new value of each row
+     */
+    void update(String tableName, String key, RowUpdate update);
+
+    /**
+     * Asks for the files written by the transaction to be forced to disk before
+     * {@link #commit()} returns, so that the writes survive a crash of the machine and not only
+     * of the process. Engines that always force their writes ignore it.
+     */
+    void syncOnCommit();
+
+    /**
+     * Applies every write of the transaction.
+     *
+     * @throws WriteConflictException if a table read through the transaction was changed by
+     *                                another writer, or an update rejected its row; nothing is
+     *                                written then
+     * @throws IOException            if the writes cannot be applied
+     * @throws IllegalStateException  if the transaction has already been committed or closed
+     */
+    void commit() throws IOException;
+
+    /**
+     * Ends the transaction, discarding its writes if it has not been committed.
+     */
+    @Override
+    void close();
+}
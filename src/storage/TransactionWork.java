@@ -0,0 +1,24 @@
+package storage;
+
+import java.io.IOException;
+
+/**
+ * The TransactionWork interface is work done in a {@link Transaction} by
+ * {@link Storage#inTransaction(TransactionWork)}: it reads what it needs through the
+ * transaction and records its writes, and is run again from the start if the commit meets a
+ * {@link WriteConflictException}.
+ *
+ * @param <T> The type of the result
+ */
+@FunctionalInterface
+public interface TransactionWork<T> {
+
+    /**
+     * Reads and records the writes of one attempt. The transaction is committed by the caller.
+     *
+     * @param transaction The transaction of this attempt
+     * @return The result of the attempt
+     * @throws IOException if a table cannot be read
+     */
+    T run(Transaction transaction) throws IOException;
+}
@@ -0,0 +1,144 @@
+package storage;
+
+import java.io.PrintStream;
+import java.util.*;
+
+/**
+ * The VerificationReport class holds the row counts an {@link IntegrityVerifier} found in each
+ * table: rows whose checksum matched, rows without a checksum, corrupt rows moved to quarantine,
+ * and rows with more columns than the table's header, which usually means a value held a comma.
+ */
+public final class VerificationReport {
+    private static final int VALID = 0;
+    private static final int UNCHECKED = 1;
+    private static final int CORRUPT = 2;
+    private static final int MALFORMED = 3;
+
+    private final Map<String, long[]> counts = new TreeMap<>();
+    private long bytes;
+    private long elapsedNanos;
+
+    VerificationReport() {
+    }
+
+    /**
+     * Adds the counts found in part of a table.
+     */
+    void add(String table, long valid, long unchecked, long corrupt, long malformed) {
+        long[] tableCounts = counts.computeIfAbsent(table, name -> new long[4]);
+        tableCounts[VALID] += valid;
+        tableCounts[UNCHECKED] += unchecked;
+        tableCounts[CORRUPT] += corrupt;
+        tableCounts[MALFORMED] += malformed;
+    }
+
+    /**
+     * Records the size of the verified files and how long verification took.
+     */
+    void finish(long bytes, long elapsedNanos) {
+        this.bytes = bytes;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Gets the names of the tables that were verified.
+     *
+     * @return The table names in alphabetical order
+     */
+    public Set<String> getTables() {
+        return Collections.unmodifiableSet(counts.keySet());
+    }
+
+    /**
+     * Gets the number of rows of a table whose checksum matched.
+     *
+     * @param table The table name
+     * @return The valid row count
+     */
+    public long getValidCount(String table) {
+        return count(table, VALID);
+    }
+
+    /**
+     * Gets the number of rows of a table that had no checksum and were kept as they are.
+     *
+     * @param table The table name
+     * @return The unchecked row count
+     */
+    public long getUncheckedCount(String table) {
+        return count(table, UNCHECKED);
+    }
+
+    /**
+     * Gets the number of corrupt rows of a table that were moved to quarantine.
+     *
+     * @param table The table name
+     * @return The corrupt row count
+     */
+    public long getCorruptCount(String table) {
+        return count(table, CORRUPT);
+    }
+
+    /**
+     * Gets the number of kept rows of a table that have more columns than its header.
+     *
+     * @param table The table name
+     * @return The malformed row count
+     */
+    public long getMalformedCount(String table) {
+        return count(table, MALFORMED);
+    }
+
+    /**
+     * Gets the number of corrupt rows moved to quarantine across all tables.
+     *
+     * @return The total corrupt row count
+     */
+    public long getTotalCorruptCount() {
+        long total = 0;
+        for (long[] tableCounts : counts.values()) {
+            total += tableCounts[CORRUPT];
+        }
+        return total;
+    }
+
+    /**
+     * Gets the number of bytes read.
+     *
+     * @return The total size of the verified files
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Gets how long verification took.
+     *
+     * @return The elapsed time in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Prints the counts of every table and the totals.
+     *
+     * @param out The stream to print to
+     */
+    public void print(PrintStream out) {
+        out.printf("%-22s %10s %10s %10s %10s%n", "Table", "Valid", "Unchecked", "Corrupt", "Malformed");
+        for (Map.Entry<String, long[]> entry : counts.entrySet()) {
+            long[] tableCounts = entry.getValue();
+            out.printf("%-22s %10d %10d %10d %10d%n", entry.getKey(), tableCounts[VALID], tableCounts[UNCHECKED],
+                    tableCounts[CORRUPT], tableCounts[MALFORMED]);
+        }
+        double seconds = elapsedNanos / 1e9;
+        out.printf("Verified %.1f MB in %.3f s (%.0f MB/s); %d corrupt row(s) quarantined%n", bytes / 1e6, seconds,
+                seconds > 0 ? bytes / 1e6 / seconds : 0, getTotalCorruptCount());
+    }
+
+    private long count(String table, int column) {
+        long[] tableCounts = counts.get(table);
+        return tableCounts == null ? 0 : tableCounts[column];
+    }
+}
@@ -0,0 +1,36 @@
+package storage;
+
+import java.io.IOException;
+
+/**
+ * The WriteConflictException class signals that a transaction could not commit because a table
+ * it depends on was changed by another writer first: a table it read with
+ * {@link Transaction#read(String)} has been written since, or a {@link RowUpdate} found its row
+ * in a state it does not expect. Nothing the transaction wrote is applied, so the work can be
+ * done again from a fresh read; see {@link Storage#inTransaction(TransactionWork)}.
+ */
+public class WriteConflictException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final String tableName;
+
+    /**
+     * Constructs a WriteConflictException.
+     *
+     * @param tableName The name of the table that was changed
+     * @param message   The detail message
+     */
+    public WriteConflictException(String tableName, String message) {
+        super(message);
+        this.tableName = tableName;
+    }
+
+    /**
+     * Gets the name of the table that was changed.
+     *
+     * @return The table name
+     */
+    public String getTableName() {
+        return tableName;
+    }
+}
@@ -0,0 +1,68 @@
+package trace;
+
+import java.util.Arrays;
+
+/**
+ * The TraceEvent class is one service operation read from a trace: when it happened, relative
+ * to the start of the recording, which operation it was, and the arguments it was called with.
+ */
+public final class TraceEvent {
+    private final long timeMicros;
+    private final TraceOperation operation;
+    private final String[] arguments;
+
+    /**
+     * Constructs a new TraceEvent.
+     *
+     * @param timeMicros The time of the operation in microseconds since the recording started
+     * @param operation  The operation
+     * @param arguments  The arguments, as described by the operation
+     */
+    public TraceEvent(long timeMicros, TraceOperation operation, String[] arguments) {
+        this.timeMicros = timeMicros;
+        this.operation = operation;
+        this.arguments = arguments;
+    }
+
+    /**
+     * Gets the time of the operation.
+     *
+     * @return The time in microseconds since the recording started
+     */
+    public long getTimeMicros() {
+        return timeMicros;
+    }
+
+    /**
+     * Gets the operation.
+     *
+     * @return The operation
+     */
+    public TraceOperation getOperation() {
+        return operation;
+    }
+
+    /**
+     * Gets one argument of the operation.
+     *
+     * @param index The position of the argument
+     * @return The argument, or an empty string if the event has fewer arguments
+     */
+    public String getArgument(int index) {
+        return index < arguments.length ? arguments[index] : "";
+    }
+
+    /**
+     * Gets the number of arguments of the operation.
+     *
+     * @return The argument count
+     */
+    public int getArgumentCount() {
+        return arguments.length;
+    }
+
+    @Override
+    public String toString() {
+        return timeMicros + " " + operation + " " + Arrays.toString(arguments);
+    }
+}
@@ -0,0 +1,149 @@
+package trace;
+
+/**
+ * The TraceOperation enum lists the service operations a {@link TraceRecorder} captures, with
+ * the arguments each is recorded with. Appointment and replenishment request IDs generated by an
+ * operation are recorded with it, so a replay can map the original IDs to the ones generated
+ * during the replay. Cursors are recorded as an empty string for a first page.
+ *
+ * <p>New operations must be added at the end, as traces store the position of the constant.</p>
+ */
+public enum TraceOperation {
+    /**
+     * Doctor opens slots: doctorID, doctorName, date, time slots separated by semicolons.
+     */
+    SET_AVAILABILITY,
+
+    /**
+     * Appointment booked: patientID, doctorID, date, timeSlot, generated appointmentID.
+     */
+    SCHEDULE_APPOINTMENT,
+
+    /**
+     * Appointment moved to a new slot: appointmentID, newDate, newTimeSlot.
+     */
+    RESCHEDULE_APPOINTMENT,
+
+    /**
+     * Appointment cancelled: appointmentID.
+     */
+    CANCEL_APPOINTMENT,
+
+    /**
+     * Appointment accepted: doctorID, appointmentID.
+     */
+    ACCEPT_APPOINTMENT,
+
+    /**
+     * Appointment declined: doctorID, appointmentID.
+     */
+    DECLINE_APPOINTMENT,
+
+    /**
+     * Outcome recorded: doctorID, appointmentID, diagnosis, medicine, quantity, treatmentPlan,
+     * date, typeOfService, notes.
+     */
+    RECORD_OUTCOME,
+
+    /**
+     * Medical record updated: doctorID, appointmentID, diagnosis, medicine, quantity,
+     * treatmentPlan, notes.
+     */
+    UPDATE_MEDICAL_RECORD,
+
+    /**
+     * Prescription dispensed: pharmacistID, appointmentID.
+     */
+    DISPENSE_PRESCRIPTION,
+
+    /**
+     * Replenishment requested: pharmacistID, medicine, quantity, generated requestID.
+     */
+    REQUEST_REPLENISHMENT,
+
+    /**
+     * Replenishment requests approved: the approved requestIDs.
+     */
+    APPROVE_REPLENISHMENT,
+
+    /**
+     * Bill paid: patientID, appointmentID, feedback.
+     */
+    PAY_BILL,
+
+    /**
+     * Staff member added: id, name, role, gender, age.
+     */
+    ADD_STAFF,
+
+    /**
+     * Staff member updated: id, name, role, gender, age.
+     */
+    UPDATE_STAFF,
+
+    /**
+     * Staff member removed: id.
+     */
+    REMOVE_STAFF,
+
+    /**
+     * Stock level set: medicine, stock.
+     */
+    UPDATE_STOCK,
+
+    /**
+     * Low stock alert level set: medicine, level.
+     */
+    UPDATE_LOW_STOCK_LEVEL,
+
+    /**
+     * Contact details updated: patientID, email, contactNumber.
+     */
+    UPDATE_PERSONAL_INFO,
+
+    /**
+     * Hospital reports generated: no arguments.
+     */
+    VIEW_REPORTS,
+
+    /**
+     * Appointment details viewed: appointmentID.
+     */
+    VIEW_APPOINTMENT,
+
+    /**
+     * Patient's appointments listed: patientID, status, cursor, pageSize.
+     */
+    LIST_PATIENT_APPOINTMENTS,
+
+    /**
+     * Patient's past outcomes listed: patientID, cursor, pageSize.
+     */
+    LIST_PAST_OUTCOMES,
+
+    /**
+     * Doctor's confirmed appointments listed: doctorID, fromDate, toDate, cursor, pageSize, with
+     * empty dates for all upcoming appointments.
+     */
+    LIST_AGENDA,
+
+    /**
+     * Medical records searched: doctorID, query.
+     */
+    SEARCH_RECORDS,
+
+    /**
+     * Medication inventory listed: cursor, pageSize.
+     */
+    LIST_INVENTORY,
+
+    /**
+     * Staff list listed: cursor, pageSize.
+     */
+    LIST_STAFF,
+
+    /**
+     * Doctor's slot length set: doctorID, minutes.
+     */
+    SET_SLOT_LENGTH
+}
@@ -0,0 +1,106 @@
+package trace;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The TraceReader class reads the events of a trace written by a {@link TraceRecorder}, in the
+ * order they were recorded. A final record cut short is treated as the end of the trace.
+ */
+public class TraceReader implements Closeable {
+    private final DataInputStream in;
+    private final long startEpochMillis;
+    private final List<String> sharedStrings = new ArrayList<>();
+    private long timeMicros;
+
+    /**
+     * Opens a trace.
+     *
+     * @param file The trace file
+     * @throws IOException if the file cannot be read or is not a trace
+     */
+    public TraceReader(Path file) throws IOException {
+        in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+        try {
+            if (in.readInt() != TraceRecorder.MAGIC) {
+                throw new IOException(file + " is not a trace");
+            }
+            int version = in.readUnsignedByte();
+            if (version != TraceRecorder.VERSION) {
+                throw new IOException("Unsupported trace version " + version + " in " + file);
+            }
+            startEpochMillis = in.readLong();
+        } catch (IOException e) {
+            in.close();
+            throw e instanceof EOFException ? new IOException(file + " is not a trace", e) : e;
+        }
+    }
+
+    /**
+     * Gets the wall-clock time the recording started.
+     *
+     * @return The start time in milliseconds since the epoch
+     */
+    public long getStartEpochMillis() {
+        return startEpochMillis;
+    }
+
+    /**
+     * Reads the next event.
+     *
+     * @return The event, or null at the end of the trace
+     * @throws IOException if the trace cannot be read or holds an unknown operation
+     */
+    public TraceEvent next() throws IOException {
+        try {
+            long time = timeMicros + readVarLong(in);
+            int ordinal = in.readUnsignedByte();
+            if (ordinal >= TraceOperation.values().length) {
+                throw new IOException("Unknown operation " + ordinal + " in trace");
+            }
+            String[] arguments = new String[(int) readVarLong(in)];
+            for (int i = 0; i < arguments.length; i++) {
+                arguments[i] = readString();
+            }
+            timeMicros = time;
+            return new TraceEvent(time, TraceOperation.values()[ordinal], arguments);
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private String readString() throws IOException {
+        int reference = (int) readVarLong(in);
+        if (reference > 0) {
+            if (reference > sharedStrings.size()) {
+                throw new IOException("Bad string reference " + reference + " in trace");
+            }
+            return sharedStrings.get(reference - 1);
+        }
+        String value = in.readUTF();
+        if (value.length() <= TraceRecorder.MAX_SHARED_LENGTH) {
+            sharedStrings.add(value);
+        }
+        return value;
+    }
+
+    private static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed number in trace");
+    }
+}
@@ -0,0 +1,190 @@
+package trace;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import storage.Snapshot;
+import storage.Storage;
+
+/**
+ * The TraceRecorder class captures the service operations of this process, with their times
+ * and arguments, in a compact binary trace that a {@link TraceReplayer} can re-execute later.
+ * Recording is off unless the {@code hms.trace} system property names the trace file:
+ *
+ * <pre>
+ * java -Dhms.trace=traces/monday.trace usermain.Main
+ * </pre>
+ *
+ * <p>When recording starts, every table is exported as CSV from one {@link Snapshot} into a
+ * directory next to the trace ({@code monday.trace.data}), so the trace can be replayed
+ * against the data exactly as it was when the first operation was recorded.</p>
+ *
+ * <p>Each record holds the time since the previous record in microseconds, the operation and
+ * its arguments, with integers written in a variable-length encoding. Short strings such as IDs
+ * and dates are written once and then referred to by number. Every record is flushed as it is
+ * written, so a trace cut short by a crash loses at most its last record.</p>
+ */
+public final class TraceRecorder implements Closeable {
+    public static final String TRACE_PROPERTY = "hms.trace";
+
+    static final int MAGIC = 0x484D5354;
+    static final int VERSION = 1;
+    static final int MAX_SHARED_LENGTH = 32;
+
+    private static final List<String> TABLES = List.of(Storage.APPOINTMENT, Storage.APPOINTMENT_RECORD, Storage.BILL,
+            Storage.BILL_AGGREGATES, Storage.BILL_PAYMENT, Storage.DOCTOR_AVAILABILITY, Storage.DOCTOR_SLOT_LENGTH, Storage.MEDICINE_LIST,
+            Storage.PATIENT_LIST, Storage.REPLENISHMENT_REQUEST, Storage.STAFF, Storage.USER);
+
+    private static volatile TraceRecorder instance;
+    private static boolean started;
+
+    private final DataOutputStream out;
+    private final Map<String, Integer> sharedStrings = new HashMap<>();
+    private final long startNanos;
+    private long lastMicros;
+    private boolean closed;
+
+    private TraceRecorder(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        exportData(dataDirectory(file));
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeLong(System.currentTimeMillis());
+        out.flush();
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * Returns the recorder of this process, starting it on first use if the {@code hms.trace}
+     * property is set. Call it before the first operation so that the exported data reflects
+     * the state the trace starts from.
+     *
+     * @return The recorder, or null if recording is off or could not be started
+     */
+    public static TraceRecorder getInstance() {
+        TraceRecorder recorder = instance;
+        if (recorder != null) {
+            return recorder;
+        }
+        synchronized (TraceRecorder.class) {
+            if (!started) {
+                started = true;
+                String file = System.getProperty(TRACE_PROPERTY);
+                if (file != null && !file.isBlank()) {
+                    try {
+                        instance = new TraceRecorder(Paths.get(file));
+                        Runtime.getRuntime().addShutdownHook(new Thread(() -> instance.close()));
+                    } catch (IOException e) {
+                        System.err.println("Error starting trace " + file + ": " + e.getMessage());
+                    }
+                }
+            }
+            return instance;
+        }
+    }
+
+    /**
+     * Records an operation if recording is on.
+     *
+     * @param operation The operation
+     * @param arguments The arguments, as described by the operation; null is recorded as empty
+     */
+    public static void record(TraceOperation operation, String... arguments) {
+        TraceRecorder recorder = getInstance();
+        if (recorder != null) {
+            recorder.write(operation, arguments);
+        }
+    }
+
+    /**
+     * Gets the directory the data of a trace is exported to.
+     *
+     * @param trace The trace file
+     * @return The data directory
+     */
+    public static Path dataDirectory(Path trace) {
+        return trace.resolveSibling(trace.getFileName() + ".data");
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            out.close();
+        } catch (IOException e) {
+            System.err.println("Error closing trace: " + e.getMessage());
+        }
+    }
+
+    private synchronized void write(TraceOperation operation, String[] arguments) {
+        if (closed) {
+            return;
+        }
+        long micros = (System.nanoTime() - startNanos) / 1000;
+        try {
+            writeVarLong(out, micros - lastMicros);
+            out.writeByte(operation.ordinal());
+            writeVarLong(out, arguments.length);
+            for (String argument : arguments) {
+                writeString(argument == null ? "" : argument);
+            }
+            out.flush();
+            lastMicros = micros;
+        } catch (IOException e) {
+            System.err.println("Error writing trace, recording stopped: " + e.getMessage());
+            close();
+        }
+    }
+
+    /**
+     * Writes a string as a reference to an earlier copy, or as 0 followed by the string itself.
+     */
+    private void writeString(String value) throws IOException {
+        Integer reference = sharedStrings.get(value);
+        if (reference != null) {
+            writeVarLong(out, reference);
+            return;
+        }
+        writeVarLong(out, 0);
+        out.writeUTF(value);
+        if (value.length() <= MAX_SHARED_LENGTH) {
+            sharedStrings.put(value, sharedStrings.size() + 1);
+        }
+    }
+
+    static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * Exports every table as a CSV file, all from the same snapshot.
+     */
+    private static void exportData(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        try (Snapshot snapshot = Storage.snapshot()) {
+            for (String name : TABLES) {
+                try (BufferedWriter writer = Files.newBufferedWriter(directory.resolve(name + ".csv"))) {
+                    writer.write(snapshot.table(name).getHeader());
+                    writer.newLine();
+                    for (String[] row : snapshot.table(name).readAll()) {
+                        writer.write(String.join(",", row));
+                        writer.newLine();
+                    }
+                }
+            }
+        }
+    }
+}
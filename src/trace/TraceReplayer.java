@@ -0,0 +1,360 @@
+package trace;
+
+import admission.AdmissionController;
+import appointment.AppointmentService;
+import enums.UserRole;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.locks.LockSupport;
+import simulation.LatencyStats;
+import simulation.Operation;
+import simulation.WorkloadSimulator;
+import storage.Storage;
+import usermain.Administrator;
+import usermain.Billing;
+import usermain.Doctor;
+import usermain.Patient;
+import usermain.Pharmacist;
+
+/**
+ * The TraceReplayer class re-executes a trace written by a {@link TraceRecorder} against the
+ * services, one operation at a time in the order they were recorded, and reports the latency of
+ * each kind of operation. Operations start at their recorded times scaled by a speed factor:
+ * 1 replays at the original pace, 10 ten times faster, and 0 as fast as possible.
+ *
+ * <p>Appointment and replenishment request IDs are generated afresh during the replay, so the
+ * replayer maps each recorded ID to the one generated when its operation was replayed, and later
+ * operations on the original ID act on the new one.</p>
+ *
+ * <p>Run from the command line it replays against a copy of the data exported when the trace
+ * was recorded, leaving the export untouched for the next replay:</p>
+ *
+ * <pre>
+ * java trace.TraceReplayer traces/monday.trace --speed=0
+ * </pre>
+ */
+public class TraceReplayer {
+    private final Path trace;
+    private final double speed;
+    private final boolean quiet;
+    private final Map<TraceOperation, LatencyStats> stats = new EnumMap<>(TraceOperation.class);
+    private final List<String> errors = new ArrayList<>();
+    private final Map<String, String> appointmentIDs = new HashMap<>();
+    private final Map<String, String> requestIDs = new HashMap<>();
+    private final Map<String, Doctor> doctors = new HashMap<>();
+    private final Map<String, Pharmacist> pharmacists = new HashMap<>();
+    private final Map<String, Patient> patients = new HashMap<>();
+    private AppointmentService appointmentService;
+    private Administrator administrator;
+    private long elapsedNanos;
+    private long recordedMicros;
+
+    /**
+     * Constructs a TraceReplayer.
+     *
+     * @param trace The trace file
+     * @param speed How many times faster than recorded to replay, or 0 for as fast as possible
+     * @param quiet Whether to discard what the services print while replaying
+     */
+    public TraceReplayer(Path trace, double speed, boolean quiet) {
+        this.trace = trace;
+        this.speed = speed;
+        this.quiet = quiet;
+    }
+
+    /**
+     * Replays every operation of the trace against the data directory {@link Storage} is
+     * configured with.
+     *
+     * @throws IOException if the trace cannot be read
+     */
+    public void run() throws IOException {
+        appointmentService = new AppointmentService();
+        administrator = new Administrator();
+
+        PrintStream console = System.out;
+        if (quiet) {
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        }
+        try (TraceReader reader = new TraceReader(trace)) {
+            long start = System.nanoTime();
+            TraceEvent event;
+            while ((event = reader.next()) != null) {
+                if (speed > 0) {
+                    long due = start + (long) (event.getTimeMicros() * 1000 / speed);
+                    for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+                        LockSupport.parkNanos(wait);
+                    }
+                }
+                replay(event);
+                recordedMicros = event.getTimeMicros();
+            }
+            elapsedNanos = System.nanoTime() - start;
+        } finally {
+            System.setOut(console);
+        }
+    }
+
+    /**
+     * Gets the wall-clock duration of the replay.
+     *
+     * @return The duration in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Gets the statistics of one operation.
+     *
+     * @param operation The operation
+     * @return The statistics, empty if the trace holds no such operation
+     */
+    public LatencyStats getStats(TraceOperation operation) {
+        return stats.getOrDefault(operation, new LatencyStats());
+    }
+
+    /**
+     * Prints the duration of the replay and the latency of each operation.
+     *
+     * @param out The stream to print to
+     */
+    public void print(PrintStream out) {
+        int total = 0;
+        for (LatencyStats operationStats : stats.values()) {
+            total += operationStats.getCount();
+        }
+        out.println("==== Replay Report ====");
+        out.printf("Operations: %d in %.2f s (recorded over %.2f s)%n", total, elapsedNanos / 1e9, recordedMicros / 1e6);
+
+        out.println("\n==== Latency (ms) ====");
+        out.printf("%-26s %7s %7s %8s %7s %9s %9s %9s %9s %9s%n", "Operation", "Count", "OK", "Rejected", "Errors", "Mean", "p50", "p95", "p99", "Max");
+        for (Map.Entry<TraceOperation, LatencyStats> entry : stats.entrySet()) {
+            LatencyStats operationStats = entry.getValue();
+            out.printf("%-26s %7d %7d %8d %7d %9.2f %9.2f %9.2f %9.2f %9.2f%n", entry.getKey(), operationStats.getCount(),
+                    operationStats.getCount(Operation.Outcome.SUCCESS), operationStats.getCount(Operation.Outcome.REJECTED),
+                    operationStats.getCount(Operation.Outcome.ERROR), operationStats.getMean() / 1e6,
+                    operationStats.getPercentile(50) / 1e6, operationStats.getPercentile(95) / 1e6,
+                    operationStats.getPercentile(99) / 1e6, operationStats.getPercentile(100) / 1e6);
+        }
+
+        if (!errors.isEmpty()) {
+            out.println("\n==== Errors ====");
+            for (String error : errors) {
+                out.println("  " + error);
+            }
+        }
+    }
+
+    /**
+     * The entry point of the replayer.
+     *
+     * @param args The trace file, then --speed=N, --data-dir=DIR and --verbose=true|false
+     * @throws IOException if the trace or its data cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: java trace.TraceReplayer <trace> [--speed=N] [--data-dir=DIR] [--verbose=true]");
+            return;
+        }
+        Path trace = Paths.get(args[0]);
+        double speed = 1;
+        boolean quiet = true;
+        String dataDirectory = null;
+        for (int i = 1; i < args.length; i++) {
+            String[] option = args[i].replaceFirst("^--", "").split("=", 2);
+            String value = option.length > 1 ? option[1] : "true";
+            switch (option[0]) {
+                case "speed": speed = Double.parseDouble(value); break;
+                case "data-dir": dataDirectory = value; break;
+                case "verbose": quiet = !Boolean.parseBoolean(value); break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    return;
+            }
+        }
+
+        if (dataDirectory == null) {
+            Path copy = WorkloadSimulator.copyDataDirectory(TraceRecorder.dataDirectory(trace), "hms-replay");
+            dataDirectory = copy.toString();
+            System.out.println("Replaying on a copy of the recorded data in " + copy);
+        }
+        System.setProperty(Storage.DATA_DIR_PROPERTY, dataDirectory);
+        // Every recorded operation was admitted when it was recorded, so none is turned away now
+        if (System.getProperty(AdmissionController.ADMISSION_PROPERTY) == null) {
+            System.setProperty(AdmissionController.ADMISSION_PROPERTY, "false");
+        }
+
+        TraceReplayer replayer = new TraceReplayer(trace, speed, quiet);
+        replayer.run();
+        replayer.print(System.out);
+        Storage.getEngine().close();
+    }
+
+    /**
+     * Replays one operation and records its latency and result.
+     */
+    private void replay(TraceEvent event) {
+        Operation.Outcome outcome;
+        long start = System.nanoTime();
+        try {
+            outcome = execute(event) ? Operation.Outcome.SUCCESS : Operation.Outcome.REJECTED;
+        } catch (Exception e) {
+            outcome = Operation.Outcome.ERROR;
+            if (errors.size() < 20) {
+                errors.add(event.getOperation() + " at " + event.getTimeMicros() / 1000 + " ms: " + e);
+            }
+        }
+        stats.computeIfAbsent(event.getOperation(), operation -> new LatencyStats()).record(System.nanoTime() - start, outcome);
+    }
+
+    /**
+     * Calls the service method the operation was recorded from.
+     *
+     * @return false if the service reported that the operation could not be performed
+     */
+    private boolean execute(TraceEvent event) throws IOException {
+        switch (event.getOperation()) {
+            case SET_AVAILABILITY:
+                appointmentService.setDoctorAvailability(event.getArgument(0), event.getArgument(1), event.getArgument(2),
+                        event.getArgument(3).split(";"));
+                return true;
+            case SCHEDULE_APPOINTMENT: {
+                String appointmentID = appointmentService.scheduleAppointment(event.getArgument(0), event.getArgument(1),
+                        event.getArgument(2), slotStart(event.getArgument(3)));
+                if (appointmentID == null) {
+                    return false;
+                }
+                appointmentIDs.put(event.getArgument(4), appointmentID);
+                return true;
+            }
+            case RESCHEDULE_APPOINTMENT:
+                return appointmentService.rescheduleAppointment(appointment(event.getArgument(0)), event.getArgument(1),
+                        slotStart(event.getArgument(2)));
+            case CANCEL_APPOINTMENT:
+                appointmentService.cancelAppointment(appointment(event.getArgument(0)));
+                return true;
+            case ACCEPT_APPOINTMENT:
+                doctor(event.getArgument(0)).acceptAppointment(appointment(event.getArgument(1)));
+                return true;
+            case DECLINE_APPOINTMENT:
+                doctor(event.getArgument(0)).declineAppointment(appointment(event.getArgument(1)));
+                return true;
+            case RECORD_OUTCOME:
+                doctor(event.getArgument(0)).recordAppointmentOutcome(appointment(event.getArgument(1)), event.getArgument(2),
+                        event.getArgument(3), Integer.parseInt(event.getArgument(4)), event.getArgument(5), event.getArgument(6),
+                        event.getArgument(7), event.getArgument(8));
+                return true;
+            case UPDATE_MEDICAL_RECORD:
+                doctor(event.getArgument(0)).updatePatientMedicalRecord(appointment(event.getArgument(1)), event.getArgument(2),
+                        event.getArgument(3), Integer.parseInt(event.getArgument(4)), event.getArgument(5), event.getArgument(6));
+                return true;
+            case DISPENSE_PRESCRIPTION:
+                pharmacist(event.getArgument(0)).updatePrescriptionStatus(appointment(event.getArgument(1)));
+                return true;
+            case REQUEST_REPLENISHMENT: {
+                String requestID = pharmacist(event.getArgument(0)).submitReplenishmentRequest(event.getArgument(1),
+                        Integer.parseInt(event.getArgument(2)));
+                if (requestID == null) {
+                    return false;
+                }
+                requestIDs.put(event.getArgument(3), requestID);
+                return true;
+            }
+            case APPROVE_REPLENISHMENT: {
+                Set<String> approved = new HashSet<>();
+                for (int i = 0; i < event.getArgumentCount(); i++) {
+                    approved.add(requestIDs.getOrDefault(event.getArgument(i), event.getArgument(i)));
+                }
+                return administrator.approveReplenishmentRequests(approved) > 0;
+            }
+            case PAY_BILL:
+                return new Billing(event.getArgument(0)).payBill(appointment(event.getArgument(1)), event.getArgument(2));
+            case ADD_STAFF:
+                administrator.addStaff(event.getArgument(0), event.getArgument(1), event.getArgument(2), event.getArgument(3),
+                        Integer.parseInt(event.getArgument(4)));
+                return true;
+            case UPDATE_STAFF:
+                administrator.updateStaff(event.getArgument(0), event.getArgument(1), event.getArgument(2), event.getArgument(3),
+                        Integer.parseInt(event.getArgument(4)));
+                return true;
+            case REMOVE_STAFF:
+                administrator.removeStaff(event.getArgument(0));
+                return true;
+            case UPDATE_STOCK:
+                administrator.updateMedicationStock(event.getArgument(0), Integer.parseInt(event.getArgument(1)));
+                return true;
+            case UPDATE_LOW_STOCK_LEVEL:
+                administrator.updateLowStockLevel(event.getArgument(0), Integer.parseInt(event.getArgument(1)));
+                return true;
+            case UPDATE_PERSONAL_INFO:
+                patient(event.getArgument(0)).updatePersonalInfo(event.getArgument(1), event.getArgument(2));
+                return true;
+            case VIEW_REPORTS:
+                administrator.viewHospitalReports();
+                return true;
+            case VIEW_APPOINTMENT:
+                administrator.viewAppointmentDetails(appointment(event.getArgument(0)));
+                return true;
+            case LIST_PATIENT_APPOINTMENTS:
+                appointmentService.getPatientAppointments(event.getArgument(0), event.getArgument(1), cursor(event.getArgument(2)),
+                        Integer.parseInt(event.getArgument(3)));
+                return true;
+            case LIST_PAST_OUTCOMES:
+                patient(event.getArgument(0)).getPastAppointmentOutcomes(cursor(event.getArgument(1)), Integer.parseInt(event.getArgument(2)));
+                return true;
+            case LIST_AGENDA:
+                if (event.getArgument(1).isEmpty()) {
+                    doctor(event.getArgument(0)).getUpcomingAppointments(cursor(event.getArgument(3)), Integer.parseInt(event.getArgument(4)));
+                } else {
+                    doctor(event.getArgument(0)).getAgenda(event.getArgument(1), event.getArgument(2), cursor(event.getArgument(3)),
+                            Integer.parseInt(event.getArgument(4)));
+                }
+                return true;
+            case SEARCH_RECORDS:
+                doctor(event.getArgument(0)).searchMedicalRecords(event.getArgument(1));
+                return true;
+            case LIST_INVENTORY:
+                administrator.getMedicationInventory(cursor(event.getArgument(0)), Integer.parseInt(event.getArgument(1)));
+                return true;
+            case LIST_STAFF:
+                administrator.getStaffList(cursor(event.getArgument(0)), Integer.parseInt(event.getArgument(1)));
+                return true;
+            case SET_SLOT_LENGTH:
+                appointmentService.setSlotLength(event.getArgument(0), Integer.parseInt(event.getArgument(1)));
+                return true;
+            default:
+                throw new IllegalStateException("Unsupported operation " + event.getOperation());
+        }
+    }
+
+    private String appointment(String recordedID) {
+        return appointmentIDs.getOrDefault(recordedID, recordedID);
+    }
+
+    /**
+     * Gets the start time of a time slot in HH:MM-HH:MM format.
+     */
+    private static String slotStart(String timeSlot) {
+        int end = timeSlot.indexOf('-');
+        return end < 0 ? timeSlot : timeSlot.substring(0, end);
+    }
+
+    private static String cursor(String recorded) {
+        return recorded.isEmpty() ? null : recorded;
+    }
+
+    private Doctor doctor(String id) {
+        return doctors.computeIfAbsent(id, doctorID -> new Doctor(doctorID, "", UserRole.DOCTOR.name(), "", appointmentService, appointmentService));
+    }
+
+    private Pharmacist pharmacist(String id) {
+        return pharmacists.computeIfAbsent(id, Pharmacist::new);
+    }
+
+    private Patient patient(String id) {
+        return patients.computeIfAbsent(id, patientID -> new Patient(patientID, "", UserRole.PATIENT.name(), "", "", "", "", "", "", "",
+                appointmentService, appointmentService));
+    }
+}
@@ -10,31 +10,61 @@ import java.io.*;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import admission.AdmissionController;
+import admission.AdmissionController.Workload;
+import enums.AppointmentStatus;
+import enums.BillStatus;
 import enums.PrescriptionStatus;
 import enums.ReplenishmentRequestStatus;
+import report.HospitalReport;
+import report.ReportEngine;
+import paging.Page;
+import storage.ShardRouter;
+import storage.Storage;
+import storage.Transaction;
+import storage.WriteConflictException;
+import trace.TraceOperation;
+import trace.TraceRecorder;
 
 import java.util.*;
 
 public class Administrator {
+    private final String id;
 
-    private static final String STAFF_FILE_PATH = "resources/Staff.csv";
-    private static final String USER_FILE_PATH = "resources/User.csv";
-    private static final String APPOINTMENT_FILE_PATH = "resources/Appointment.csv";
-    private static final String MEDICINE_FILE_PATH = "resources/Medicine_List.csv";
-    private static final String APPOINTMENT_RECORD_FILE = "resources/AppointmentRecord.csv";
-    private static final String REPLENISHMENT_REQUEST_FILE = "resources/ReplenishmentRequest.csv";
+    /**
+     * Constructs an Administrator with no known user ID, as used by tools that act on the
+     * hospital's behalf.
+     */
+    public Administrator() {
+        this("ADMINISTRATOR");
+    }
 
     /**
-     * Displays the list of staff members from the staff CSV file.
+     * Constructs an Administrator.
      *
-     * @throws IOException if there is an error reading the file
+     * @param id The administrator's user ID
      */
-    public void viewStaffList() throws IOException {
-        try (BufferedReader br = new BufferedReader(new FileReader(STAFF_FILE_PATH))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                System.out.println(line);
-            }
+    public Administrator(String id) {
+        this.id = id;
+    }
+
+    /**
+     * Retrieves one page of the staff list from the Staff table.
+     *
+     * @param cursor   The cursor returned with the previous page, or null for the first page
+     * @param pageSize The maximum number of staff members on the page
+     * @return The page of staff members in file order, or an empty page if the file cannot be read
+     */
+    public Page<StaffMember> getStaffList(String cursor, int pageSize) {
+        TraceRecorder.record(TraceOperation.LIST_STAFF, cursor, String.valueOf(pageSize));
+        try {
+            return Storage.table(Storage.STAFF).scan(cursor, pageSize, staff -> true).map(StaffMember::fromFields);
+        } catch (IOException e) {
+            System.err.println("Error reading Staff.csv: " + e.getMessage());
+            return Page.empty();
         }
     }
 
@@ -44,25 +74,21 @@ public class Administrator {
      * @param appointmentID The ID of the appointment to be viewed
      */
     public void viewAppointmentDetails(String appointmentID) {
+        TraceRecorder.record(TraceOperation.VIEW_APPOINTMENT, appointmentID);
         boolean appointmentFound = false;
 
         // Read from Appointment.csv
-        try (BufferedReader reader = new BufferedReader(new FileReader(APPOINTMENT_FILE_PATH))) {
-            String line;
+        try {
+            String[] data = Storage.history(Storage.APPOINTMENT).find(appointmentID);
             System.out.println("Appointment Details:");
-            while ((line = reader.readLine()) != null) {
-                String[] data = line.split(",");
-                // Check if the appointment ID matches
-                if (data[0].equals(appointmentID)) {
-                    System.out.println("Appointment ID: " + data[0]);
-                    System.out.println("Doctor ID: " + data[1]);
-                    System.out.println("Patient ID: " + data[2]);
-                    System.out.println("Date: " + data[3]);
-                    System.out.println("Time Slot: " + data[4]);
-                    System.out.println("Status: " + data[5]);
-                    appointmentFound = true;
-                    break;
-                }
+            if (data != null) {
+                System.out.println("Appointment ID: " + data[0]);
+                System.out.println("Doctor ID: " + data[1]);
+                System.out.println("Patient ID: " + data[2]);
+                System.out.println("Date: " + data[3]);
+                System.out.println("Time Slot: " + data[4]);
+                System.out.println("Status: " + data[5]);
+                appointmentFound = true;
             }
             if (!appointmentFound) {
                 System.out.println("No appointment found with ID: " + appointmentID);
@@ -73,25 +99,20 @@ public class Administrator {
         }
 
         // Read from AppointmentRecord.csv
-        try (BufferedReader reader = new BufferedReader(new FileReader(APPOINTMENT_RECORD_FILE))) {
-            String line;
+        try {
+            String[] data = Storage.history(Storage.APPOINTMENT_RECORD).find(appointmentID);
             System.out.println("\nAppointment Record Details:");
             boolean recordFound = false;
-            while ((line = reader.readLine()) != null) {
-                String[] data = line.split(",");
-                // Check if the appointment ID matches
-                if (data[0].equals(appointmentID)) {
-                    System.out.println("Diagnosis: " + data[1]);
-                    System.out.println("Prescription Medicine: " + data[2]);
-                    System.out.println("Prescription Quantity: " + data[3]);
-                    System.out.println("Prescription Status: " + data[4]);
-                    System.out.println("Treatment Plan: " + data[5]);
-                    System.out.println("Date: " + data[6]);
-                    System.out.println("Type of Service: " + data[7]);
-                    System.out.println("Consultation Notes: " + data[8]);
-                    recordFound = true;
-                    break;
-                }
+            if (data != null) {
+                System.out.println("Diagnosis: " + data[1]);
+                System.out.println("Prescription Medicine: " + data[2]);
+                System.out.println("Prescription Quantity: " + data[3]);
+                System.out.println("Prescription Status: " + data[4]);
+                System.out.println("Treatment Plan: " + data[5]);
+                System.out.println("Date: " + data[6]);
+                System.out.println("Type of Service: " + data[7]);
+                System.out.println("Consultation Notes: " + data[8]);
+                recordFound = true;
             }
             if (!recordFound) {
                 System.out.println("No appointment record found with ID: " + appointmentID);
@@ -101,6 +122,94 @@ public class Administrator {
         }
     }
 
+    /**
+     * Displays hospital-wide reports: appointments per doctor per day, cancellation and decline
+     * rates, booking lead time, prescriptions per medicine and revenue per month.
+     *
+     * @throws IOException               if there is an error reading the data files
+     * @throws RejectedExecutionException if too many reports have been asked for
+     */
+    public void viewHospitalReports() throws IOException {
+        HospitalReport report;
+        AdmissionController.Permit permit = AdmissionController.getInstance().admit(Workload.REPORT, id, AdmissionController.localSource());
+        try (permit) {
+            TraceRecorder.record(TraceOperation.VIEW_REPORTS);
+            report = new ReportEngine().generateReport();
+        }
+
+        System.out.println("\n==== Appointments per Doctor per Day ====");
+        if (report.getAppointmentsPerDoctorPerDay().isEmpty()) {
+            System.out.println("No appointments found.");
+        }
+        report.getAppointmentsPerDoctorPerDay().forEach((doctorID, counts) -> {
+            System.out.println("Doctor ID: " + doctorID);
+            counts.forEach((date, count) -> System.out.printf("  %-10s %d%n", date, count));
+        });
+
+        System.out.println("\n==== Appointment Status Rates ====");
+        System.out.println("Total Appointments: " + report.getTotalAppointments());
+        System.out.printf("Cancellation Rate: %.1f%% (%d)%n", report.getStatusRate(AppointmentStatus.CANCELLED.name()) * 100,
+                report.getAppointmentCount(AppointmentStatus.CANCELLED.name()));
+        System.out.printf("Decline Rate: %.1f%% (%d)%n", report.getStatusRate(AppointmentStatus.DECLINED.name()) * 100,
+                report.getAppointmentCount(AppointmentStatus.DECLINED.name()));
+
+        System.out.println("\n==== Booking Lead Time ====");
+        System.out.printf("Average: %.1f days, Maximum: %d days (over %d appointments)%n",
+                report.getAverageLeadTimeDays(), report.getMaxLeadTimeDays(), report.getLeadTimeCount());
+
+        System.out.println("\n==== Prescriptions per Medicine ====");
+        System.out.printf("%-20s %-15s %-15s%n", "Medicine Name", "Prescriptions", "Total Quantity");
+        report.getPrescriptionsPerMedicine().forEach((medicine, totals) ->
+                System.out.printf("%-20s %-15d %-15d%n", medicine, totals[0], totals[1]));
+
+        System.out.println("\n==== Revenue per Month ====");
+        report.getRevenueCentsPerMonth().forEach((month, cents) ->
+                System.out.printf("%-10s $%d.%02d%n", month, cents / 100, cents % 100));
+    }
+
+    /**
+     * Displays the finance dashboard from the running billing totals, and optionally verifies
+     * the totals against a full rebuild from Bill.csv.
+     */
+    public void viewFinanceDashboard() {
+        BillingLedger ledger = BillingLedger.getInstance();
+        ledger.refresh(); // Other sessions may have billed or paid since the totals were read
+
+        System.out.println("\n==== Finance Dashboard ====");
+        System.out.println("Outstanding (Pending): " + BillingLedger.formatCents(ledger.getTotal(BillStatus.PENDING)));
+        System.out.println("Collected (Paid): " + BillingLedger.formatCents(ledger.getTotal(BillStatus.PAID)));
+        System.out.println("Total Billed: " + BillingLedger.formatCents(ledger.getTotal(BillStatus.PENDING) + ledger.getTotal(BillStatus.PAID)));
+
+        Scanner scanner = new Scanner(System.in);
+        String answer;
+        while (true) {
+            System.out.print("Verify totals against Bill.csv? (Y/N): ");
+            answer = scanner.nextLine().trim().toUpperCase();
+            if (answer.equals("Y") || answer.equals("N")) {
+                break;
+            } else {
+                System.out.println("Invalid input. Please enter 'Y' for Yes or 'N' for No.");
+            }
+        }
+
+        if (answer.equals("Y")) {
+            AdmissionController.Permit permit;
+            try {
+                permit = AdmissionController.getInstance().admit(Workload.BULK, id, AdmissionController.localSource());
+            } catch (RejectedExecutionException e) {
+                System.out.println(e.getMessage());
+                return;
+            }
+            try (permit) {
+                if (ledger.verify(true)) {
+                    System.out.println("Billing totals verified successfully.");
+                } else {
+                    System.out.println("Billing totals did not match Bill.csv and have been rebuilt.");
+                }
+            }
+        }
+    }
+
     /**
      * Adds a new staff member to the system and creates a corresponding user entry.
      *
@@ -112,19 +221,17 @@ public class Administrator {
      * @throws IOException if there is an error writing to the file
      */
     public void addStaff(String id, String name, String role, String gender, int age) throws IOException {
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(STAFF_FILE_PATH, true))) {
-            bw.write(id + "," + name + "," + role + "," + gender + "," + age);
-            bw.newLine();  // Add a newline at the end
-            System.out.println("Staff member added successfully.");
-        }
-
-        // Add corresponding entry to User.csv
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(USER_FILE_PATH, true))) {
-            String defaultPassword = "password"; // Define a default password
-            bw.write(id + "," + defaultPassword + "," + role + "," + name);
-            bw.newLine();
-            //System.out.println("Staff member added successfully.");
+        TraceRecorder.record(TraceOperation.ADD_STAFF, id, name, role, gender, String.valueOf(age));
+        // Add the staff member and the corresponding entry in User.csv together
+        String defaultPassword = "password"; // Define a default password
+        try (Transaction transaction = Storage.getEngine().begin()) {
+            transaction.append(Storage.STAFF, new String[]{id, name, role, gender, String.valueOf(age)});
+            transaction.append(Storage.USER, new String[]{id, defaultPassword, role, name});
+            transaction.commit();
         }
+        // Staff log in to the shard they were added to
+        ShardRouter.getInstance().assign(id, Storage.currentShard().getName());
+        System.out.println("Staff member added successfully.");
     }
 
     /**
@@ -138,46 +245,39 @@ public class Administrator {
      * @throws IOException if there is an error reading or writing to the file
      */
     public void updateStaff(String id, String newName, String newRole, String newGender, int newAge) throws IOException {
-        List<String[]> staffList = readCSV(STAFF_FILE_PATH);
-        boolean staffFound = false;
-
-        // Find the staff member by ID and update details in Staff.csv
-        for (String[] staff : staffList) {
-            if (staff[0].equals(id)) {
-                staff[1] = newName;
-                staff[2] = newRole;
-                staff[3] = newGender;
-                staff[4] = String.valueOf(newAge);
-                staffFound = true;
-                break;
-            }
+        TraceRecorder.record(TraceOperation.UPDATE_STAFF, id, newName, newRole, newGender, String.valueOf(newAge));
+        // Update the staff member and the corresponding entry in User.csv together
+        String[][] staff = new String[1][];
+        String[][] user = new String[1][];
+        try (Transaction transaction = Storage.getEngine().begin()) {
+            transaction.update(Storage.STAFF, id, fields -> {
+                if (staff[0] == null) {
+                    staff[0] = fields.clone();
+                    fields[1] = newName;
+                    fields[2] = newRole;
+                    fields[3] = newGender;
+                    fields[4] = String.valueOf(newAge);
+                }
+                return fields;
+            });
+            transaction.update(Storage.USER, id, fields -> {
+                if (user[0] == null) {
+                    user[0] = fields.clone();
+                    fields[2] = newRole;
+                    fields[3] = newName;
+                }
+                return fields;
+            });
+            transaction.commit();
         }
 
-        if (staffFound) {
-            writeStaffCSV(staffList, STAFF_FILE_PATH);
+        if (staff[0] != null) {
             System.out.println("Staff member updated successfully.");
         } else {
             System.out.println("Staff member with ID " + id + " not found.");
         }
-
-        // Update corresponding entry in User.csv
-        List<String[]> userList = readCSV(USER_FILE_PATH);
-        boolean userFound = false;
-
-        for (String[] user : userList) {
-            if (user[0].equals(id)) {
-                user[2] = newRole;
-                user[3] = newName;
-                userFound = true;
-                break;
-            }
-        }
-
-        if (userFound) {
-            writeUserCSV(userList, USER_FILE_PATH);
-            //System.out.println("Staff member updated successfully.");
-        } else {
-            //System.out.println("Staff member with ID " + id + " not found.");
+        if (user[0] != null) {
+            SessionCache.getInstance().invalidate(id);
         }
     }
 
@@ -188,63 +288,53 @@ public class Administrator {
      * @throws IOException if there is an error reading or writing to the file
      */
     public void removeStaff(String id) throws IOException {
-        List<String[]> staffList = readCSV(STAFF_FILE_PATH);
-        boolean staffFound = false;
-
-        // Find and remove the staff member by ID in Staff.csv
-        for (int i = 0; i < staffList.size(); i++) {
-            if (staffList.get(i)[0].equals(id)) {
-                staffList.remove(i);
-                staffFound = true;
-                break;
-            }
+        TraceRecorder.record(TraceOperation.REMOVE_STAFF, id);
+        // Remove the staff member and the corresponding entry in User.csv together
+        boolean[] staffFound = new boolean[1];
+        boolean[] userFound = new boolean[1];
+        try (Transaction transaction = Storage.getEngine().begin()) {
+            transaction.update(Storage.STAFF, id, fields -> {
+                if (staffFound[0]) {
+                    return fields;
+                }
+                staffFound[0] = true;
+                return null;
+            });
+            transaction.update(Storage.USER, id, fields -> {
+                if (userFound[0]) {
+                    return fields;
+                }
+                userFound[0] = true;
+                return null;
+            });
+            transaction.commit();
         }
 
-        if (staffFound) {
-            writeStaffCSV(staffList, STAFF_FILE_PATH);
+        if (staffFound[0]) {
             System.out.println("Staff member removed from successfully.");
         } else {
             System.out.println("Staff member with ID " + id + " not found in.");
         }
-
-        // Remove corresponding entry in User.csv
-        List<String[]> userList = readCSV(USER_FILE_PATH);
-        boolean userFound = false;
-
-        for (int i = 0; i < userList.size(); i++) {
-            if (userList.get(i)[0].equals(id)) {
-                userList.remove(i);
-                userFound = true;
-                break;
-            }
-        }
-
-        if (userFound) {
-            writeUserCSV(userList, USER_FILE_PATH);
-            //System.out.println("Staff member removed successfully.");
-        } else {
-            //System.out.println("Staff member with ID " + id + " not found.");
+        if (userFound[0]) {
+            SessionCache.getInstance().invalidate(id);
         }
     }
 
 
     /**
-     * Displays the medication inventory from the CSV file.
+     * Retrieves one page of the medication inventory from the Medicine_List table.
      *
-     * @throws IOException if there is an error reading the file
+     * @param cursor   The cursor returned with the previous page, or null for the first page
+     * @param pageSize The maximum number of medicines on the page
+     * @return The page of medicine stock levels in file order, or an empty page if the file cannot be read
      */
-    public void viewMedicationInventory() throws IOException {
-        try (BufferedReader br = new BufferedReader(new FileReader(MEDICINE_FILE_PATH))) {
-            String line;
-            boolean isFirstLine = true; // To skip the header line
-            System.out.println("Medication Inventory:");
-            while ((line = br.readLine()) != null) {
-                if (isFirstLine) {
-                    isFirstLine = false;
-                    continue; // Skip header
-                }
-                System.out.println(line);
-            }
+    public Page<MedicineStock> getMedicationInventory(String cursor, int pageSize) {
+        TraceRecorder.record(TraceOperation.LIST_INVENTORY, cursor, String.valueOf(pageSize));
+        try {
+            return Storage.table(Storage.MEDICINE_LIST).scan(cursor, pageSize, medicine -> true).map(MedicineStock::fromFields);
+        } catch (IOException e) {
+            System.err.println("Error reading Medicine_List.csv: " + e.getMessage());
+            return Page.empty();
         }
     }
 
@@ -256,19 +346,8 @@ public class Administrator {
      * @throws IOException if there is an error reading or writing to the file
      */
     public void updateMedicationStock(String medicineName, int newStockLevel) throws IOException {
-        List<String[]> medicineList = readCSV(MEDICINE_FILE_PATH);
-        boolean medicineFound = false;
-
-        for (String[] medicine : medicineList) {
-            if (medicine[0].equalsIgnoreCase(medicineName)) {
-                medicine[1] = String.valueOf(newStockLevel); // Update stock level
-                medicineFound = true;
-                break;
-            }
-        }
-
-        if (medicineFound) {
-            writeMedicineCSV(medicineList, MEDICINE_FILE_PATH);
+        TraceRecorder.record(TraceOperation.UPDATE_STOCK, medicineName, String.valueOf(newStockLevel));
+        if (updateMedicine(medicineName, medicine -> medicine[1] = String.valueOf(newStockLevel))) { // Update stock level
             System.out.println("Stock level for " + medicineName + " updated to " + newStockLevel);
         } else {
             System.out.println("Medication " + medicineName + " not found.");
@@ -283,19 +362,8 @@ public class Administrator {
      * @throws IOException if there is an error reading or writing to the file
      */
     public void updateLowStockLevel(String medicineName, int newLowStockLevel) throws IOException {
-        List<String[]> medicineList = readCSV(MEDICINE_FILE_PATH);
-        boolean medicineFound = false;
-
-        for (String[] medicine : medicineList) {
-            if (medicine[0].equalsIgnoreCase(medicineName)) {
-                medicine[2] = String.valueOf(newLowStockLevel); // Update low stock level
-                medicineFound = true;
-                break;
-            }
-        }
-
-        if (medicineFound) {
-            writeMedicineCSV(medicineList, MEDICINE_FILE_PATH);
+        TraceRecorder.record(TraceOperation.UPDATE_LOW_STOCK_LEVEL, medicineName, String.valueOf(newLowStockLevel));
+        if (updateMedicine(medicineName, medicine -> medicine[2] = String.valueOf(newLowStockLevel))) { // Update low stock level
             System.out.println("Low stock level for " + medicineName + " updated to " + newLowStockLevel);
         } else {
             System.out.println("Medication " + medicineName + " not found.");
@@ -303,95 +371,27 @@ public class Administrator {
     }
 
     /**
-     * Reads data from a CSV file and converts it into a list of string arrays.
-     * Each array represents a row in the CSV file, with its elements corresponding to the columns.
-     *
-     * @param filePath The path to the CSV file to be read
-     * @return A list of string arrays, where each array represents a row in the CSV file
-     * @throws IOException if there is an error reading the file
-     */
-    private List<String[]> readCSV(String filePath) throws IOException {
-        List<String[]> staffList = new ArrayList<>();
-        try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
-            String line;
-            boolean isFirstLine = true; // Skip the header
-
-            while ((line = br.readLine()) != null) {
-                if (isFirstLine) {
-                    isFirstLine = false;
-                    continue; // Skip the header
-                }
-                String[] staff = line.split(",");
-                staffList.add(staff);
-            }
-        }
-        return staffList;
-    }
-
-    /**
-     * Writes an updated list of medicines back to a CSV file.
-     * The method ensures the file includes the correct header and updated content.
+     * Changes the first medication whose name matches, ignoring case, in Medicine_List.csv. The
+     * table is read and rewritten in one transaction, run again if another session changed the
+     * table in between, so no other change to the inventory is lost.
      *
-     * @param medicineList A list of string arrays representing the updated medicine data
-     * @param filePath     The path to the CSV file to be updated
-     * @throws IOException if there is an error writing to the file
+     * @param medicineName The name of the medication
+     * @param change       Changes the medication's row in place
+     * @return true if the medication was found and changed; false otherwise
+     * @throws IOException if there is an error reading or writing the table
      */
-    private void writeMedicineCSV(List<String[]> medicineList, String filePath) throws IOException {
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(filePath))) {
-            // Write header first for the medicine list
-            bw.write("Medicine Name,Initial Stock,Low Stock Level Alert");
-            bw.newLine();
-
-            // Write the rest of the medicine list
+    private boolean updateMedicine(String medicineName, Consumer<String[]> change) throws IOException {
+        return Storage.inTransaction(transaction -> {
+            List<String[]> medicineList = transaction.read(Storage.MEDICINE_LIST);
             for (String[] medicine : medicineList) {
-                bw.write(String.join(",", medicine));
-                bw.newLine();
-            }
-        }
-    }
-
-    /**
-     * Writes an updated list of staff members back to a CSV file.
-     * The method ensures the file includes the correct header and updated content.
-     *
-     * @param staffList A list of string arrays representing the updated staff data
-     * @param filePath  The path to the CSV file to be updated
-     * @throws IOException if there is an error writing to the file
-     */
-    private void writeStaffCSV(List<String[]> staffList, String filePath) throws IOException {
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(filePath))) {
-            // Write header first for the staff list
-            bw.write("Staff ID,Name,Role,Gender,Age");
-            bw.newLine();
-
-            // Write the rest of the staff list
-            for (String[] staff : staffList) {
-                bw.write(String.join(",", staff));
-                bw.newLine();
-            }
-        }
-    }
-
-    /**
-     * Writes an updated list of users back to the User CSV file.
-     * The method ensures the file includes the correct header and updated content.
-     *
-     * @param userList A list of string arrays representing the updated user data
-     * @param filePath The path to the User CSV file to be updated
-     * @throws IOException if there is an error writing to the file
-     */
-    private void writeUserCSV(List<String[]> userList, String filePath) throws IOException {
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(filePath))) {
-            // Write header first for the user list
-            bw.write("ID,Password,Role,Name");
-            bw.newLine();
-
-            // Write the rest of the user list
-            for (String[] user : userList) {
-                bw.write(String.join(",", user));
-                bw.newLine();
+                if (medicine[0].equalsIgnoreCase(medicineName)) {
+                    change.accept(medicine);
+                    transaction.rewrite(Storage.MEDICINE_LIST, medicineList);
+                    return true;
+                }
             }
-        }
+            return false;
+        });
     }
 
     /**
@@ -399,38 +399,13 @@ public class Administrator {
      * Updates the replenishment request file and medication stock levels accordingly.
      */
     public void approveReplenishmentRequests() {
-        List<String[]> replenishmentRequests = new ArrayList<>();
-        List<String[]> updatedRequests = new ArrayList<>();
-        Map<String, Integer> medicineStock = loadMedicineStock();
-
-        // Load pending replenishment requests
-        try (BufferedReader reader = new BufferedReader(new FileReader(REPLENISHMENT_REQUEST_FILE))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] data = line.split(",");
-                if (data[3].equalsIgnoreCase(PrescriptionStatus.PENDING.name())) {
-                    replenishmentRequests.add(data);
-                }
-                updatedRequests.add(data); // Store for later updates
-            }
-        } catch (IOException e) {
-            System.err.println("Error reading ReplenishmentRequest.csv: " + e.getMessage());
-            return;
-        }
-
-        // Process each pending request
         Scanner scanner = new Scanner(System.in);
-        for (String[] request : replenishmentRequests) {
-            String requestId = request[0];
-            String medicineName = request[1];
-            int quantity = Integer.parseInt(request[2]);
-            String status = request[3];
-
+        processReplenishmentRequests(request -> {
             System.out.println("\nReplenishment Request:");
-            System.out.println("Request ID: " + requestId);
-            System.out.println("Medicine: " + medicineName);
-            System.out.println("Quantity: " + quantity);
-            System.out.println("Status: " + status);
+            System.out.println("Request ID: " + request[0]);
+            System.out.println("Medicine: " + request[1]);
+            System.out.println("Quantity: " + request[2]);
+            System.out.println("Status: " + request[3]);
 
             // Prompt for approval
             String approval;
@@ -443,90 +418,109 @@ public class Administrator {
                     System.out.println("Invalid input. Please enter 'Y' for Yes or 'N' for No.");
                 }
             }
+            return approval.equals("Y");
+        });
+    }
 
-            if (approval.equals("Y")) {
-                request[3] = ReplenishmentRequestStatus.APPROVED.name(); // Update status to approved
-
-                // Update the medicine stock by adding the requested quantity to the original stock
-                if (medicineStock.containsKey(medicineName)) {
-                    int currentStock = medicineStock.get(medicineName);
-                    medicineStock.put(medicineName, currentStock + quantity);// Add replenishment quantity
-                    System.out.println("Request approved successfully for " + medicineName + " with quantity " + quantity + ".");
-                } else {
-                    System.out.println("Medicine " + medicineName + " not found in the stock list.");
-                }
-            }
-        }
-
-        // Write updated requests back to ReplenishmentRequest.csv
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(REPLENISHMENT_REQUEST_FILE))) {
-            for (String[] data : updatedRequests) {
-                writer.write(String.join(",", data));
-                writer.newLine();
-            }
-        } catch (IOException e) {
-            System.err.println("Error writing to ReplenishmentRequest.csv: " + e.getMessage());
+    /**
+     * Approves every pending replenishment request without prompting.
+     *
+     * @return The number of requests approved
+     * @throws RejectedExecutionException if too many bulk operations have been asked for
+     */
+    public int approvePendingReplenishmentRequests() {
+        AdmissionController.Permit permit = AdmissionController.getInstance().admit(Workload.BULK, id, AdmissionController.localSource());
+        try (permit) {
+            return processReplenishmentRequests(request -> true);
         }
-
-        // Write updated stock back to Medicine_List.csv
-        saveUpdatedMedicineStock(medicineStock);
     }
 
     /**
-     * Loads the current stock of medications from the CSV file into a map.
+     * Approves the given pending replenishment requests without prompting.
      *
-     * @return A map containing medication names as keys and stock levels as values
+     * @param requestIDs The IDs of the requests to approve
+     * @return The number of requests approved
+     * @throws RejectedExecutionException if too many bulk operations have been asked for
      */
-    private Map<String, Integer> loadMedicineStock() {
-        Map<String, Integer> stock = new HashMap<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader(MEDICINE_FILE_PATH))) {
-            String line;
-            reader.readLine(); // Skip header line
-            while ((line = reader.readLine()) != null) {
-                String[] data = line.split(",");
-                String medicineName = data[0].trim();
-                int initialStock = Integer.parseInt(data[1].trim());
-                stock.put(medicineName, initialStock);
-            }
-        } catch (IOException e) {
-            System.err.println("Error reading Medicine_List.csv: " + e.getMessage());
+    public int approveReplenishmentRequests(Collection<String> requestIDs) {
+        AdmissionController.Permit permit = AdmissionController.getInstance().admit(Workload.BULK, id, AdmissionController.localSource());
+        try (permit) {
+            return processReplenishmentRequests(request -> requestIDs.contains(request[0]));
         }
-        return stock;
     }
 
     /**
-     * Saves the updated stock levels of medications back to the CSV file.
+     * Offers each pending replenishment request for approval, then writes the approved requests
+     * back to ReplenishmentRequest.csv and adds their quantities to the medication stock.
      *
-     * @param medicineStock A map containing updated medication stock levels
+     * @param approval Decides whether a pending request row is approved
+     * @return The number of requests approved
      */
-    private void saveUpdatedMedicineStock(Map<String, Integer> medicineStock) {
-        List<String[]> updatedStock = new ArrayList<>();
-
-        // Read existing data and update stock values
-        try (BufferedReader reader = new BufferedReader(new FileReader(MEDICINE_FILE_PATH))) {
-            String line;
-            updatedStock.add(reader.readLine().split(",")); // Add header
-            while ((line = reader.readLine()) != null) {
-                String[] data = line.split(",");
-                String medicineName = data[0].trim();
-                if (medicineStock.containsKey(medicineName)) {
-                    data[1] = String.valueOf(medicineStock.get(medicineName)); // Update stock value by adding replenishment quantity
+    private int processReplenishmentRequests(Predicate<String[]> approval) {
+        List<String[]> chosen = new ArrayList<>();
+
+        // Offer each pending replenishment request for approval
+        try {
+            for (String[] data : Storage.table(Storage.REPLENISHMENT_REQUEST).readAll()) {
+                if (data[3].equalsIgnoreCase(PrescriptionStatus.PENDING.name()) && approval.test(data.clone())) {
+                    chosen.add(data);
                 }
-                updatedStock.add(data);
             }
         } catch (IOException e) {
-            System.err.println("Error reading Medicine_List.csv for updates: " + e.getMessage());
-            return;
+            System.err.println("Error reading ReplenishmentRequest.csv: " + e.getMessage());
+            return 0;
+        }
+        if (chosen.isEmpty()) {
+            return 0;
         }
 
-        // Write the updated data back to Medicine_List.csv
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(MEDICINE_FILE_PATH))) {
-            for (String[] data : updatedStock) {
-                writer.write(String.join(",", data));
-                writer.newLine();
+        // Approve the requests and add their quantities to the stock together. Each change is made
+        // to the row as it is at commit, so stock taken by a concurrent dispensing is not lost.
+        Set<String> stocked = new HashSet<>();
+        try (Transaction transaction = Storage.getEngine().begin()) {
+            for (String[] request : chosen) {
+                String requestID = request[0];
+                int quantity = Integer.parseInt(request[2]);
+                // Older request IDs were random and may be shared, so only the row offered is approved
+                boolean[] approvedRow = new boolean[1];
+                transaction.update(Storage.REPLENISHMENT_REQUEST, requestID, data -> {
+                    if (approvedRow[0] || !Arrays.equals(data, request)) {
+                        return data;
+                    }
+                    approvedRow[0] = true;
+                    data[3] = ReplenishmentRequestStatus.APPROVED.name(); // Update status to approved
+                    return data;
+                });
+                transaction.update(Storage.MEDICINE_LIST, request[1], data -> {
+                    // The requests are updated first; the row offered is gone if another session approved it
+                    if (!approvedRow[0]) {
+                        throw new WriteConflictException(Storage.REPLENISHMENT_REQUEST, "Request " + requestID + " is no longer pending");
+                    }
+                    // Add the replenishment quantity to the stock as it is now
+                    data[1] = String.valueOf(Integer.parseInt(data[1].trim()) + quantity);
+                    stocked.add(requestID);
+                    return data;
+                });
             }
+            transaction.commit();
+        } catch (WriteConflictException e) {
+            System.out.println(e.getMessage() + "; the requests were changed by another session. Please try again.");
+            return 0;
         } catch (IOException e) {
-            System.err.println("Error writing to Medicine_List.csv: " + e.getMessage());
+            System.err.println("Error writing to ReplenishmentRequest.csv: " + e.getMessage());
+            return 0;
+        }
+
+        List<String> approved = new ArrayList<>();
+        for (String[] request : chosen) {
+            approved.add(request[0]);
+            if (stocked.contains(request[0])) {
+                System.out.println("Request approved successfully for " + request[1] + " with quantity " + request[2] + ".");
+            } else {
+                System.out.println("Medicine " + request[1] + " not found in the stock list.");
+            }
         }
+        TraceRecorder.record(TraceOperation.APPROVE_REPLENISHMENT, approved.toArray(new String[0]));
+        return approved.size();
     }
 }
\ No newline at end of file
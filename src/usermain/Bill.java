@@ -0,0 +1,139 @@
+package usermain;
+
+import appointment.Appointment;
+import appointment.DoctorScheduleIndex;
+import enums.BillStatus;
+
+/**
+ * The Bill class is an immutable view of one bill: a row of Bill.csv, marked paid if a payment
+ * for it is recorded in BillPayment.csv. A bill names the patient and the appointment day it is
+ * billed to, as they were when it was generated; for rows written before bills held them, they
+ * are taken from the {@link DoctorScheduleIndex}.
+ */
+public final class Bill {
+    private final String appointmentID;
+    private final long amountCents;
+    private final BillStatus status;
+    private final String feedback;
+    private final String patientID;
+    private final String date;
+
+    /**
+     * Constructs a new Bill with the provided details.
+     *
+     * @param appointmentID The ID of the billed appointment
+     * @param amountCents   The bill amount in cents
+     * @param status        The bill status
+     * @param feedback      The feedback left with the payment
+     * @param patientID     The ID of the billed patient, or null if unknown
+     * @param date          The appointment date in DD-MM-YY format, or null if unknown
+     */
+    public Bill(String appointmentID, long amountCents, BillStatus status, String feedback, String patientID, String date) {
+        this.appointmentID = appointmentID;
+        this.amountCents = amountCents;
+        this.status = status;
+        this.feedback = feedback;
+        this.patientID = patientID;
+        this.date = date;
+    }
+
+    /**
+     * Creates a Bill from the fields of a row in Bill.csv.
+     *
+     * @param fields The split fields of the row
+     * @return The bill, or null if the row is malformed
+     */
+    public static Bill fromFields(String[] fields) {
+        if (fields.length < 3) {
+            return null;
+        }
+        String patientID = fields.length > 5 && !fields[4].isEmpty() ? fields[4] : null;
+        String date = fields.length > 5 && !fields[5].isEmpty() ? fields[5] : null;
+        if (patientID == null) {
+            Appointment appointment = DoctorScheduleIndex.getInstance().get(fields[0]);
+            if (appointment != null) {
+                patientID = appointment.getPatientID();
+                date = appointment.getDate();
+            }
+        }
+        try {
+            return new Bill(fields[0], BillingLedger.toCents(fields[1]), BillStatus.valueOf(fields[2].trim().toUpperCase()),
+                    fields.length > 3 ? fields[3] : "", patientID, date);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns this bill paid with the given feedback.
+     *
+     * @param paymentFeedback The feedback left with the payment
+     * @return The paid bill
+     */
+    public Bill paid(String paymentFeedback) {
+        return new Bill(appointmentID, amountCents, BillStatus.PAID, paymentFeedback, patientID, date);
+    }
+
+    /**
+     * Gets the ID of the billed appointment.
+     *
+     * @return The appointment ID
+     */
+    public String getAppointmentID() {
+        return appointmentID;
+    }
+
+    /**
+     * Gets the ID of the billed patient.
+     *
+     * @return The patient ID, or null if the appointment is unknown
+     */
+    public String getPatientID() {
+        return patientID;
+    }
+
+    /**
+     * Gets the date of the billed appointment.
+     *
+     * @return The date in DD-MM-YY format, or null if the appointment is unknown
+     */
+    public String getDate() {
+        return date;
+    }
+
+    /**
+     * Gets the bill amount.
+     *
+     * @return The amount in cents
+     */
+    public long getAmountCents() {
+        return amountCents;
+    }
+
+    /**
+     * Gets the bill status.
+     *
+     * @return The status
+     */
+    public BillStatus getStatus() {
+        return status;
+    }
+
+    /**
+     * Gets the feedback left with the payment.
+     *
+     * @return The feedback, "na" or empty if none was left
+     */
+    public String getFeedback() {
+        return feedback;
+    }
+
+    /**
+     * Checks whether the bill is still to be paid.
+     *
+     * @return true if the bill is pending; false otherwise
+     */
+    public boolean isOutstanding() {
+        return status == BillStatus.PENDING;
+    }
+}
@@ -0,0 +1,142 @@
+package usermain;
+
+import appointment.Appointment;
+import enums.BillStatus;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import storage.Storage;
+import storage.Transaction;
+
+/**
+ * The BillBatch class bills dispensed prescriptions in batches. Bills are priced from the
+ * {@link MedicineCatalog} in exact whole cents and held in a bounded buffer; when the buffer is
+ * full, and when the batch is flushed or closed, the buffered bills are appended to Bill.csv in
+ * one write, forced to disk once, together with their changes to the {@link BillingLedger}
+ * totals, and added to the patients' statements in the {@link PatientBillIndex}. Each bill names
+ * the patient and the day of its appointment.
+ *
+ * <pre>
+ * try (BillBatch batch = new BillBatch()) {
+ *     for (String[] prescription : dispensed) {
+ *         batch.add(prescription[0], prescription[2], Integer.parseInt(prescription[3]));
+ *     }
+ * }
+ * </pre>
+ */
+public final class BillBatch implements AutoCloseable {
+    /**
+     * The number of bills buffered before they are written, unless given otherwise.
+     */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private static final String NO_FEEDBACK = "na";
+
+    private final int capacity;
+    private final List<String[]> bills;
+    private int written;
+
+    /**
+     * Constructs a batch with the default capacity.
+     */
+    public BillBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs a batch.
+     *
+     * @param capacity The number of bills buffered before they are written
+     */
+    public BillBatch(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("A bill batch needs a capacity of at least 1");
+        }
+        this.capacity = capacity;
+        this.bills = new ArrayList<>(Math.min(capacity, DEFAULT_CAPACITY));
+    }
+
+    /**
+     * Bills a dispensed prescription, writing the buffered bills if the buffer is full. A
+     * medicine missing from the catalog is billed at no charge.
+     *
+     * @param appointmentID      The ID of the appointment the prescription belongs to
+     * @param prescribedMedicine The name of the prescribed medicine
+     * @param prescribedQuantity The quantity dispensed
+     * @return The bill amount in cents
+     * @throws IOException if the buffered bills cannot be written
+     */
+    public long add(String appointmentID, String prescribedMedicine, int prescribedQuantity) throws IOException {
+        MedicineCatalog.Medicine medicine = MedicineCatalog.getInstance().get(prescribedMedicine);
+        long amountCents = medicine != null ? toCents(medicine.getUnitPriceMills(), prescribedQuantity) : 0;
+        // The appointment is read from storage, as another session may have booked or moved it
+        String[] fields = Storage.history(Storage.APPOINTMENT).find(appointmentID);
+        Appointment appointment = fields != null ? Appointment.fromFields(fields) : null;
+        bills.add(new String[]{appointmentID, BillingLedger.toAmount(amountCents), BillStatus.PENDING.name(), NO_FEEDBACK,
+                appointment != null ? appointment.getPatientID() : "", appointment != null ? appointment.getDate() : ""});
+        if (bills.size() >= capacity) {
+            flush();
+        }
+        return amountCents;
+    }
+
+    /**
+     * Writes the buffered bills to Bill.csv in one append, forced to disk, together with their
+     * changes to the stored billing totals, and adds them to the running totals.
+     *
+     * @throws IOException if the bills cannot be written; they stay buffered
+     */
+    public void flush() throws IOException {
+        if (bills.isEmpty()) {
+            return;
+        }
+        List<Bill> flushed = new ArrayList<>();
+        for (String[] bill : bills) {
+            flushed.add(Bill.fromFields(bill));
+        }
+        // Load the ledger before the bills are written, or its first load would include them
+        BillingLedger ledger = BillingLedger.getInstance();
+        try (Transaction transaction = Storage.getEngine().begin()) {
+            for (String[] bill : bills) {
+                transaction.append(Storage.BILL, bill);
+            }
+            ledger.appendBills(transaction, flushed);
+            transaction.syncOnCommit();
+            transaction.commit();
+        }
+        ledger.recordBills(flushed);
+        written += bills.size();
+        bills.clear();
+    }
+
+    /**
+     * Gets the number of bills written so far.
+     *
+     * @return The number of bills written
+     */
+    public int getWrittenCount() {
+        return written;
+    }
+
+    /**
+     * Writes any bills still buffered.
+     *
+     * @throws IOException if the bills cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    /**
+     * Prices a quantity of a medicine in whole cents, rounding half a cent up.
+     *
+     * @param unitPriceMills The unit price in mills
+     * @param quantity       The quantity
+     * @return The amount in cents
+     * @throws ArithmeticException if the amount overflows
+     */
+    public static long toCents(long unitPriceMills, int quantity) {
+        return (Math.multiplyExact(unitPriceMills, quantity) + 5) / 10;
+    }
+}
@@ -1,10 +1,12 @@
 package usermain;
 
-import enums.BillStatus;
-import java.io.*;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.function.Function;
+import trace.TraceOperation;
+import trace.TraceRecorder;
 
 /**
  * Handles billing operations for patients in the Hospital Management System.
@@ -25,87 +27,108 @@ public class Billing {
         this.sc = new Scanner(System.in);
     }
 
+    /**
+     * Gets the patient's billing statement: the bills of their completed appointments, outstanding
+     * and paid, with their totals.
+     *
+     * @return The statement
+     */
+    public BillingStatement getStatement() {
+        return PatientBillIndex.getInstance().getStatement(patientID);
+    }
+
     /**
      * Processes billing for the patient's completed appointments.
-     * It identifies pending bills, prompts the user for payment,
-     * updates the billing records, and collects feedback.
+     * It offers each outstanding bill for payment and collects feedback on the ones paid,
+     * then records all the payments together.
      */
     public void processBilling() {
-        List<String> billRecords = new ArrayList<>();
-        boolean hasPendingBills = false;
-
-        try (BufferedReader appointmentReader = new BufferedReader(new FileReader("resources/Appointment.csv"));
-             BufferedReader billReader = new BufferedReader(new FileReader("resources/Bill.csv"))) {
-
-            String line;
-
-            // Read Appointment.csv to find completed appointments for the patient
-            List<String> completedAppointments = new ArrayList<>();
-            while ((line = appointmentReader.readLine()) != null) {
-                String[] fields = line.split(",");
-                String appointmentID = fields[0];
-                String appointmentPatientID = fields[2];
-                String status = fields[5];
-
-                // Check if appointment is completed and matches the patient ID
-                if (appointmentPatientID.equals(patientID) && status.equalsIgnoreCase("completed")) {
-                    completedAppointments.add(appointmentID);
-                }
+        int pendingBills = settleBills(bill -> {
+            System.out.println("\n==== Billing Information ====");
+            System.out.println("Appointment ID: " + bill.getAppointmentID());
+            System.out.println("Bill Amount: " + BillingLedger.formatCents(bill.getAmountCents()));
+            System.out.println("Current Status: " + bill.getStatus());
+
+            // Prompt user to pay the bill
+            int payChoice = getInputChoice("Would you like to pay this bill now? (1: Yes, 2: No): ");
+            if (payChoice != 1) {
+                return null;
             }
 
-            // Read Bill.csv and update records only for pending bills of completed appointments
-            while ((line = billReader.readLine()) != null) {
-                String[] billFields = line.split(",");
-                String billAppointmentID = billFields[0];
-                String billAmount = billFields[1];
-                String billStatus = billFields[2];
-                String feedback = billFields.length > 3 ? billFields[3] : ""; // Feedback might be empty initially
-
-                // Process only if the appointment is completed and bill status is pending
-                if (completedAppointments.contains(billAppointmentID) && billStatus.equalsIgnoreCase(BillStatus.PENDING.name())) {
-                    hasPendingBills = true;
-                    System.out.println("\n==== Billing Information ====");
-                    System.out.println("Appointment ID: " + billAppointmentID);
-                    System.out.println("Bill Amount: $" + billAmount);
-                    System.out.println("Current Status: " + billStatus);
+            // Prompt user for feedback
+            String feedback = getValidFeedback();
 
-                    // Prompt user to pay the bill
-                    int payChoice = getInputChoice("Would you like to pay this bill now? (1: Yes, 2: No): ");
-                    if (payChoice == 1) {
-                        billStatus = BillStatus.PAID.name();
+            // Confirmation message for successful payment and feedback
+            System.out.println("Bill paid successfully. Thank you for your feedback!");
+            return feedback;
+        });
 
-                        // Prompt user for feedback
-                        feedback = getValidFeedback();
+        // If no pending bills are found, inform the user
+        if (pendingBills == 0) {
+            System.out.println("No pending bills for completed appointments.");
+        }
+    }
 
-                        // Confirmation message for successful payment and feedback
-                        System.out.println("Bill paid successfully. Thank you for your feedback!");
-                    }
+    /**
+     * Pays every pending bill of the patient's completed appointments without prompting,
+     * leaving the same feedback on each.
+     *
+     * @param feedback The feedback to record with each payment
+     * @return The number of bills paid
+     */
+    public int payPendingBills(String feedback) {
+        return settleBills(bill -> feedback);
+    }
 
-                    // Reconstruct the line with updated data
-                    billRecords.add(billAppointmentID + "," + billAmount + "," + billStatus + "," + feedback);
-                } else {
-                    // Keep the line unchanged for non-matching records or already paid bills
-                    billRecords.add(line);
-                }
+    /**
+     * Pays the pending bill of one of the patient's completed appointments without prompting.
+     *
+     * @param appointmentID The ID of the appointment the bill is for
+     * @param feedback      The feedback to record with the payment
+     * @return true if the bill was pending and has been paid; false otherwise
+     */
+    public boolean payBill(String appointmentID, String feedback) {
+        boolean[] paid = {false};
+        settleBills(bill -> {
+            if (paid[0] || !bill.getAppointmentID().equals(appointmentID)) {
+                return null;
             }
+            paid[0] = true;
+            return feedback;
+        });
+        return paid[0];
+    }
 
-            // If no pending bills are found, inform the user
-            if (!hasPendingBills) {
-                System.out.println("No pending bills for completed appointments.");
-                return;
+    /**
+     * Offers each outstanding bill on the patient's statement for payment, then records the
+     * payments of all the bills paid in one append to BillPayment.csv and moves their amounts
+     * from pending to paid in the running totals.
+     *
+     * @param payment Given an outstanding bill, returns the feedback to pay it with, or null to
+     *                leave it pending
+     * @return The number of pending bills offered
+     */
+    private int settleBills(Function<Bill, String> payment) {
+        BillingStatement statement = getStatement();
+        Map<Bill, String> payments = new LinkedHashMap<>();
+        for (Bill bill : statement.getOutstanding()) {
+            String feedback = payment.apply(bill);
+            if (feedback != null) {
+                payments.put(bill, feedback);
             }
+        }
+        if (payments.isEmpty()) {
+            return statement.getOutstanding().size();
+        }
 
-            // Write the modified records back to Bill.csv
-            try (BufferedWriter writer = new BufferedWriter(new FileWriter("resources/Bill.csv"))) {
-                for (String record : billRecords) {
-                    writer.write(record);
-                    writer.newLine();
-                }
+        try {
+            for (Bill paidBill : PatientBillIndex.getInstance().pay(payments)) {
+                TraceRecorder.record(TraceOperation.PAY_BILL, patientID, paidBill.getAppointmentID(), paidBill.getFeedback());
             }
-
         } catch (IOException e) {
             System.err.println("Error processing billing: " + e.getMessage());
         }
+        return statement.getOutstanding().size();
     }
 
     /**
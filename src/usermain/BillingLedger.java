@@ -0,0 +1,571 @@
+package usermain;
+
+import enums.BillStatus;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import paging.Page;
+import storage.Storage;
+import storage.Table;
+import storage.Transaction;
+
+/**
+ * The BillingLedger class keeps running billing totals in fixed-point cents: overall totals by
+ * bill status, and totals per patient and per appointment day, taken from each bill's own
+ * patient and date. BillAggregates.csv holds the totals as rows of changes, which are added up
+ * when it is read: bills and payments append the changes they make in the same transaction as
+ * the bills and payments themselves, so the stored totals never miss or repeat one, and the
+ * finance dashboard can read them without scanning Bill.csv. A verification mode rebuilds the
+ * totals from Bill.csv and BillPayment.csv and compares them with the stored ones.
+ *
+ * <p>Whenever the change rows are added up into one row per total, the rows start with an epoch
+ * row naming that rewrite. Refreshing the totals reads nothing while the table is unchanged, and
+ * otherwise only adds up the rows appended since the last refresh, reading the table from the
+ * start only if its epoch changed.</p>
+ *
+ * <pre>
+ * BillingLedger ledger = BillingLedger.getInstance();
+ * try (Transaction transaction = Storage.getEngine().begin()) {
+ *     ...
+ *     ledger.appendBills(transaction, bills);
+ *     transaction.commit();
+ * }
+ * ledger.recordBills(bills);
+ * </pre>
+ */
+public class BillingLedger {
+    private static final String SCOPE_TOTAL = "TOTAL";
+    private static final String SCOPE_PATIENT = "PATIENT";
+    private static final String SCOPE_DAY = "DAY";
+    private static final String SCOPE_EPOCH = "EPOCH";
+
+    /**
+     * The number of change rows beyond one per total that BillAggregates.csv may hold before
+     * they are added up into one row per total when the ledger is loaded.
+     */
+    private static final int COMPACTION_SLACK = 1024;
+
+    /**
+     * The number of BillAggregates.csv rows read at a time when refreshing the totals.
+     */
+    private static final int REFRESH_PAGE_SIZE = 256;
+
+    private static final Map<String, BillingLedger> INSTANCES = new ConcurrentHashMap<>();
+
+    private final long[] totals = new long[BillStatus.values().length];
+    private final Map<String, long[]> totalsByPatient = new TreeMap<>();
+    private final Map<String, long[]> totalsByDay = new TreeMap<>();
+
+    // The stored rows added up by refresh(), and the BillAggregates version they were read from
+    private BillingLedger stored;
+    private Object storedVersion;
+
+    // Where the rows added up into this ledger end: the epoch row they started with, the cursor
+    // of the page holding the last of them and how many rows of that page were read
+    private String epoch;
+    private String pageCursor;
+    private int pageOffset;
+    private boolean read;
+
+    /**
+     * Constructs an empty ledger. Use {@link #getInstance()} to obtain the shared ledger.
+     */
+    private BillingLedger() {
+    }
+
+    /**
+     * Returns the current shard's ledger, loading it from BillAggregates.csv on first use. If no
+     * aggregates are stored yet, the totals are rebuilt from Bill.csv and saved, unless a bill or
+     * payment is written meanwhile, in which case the rebuild is run again. Each shard has a
+     * ledger of its own. Get the ledger before writing bills or payments, so that the stored
+     * totals exist before the changes are appended to them.
+     *
+     * @return The current shard's BillingLedger
+     */
+    public static BillingLedger getInstance() {
+        return INSTANCES.computeIfAbsent(Storage.currentShard().getName(), shard -> open(true));
+    }
+
+    /**
+     * Replaces the current shard's ledger with one loaded afresh from BillAggregates.csv, or rebuilt
+     * from Bill.csv if no aggregates are stored. Unlike {@link #getInstance()}, a rebuilt
+     * ledger is not saved.
+     */
+    public static void reload() {
+        INSTANCES.put(Storage.currentShard().getName(), open(false));
+    }
+
+    /**
+     * Loads the stored totals, or rebuilds them if none are stored, in a transaction that reads
+     * BillAggregates.csv.
+     *
+     * @param save Whether to save rebuilt totals, and to add up the change rows once there are
+     *             many of them
+     * @return The ledger, empty if the tables cannot be read
+     */
+    private static BillingLedger open(boolean save) {
+        try {
+            return Storage.inTransaction(transaction -> {
+                BillingLedger ledger = new BillingLedger();
+                List<String[]> rows = transaction.read(Storage.BILL_AGGREGATES);
+                if (rows.isEmpty()) {
+                    ledger = rebuild(transaction);
+                    if (save) {
+                        transaction.rewrite(Storage.BILL_AGGREGATES, ledger.toStoredRows());
+                    }
+                    return ledger;
+                }
+                ledger.load(rows);
+                List<String[]> compacted = ledger.toStoredRows();
+                if (save && (rows.size() > compacted.size() + COMPACTION_SLACK || epochOf(rows.get(0)) == null)) {
+                    transaction.rewrite(Storage.BILL_AGGREGATES, compacted);
+                }
+                return ledger;
+            });
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("Error reading BillAggregates.csv: " + e.getMessage());
+            return new BillingLedger();
+        }
+    }
+
+    /**
+     * Adds to a transaction the changes that newly generated bills make to the stored totals, as
+     * pending amounts. Once the transaction has committed, pass the same bills to
+     * {@link #recordBills(List)}.
+     *
+     * @param transaction The transaction writing the bills
+     * @param bills       The bills
+     */
+    public void appendBills(Transaction transaction, List<Bill> bills) {
+        for (String[] row : billChanges(bills).toRows()) {
+            transaction.append(Storage.BILL_AGGREGATES, row);
+        }
+    }
+
+    /**
+     * Adds newly generated bills, written by a committed transaction, to the totals as pending.
+     *
+     * @param bills The bills
+     */
+    public synchronized void recordBills(List<Bill> bills) {
+        add(billChanges(bills));
+    }
+
+    /**
+     * Adds to a transaction the changes that paying bills makes to the stored totals, moving
+     * their amounts from pending to paid. Once the transaction has committed, pass the same
+     * bills to {@link #recordPayments(List)}.
+     *
+     * @param transaction The transaction writing the payments
+     * @param bills       The bills paid
+     */
+    public void appendPayments(Transaction transaction, List<Bill> bills) {
+        for (String[] row : paymentChanges(bills).toRows()) {
+            transaction.append(Storage.BILL_AGGREGATES, row);
+        }
+    }
+
+    /**
+     * Moves the amounts of bills paid by a committed transaction from pending to paid.
+     *
+     * @param bills The bills paid
+     */
+    public synchronized void recordPayments(List<Bill> bills) {
+        add(paymentChanges(bills));
+    }
+
+    /**
+     * Adds a row of changes appended to BillAggregates.csv elsewhere, such as one received by a
+     * replica.
+     *
+     * @param fields The BillAggregates row
+     */
+    synchronized void addStored(String[] fields) {
+        try {
+            load(Collections.singletonList(fields));
+        } catch (NumberFormatException e) {
+            System.err.println("Error reading BillAggregates.csv: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Gets the total of all bills with a given status.
+     *
+     * @param status The bill status
+     * @return The total in cents
+     */
+    public synchronized long getTotal(BillStatus status) {
+        return totals[status.ordinal()];
+    }
+
+    /**
+     * Gets the total of a patient's bills with a given status.
+     *
+     * @param patientID The unique ID of the patient
+     * @param status    The bill status
+     * @return The total in cents
+     */
+    public synchronized long getPatientTotal(String patientID, BillStatus status) {
+        long[] patientTotals = totalsByPatient.get(patientID);
+        return patientTotals == null ? 0 : patientTotals[status.ordinal()];
+    }
+
+    /**
+     * Gets the total of the bills for appointments on a given day with a given status.
+     *
+     * @param date   The appointment date in DD-MM-YY format
+     * @param status The bill status
+     * @return The total in cents
+     */
+    public synchronized long getDayTotal(String date, BillStatus status) {
+        long[] dayTotals = totalsByDay.get(date);
+        return dayTotals == null ? 0 : dayTotals[status.ordinal()];
+    }
+
+    /**
+     * Gets the totals for every appointment day.
+     *
+     * @return A copy of the totals keyed by date, each indexed by bill status ordinal
+     */
+    public synchronized Map<String, long[]> getDayTotals() {
+        Map<String, long[]> copy = new TreeMap<>();
+        totalsByDay.forEach((date, dayTotals) -> copy.put(date, dayTotals.clone()));
+        return copy;
+    }
+
+    /**
+     * Rebuilds the totals from Bill.csv and compares them with the stored totals, reading both in
+     * one transaction. The ledger takes the stored totals, or the rebuilt ones if they are saved.
+     *
+     * @param repair Whether to replace the stored totals with the rebuilt ones when they differ
+     * @return true if the stored totals match the rebuilt ones; false otherwise
+     */
+    public synchronized boolean verify(boolean repair) {
+        BillingLedger[] current = new BillingLedger[1];
+        boolean matches;
+        try {
+            matches = Storage.inTransaction(transaction -> {
+                BillingLedger stored = new BillingLedger();
+                stored.load(transaction.read(Storage.BILL_AGGREGATES));
+                BillingLedger rebuilt = rebuild(transaction);
+                boolean same = stored.sameTotals(rebuilt);
+                current[0] = stored;
+                if (!same && repair) {
+                    transaction.rewrite(Storage.BILL_AGGREGATES, rebuilt.toStoredRows());
+                    current[0] = rebuilt;
+                }
+                return same;
+            });
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("Error verifying BillAggregates.csv: " + e.getMessage());
+            return false;
+        }
+
+        copyFrom(current[0]);
+        return matches;
+    }
+
+    /**
+     * Reads the stored totals again, picking up the bills and payments other sessions wrote.
+     * Nothing is read if BillAggregates.csv has not been written since the last refresh, and
+     * only the rows appended since then are added up if it has not been compacted either.
+     */
+    public synchronized void refresh() {
+        try {
+            Object version = Storage.currentVersion(Storage.BILL_AGGREGATES);
+            if (stored != null && version.equals(storedVersion)) {
+                return;
+            }
+            Table table = Storage.table(Storage.BILL_AGGREGATES);
+            if (stored == null || !stored.readAppended(table)) {
+                stored = new BillingLedger();
+                stored.readAppended(table);
+            }
+            storedVersion = version;
+        } catch (IOException | IllegalArgumentException e) {
+            stored = null;
+            System.err.println("Error reading BillAggregates.csv: " + e.getMessage());
+            return;
+        }
+        copyFrom(stored);
+    }
+
+    /**
+     * Adds up the rows appended to BillAggregates.csv since this ledger last read it.
+     *
+     * @param table The BillAggregates table
+     * @return true if the rows were read; false, reading none, if the table was compacted since
+     * @throws IOException           if the table cannot be read
+     * @throws NumberFormatException if a row holds an amount that is not a number
+     */
+    private boolean readAppended(Table table) throws IOException {
+        Page<String[]> first = table.scan(null, 1, row -> true);
+        String firstEpoch = first.isEmpty() ? null : epochOf(first.getItems().get(0));
+        if (read && (firstEpoch == null || !firstEpoch.equals(epoch))) {
+            return false;
+        }
+        read = true;
+        epoch = firstEpoch;
+        Page<String[]> page;
+        do {
+            page = table.scan(pageCursor, REFRESH_PAGE_SIZE, row -> true);
+            List<String[]> rows = page.getItems();
+            if (rows.size() < pageOffset) {
+                return false;
+            }
+            load(rows.subList(pageOffset, rows.size()));
+            if (page.hasNext()) {
+                pageCursor = page.getNextCursor();
+                pageOffset = 0;
+            } else {
+                pageOffset = rows.size();
+            }
+        } while (page.hasNext());
+        return true;
+    }
+
+    private void copyFrom(BillingLedger other) {
+        System.arraycopy(other.totals, 0, totals, 0, totals.length);
+        totalsByPatient.clear();
+        other.totalsByPatient.forEach((id, row) -> totalsByPatient.put(id, row.clone()));
+        totalsByDay.clear();
+        other.totalsByDay.forEach((date, row) -> totalsByDay.put(date, row.clone()));
+    }
+
+    /**
+     * Adds an amount to the overall, patient and day totals of a bill.
+     *
+     * @param bill        The bill
+     * @param status      The bill status the amount belongs to
+     * @param amountCents The amount in cents, negative to subtract
+     */
+    private void apply(Bill bill, BillStatus status, long amountCents) {
+        totals[status.ordinal()] += amountCents;
+        if (bill.getPatientID() != null) {
+            totalsByPatient.computeIfAbsent(bill.getPatientID(), id -> new long[totals.length])[status.ordinal()] += amountCents;
+        }
+        if (bill.getDate() != null) {
+            totalsByDay.computeIfAbsent(bill.getDate(), date -> new long[totals.length])[status.ordinal()] += amountCents;
+        }
+    }
+
+    /**
+     * Adds the totals of another ledger to this one.
+     *
+     * @param other The ledger holding the amounts to add
+     */
+    private void add(BillingLedger other) {
+        for (int i = 0; i < totals.length; i++) {
+            totals[i] += other.totals[i];
+        }
+        other.totalsByPatient.forEach((id, row) -> addTo(totalsByPatient, id, row));
+        other.totalsByDay.forEach((date, row) -> addTo(totalsByDay, date, row));
+    }
+
+    private static void addTo(Map<String, long[]> totalsByKey, String key, long[] row) {
+        long[] sum = totalsByKey.computeIfAbsent(key, k -> new long[row.length]);
+        for (int i = 0; i < row.length; i++) {
+            sum[i] += row[i];
+        }
+    }
+
+    /**
+     * Collects the changes that newly generated bills make to the totals.
+     */
+    private static BillingLedger billChanges(List<Bill> bills) {
+        BillingLedger changes = new BillingLedger();
+        for (Bill bill : bills) {
+            changes.apply(bill, BillStatus.PENDING, bill.getAmountCents());
+        }
+        return changes;
+    }
+
+    /**
+     * Collects the changes that paying bills makes to the totals.
+     */
+    private static BillingLedger paymentChanges(List<Bill> bills) {
+        BillingLedger changes = new BillingLedger();
+        for (Bill bill : bills) {
+            changes.apply(bill, BillStatus.PENDING, -bill.getAmountCents());
+            changes.apply(bill, BillStatus.PAID, bill.getAmountCents());
+        }
+        return changes;
+    }
+
+    /**
+     * Recomputes every total from scratch by scanning Bill.csv, BillPayment.csv and the archived
+     * bills and payments. The live tables are read through the transaction first, so that it
+     * fails to commit if a bill or payment is written, or archived, during the rebuild.
+     *
+     * @param transaction The transaction to read the live tables in
+     * @return The rebuilt ledger
+     * @throws IOException if the tables cannot be read
+     */
+    private static BillingLedger rebuild(Transaction transaction) throws IOException {
+        transaction.read(Storage.BILL);
+        transaction.read(Storage.BILL_PAYMENT);
+
+        BillingLedger ledger = new BillingLedger();
+        Map<String, Deque<String>> payments = PatientBillIndex.readPayments(Storage.history(Storage.BILL_PAYMENT));
+        Storage.history(Storage.BILL).scan(fields -> {
+            Bill bill = Bill.fromFields(fields);
+            if (bill != null) {
+                // Rows with an unreadable amount or status are skipped
+                bill = PatientBillIndex.applyPayment(bill, payments);
+                ledger.apply(bill, bill.getStatus(), bill.getAmountCents());
+            }
+            return true;
+        });
+        return ledger;
+    }
+
+    /**
+     * Adds up rows of BillAggregates.csv into the totals.
+     *
+     * @param rows The rows
+     * @throws NumberFormatException if a row holds an amount that is not a number
+     */
+    private void load(List<String[]> rows) {
+        for (String[] fields : rows) {
+            if (fields.length < 4) {
+                continue;
+            }
+            long[] row = {Long.parseLong(fields[2]), Long.parseLong(fields[3])};
+            switch (fields[0]) {
+                case SCOPE_TOTAL:
+                    for (int i = 0; i < totals.length; i++) {
+                        totals[i] += row[i];
+                    }
+                    break;
+                case SCOPE_PATIENT:
+                    addTo(totalsByPatient, fields[1], row);
+                    break;
+                case SCOPE_DAY:
+                    addTo(totalsByDay, fields[1], row);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Lists the totals as rows of BillAggregates.csv, one per total.
+     *
+     * @return The rows
+     */
+    private List<String[]> toRows() {
+        List<String[]> rows = new ArrayList<>();
+        rows.add(toRow(SCOPE_TOTAL, "", totals));
+        for (Map.Entry<String, long[]> entry : totalsByPatient.entrySet()) {
+            rows.add(toRow(SCOPE_PATIENT, entry.getKey(), entry.getValue()));
+        }
+        for (Map.Entry<String, long[]> entry : totalsByDay.entrySet()) {
+            rows.add(toRow(SCOPE_DAY, entry.getKey(), entry.getValue()));
+        }
+        return rows;
+    }
+
+    /**
+     * Lists the totals as the rows BillAggregates.csv is rewritten with: an epoch row naming
+     * the rewrite, then one row per total.
+     *
+     * @return The rows
+     */
+    private List<String[]> toStoredRows() {
+        List<String[]> rows = new ArrayList<>();
+        rows.add(new String[]{SCOPE_EPOCH, UUID.randomUUID().toString(), "0", "0"});
+        rows.addAll(toRows());
+        return rows;
+    }
+
+    /**
+     * Gets the epoch a row of BillAggregates.csv names.
+     *
+     * @param fields The row
+     * @return The epoch, or null if the row is not an epoch row
+     */
+    private static String epochOf(String[] fields) {
+        return fields.length >= 2 && fields[0].equals(SCOPE_EPOCH) ? fields[1] : null;
+    }
+
+    /**
+     * Compares the totals of two ledgers.
+     *
+     * @param other The other ledger
+     * @return true if both hold the same totals; false otherwise
+     */
+    private boolean sameTotals(BillingLedger other) {
+        return Arrays.equals(totals, other.totals) && sameTotals(totalsByPatient, other.totalsByPatient)
+                && sameTotals(totalsByDay, other.totalsByDay);
+    }
+
+    /**
+     * Builds a single aggregate row.
+     *
+     * @param scope The scope of the row (TOTAL, PATIENT or DAY)
+     * @param key   The patient ID or date, empty for the overall total
+     * @param row   The totals indexed by bill status ordinal
+     * @return The row in BillAggregates.csv column order
+     */
+    private static String[] toRow(String scope, String key, long[] row) {
+        return new String[]{scope, key, Long.toString(row[BillStatus.PENDING.ordinal()]), Long.toString(row[BillStatus.PAID.ordinal()])};
+    }
+
+    /**
+     * Compares two maps of totals by value.
+     *
+     * @param first  The first map
+     * @param second The second map
+     * @return true if both maps hold the same totals for the same keys; false otherwise
+     */
+    private static boolean sameTotals(Map<String, long[]> first, Map<String, long[]> second) {
+        if (!first.keySet().equals(second.keySet())) {
+            return false;
+        }
+        for (Map.Entry<String, long[]> entry : first.entrySet()) {
+            if (!Arrays.equals(entry.getValue(), second.get(entry.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Converts a decimal bill amount such as "12.50" into cents. Amounts written with more
+     * decimal places by older versions, such as "0.625", are rounded half a cent up.
+     *
+     * @param amount The amount as written in Bill.csv
+     * @return The amount in cents
+     * @throws NumberFormatException if the amount is not a number
+     */
+    public static long toCents(String amount) {
+        try {
+            return new BigDecimal(amount.trim()).setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("Amount out of range: " + amount);
+        }
+    }
+
+    /**
+     * Writes an amount in cents the way Bill.csv holds it, for example 1250 as "12.50".
+     *
+     * @param cents The amount in cents
+     * @return The decimal amount
+     */
+    static String toAmount(long cents) {
+        return BigDecimal.valueOf(cents, 2).toPlainString();
+    }
+
+    /**
+     * Formats an amount in cents as dollars, for example 1250 as "$12.50".
+     *
+     * @param cents The amount in cents
+     * @return The formatted amount
+     */
+    public static String formatCents(long cents) {
+        return String.format("%s$%d.%02d", cents < 0 ? "-" : "", Math.abs(cents) / 100, Math.abs(cents) % 100);
+    }
+}
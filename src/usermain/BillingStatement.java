@@ -0,0 +1,143 @@
+package usermain;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import paging.Page;
+
+/**
+ * The BillingStatement class is a patient's bills at one moment: those outstanding and those
+ * paid, oldest first, with their totals. It is built by {@link PatientBillIndex} from the
+ * patient's own bills, and can be read a page at a time.
+ */
+public final class BillingStatement {
+    private static final String CURSOR_PREFIX = "bill:";
+
+    private final String patientID;
+    private final List<Bill> outstanding;
+    private final List<Bill> paid;
+    private final long outstandingCents;
+    private final long paidCents;
+
+    /**
+     * Constructs a statement from a patient's bills.
+     *
+     * @param patientID The unique ID of the patient
+     * @param bills     The patient's bills, oldest first
+     */
+    BillingStatement(String patientID, List<Bill> bills) {
+        List<Bill> outstandingBills = new ArrayList<>();
+        List<Bill> paidBills = new ArrayList<>();
+        long outstandingTotal = 0;
+        long paidTotal = 0;
+        for (Bill bill : bills) {
+            if (bill.isOutstanding()) {
+                outstandingBills.add(bill);
+                outstandingTotal += bill.getAmountCents();
+            } else {
+                paidBills.add(bill);
+                paidTotal += bill.getAmountCents();
+            }
+        }
+        this.patientID = patientID;
+        this.outstanding = Collections.unmodifiableList(outstandingBills);
+        this.paid = Collections.unmodifiableList(paidBills);
+        this.outstandingCents = outstandingTotal;
+        this.paidCents = paidTotal;
+    }
+
+    /**
+     * Gets the ID of the patient the statement is for.
+     *
+     * @return The patient ID
+     */
+    public String getPatientID() {
+        return patientID;
+    }
+
+    /**
+     * Gets the bills still to be paid.
+     *
+     * @return An unmodifiable list of the outstanding bills, oldest first
+     */
+    public List<Bill> getOutstanding() {
+        return outstanding;
+    }
+
+    /**
+     * Gets one page of the bills still to be paid.
+     *
+     * @param cursor   The cursor returned with the previous page, or null for the first page
+     * @param pageSize The maximum number of bills on the page
+     * @return The page of outstanding bills
+     */
+    public Page<Bill> getOutstanding(String cursor, int pageSize) {
+        return page(outstanding, cursor, pageSize);
+    }
+
+    /**
+     * Gets the bills already paid.
+     *
+     * @return An unmodifiable list of the paid bills, oldest first
+     */
+    public List<Bill> getPaid() {
+        return paid;
+    }
+
+    /**
+     * Gets one page of the bills already paid.
+     *
+     * @param cursor   The cursor returned with the previous page, or null for the first page
+     * @param pageSize The maximum number of bills on the page
+     * @return The page of paid bills
+     */
+    public Page<Bill> getPaid(String cursor, int pageSize) {
+        return page(paid, cursor, pageSize);
+    }
+
+    /**
+     * Gets the total of the outstanding bills.
+     *
+     * @return The total in cents
+     */
+    public long getOutstandingCents() {
+        return outstandingCents;
+    }
+
+    /**
+     * Gets the total of the paid bills.
+     *
+     * @return The total in cents
+     */
+    public long getPaidCents() {
+        return paidCents;
+    }
+
+    /**
+     * Gets the total of every bill on the statement.
+     *
+     * @return The total in cents
+     */
+    public long getTotalCents() {
+        return outstandingCents + paidCents;
+    }
+
+    private static Page<Bill> page(List<Bill> bills, String cursor, int pageSize) {
+        int start = cursor == null ? 0 : decodeCursor(cursor);
+        int end = Math.min(bills.size(), start + pageSize);
+        List<Bill> items = new ArrayList<>(bills.subList(Math.min(start, end), end));
+        return new Page<>(items, end < bills.size() ? Page.encodeCursor(CURSOR_PREFIX + end) : null);
+    }
+
+    private static int decodeCursor(String cursor) {
+        String position = Page.decodeCursor(cursor);
+        if (!position.startsWith(CURSOR_PREFIX)) {
+            throw new IllegalArgumentException("Not a statement cursor: " + cursor);
+        }
+        try {
+            return Integer.parseInt(position.substring(CURSOR_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a statement cursor: " + cursor);
+        }
+    }
+}
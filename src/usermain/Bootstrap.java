@@ -0,0 +1,167 @@
+package usermain;
+
+import appointment.Appointment;
+import appointment.DoctorAvailabilityIndex;
+import appointment.DoctorScheduleIndex;
+import appointment.PrescriptionQueue;
+import appointment.RecordSearchIndex;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinTask;
+import storage.ChangeEvent;
+import storage.Replica;
+import storage.Shard;
+import storage.Storage;
+
+/**
+ * The Bootstrap class loads the hospital's data before the first login. Every table (users,
+ * staff, patients, appointments, availability, records, bills, medicines and replenishment
+ * requests) is read at the same time, large files being parsed in parallel byte ranges, and the
+ * in-memory indexes are then built from the loaded tables, also in parallel. Start-up time on
+ * large data sets therefore shrinks with the number of cores. In a sharded hospital, every
+ * shard is loaded at the same time, each into indexes of its own.
+ *
+ * <p>In a replica, the indexes are then kept up to date with the changes received from the
+ * primary, so read-only queries see the primary's latest data and a promoted replica can take
+ * over with its indexes already in place.</p>
+ */
+public final class Bootstrap {
+    private Bootstrap() {
+    }
+
+    /**
+     * Loads every table and builds the shared indexes of every shard on the common fork-join
+     * pool, the shards side by side. In a replica, also starts keeping the indexes up to date
+     * with the replicated changes.
+     *
+     * @throws IOException if a table cannot be read
+     */
+    public static void load() throws IOException {
+        List<ForkJoinTask<?>> shards = new ArrayList<>();
+        for (Shard shard : Storage.getShards()) {
+            shards.add(ForkJoinTask.adapt(() -> loadShard(shard)));
+        }
+        try {
+            ForkJoinTask.invokeAll(shards);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+
+        Replica replica = Storage.getReplica();
+        if (replica != null) {
+            replica.addListener(Bootstrap::applyReplicated);
+        }
+    }
+
+    /**
+     * Loads every table of one shard, then builds the shard's indexes in parallel.
+     */
+    private static Void loadShard(Shard shard) throws IOException {
+        Shard.Scope scope = shard.bind();
+        try (scope) {
+            Storage.preload();
+        }
+        ForkJoinTask.invokeAll(Arrays.asList(
+                inShard(shard, DoctorScheduleIndex::getInstance),
+                inShard(shard, DoctorAvailabilityIndex::getInstance),
+                inShard(shard, RecordSearchIndex::getInstance),
+                inShard(shard, PrescriptionQueue::getInstance),
+                inShard(shard, MedicineCatalog::getInstance),
+                inShard(shard, BillingLedger::getInstance),
+                inShard(shard, PatientBillIndex::getInstance)));
+        return null;
+    }
+
+    /**
+     * Wraps a task so that it runs with a shard bound to its thread.
+     */
+    private static ForkJoinTask<?> inShard(Shard shard, Runnable task) {
+        return ForkJoinTask.adapt(() -> {
+            Shard.Scope scope = shard.bind();
+            try (scope) {
+                task.run();
+            }
+        });
+    }
+
+    /**
+     * Updates the shared indexes after a replica applied changes from its primary. Appointments,
+     * records and changes to the billing totals are applied one by one; indexes over a table replaced as a whole, and the
+     * availability index after any slot change, are reloaded, as is the medicine catalog when a
+     * medicine is added or repriced. Cached sessions are dropped when the user or patient table
+     * is replaced. Rows deleted from the live tables
+     * were archived, so they stay in the indexes, as they do on the primary.
+     *
+     * @param events   The change events applied
+     * @param replaced The names of the tables replaced as a whole
+     */
+    private static void applyReplicated(List<ChangeEvent> events, Set<String> replaced) {
+        if (replaced.contains(Storage.APPOINTMENT)) {
+            DoctorScheduleIndex.reload();
+        }
+        if (replaced.contains(Storage.APPOINTMENT_RECORD)) {
+            RecordSearchIndex.reload();
+            PrescriptionQueue.reload();
+        }
+        if (replaced.contains(Storage.BILL_AGGREGATES)) {
+            BillingLedger.reload();
+        }
+        if (replaced.contains(Storage.USER) || replaced.contains(Storage.PATIENT_LIST)) {
+            SessionCache.getInstance().invalidateAll();
+        }
+        boolean availabilityChanged = replaced.contains(Storage.DOCTOR_AVAILABILITY)
+                || replaced.contains(Storage.DOCTOR_SLOT_LENGTH);
+        boolean catalogChanged = replaced.contains(Storage.MEDICINE_LIST);
+
+        for (ChangeEvent event : events) {
+            String[] after = event.getAfter();
+            switch (event.getTable()) {
+                case Storage.APPOINTMENT:
+                    Appointment appointment = after != null ? Appointment.fromFields(after) : null;
+                    if (appointment != null) {
+                        DoctorScheduleIndex.getInstance().put(appointment);
+                    }
+                    break;
+                case Storage.APPOINTMENT_RECORD:
+                    if (after != null && after.length >= 9) {
+                        RecordSearchIndex.getInstance().index(after);
+                    }
+                    if (after != null) {
+                        PrescriptionQueue.getInstance().update(after);
+                    }
+                    break;
+                case Storage.DOCTOR_AVAILABILITY:
+                case Storage.DOCTOR_SLOT_LENGTH:
+                    availabilityChanged = true;
+                    break;
+                case Storage.BILL_AGGREGATES:
+                    if (after != null && !replaced.contains(Storage.BILL_AGGREGATES)) {
+                        BillingLedger.getInstance().addStored(after);
+                    }
+                    break;
+                case Storage.MEDICINE_LIST:
+                    if (after != null && !MedicineCatalog.getInstance().describes(after)) {
+                        catalogChanged = true;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (availabilityChanged) {
+            DoctorAvailabilityIndex.reload();
+        }
+        if (catalogChanged) {
+            MedicineCatalog.reload();
+        }
+    }
+}
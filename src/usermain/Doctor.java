@@ -1,10 +1,21 @@
 package usermain;
 
 import enums.AppointmentStatus;
+import appointment.Appointment;
 import appointment.AppointmentManager;
+import appointment.DoctorAvailabilityIndex;
 import appointment.DoctorAvailabilityManager;
+import appointment.DoctorScheduleIndex;
+import appointment.PrescriptionQueue;
+import appointment.RecordSearchIndex;
+import appointment.SlotTable;
+import paging.Page;
+import storage.Storage;
+import storage.Transaction;
+import storage.WriteConflictException;
+import trace.TraceOperation;
+import trace.TraceRecorder;
 import java.io.*;
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -17,9 +28,6 @@ public class Doctor extends User {
     private AppointmentManager appointmentManager;
     private DoctorAvailabilityManager availabilityManager;
 
-    private static final String APPOINTMENT_FILE = "resources/Appointment.csv";
-    private static final String APPOINTMENT_RECORD_FILE = "resources/AppointmentRecord.csv";
-
     /**
      * Constructs a new Doctor object with the provided details.
      *
@@ -57,23 +65,25 @@ public class Doctor extends User {
      * @param newConsultationNotes  The updated consultation notes
      */
     public void updatePatientMedicalRecord(String appointmentID, String newDiagnosis, String newPrescription, int newPrescriptionQuantity, String newTreatmentPlan, String newConsultationNotes) {
-        List<String[]> records = loadAppointmentRecords();
-        boolean updated = false;
-
-        for (String[] record : records) {
-            if (record[0].equals(appointmentID)) {
+        TraceRecorder.record(TraceOperation.UPDATE_MEDICAL_RECORD, doctorID, appointmentID, newDiagnosis, newPrescription,
+                String.valueOf(newPrescriptionQuantity), newTreatmentPlan, newConsultationNotes);
+        String[][] updatedRecord = new String[1][];
+        try {
+            Storage.updateRow(Storage.APPOINTMENT_RECORD, appointmentID, record -> {
                 record[1] = newDiagnosis;
                 record[2] = newPrescription;
                 record[3] = String.valueOf(newPrescriptionQuantity);
                 record[5] = newTreatmentPlan;
                 record[8] = newConsultationNotes;
-                updated = true;
-                break;
-            }
+                updatedRecord[0] = record.clone();
+            });
+        } catch (IOException e) {
+            System.err.println("The medical record of appointment " + appointmentID + " was not updated: " + e.getMessage());
+            return;
         }
 
-        if (updated) {
-            saveAppointmentRecords(records);
+        if (updatedRecord[0] != null) {
+            RecordSearchIndex.getInstance().index(updatedRecord[0]);
             System.out.println("Patient medical record updated successfully.");
 
             // Update the past treatment in Patient_List.csv
@@ -96,6 +106,28 @@ public class Doctor extends User {
         }
     }
 
+    /**
+     * Searches diagnoses, treatment plans and consultation notes of all recorded outcomes.
+     *
+     * @param query Terms that must all appear, with alternatives separated by OR
+     */
+    public void searchMedicalRecords(String query) {
+        TraceRecorder.record(TraceOperation.SEARCH_RECORDS, doctorID, query);
+        List<String[]> records = RecordSearchIndex.getInstance().search(query);
+        System.out.println("Records matching \"" + query + "\": " + records.size());
+
+        for (String[] record : records) {
+            Appointment appointment = DoctorScheduleIndex.getInstance().get(record[0]);
+            System.out.println("Appointment ID: " + record[0]);
+            System.out.println("Patient ID: " + (appointment != null ? appointment.getPatientID() : "Unknown"));
+            System.out.println("Date: " + record[6]);
+            System.out.println("Diagnosis: " + record[1]);
+            System.out.println("Treatment Plan: " + record[5]);
+            System.out.println("Consultation Notes: " + record[8]);
+            System.out.println("-------------------------");
+        }
+    }
+
     /**
      * Sets the doctor's availability for a specific date.
      *
@@ -108,57 +140,67 @@ public class Doctor extends User {
     }
 
     /**
-     * Accepts an appointment by updating its status to "Confirmed."
+     * Retrieves the slot table of one of the doctor's days.
+     *
+     * @param date The date in DD-MM-YY format
+     * @return The slot table the day was opened with, or the doctor's current one
+     */
+    public SlotTable getSlotTable(String date) {
+        return availabilityManager.getSlotTable(doctorID, date);
+    }
+
+    /**
+     * Sets the length of the slots the doctor opens new days with.
+     *
+     * @param minutes The slot length in minutes
+     * @throws IllegalArgumentException if the length is not supported
+     */
+    public void setSlotLength(int minutes) {
+        availabilityManager.setSlotLength(doctorID, minutes);
+        System.out.println("Slot length set to " + minutes + " minutes for days opened from now on.");
+    }
+
+    /**
+     * Accepts a pending appointment by updating its status to "Confirmed."
      *
      * @param appointmentID The ID of the appointment to be accepted
      */
     public void acceptAppointment(String appointmentID) {
+        TraceRecorder.record(TraceOperation.ACCEPT_APPOINTMENT, doctorID, appointmentID);
         updateAppointmentStatus(appointmentID, AppointmentStatus.CONFIRMED.name());
     }
 
     /**
-     * Declines an appointment by updating its status to "Cancelled."
+     * Declines a pending appointment by updating its status to "Declined," and releases the
+     * slot it held.
      *
      * @param appointmentID The ID of the appointment to be declined
      */
     public void declineAppointment(String appointmentID) {
-        updateAppointmentStatus(appointmentID, AppointmentStatus.CANCELLED.name());
+        TraceRecorder.record(TraceOperation.DECLINE_APPOINTMENT, doctorID, appointmentID);
+        String[] appointment = updateAppointmentStatus(appointmentID, AppointmentStatus.DECLINED.name());
+        if (appointment != null) {
+            DoctorAvailabilityIndex.getInstance().release(appointment[1], appointment[3], appointment[4]);
+        }
     }
 
     /**
-     * Displays all upcoming confirmed appointments for the doctor.
+     * Retrieves one page of the doctor's upcoming confirmed appointments.
+     * The appointments are read from the doctor's materialised schedule in date order.
+     *
+     * @param cursor   The cursor returned with the previous page, or null for the first page
+     * @param pageSize The maximum number of appointments on the page
+     * @return The page of confirmed appointments
      */
-    public void viewUpcomingAppointments() {
-        System.out.println("Upcoming Appointments for Doctor ID: " + doctorID);
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(APPOINTMENT_FILE))) {
-            String line;
-            boolean hasAppointments = false;
-
-            while ((line = reader.readLine()) != null) {
-                String[] fields = line.split(",");
-
-                if (fields[1].equals(doctorID) && fields[5].equals(AppointmentStatus.CONFIRMED.name())) {
-                    hasAppointments = true;
-                    System.out.println("Appointment ID: " + fields[0]);
-                    System.out.println("Patient ID: " + fields[2]);
-                    System.out.println("Date: " + fields[3]);
-                    System.out.println("Time Slot: " + fields[4]);
-                    System.out.println("Status: " + fields[5]);
-                    System.out.println("-------------------------");
-                }
-            }
-
-            if (!hasAppointments) {
-                System.out.println("No upcoming confirmed appointments found for this doctor.");
-            }
-        } catch (IOException e) {
-            System.err.println("Error reading Appointment.csv: " + e.getMessage());
-        }
+    public Page<Appointment> getUpcomingAppointments(String cursor, int pageSize) {
+        TraceRecorder.record(TraceOperation.LIST_AGENDA, doctorID, "", "", cursor, String.valueOf(pageSize));
+        return DoctorScheduleIndex.getInstance().getAppointmentsPage(doctorID, null, null, AppointmentStatus.CONFIRMED.name(), cursor, pageSize);
     }
 
     /**
      * Records the outcome of an appointment, including diagnosis, prescription, and treatment plan.
+     * The record is added and the appointment marked completed in one transaction; nothing is
+     * recorded if the appointment has been cancelled, declined or completed in the meantime.
      *
      * @param appointmentID         The ID of the appointment
      * @param diagnosis             The diagnosis made during the appointment
@@ -170,27 +212,42 @@ public class Doctor extends User {
      * @param notes                 Additional consultation notes
      */
     public void recordAppointmentOutcome(String appointmentID, String diagnosis, String prescriptionMedicine, int quantity, String treatmentPlan, String date, String typeOfService, String notes) {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(APPOINTMENT_RECORD_FILE, true))) {
-            String line = String.join(",",
-                    appointmentID,
-                    diagnosis,
-                    prescriptionMedicine,
-                    String.valueOf(quantity),
-                    AppointmentStatus.PENDING.name(), // Prescription status initially set to "pending"
-                    treatmentPlan,
-                    date,
-                    typeOfService,
-                    notes
-            );
-            writer.write(line);
-            writer.newLine();
-            System.out.println("Appointment outcome recorded successfully.");
+        TraceRecorder.record(TraceOperation.RECORD_OUTCOME, doctorID, appointmentID, diagnosis, prescriptionMedicine,
+                String.valueOf(quantity), treatmentPlan, date, typeOfService, notes);
+        String[] record = {
+                appointmentID,
+                diagnosis,
+                prescriptionMedicine,
+                String.valueOf(quantity),
+                AppointmentStatus.PENDING.name(), // Prescription status initially set to "pending"
+                treatmentPlan,
+                date,
+                typeOfService,
+                notes
+        };
+
+        // Add the outcome record and mark the appointment completed together, unless it has ended
+        try (Transaction transaction = Storage.getEngine().begin()) {
+            transaction.append(Storage.APPOINTMENT_RECORD, record);
+            transaction.update(Storage.APPOINTMENT, appointmentID, fields -> {
+                if (!AppointmentStatus.isActive(fields[5])) {
+                    throw new WriteConflictException(Storage.APPOINTMENT, "Appointment " + appointmentID + " is " + fields[5]);
+                }
+                fields[5] = AppointmentStatus.COMPLETED.name();
+                return fields;
+            });
+            transaction.commit();
+        } catch (WriteConflictException e) {
+            System.out.println(e.getMessage() + "; the outcome was not recorded.");
+            return;
         } catch (IOException e) {
             System.err.println("Error writing to AppointmentRecord.csv: " + e.getMessage());
+            return;
         }
-
-        // Update the appointment status to completed in Appointment.csv
-        updateAppointmentStatus(appointmentID, AppointmentStatus.COMPLETED.name());
+        RecordSearchIndex.getInstance().index(record);
+        PrescriptionQueue.getInstance().offer(record);
+        DoctorScheduleIndex.getInstance().refresh(appointmentID);
+        System.out.println("Appointment outcome recorded successfully.");
 
         // Update Patient_List.csv with the new diagnosis and treatment plan as past treatment
         updatePatientPastTreatment(appointmentID, diagnosis, treatmentPlan);
@@ -204,7 +261,6 @@ public class Doctor extends User {
      * @param treatmentPlan The treatment plan decided during the appointment
      */
     private void updatePatientPastTreatment(String appointmentID, String diagnosis, String treatmentPlan) {
-        String patientFilePath = "resources/Patient_List.csv";
         String patientID = getPatientIDByAppointment(appointmentID);
 
         if (patientID == null) {
@@ -212,59 +268,43 @@ public class Doctor extends User {
             return;
         }
 
-        List<String[]> records = new ArrayList<>();
-        boolean isUpdated = false;
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(patientFilePath))) {
-            String line;
-            records.add(reader.readLine().split(",")); // Add header to records
-
-            while ((line = reader.readLine()) != null) {
-                String[] fields = line.split(",");
-                if (fields[0].equals(patientID)) {
-                    // If `Past Treatments` already contains this appointment ID, update it; otherwise, append it
-                    String pastTreatments = fields[8];
-                    String[] treatmentsArray = pastTreatments.split("; ");
-                    StringBuilder updatedTreatments = new StringBuilder();
-
-                    boolean found = false;
-                    for (String treatment : treatmentsArray) {
-                        if (treatment.startsWith(appointmentID + "-")) {
-                            updatedTreatments.append(appointmentID).append(" - ").append(diagnosis).append("- ").append(treatmentPlan);
-                            found = true;
-                        } else {
-                            updatedTreatments.append(treatment);
-                        }
-                        updatedTreatments.append("; ");
-                    }
-
-                    // If the appointment was not found, add it as a new entry
-                    if (!found) {
-                        updatedTreatments.append(appointmentID).append("- ").append(diagnosis).append("- ").append(treatmentPlan);
+        String[] patient;
+        try {
+            patient = Storage.updateRow(Storage.PATIENT_LIST, patientID, fields -> {
+                // If `Past Treatments` already contains this appointment ID, update it; otherwise, append it
+                String pastTreatments = fields[8];
+                String[] treatmentsArray = pastTreatments.split("; ");
+                StringBuilder updatedTreatments = new StringBuilder();
+
+                boolean found = false;
+                for (String treatment : treatmentsArray) {
+                    if (treatment.startsWith(appointmentID + "-")) {
+                        updatedTreatments.append(appointmentID).append(" - ").append(diagnosis).append("- ").append(treatmentPlan);
+                        found = true;
                     } else {
-                        // Remove the trailing "; "
-                        updatedTreatments.setLength(updatedTreatments.length() - 2);
+                        updatedTreatments.append(treatment);
                     }
+                    updatedTreatments.append("; ");
+                }
 
-                    fields[8] = updatedTreatments.toString(); // Update the PastTreatment field
-                    isUpdated = true;
+                // If the appointment was not found, add it as a new entry
+                if (!found) {
+                    updatedTreatments.append(appointmentID).append("- ").append(diagnosis).append("- ").append(treatmentPlan);
+                } else {
+                    // Remove the trailing "; "
+                    updatedTreatments.setLength(updatedTreatments.length() - 2);
                 }
-                records.add(fields);
-            }
+
+                fields[8] = updatedTreatments.toString(); // Update the PastTreatment field
+            });
         } catch (IOException e) {
-            System.err.println("Error reading Patient_List.csv: " + e.getMessage());
+            System.err.println("The past treatments of patient " + patientID + " were not updated: " + e.getMessage());
+            return;
         }
 
-        if (isUpdated) {
-            try (BufferedWriter writer = new BufferedWriter(new FileWriter(patientFilePath))) {
-                for (String[] record : records) {
-                    writer.write(String.join(",", record));
-                    writer.newLine();
-                }
-                //System.out.println("Patient's past treatments updated successfully in Patient_List.csv.");
-            } catch (IOException e) {
-                System.err.println("Error writing to Patient_List.csv: " + e.getMessage());
-            }
+        if (patient != null) {
+            SessionCache.getInstance().invalidate(patientID);
+            //System.out.println("Patient's past treatments updated successfully in Patient_List.csv.");
         } else {
             System.out.println("Patient record not found.");
         }
@@ -277,13 +317,10 @@ public class Doctor extends User {
      * @return The patient ID if found, otherwise null
      */
     private String getPatientIDByAppointment(String appointmentID) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(APPOINTMENT_FILE))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] fields = line.split(",");
-                if (fields[0].equals(appointmentID)) {
-                    return fields[2]; // Patient ID is the third column in Appointment.csv
-                }
+        try {
+            String[] fields = Storage.table(Storage.APPOINTMENT).find(appointmentID);
+            if (fields != null && fields.length > 2) {
+                return fields[2]; // Patient ID is the third column in Appointment.csv
             }
         } catch (IOException e) {
             System.err.println("Error reading Appointment.csv: " + e.getMessage());
@@ -292,140 +329,62 @@ public class Doctor extends User {
     }
 
     /**
-     * Updates the status of an appointment.
+     * Updates the status of a pending appointment. An appointment that has been cancelled or
+     * answered in the meantime is left as it is.
      *
      * @param appointmentID The ID of the appointment to be updated
      * @param newStatus     The new status of the appointment
+     * @return The appointment as it was before the update, or null if it was not found or not pending
      */
-    private void updateAppointmentStatus(String appointmentID, String newStatus) {
-        List<String[]> appointments = loadAppointments();
-        boolean updated = false;
-
-        for (String[] appointment : appointments) {
-            if (appointment[0].equals(appointmentID)) {
-                appointment[5] = newStatus;
-                updated = true;
-                break;
-            }
-        }
-
-        if (updated) {
-            saveAppointments(appointments);
-            System.out.println("Appointment status updated to " + newStatus + " for Appointment ID: " + appointmentID);
-        } else {
-            System.out.println("Appointment ID not found.");
-        }
-    }
-
-    /**
-     * Loads all appointments from the Appointment CSV file.
-     *
-     * @return A list of string arrays, where each array represents an appointment record
-     */
-    private List<String[]> loadAppointments() {
-        List<String[]> appointments = new ArrayList<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader(APPOINTMENT_FILE))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                appointments.add(line.split(","));
-            }
-        } catch (IOException e) {
-            System.err.println("Error reading Appointment.csv: " + e.getMessage());
-        }
-        return appointments;
-    }
-
-    /**
-     * Saves the updated list of appointments back to the Appointment CSV file.
-     *
-     * @param appointments The list of updated appointment records
-     */
-    private void saveAppointments(List<String[]> appointments) {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(APPOINTMENT_FILE))) {
-            for (String[] appointment : appointments) {
-                writer.write(String.join(",", appointment));
-                writer.newLine();
-            }
+    private String[] updateAppointmentStatus(String appointmentID, String newStatus) {
+        String[] appointment;
+        try {
+            appointment = Storage.updateRow(Storage.APPOINTMENT, appointmentID, fields -> {
+                if (fields[5].equalsIgnoreCase(AppointmentStatus.PENDING.name())) {
+                    fields[5] = newStatus;
+                }
+            });
         } catch (IOException e) {
             System.err.println("Error writing to Appointment.csv: " + e.getMessage());
+            return null;
         }
-    }
 
-    /**
-     * Loads all appointment records from the AppointmentRecord CSV file.
-     *
-     * @return A list of string arrays, where each array represents an appointment record
-     */
-    private List<String[]> loadAppointmentRecords() {
-        List<String[]> records = new ArrayList<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader(APPOINTMENT_RECORD_FILE))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                records.add(line.split(","));
-            }
-        } catch (IOException e) {
-            System.err.println("Error reading AppointmentRecord.csv: " + e.getMessage());
+        if (appointment == null) {
+            System.out.println("Appointment ID not found.");
+            return null;
+        }
+        if (!appointment[5].equalsIgnoreCase(AppointmentStatus.PENDING.name())) {
+            System.out.println("Appointment " + appointmentID + " is no longer pending; it is " + appointment[5] + ".");
+            return null;
         }
-        return records;
+        DoctorScheduleIndex.getInstance().refresh(appointmentID);
+        System.out.println("Appointment status updated to " + newStatus + " for Appointment ID: " + appointmentID);
+        return appointment;
     }
 
     /**
-     * Saves the updated appointment records back to the AppointmentRecord CSV file.
+     * Retrieves one page of the doctor's confirmed appointments on a specific date.
      *
-     * @param records The list of updated appointment records
+     * @param date     The date for which appointments are to be retrieved (DD-MM-YY)
+     * @param cursor   The cursor returned with the previous page, or null for the first page
+     * @param pageSize The maximum number of appointments on the page
+     * @return The page of confirmed appointments ordered by time slot
      */
-    private void saveAppointmentRecords(List<String[]> records) {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(APPOINTMENT_RECORD_FILE))) {
-            for (String[] record : records) {
-                writer.write(String.join(",", record));
-                writer.newLine();
-            }
-        } catch (IOException e) {
-            System.err.println("Error writing to AppointmentRecord.csv: " + e.getMessage());
-        }
+    public Page<Appointment> getAppointmentsByDate(String date, String cursor, int pageSize) {
+        return getAgenda(date, date, cursor, pageSize);
     }
 
     /**
-     * Views all confirmed appointments for the doctor on a specific date.
+     * Retrieves one page of the doctor's confirmed appointments between two dates, for example a week.
      *
-     * @param date The date for which appointments are to be viewed
+     * @param fromDate The first date of the agenda (DD-MM-YY)
+     * @param toDate   The last date of the agenda (DD-MM-YY)
+     * @param cursor   The cursor returned with the previous page, or null for the first page
+     * @param pageSize The maximum number of appointments on the page
+     * @return The page of confirmed appointments in chronological order
      */
-    /**
-     * Views all confirmed appointments for the doctor on a specific date.
-     *
-     * @param date The date for which appointments are to be viewed
-     */
-    public void viewAppointmentsByDate(String date) {
-        System.out.println("Confirmed Appointments for Doctor ID: " + doctorID + " on " + date);
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(APPOINTMENT_FILE))) {
-            String line;
-            boolean hasAppointments = false;
-
-            while ((line = reader.readLine()) != null) {
-                String[] fields = line.split(",");
-
-                // Validate fields length to avoid ArrayIndexOutOfBoundsException
-                if (fields.length >= 6 &&
-                        fields[1].equals(doctorID) &&
-                        fields[3].equals(date) &&
-                        fields[5].equals(AppointmentStatus.CONFIRMED.name())) {
-
-                    hasAppointments = true;
-                    System.out.println("Appointment ID: " + fields[0]);
-                    System.out.println("Patient ID: " + fields[2]);
-                    System.out.println("Date: " + fields[3]);
-                    System.out.println("Time Slot: " + fields[4]);
-                    System.out.println("Status: " + fields[5]);
-                    System.out.println("-------------------------");
-                }
-            }
-
-            if (!hasAppointments) {
-                System.out.println("No confirmed appointments found for this doctor on " + date + ".");
-            }
-        } catch (IOException e) {
-            System.err.println("Error reading Appointment.csv: " + e.getMessage());
-        }
+    public Page<Appointment> getAgenda(String fromDate, String toDate, String cursor, int pageSize) {
+        TraceRecorder.record(TraceOperation.LIST_AGENDA, doctorID, fromDate, toDate, cursor, String.valueOf(pageSize));
+        return DoctorScheduleIndex.getInstance().getAppointmentsPage(doctorID, fromDate, toDate, AppointmentStatus.CONFIRMED.name(), cursor, pageSize);
     }
 }
@@ -1,11 +1,18 @@
 package usermain;
 
+import admission.AdmissionController;
+import admission.AdmissionController.Workload;
 import enums.UserRole;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
 import usermenu.*;
 import appointment.AppointmentService;
 import appointment.DoctorAvailabilityService;
+import storage.ShardRouter;
+import storage.Storage;
+import storage.Transaction;
+import trace.TraceRecorder;
 
 /**
  * The Main class for the Hospital Management System.
@@ -24,11 +31,15 @@ public class Main {
         Scanner sc = new Scanner(System.in);
         String id, password, name = null;
         String role = null;
-        String filePath = "resources/User.csv"; // Path to User.csv
-        String patientFilePath = "resources/Patient_List.csv"; // Path to Patient_List.csv
         boolean authenticated = false;
         Object user = null;
 
+        // Load every table and build the indexes in parallel before the first login
+        Bootstrap.load();
+
+        // Start recording before the first operation if a trace file is configured
+        TraceRecorder.getInstance();
+
         while (true) { // Main loop to restart login if needed
             System.out.println("==== Login ====");
             System.out.print("Enter your user ID: ");
@@ -36,86 +47,80 @@ public class Main {
             System.out.print("Enter your password: ");
             password = sc.nextLine();
 
-            try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
-                String line;
+            // Work on the shard (clinic) holding the user's data from here on
+            Storage.useShard(ShardRouter.getInstance().route(id));
+
+            // Turn away floods of attempts before the credentials are checked
+            AdmissionController.Permit permit;
+            try {
+                permit = AdmissionController.getInstance().admit(Workload.LOGIN, id, AdmissionController.localSource());
+            } catch (RejectedExecutionException e) {
+                System.out.println(e.getMessage() + "\n");
+                continue;
+            }
+
+            boolean defaultPassword = false;
+            try (permit) {
                 boolean userFound = false;
                 authenticated = false; // Reset authenticated for each login attempt
-                br.readLine(); // Skip header
-
-                while ((line = br.readLine()) != null) {
-                    String[] data = line.split(",");
-                    String userId = data[0];
-                    String userPassword = data[1];
-                    role = data[2];
-                    name = data[3];
-
-                    if (userId.equals(id) && userPassword.equals(password)) {
-                        userFound = true;
-
-                        if (password.equals("password")) {
-                            System.out.println("You are using the default password. Please change your password.");
-
-                            String newPassword, confirmPassword;
-                            while (true) {
-                                System.out.print("Enter new password: ");
-                                newPassword = sc.nextLine();
-                                System.out.print("Confirm new password: ");
-                                confirmPassword = sc.nextLine();
-                                if (newPassword.isEmpty()) {
-                                    System.out.println("Password cannot be empty. Please try again.");
-                                    continue; // Restart the loop to ask for a valid password
-                                }
 
-                                if (newPassword.equals(confirmPassword)) {
-                                    updatePasswordInCSV(filePath, patientFilePath, id, newPassword);
-                                    System.out.println("Password changed successfully. Please login again with your new password.\n");
-                                    break;
-                                } else {
-                                    System.out.println("Passwords do not match. Please try again.");
-                                }
+                // A user who logged in before needs no lookup in User.csv or Patient_List.csv
+                SessionCache.Session session = SessionCache.getInstance().lookup(id, password);
+                if (session != null) {
+                    userFound = true;
+                    authenticated = true;
+                    role = session.getRole();
+                    name = session.getName();
+                    user = session.getUser();
+                } else {
+                    Object versions = SessionCache.getInstance().tableVersions();
+                    for (String[] data : Storage.table(Storage.USER).readAll()) {
+                        String userId = data[0];
+                        String userPassword = data[1];
+                        role = data[2];
+                        name = data[3];
+
+                        if (userId.equals(id) && userPassword.equals(password)) {
+                            userFound = true;
+
+                            if (password.equals("password")) {
+                                // The new password is asked for once the permit is given back
+                                defaultPassword = true;
+                                break;
                             }
-                            // After password change, return to login loop
-                            break;
-                        }
 
-                        authenticated = true;
+                            authenticated = true;
 
-                        if (role.equals(UserRole.PATIENT.name())) {
-                            try (BufferedReader brPatient = new BufferedReader(new FileReader(patientFilePath))) {
-
-                                String linePatient;
-                                brPatient.readLine();
-
-                                while ((linePatient = brPatient.readLine()) != null) {
-                                    String[] dataPatient = linePatient.split(",");
+                            if (role.equals(UserRole.PATIENT.name())) {
+                                String[] dataPatient = Storage.table(Storage.PATIENT_LIST).find(id);
+                                if (dataPatient != null) {
                                     String patientId = dataPatient[0];
+                                    String dob = dataPatient[4];
+                                    String gender = dataPatient[3];
+                                    String contactNo = dataPatient[5];
+                                    String email = dataPatient[6];
+                                    String bloodType = dataPatient[7];
+                                    String pastTreatment = dataPatient[8];
 
-                                    if (patientId.equals(id)) {
-                                        String dob = dataPatient[4];
-                                        String gender = dataPatient[3];
-                                        String contactNo = dataPatient[5];
-                                        String email = dataPatient[6];
-                                        String bloodType = dataPatient[7];
-                                        String pastTreatment = dataPatient[8];
-
-                                        AppointmentService appointmentService = new AppointmentService();
-                                        DoctorAvailabilityService doctorAvailabilityService = new DoctorAvailabilityService();
+                                    AppointmentService appointmentService = new AppointmentService();
+                                    DoctorAvailabilityService doctorAvailabilityService = new DoctorAvailabilityService();
 
-                                        user = new Patient(patientId, password, role, name, dob, gender, contactNo, email, bloodType, pastTreatment, appointmentService, doctorAvailabilityService);
-                                        break;
-                                    }
+                                    user = new Patient(patientId, password, role, name, dob, gender, contactNo, email, bloodType, pastTreatment, appointmentService, doctorAvailabilityService);
                                 }
+                            } else if (role.equals(UserRole.DOCTOR.name())) {
+                                AppointmentService appointmentService = new AppointmentService();
+                                DoctorAvailabilityService doctorAvailabilityService = new DoctorAvailabilityService();
+                                user = new Doctor(id, password, role, name, appointmentService, doctorAvailabilityService);
+                            } else if (role.equals(UserRole.PHARMACIST.name())) {
+                                user = new Pharmacist(id, password, role, name);
+                            } else if (role.equals(UserRole.ADMINISTRATOR.name())) {
+                                user = new Administrator(id);
                             }
-                        } else if (role.equals(UserRole.DOCTOR.name())) {
-                            AppointmentService appointmentService = new AppointmentService();
-                            DoctorAvailabilityService doctorAvailabilityService = new DoctorAvailabilityService();
-                            user = new Doctor(id, password, role, name, appointmentService, doctorAvailabilityService);
-                        } else if (role.equals(UserRole.PHARMACIST.name())) {
-                            user = new Pharmacist(id, password, role, name);
-                        } else if (role.equals(UserRole.ADMINISTRATOR.name())) {
-                            user = new Administrator();
+                            if (user != null) {
+                                SessionCache.getInstance().put(id, password, role, name, user, versions);
+                            }
+                            break;
                         }
-                        break;
                     }
                 }
 
@@ -126,6 +131,36 @@ public class Main {
                 System.err.println("Error reading file: " + e.getMessage());
             }
 
+            if (defaultPassword) {
+                System.out.println("You are using the default password. Please change your password.");
+
+                String newPassword, confirmPassword;
+                while (true) {
+                    System.out.print("Enter new password: ");
+                    newPassword = sc.nextLine();
+                    System.out.print("Confirm new password: ");
+                    confirmPassword = sc.nextLine();
+                    if (newPassword.isEmpty()) {
+                        System.out.println("Password cannot be empty. Please try again.");
+                        continue; // Restart the loop to ask for a valid password
+                    }
+
+                    if (newPassword.equals(confirmPassword)) {
+                        try {
+                            updatePasswordInCSV(id, newPassword);
+                            System.out.println("Password changed successfully. Please login again with your new password.\n");
+                        } catch (IOException e) {
+                            System.err.println("Error writing file: " + e.getMessage());
+                        }
+                        break;
+                    } else {
+                        System.out.println("Passwords do not match. Please try again.");
+                    }
+                }
+                // After password change, return to login loop
+                continue;
+            }
+
             if (authenticated) {
                 break; // Exit loop if authentication is successful
             }
@@ -157,59 +192,26 @@ public class Main {
     }
 
     /**
-     * Updates the password of a user in the specified CSV files.
+     * Updates the password of a user in User.csv and, for patients, in Patient_List.csv.
+     * Both rows are changed in a single transaction.
      *
-     * @param userFilePath      The file path of the User.csv file.
-     * @param patientFilePath   The file path of the Patient_List.csv file.
      * @param userId            The ID of the user whose password needs to be updated.
      * @param newPassword       The new password to set for the user.
-     * @throws IOException if there is an error reading or writing to the files.
+     * @throws IOException if there is an error reading or writing to the tables.
      */
-    private static void updatePasswordInCSV(String userFilePath, String patientFilePath, String userId, String newPassword) throws IOException {
-        // Update password in User.csv
-        List<String> userLines = new ArrayList<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader(userFilePath))) {
-            String line;
-            userLines.add(reader.readLine()); // Read header
-
-            while ((line = reader.readLine()) != null) {
-                String[] data = line.split(",");
-                if (data[0].equals(userId)) {
-                    data[1] = newPassword;
-                    line = String.join(",", data);
-                }
-                userLines.add(line);
-            }
-        }
-
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(userFilePath))) {
-            for (String updatedLine : userLines) {
-                writer.write(updatedLine);
-                writer.newLine();
-            }
-        }
-
-        // Update password in Patient_List.csv (only if the user is a patient)
-        List<String> patientLines = new ArrayList<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader(patientFilePath))) {
-            String line;
-            patientLines.add(reader.readLine()); // Read header
-
-            while ((line = reader.readLine()) != null) {
-                String[] data = line.split(",");
-                if (data[0].equals(userId)) { // Check if this is the patient
-                    data[1] = newPassword;
-                    line = String.join(",", data);
-                }
-                patientLines.add(line);
-            }
-        }
-
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(patientFilePath))) {
-            for (String updatedLine : patientLines) {
-                writer.write(updatedLine);
-                writer.newLine();
-            }
+    private static void updatePasswordInCSV(String userId, String newPassword) throws IOException {
+        try (Transaction transaction = Storage.getEngine().begin()) {
+            transaction.update(Storage.USER, userId, data -> {
+                data[1] = newPassword;
+                return data;
+            });
+            // Only patients have a row in Patient_List.csv
+            transaction.update(Storage.PATIENT_LIST, userId, data -> {
+                data[1] = newPassword;
+                return data;
+            });
+            transaction.commit();
         }
+        SessionCache.getInstance().invalidate(userId);
     }
 }
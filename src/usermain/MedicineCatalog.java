@@ -0,0 +1,256 @@
+package usermain;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import storage.Storage;
+
+/**
+ * The MedicineCatalog class lists the medicines the hospital dispenses, with their unit prices,
+ * as given by Medicine_List.csv. Adding a row to that file adds a medicine; no code needs to
+ * change.
+ *
+ * <p>Each medicine has an ordinal, its position in the catalog, so that per-medicine data can be
+ * kept in arrays. Names are looked up ignoring case and surrounding spaces in an open-addressing
+ * hash table, and a lookup creates no objects, however many medicines are listed.</p>
+ *
+ * <p>Unit prices are held as whole mills, thousandths of a dollar, as some medicines cost a
+ * fraction of a cent per unit. They are read from the {@code Unit Price} column, in dollars.</p>
+ */
+public final class MedicineCatalog {
+    /**
+     * The prescription entered when no medicine is prescribed.
+     */
+    public static final String NO_MEDICINE = "NA";
+
+    private static final int PRICE_COLUMN = 3;
+    private static final int MILLS_PER_DOLLAR = 1000;
+
+    private static final Map<String, MedicineCatalog> INSTANCES = new ConcurrentHashMap<>();
+
+    private final Medicine[] medicines;
+    private final int[] slots;
+    private final int mask;
+
+    /**
+     * Constructs a catalog of the given medicines. Use {@link #getInstance()} to obtain the
+     * current shard's catalog.
+     */
+    private MedicineCatalog(List<Medicine> medicines) {
+        this.medicines = medicines.toArray(new Medicine[0]);
+        int capacity = Integer.highestOneBit(Math.max(4, this.medicines.length * 2 - 1)) << 1;
+        this.slots = new int[capacity];
+        this.mask = capacity - 1;
+        for (Medicine medicine : this.medicines) {
+            int slot = hash(medicine.name, 0, medicine.name.length()) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = medicine.ordinal + 1;
+        }
+    }
+
+    /**
+     * Returns the current shard's medicine catalog, loading it from Medicine_List.csv on first
+     * use. Each shard has a catalog of its own.
+     *
+     * @return The current shard's MedicineCatalog
+     */
+    public static MedicineCatalog getInstance() {
+        return INSTANCES.computeIfAbsent(Storage.currentShard().getName(), shard -> load());
+    }
+
+    /**
+     * Replaces the current shard's catalog with one loaded afresh from Medicine_List.csv, for
+     * example after medicines were added or their prices changed.
+     */
+    public static void reload() {
+        INSTANCES.put(Storage.currentShard().getName(), load());
+    }
+
+    /**
+     * Reads the medicines of Medicine_List.csv in file order. A name listed twice keeps its
+     * first row, and a medicine without a readable price is free.
+     */
+    private static MedicineCatalog load() {
+        List<Medicine> medicines = new ArrayList<>();
+        try {
+            Set<String> names = new HashSet<>();
+            for (String[] fields : Storage.table(Storage.MEDICINE_LIST).readAll()) {
+                String name = fields[0].trim();
+                if (name.isEmpty() || !names.add(name.toUpperCase())) {
+                    continue;
+                }
+                long unitPrice = 0;
+                if (fields.length > PRICE_COLUMN) {
+                    try {
+                        unitPrice = parseMills(fields[PRICE_COLUMN]);
+                    } catch (NumberFormatException e) {
+                        System.err.println("Invalid unit price for " + name + " in Medicine_List.csv: " + fields[PRICE_COLUMN]);
+                    }
+                } else {
+                    System.err.println("No unit price for " + name + " in Medicine_List.csv.");
+                }
+                medicines.add(new Medicine(name, medicines.size(), unitPrice));
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading Medicine_List.csv: " + e.getMessage());
+        }
+        return new MedicineCatalog(medicines);
+    }
+
+    /**
+     * Finds a medicine by name, ignoring case and surrounding spaces.
+     *
+     * @param name The medicine name
+     * @return The medicine, or null if it is not in the catalog
+     */
+    public Medicine get(String name) {
+        if (name == null) {
+            return null;
+        }
+        int start = 0;
+        int end = name.length();
+        while (start < end && name.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && name.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        int length = end - start;
+        for (int slot = hash(name, start, end) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            Medicine medicine = medicines[slots[slot] - 1];
+            if (medicine.name.length() == length && medicine.name.regionMatches(true, 0, name, start, length)) {
+                return medicine;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets a medicine by its ordinal.
+     *
+     * @param ordinal The ordinal, from 0 to {@link #size()} - 1
+     * @return The medicine
+     */
+    public Medicine get(int ordinal) {
+        return medicines[ordinal];
+    }
+
+    /**
+     * Gets the number of medicines in the catalog.
+     *
+     * @return The number of medicines
+     */
+    public int size() {
+        return medicines.length;
+    }
+
+    /**
+     * Gets every medicine in the catalog, in ordinal order.
+     *
+     * @return An unmodifiable list of the medicines
+     */
+    public List<Medicine> getMedicines() {
+        return Collections.unmodifiableList(Arrays.asList(medicines));
+    }
+
+    /**
+     * Tells whether a row of Medicine_List.csv is in the catalog with the same unit price, so
+     * that a change to the row, such as a new stock level, leaves the catalog as it is.
+     *
+     * @param fields The fields of the row
+     * @return true if the catalog already describes the row
+     */
+    public boolean describes(String[] fields) {
+        Medicine medicine = get(fields[0]);
+        if (medicine == null) {
+            return false;
+        }
+        try {
+            return fields.length <= PRICE_COLUMN ? medicine.unitPrice == 0 : medicine.unitPrice == parseMills(fields[PRICE_COLUMN]);
+        } catch (NumberFormatException e) {
+            return medicine.unitPrice == 0;
+        }
+    }
+
+    /**
+     * Parses a price in dollars, such as "0.125" or "12", into mills without rounding.
+     *
+     * @param dollars The price in dollars, with at most three decimal places
+     * @return The price in mills
+     * @throws NumberFormatException if the price is not a non-negative amount of whole mills
+     */
+    static long parseMills(String dollars) {
+        String price = dollars.trim();
+        int point = price.indexOf('.');
+        String whole = point < 0 ? price : price.substring(0, point);
+        String fraction = point < 0 ? "" : price.substring(point + 1);
+        if ((whole.isEmpty() && fraction.isEmpty()) || fraction.length() > 3
+                || !whole.chars().allMatch(Character::isDigit) || !fraction.chars().allMatch(Character::isDigit)) {
+            throw new NumberFormatException("Not a price: " + dollars);
+        }
+        long mills = whole.isEmpty() ? 0 : Math.multiplyExact(Long.parseLong(whole), MILLS_PER_DOLLAR);
+        return mills + Long.parseLong((fraction + "000").substring(0, 3));
+    }
+
+    /**
+     * Hashes the characters of a name in [start, end), folding case the way
+     * {@link String#regionMatches(boolean, int, String, int, int)} compares them.
+     */
+    private static int hash(String name, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + Character.toLowerCase(Character.toUpperCase(name.charAt(i)));
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * One medicine of the catalog.
+     */
+    public static final class Medicine {
+        private final String name;
+        private final int ordinal;
+        private final long unitPrice;
+
+        private Medicine(String name, int ordinal, long unitPrice) {
+            this.name = name;
+            this.ordinal = ordinal;
+            this.unitPrice = unitPrice;
+        }
+
+        /**
+         * Gets the medicine's name as written in Medicine_List.csv.
+         *
+         * @return The name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Gets the medicine's position in the catalog.
+         *
+         * @return The ordinal
+         */
+        public int getOrdinal() {
+            return ordinal;
+        }
+
+        /**
+         * Gets the price of one unit.
+         *
+         * @return The unit price in mills
+         */
+        public long getUnitPriceMills() {
+            return unitPrice;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package usermain;
+
+/**
+ * The MedicineStock class is an immutable view of a single row of Medicine_List.csv.
+ */
+public final class MedicineStock {
+    private final String medicineName;
+    private final int stock;
+    private final int lowStockLevel;
+
+    /**
+     * Constructs a new MedicineStock with the provided details.
+     *
+     * @param medicineName  The name of the medicine
+     * @param stock         The current stock level
+     * @param lowStockLevel The stock level at which a low stock alert is raised
+     */
+    public MedicineStock(String medicineName, int stock, int lowStockLevel) {
+        this.medicineName = medicineName;
+        this.stock = stock;
+        this.lowStockLevel = lowStockLevel;
+    }
+
+    /**
+     * Creates a MedicineStock from the fields of a row in Medicine_List.csv.
+     *
+     * @param fields The split fields of the row
+     * @return The medicine stock, or null if the row is malformed
+     */
+    public static MedicineStock fromFields(String[] fields) {
+        if (fields.length < 3) {
+            return null;
+        }
+        try {
+            return new MedicineStock(fields[0].trim(), Integer.parseInt(fields[1].trim()), Integer.parseInt(fields[2].trim()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Gets the name of the medicine.
+     *
+     * @return The medicine name
+     */
+    public String getMedicineName() {
+        return medicineName;
+    }
+
+    /**
+     * Gets the current stock level.
+     *
+     * @return The stock level
+     */
+    public int getStock() {
+        return stock;
+    }
+
+    /**
+     * Gets the stock level at which a low stock alert is raised.
+     *
+     * @return The low stock alert level
+     */
+    public int getLowStockLevel() {
+        return lowStockLevel;
+    }
+
+    /**
+     * Checks whether the medicine is at or below its low stock alert level.
+     *
+     * @return true if the stock is low; false otherwise
+     */
+    public boolean isLowStock() {
+        return stock <= lowStockLevel;
+    }
+}
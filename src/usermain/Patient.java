@@ -1,14 +1,18 @@
 package usermain;
 
 import enums.AppointmentStatus;
+import appointment.Appointment;
 import appointment.AppointmentManager;
+import appointment.AppointmentRecord;
+import appointment.AvailabilitySlot;
 import appointment.DoctorAvailabilityManager;
-import java.io.BufferedReader;
-import java.io.FileReader;
+import appointment.DoctorScheduleIndex;
+import paging.Page;
+import storage.Storage;
+import trace.TraceOperation;
+import trace.TraceRecorder;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
-import java.io.*;
 
 /**
  * The Patient class represents a patient in the hospital management system.
@@ -68,7 +72,13 @@ public class Patient extends User {
      * Displays the patient's medical record, including personal details and past treatments.
      */
     public void viewMedicalRecord() {
-        updatePastTreatmentFromCSV(); // Update pastTreatment field before viewing
+        // Reread the past treatments only if a doctor may have updated them since they were read
+        SessionCache sessions = SessionCache.getInstance();
+        if (!sessions.isCurrent(patientID, this)) {
+            Object versions = sessions.tableVersions();
+            updatePastTreatmentFromCSV();
+            sessions.put(patientID, getPassword(), getRole(), getName(), this, versions);
+        }
 
         System.out.println("Medical Record:");
         System.out.println("Patient ID: " + patientID);
@@ -96,17 +106,10 @@ public class Patient extends User {
      * Updates the pastTreatment field by reading data from the Patient_List.csv file.
      */
     private void updatePastTreatmentFromCSV() {
-        String filePath = "resources/Patient_List.csv";
-        try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
-            String line;
-            reader.readLine(); // Skip header line
-
-            while ((line = reader.readLine()) != null) {
-                String[] fields = line.split(",");
-                if (fields[0].equals(patientID)) {
-                    this.pastTreatment = fields[8]; // PastTreatment field contains AppointmentID, Diagnosis, and Treatment Plan
-                    break;
-                }
+        try {
+            String[] fields = Storage.table(Storage.PATIENT_LIST).find(patientID);
+            if (fields != null) {
+                this.pastTreatment = fields[8]; // PastTreatment field contains AppointmentID, Diagnosis, and Treatment Plan
             }
         } catch (IOException e) {
             System.err.println("Error reading Patient_List.csv: " + e.getMessage());
@@ -120,10 +123,13 @@ public class Patient extends User {
      * @param newContactNo The new contact number of the patient
      */
     public void updatePersonalInfo(String newEmail, String newContactNo) {
+        TraceRecorder.record(TraceOperation.UPDATE_PERSONAL_INFO, patientID, newEmail, newContactNo);
         this.email = newEmail;
         this.contactNo = newContactNo;
 
-        if (updatePatientInfoInCSV(this.patientID, newEmail, newContactNo)) {
+        boolean updated = updatePatientInfoInCSV(this.patientID, newEmail, newContactNo);
+        SessionCache.getInstance().invalidate(patientID);
+        if (updated) {
             System.out.println("Personal information updated successfully.");
         } else {
             System.out.println("Failed to update personal information in CSV file.");
@@ -139,44 +145,15 @@ public class Patient extends User {
      * @return true if the update was successful, false otherwise
      */
     private boolean updatePatientInfoInCSV(String patientID, String newEmail, String newContactNo) {
-        String filePath = "resources/Patient_List.csv";
-        List<String[]> records = new ArrayList<>();
-        boolean isUpdated = false;
-
-        // Read the CSV file and store each record in a list
-        try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
-            String line = reader.readLine(); // Read header line
-            if (line != null) {
-                records.add(line.split(",")); // Add header to records
-            }
-
-            while ((line = reader.readLine()) != null) {
-                String[] fields = line.split(",");
-                // Check if this is the record to be updated
-                if (fields[0].equals(patientID)) {
-                    fields[5] = newContactNo; // Update contact number
-                    fields[6] = newEmail; // Update email
-                    isUpdated = true;
-                }
-                records.add(fields);
-            }
-        } catch (IOException e) {
-            System.err.println("Error reading Patient_List.csv: " + e.getMessage());
-            return false;
-        }
-
-        // Write the updated records back to the CSV file
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filePath))) {
-            for (String[] record : records) {
-                writer.write(String.join(",", record));
-                writer.newLine();
-            }
+        try {
+            return Storage.updateRow(Storage.PATIENT_LIST, patientID, fields -> {
+                fields[5] = newContactNo; // Update contact number
+                fields[6] = newEmail; // Update email
+            }) != null;
         } catch (IOException e) {
             System.err.println("Error writing to Patient_List.csv: " + e.getMessage());
             return false;
         }
-
-        return isUpdated;
     }
 
     /**
@@ -193,6 +170,26 @@ public class Patient extends User {
         }
     }
 
+    /**
+     * Displays the available appointment slots between two dates, for one doctor or for every
+     * doctor, in chronological order.
+     *
+     * @param doctorID The doctor's ID, or null for every doctor
+     * @param fromDate The first date in DD-MM-YY format
+     * @param toDate   The last date in DD-MM-YY format
+     */
+    public void viewAvailableAppointmentSlots(String doctorID, String fromDate, String toDate) {
+        List<AvailabilitySlot> availableSlots = availabilityManager.findAvailableSlots(doctorID, fromDate, toDate);
+        if (availableSlots.isEmpty()) {
+            System.out.println("No available slots from " + fromDate + " to " + toDate + ".");
+            return;
+        }
+        System.out.println("Available Slots:");
+        for (AvailabilitySlot slot : availableSlots) {
+            System.out.printf("Doctor: %s (%s), Date: %s, Time Slot: %s%n", slot.getDoctorName(), slot.getDoctorID(), slot.getDate(), slot.getTimeSlot());
+        }
+    }
+
     /**
      * Schedules a new appointment for the patient.
      *
@@ -226,85 +223,26 @@ public class Patient extends User {
     }
 
     /**
-     * Displays the outcomes of past completed appointments for the patient.
+     * Retrieves one page of the outcomes of the patient's past completed appointments.
+     * Each record in AppointmentRecord.csv and in the archive is matched against the
+     * appointment schedule index, so Appointment.csv is not re-read for every page.
+     *
+     * @param cursor   The cursor returned with the previous page, or null for the first page
+     * @param pageSize The maximum number of records on the page
+     * @return The page of appointment outcome records, or an empty page if the records cannot be read
      */
-    public void viewPastAppointmentOutcome() {
-        String appointmentFilePath = "resources/Appointment.csv";
-        String recordFilePath = "resources/AppointmentRecord.csv";
-        System.out.println("Past Appointment Outcomes for Patient ID: " + patientID);
-
-        // List to store completed appointment IDs for this patient
-        List<String> completedAppointments = new ArrayList<>();
-
-        // Step 1: Read Appointment.csv to find completed appointments for this patient
-        try (BufferedReader appointmentReader = new BufferedReader(new FileReader(appointmentFilePath))) {
-            String line = appointmentReader.readLine(); // Skip header line
-
-            while ((line = appointmentReader.readLine()) != null) {
-                String[] fields = line.split(",");
-
-                // Check if the line has the expected number of fields
-                if (fields.length < 6) {
-                    System.out.println("Skipping malformed line in Appointment.csv: " + line);
-                    continue;
-                }
-
-                String appointmentID = fields[0];
-                String appointmentPatientID = fields[2];
-                String status = fields[5];
-
-                // If the appointment is completed for the current patient, store the appointmentID
-                if (appointmentPatientID.equals(patientID) && status.equalsIgnoreCase(AppointmentStatus.COMPLETED.name())) {
-                    completedAppointments.add(appointmentID);
-                }
-            }
-
-            if (completedAppointments.isEmpty()) {
-                System.out.println("No completed appointments found for this patient.");
-                return;
-            }
-        } catch (IOException e) {
-            System.err.println("Error reading Appointment.csv: " + e.getMessage());
-            return;
-        }
-
-        // Step 2: Read AppointmentRecord.csv to print details for completed appointments
-        try (BufferedReader recordReader = new BufferedReader(new FileReader(recordFilePath))) {
-            String line;
-            boolean hasRecord = false;
-
-            while ((line = recordReader.readLine()) != null) {
-                String[] fields = line.split(",");
-
-                // Check if the line has the expected number of fields
-                if (fields.length < 9) {
-                    //System.out.println("Skipping malformed line in AppointmentRecord.csv: " + line);
-                    continue;
-                }
-
-                String appointmentID = fields[0];
-
-                // If the appointmentID is in the completedAppointments list, print the record
-                if (completedAppointments.contains(appointmentID)) {
-                    hasRecord = true;
-                    System.out.println("Appointment ID: " + fields[0]);
-                    System.out.println("Diagnosis: " + fields[1]);
-                    System.out.println("Prescription Medicine: " + fields[2]);
-                    System.out.println("Prescription Quantity: " + fields[3]);
-                    System.out.println("Prescription Status: " + fields[4]);
-                    System.out.println("Treatment Plan: " + fields[5]);
-                    System.out.println("Date: " + fields[6]);
-                    System.out.println("Type of Service: " + fields[7]);
-                    System.out.println("Consultation Notes: " + fields[8]);
-                    System.out.println("-------------------------");
-                }
-            }
-
-            if (!hasRecord) {
-                System.out.println("No past appointment records found in AppointmentRecord.csv for this patient.");
-            }
+    public Page<AppointmentRecord> getPastAppointmentOutcomes(String cursor, int pageSize) {
+        TraceRecorder.record(TraceOperation.LIST_PAST_OUTCOMES, patientID, cursor, String.valueOf(pageSize));
+        DoctorScheduleIndex scheduleIndex = DoctorScheduleIndex.getInstance();
+        try {
+            return Storage.history(Storage.APPOINTMENT_RECORD).scan(cursor, pageSize, fields -> {
+                Appointment appointment = scheduleIndex.get(fields[0]);
+                return AppointmentRecord.fromFields(fields) != null && appointment != null && appointment.getPatientID().equals(patientID)
+                        && appointment.getStatus().equalsIgnoreCase(AppointmentStatus.COMPLETED.name());
+            }).map(AppointmentRecord::fromFields);
         } catch (IOException e) {
             System.err.println("Error reading AppointmentRecord.csv: " + e.getMessage());
+            return Page.empty();
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,210 @@
+package usermain;
+
+import appointment.Appointment;
+import appointment.DoctorScheduleIndex;
+import enums.AppointmentStatus;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import storage.Storage;
+import storage.Table;
+
+/**
+ * The PatientBillIndex class keeps every bill, live or archived, grouped by patient, so that a
+ * patient's {@link BillingStatement} is built from their own bills without reading Bill.csv or
+ * Appointment.csv. The index is read again from the bill and payment tables whenever either has
+ * been written since, by this or any other process.
+ *
+ * <p>Paying bills never rewrites Bill.csv: each payment is a row of BillPayment.csv naming the
+ * appointment, the amount and the feedback, and a bill is paid once a payment for its
+ * appointment is recorded. Paying several bills appends all their payments at once. Bills marked
+ * paid in Bill.csv itself, as older versions did, stay paid.</p>
+ */
+public final class PatientBillIndex {
+    private static final Map<String, PatientBillIndex> INSTANCES = new ConcurrentHashMap<>();
+
+    private final Map<String, List<Entry>> entriesByPatient = new HashMap<>();
+    private final Map<String, List<Entry>> entriesByAppointment = new HashMap<>();
+    private Object loadedVersion;
+
+    /**
+     * Constructs an empty index. Use {@link #getInstance()} to obtain the shared index.
+     */
+    private PatientBillIndex() {
+    }
+
+    /**
+     * Returns the current shard's bill index, loading it from the bills and payments on first
+     * use and again whenever they have been written since. Each shard has an index of its own.
+     *
+     * @return The current shard's PatientBillIndex
+     */
+    public static PatientBillIndex getInstance() {
+        PatientBillIndex index = INSTANCES.computeIfAbsent(Storage.currentShard().getName(), shard -> new PatientBillIndex());
+        index.load();
+        return index;
+    }
+
+    /**
+     * Reads every bill and payment, archived ones included, unless the index was already loaded
+     * from the current versions of both tables.
+     */
+    private synchronized void load() {
+        try {
+            Object version = List.of(Storage.currentVersion(Storage.BILL), Storage.currentVersion(Storage.BILL_PAYMENT));
+            if (version.equals(loadedVersion)) {
+                return;
+            }
+            entriesByPatient.clear();
+            entriesByAppointment.clear();
+            Map<String, Deque<String>> payments = readPayments(Storage.history(Storage.BILL_PAYMENT));
+            Storage.history(Storage.BILL).scan(fields -> {
+                Bill bill = Bill.fromFields(fields);
+                if (bill != null) {
+                    add(applyPayment(bill, payments));
+                }
+                return true;
+            });
+            loadedVersion = version;
+        } catch (IOException e) {
+            System.err.println("Error reading Bill.csv: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the feedback of every payment, grouped by appointment ID in the order paid.
+     *
+     * @param payments The BillPayment table
+     * @return The feedback of each appointment's payments
+     * @throws IOException if the table cannot be read
+     */
+    static Map<String, Deque<String>> readPayments(Table payments) throws IOException {
+        Map<String, Deque<String>> feedback = new HashMap<>();
+        payments.scan(fields -> {
+            if (fields.length >= 2) {
+                feedback.computeIfAbsent(fields[0], id -> new ArrayDeque<>()).add(fields.length > 2 ? fields[2] : "");
+            }
+            return true;
+        });
+        return feedback;
+    }
+
+    /**
+     * Marks a pending bill paid if a payment for its appointment is left over. Each payment pays
+     * one bill, the earliest pending one of its appointment.
+     *
+     * @param bill     The bill as read from Bill.csv
+     * @param payments The feedback of the payments not yet matched to a bill, which is updated
+     * @return The bill, paid if a payment was matched to it
+     */
+    static Bill applyPayment(Bill bill, Map<String, Deque<String>> payments) {
+        if (!bill.isOutstanding()) {
+            return bill;
+        }
+        Deque<String> feedback = payments.get(bill.getAppointmentID());
+        return feedback == null || feedback.isEmpty() ? bill : bill.paid(feedback.poll());
+    }
+
+    private void add(Bill bill) {
+        Entry entry = new Entry(bill.getPatientID(), bill);
+        entriesByAppointment.computeIfAbsent(bill.getAppointmentID(), id -> new ArrayList<>()).add(entry);
+        if (entry.patientID != null) {
+            entriesByPatient.computeIfAbsent(entry.patientID, id -> new ArrayList<>()).add(entry);
+        }
+    }
+
+    /**
+     * Builds a patient's statement from the bills of their completed appointments.
+     *
+     * @param patientID The unique ID of the patient
+     * @return The statement
+     */
+    public synchronized BillingStatement getStatement(String patientID) {
+        List<Bill> bills = new ArrayList<>();
+        DoctorScheduleIndex schedule = DoctorScheduleIndex.getInstance();
+        for (Entry entry : entriesByPatient.getOrDefault(patientID, Collections.emptyList())) {
+            Appointment appointment = schedule.get(entry.bill.getAppointmentID());
+            if (appointment != null && appointment.getStatus().equalsIgnoreCase(AppointmentStatus.COMPLETED.name())) {
+                bills.add(entry.bill);
+            }
+        }
+        return new BillingStatement(patientID, bills);
+    }
+
+    /**
+     * Checks whether an appointment has a bill still to be paid.
+     *
+     * @param appointmentID The appointment ID
+     * @return true if one of its bills is pending; false otherwise
+     */
+    public synchronized boolean isOutstanding(String appointmentID) {
+        for (Entry entry : entriesByAppointment.getOrDefault(appointmentID, Collections.emptyList())) {
+            if (entry.bill.isOutstanding()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Pays bills taken from a statement, appending all their payments to BillPayment.csv in one
+     * write forced to disk, together with their changes to the stored billing totals, and moves
+     * their amounts from pending to paid in the running totals.
+     * Each bill pays the earliest pending bill of its appointment, as the payments recorded when
+     * the transaction commits leave it. The transaction reads the payment table before the index
+     * is brought up to date, so a payment recorded by another session in the meantime makes the
+     * commit fail and the bills are checked again; bills paid by someone else since the statement
+     * was built are skipped.
+     *
+     * @param payments The bills to pay, each with the feedback left with its payment
+     * @return The bills paid
+     * @throws IOException if the payments cannot be written; no bill is paid then
+     */
+    public synchronized List<Bill> pay(Map<Bill, String> payments) throws IOException {
+        BillingLedger ledger = BillingLedger.getInstance();
+        Map<Entry, Bill> paid = new LinkedHashMap<>();
+        Storage.inTransaction(transaction -> {
+            transaction.read(Storage.BILL_PAYMENT);
+            load();
+            paid.clear();
+            for (Map.Entry<Bill, String> payment : payments.entrySet()) {
+                for (Entry entry : entriesByAppointment.getOrDefault(payment.getKey().getAppointmentID(), Collections.emptyList())) {
+                    if (entry.bill.isOutstanding() && !paid.containsKey(entry)) {
+                        paid.put(entry, entry.bill.paid(payment.getValue()));
+                        break;
+                    }
+                }
+            }
+            if (!paid.isEmpty()) {
+                List<Bill> bills = new ArrayList<>(paid.values());
+                for (Bill bill : bills) {
+                    transaction.append(Storage.BILL_PAYMENT,
+                            new String[]{bill.getAppointmentID(), BillingLedger.toAmount(bill.getAmountCents()), bill.getFeedback()});
+                }
+                ledger.appendPayments(transaction, bills);
+                transaction.syncOnCommit();
+            }
+            return null;
+        });
+        if (paid.isEmpty()) {
+            return Collections.emptyList();
+        }
+        paid.forEach((entry, bill) -> entry.bill = bill);
+        List<Bill> bills = new ArrayList<>(paid.values());
+        ledger.recordPayments(bills);
+        return bills;
+    }
+
+    /**
+     * A bill and the patient it belongs to. The bill is replaced when it is paid.
+     */
+    private static final class Entry {
+        private final String patientID;
+        private Bill bill;
+
+        Entry(String patientID, Bill bill) {
+            this.patientID = patientID;
+            this.bill = bill;
+        }
+    }
+}
@@ -1,13 +1,22 @@
 package usermain;
 
-import enums.BillStatus;
+import appointment.PrescriptionQueue;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.io.*;
-import java.util.Random;
+import java.io.IOException;
 import enums.PrescriptionStatus;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
+import paging.Page;
+import storage.Storage;
+import storage.Transaction;
+import storage.WriteConflictException;
+import trace.TraceOperation;
+import trace.TraceRecorder;
 
 /**
  * Represents a Pharmacist user in the Hospital Management System.
@@ -15,14 +24,7 @@ import java.util.Map;
  * updating prescription statuses, managing medication inventory, submitting replenishment requests, and generating bills.
  */
 public class Pharmacist extends User {
-    private static final Map<String, Double> MEDICINE_PRICES = new HashMap<>();
-
-    static {
-        // Initialize medicine prices
-        MEDICINE_PRICES.put("paracetamol", 0.125);
-        MEDICINE_PRICES.put("ibuprofen", 0.50);
-        MEDICINE_PRICES.put("amoxicillin", 0.95);
-    }
+    private static final String REQUEST_ID_PREFIX = "RR";
 
     /**
      * Constructor to initialize a Pharmacist object with full user details.
@@ -51,20 +53,15 @@ public class Pharmacist extends User {
      * @param appointmentID The ID of the appointment to view.
      */
     public void viewAppointmentOutcome(String appointmentID) {
-        String appointmentFilePath = "resources/Appointment.csv";
-        String recordFilePath = "resources/AppointmentRecord.csv";
         System.out.println("Appointment Outcome for Appointment ID: " + appointmentID);
 
         // Verify that the appointment is completed
         boolean isCompleted = false;
 
-        try (BufferedReader appointmentReader = new BufferedReader(new FileReader(appointmentFilePath))) {
-            String line = appointmentReader.readLine(); // Skip header line
-
-            while ((line = appointmentReader.readLine()) != null) {
-                String[] fields = line.split(",");
+        try {
+            for (String[] fields : Storage.table(Storage.APPOINTMENT).readAll()) {
                 if (fields.length < 6) {
-                    System.out.println("Skipping malformed line in Appointment.csv: " + line);
+                    System.out.println("Skipping malformed line in Appointment.csv: " + String.join(",", fields));
                     continue;
                 }
 
@@ -87,12 +84,10 @@ public class Pharmacist extends User {
         }
 
         // Read AppointmentRecord.csv to display appointment details
-        try (BufferedReader recordReader = new BufferedReader(new FileReader(recordFilePath))) {
-            String line;
+        try {
             boolean hasRecord = false;
 
-            while ((line = recordReader.readLine()) != null) {
-                String[] fields = line.split(",");
+            for (String[] fields : Storage.table(Storage.APPOINTMENT_RECORD).readAll()) {
                 if (fields.length < 9) continue;
 
                 String recordAppointmentID = fields[0];
@@ -127,124 +122,234 @@ public class Pharmacist extends User {
      * @param appointmentID The ID of the appointment for which the prescription is being updated.
      */
     public void updatePrescriptionStatus(String appointmentID) {
-        String recordFilePath = "resources/AppointmentRecord.csv";
-        String medicineFilePath = "resources/Medicine_List.csv";
-        boolean appointmentFound = false;
-        boolean stockSufficient = false;
-        List<String[]> records = new ArrayList<>();
-        String prescribedMedicine = "";
-        int prescribedQuantity = 0;
+        TraceRecorder.record(TraceOperation.DISPENSE_PRESCRIPTION, getId(), appointmentID);
+        dispense(Collections.singletonList(appointmentID));
+    }
 
-        // Read AppointmentRecord.csv to find the appointment and prescription details
-        try (BufferedReader recordReader = new BufferedReader(new FileReader(recordFilePath))) {
-            String line;
+    /**
+     * Gets the prescription that has been waiting longest to be dispensed.
+     *
+     * @return The AppointmentRecord row, or null if no prescription is waiting
+     */
+    public String[] getNextPrescription() {
+        return PrescriptionQueue.getInstance().peek();
+    }
 
-            while ((line = recordReader.readLine()) != null) {
-                String[] fields = line.split(",");
-                if (fields[0].equals(appointmentID)) {
-                    appointmentFound = true;
-                    prescribedMedicine = fields[2];
-                    prescribedQuantity = Integer.parseInt(fields[3]);
+    /**
+     * Dispenses the prescription that has been waiting longest, if its medicine is in stock.
+     *
+     * @return true if a prescription was dispensed
+     */
+    public boolean dispenseNextPrescription() {
+        String[] next = getNextPrescription();
+        if (next == null) {
+            System.out.println("No prescriptions are waiting to be dispensed.");
+            return false;
+        }
+        TraceRecorder.record(TraceOperation.DISPENSE_PRESCRIPTION, getId(), next[0]);
+        return dispense(Collections.singletonList(next[0])) > 0;
+    }
 
-                    if (!fields[4].equalsIgnoreCase(PrescriptionStatus.PENDING.name())) {
-                        System.out.println("Prescription is already dispensed for this appointment.");
-                        return;
-                    }
-                }
-                records.add(fields);
-            }
-        } catch (IOException e) {
-            System.err.println("Error reading AppointmentRecord.csv: " + e.getMessage());
-            return;
+    /**
+     * Dispenses every waiting prescription whose medicine is in stock, oldest first, saving
+     * the records and the inventory once for all of them. Prescriptions short of stock stay in
+     * the queue.
+     *
+     * @return The number of prescriptions dispensed
+     */
+    public int dispenseAllReady() {
+        List<String> appointmentIDs = new ArrayList<>();
+        for (String[] record : PrescriptionQueue.getInstance().peek(Integer.MAX_VALUE)) {
+            TraceRecorder.record(TraceOperation.DISPENSE_PRESCRIPTION, getId(), record[0]);
+            appointmentIDs.add(record[0]);
+        }
+        if (appointmentIDs.isEmpty()) {
+            System.out.println("No prescriptions are waiting to be dispensed.");
+            return 0;
         }
+        return dispense(appointmentIDs);
+    }
 
-        if (!appointmentFound) {
-            System.out.println("Appointment ID " + appointmentID + " not found.");
-            return;
+    /**
+     * Dispenses the waiting prescriptions of the given appointments in order, while stock lasts.
+     * The prescriptions are claimed from the queue first, and those the stock last read can
+     * cover are dispensed in one transaction of keyed updates: each claimed record goes from
+     * pending to dispensed and each medicine's stock is decremented by the total taken, failing
+     * if another process dispensed a record or took the stock first. The prescriptions of a
+     * batch that fails are then dispensed one at a time. Each dispensed prescription is billed.
+     *
+     * @param appointmentIDs The appointment IDs, in the order to dispense them
+     * @return The number of prescriptions dispensed
+     */
+    private int dispense(List<String> appointmentIDs) {
+        PrescriptionQueue queue = PrescriptionQueue.getInstance();
+        List<String[]> claimed = new ArrayList<>();
+        for (String appointmentID : appointmentIDs) {
+            String[] prescription = queue.claim(appointmentID);
+            if (prescription != null) {
+                claimed.add(prescription);
+            } else {
+                reportNotWaiting(appointmentID);
+            }
+        }
+        if (claimed.isEmpty()) {
+            return 0;
         }
 
-        // Check stock in Medicine_List.csv
-        List<String[]> medicineList = new ArrayList<>();
-        try (BufferedReader medicineReader = new BufferedReader(new FileReader(medicineFilePath))) {
-            String line;
+        List<String[]> dispensed = new ArrayList<>();
+        Set<String> dispensedIDs = new HashSet<>();
+        Set<String> stale = Collections.synchronizedSet(new HashSet<>());
+        try {
+            // Choose the prescriptions that the stock in Medicine_List.csv can cover, oldest first
+            MedicineCatalog catalog = MedicineCatalog.getInstance();
+            Map<String, Integer> available = new HashMap<>();
+            List<String[]> planned = new ArrayList<>();
+            for (String[] prescription : claimed) {
+                String prescribedMedicine = prescription[2];
+                int prescribedQuantity = Integer.parseInt(prescription[3].trim());
+                MedicineCatalog.Medicine medicine = catalog.get(prescribedMedicine);
+                String[] stock = medicine == null || available.containsKey(medicine.getName()) ? null
+                        : Storage.table(Storage.MEDICINE_LIST).find(medicine.getName());
+                if (stock != null) {
+                    available.put(medicine.getName(), Integer.parseInt(stock[1].trim()));
+                }
+                if (medicine == null || !available.containsKey(medicine.getName())) {
+                    System.out.println("Medicine " + prescribedMedicine + " not found.");
+                    continue;
+                }
+                int currentStock = available.get(medicine.getName());
+                if (currentStock >= prescribedQuantity) {
+                    available.put(medicine.getName(), currentStock - prescribedQuantity);
+                    planned.add(prescription);
+                } else {
+                    System.out.println("Insufficient stock for " + prescribedMedicine + ". Please submit a stock replenishment request.");
+                }
+            }
 
-            while ((line = medicineReader.readLine()) != null) {
-                String[] fields = line.split(",");
-                if (fields[0].equalsIgnoreCase(prescribedMedicine)) {
-                    int currentStock = Integer.parseInt(fields[1]);
-                    if (currentStock >= prescribedQuantity) {
-                        stockSufficient = true;
-                        currentStock -= prescribedQuantity;
-                        fields[1] = String.valueOf(currentStock);
-                        System.out.println("Dispensed " + prescribedQuantity + " units of " + prescribedMedicine + ". Updated stock: " + currentStock);
-                    } else {
-                        System.out.println("Insufficient stock for " + prescribedMedicine + ". Please submit a stock replenishment request.");
-                        return;
+            if (!planned.isEmpty()) {
+                try {
+                    commitDispense(planned, stale);
+                    dispensed.addAll(planned);
+                } catch (WriteConflictException e) {
+                    // Another process changed a record or a stock first; dispense one at a time
+                    for (String[] prescription : planned) {
+                        try {
+                            commitDispense(Collections.singletonList(prescription), stale);
+                            dispensed.add(prescription);
+                        } catch (WriteConflictException conflict) {
+                            System.out.println(conflict.getMessage());
+                        }
                     }
                 }
-                medicineList.add(fields);
+                for (String[] prescription : dispensed) {
+                    dispensedIDs.add(prescription[0]);
+                    System.out.println("Dispensed " + prescription[3].trim() + " units of " + prescription[2] + " for appointment "
+                            + prescription[0] + ".");
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error dispensing prescriptions: " + e.getMessage());
+        } finally {
+            for (String[] prescription : claimed) {
+                if (dispensedIDs.contains(prescription[0]) || stale.contains(prescription[0])) {
+                    queue.complete(prescription[0]);
+                } else {
+                    queue.release(prescription[0]);
+                }
             }
-        } catch (IOException e) {
-            System.err.println("Error reading Medicine_List.csv: " + e.getMessage());
-            return;
         }
 
-        if (!stockSufficient) {
-            System.out.println("Medicine " + prescribedMedicine + " not found.");
-            return;
+        // Bill the dispensed prescriptions together after dispensing the medicine
+        try (BillBatch batch = new BillBatch()) {
+            for (String[] prescription : dispensed) {
+                batch.add(prescription[0], prescription[2], Integer.parseInt(prescription[3].trim()));
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing to Bill.csv: " + e.getMessage());
         }
+        return dispensed.size();
+    }
 
-        // Update the prescription status and medicine inventory
-        try (BufferedWriter recordWriter = new BufferedWriter(new FileWriter(recordFilePath))) {
-            for (String[] fields : records) {
-                if (fields[0].equals(appointmentID)) {
-                    fields[4] = PrescriptionStatus.DISPENSED.name();
-                }
-                recordWriter.write(String.join(",", fields));
-                recordWriter.newLine();
+    /**
+     * Marks the records of prescriptions dispensed and takes their medicine from stock, all in
+     * one transaction of keyed updates. Nothing is written if a record is no longer pending,
+     * in which case its appointment ID is added to the stale set, or if a medicine's stock is
+     * short of the total prescribed.
+     *
+     * @param prescriptions The prescriptions to dispense, all of medicines in the catalog
+     * @param stale         Collects the appointment IDs whose records were already dispensed
+     * @throws WriteConflictException if a record is not pending or a stock is too low
+     * @throws IOException            if the tables cannot be written
+     */
+    private static void commitDispense(List<String[]> prescriptions, Set<String> stale) throws IOException {
+        MedicineCatalog catalog = MedicineCatalog.getInstance();
+        Map<String, Integer> quantities = new LinkedHashMap<>();
+        try (Transaction transaction = Storage.getEngine().begin()) {
+            for (String[] prescription : prescriptions) {
+                String appointmentID = prescription[0];
+                transaction.update(Storage.APPOINTMENT_RECORD, appointmentID, record -> {
+                    if (record.length < 5 || !record[4].equalsIgnoreCase(PrescriptionStatus.PENDING.name())) {
+                        stale.add(appointmentID);
+                        throw new WriteConflictException(Storage.APPOINTMENT_RECORD,
+                                "Prescription is already dispensed for appointment " + appointmentID + ".");
+                    }
+                    record[4] = PrescriptionStatus.DISPENSED.name();
+                    return record;
+                });
+                quantities.merge(catalog.get(prescription[2]).getName(), Integer.parseInt(prescription[3].trim()), Integer::sum);
             }
-        } catch (IOException e) {
-            System.err.println("Error writing to AppointmentRecord.csv: " + e.getMessage());
+            for (Map.Entry<String, Integer> quantity : quantities.entrySet()) {
+                boolean[] taken = {false};
+                transaction.update(Storage.MEDICINE_LIST, quantity.getKey(), stock -> {
+                    if (taken[0]) {
+                        return stock; // Only the first row of a medicine holds its stock
+                    }
+                    taken[0] = true;
+                    int currentStock = Integer.parseInt(stock[1].trim());
+                    if (currentStock < quantity.getValue()) {
+                        throw new WriteConflictException(Storage.MEDICINE_LIST, "Insufficient stock for " + quantity.getKey()
+                                + ". Please submit a stock replenishment request.");
+                    }
+                    stock[1] = String.valueOf(currentStock - quantity.getValue());
+                    return stock;
+                });
+            }
+            transaction.commit();
         }
+    }
 
-        try (BufferedWriter medicineWriter = new BufferedWriter(new FileWriter(medicineFilePath))) {
-            for (String[] fields : medicineList) {
-                medicineWriter.write(String.join(",", fields));
-                medicineWriter.newLine();
+    /**
+     * Explains why an appointment has no prescription waiting to be dispensed.
+     */
+    private static void reportNotWaiting(String appointmentID) {
+        try {
+            String[] fields = Storage.table(Storage.APPOINTMENT_RECORD).find(appointmentID);
+            if (fields == null) {
+                System.out.println("Appointment ID " + appointmentID + " not found.");
+            } else if (fields.length >= 5 && fields[4].equalsIgnoreCase(PrescriptionStatus.PENDING.name())) {
+                System.out.println("No medicine to dispense for appointment " + appointmentID + ".");
+            } else {
+                System.out.println("Prescription is already dispensed for this appointment.");
             }
         } catch (IOException e) {
-            System.err.println("Error writing to Medicine_List.csv: " + e.getMessage());
+            System.err.println("Error reading AppointmentRecord.csv: " + e.getMessage());
         }
-
-        // Generate the bill after dispensing the medicine
-        generateBill(appointmentID, prescribedMedicine, prescribedQuantity);
     }
 
     /**
-     * Displays the current medication inventory with stock levels.
+     * Retrieves one page of the current medication inventory with stock levels.
+     *
+     * @param cursor   The cursor returned with the previous page, or null for the first page
+     * @param pageSize The maximum number of medicines on the page
+     * @return The page of medicine stock levels, or an empty page if the inventory cannot be read
      */
-    public void viewMedicationInventory() {
-        String medicineFilePath = "resources/Medicine_List.csv";
-
-        System.out.println("\n==== Medication Inventory ====");
-        System.out.printf("%-20s %-15s %-20s%n", "Medicine Name", "Initial Stock", "Low Stock Level Alert");
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(medicineFilePath))) {
-            String line = reader.readLine(); // Skip header line
-
-            while ((line = reader.readLine()) != null) {
-                String[] fields = line.split(",");
-                if (fields.length >= 3) {
-                    String medicineName = fields[0].trim();
-                    String initialStock = fields[1].trim();
-                    String lowStockLevel = fields[2].trim();
-                    System.out.printf("%-20s %-15s %-20s%n", medicineName, initialStock, lowStockLevel);
-                } else {
-                    System.out.println("Skipping malformed line: " + line);
-                }
-            }
+    public Page<MedicineStock> getMedicationInventory(String cursor, int pageSize) {
+        TraceRecorder.record(TraceOperation.LIST_INVENTORY, cursor, String.valueOf(pageSize));
+        try {
+            return Storage.table(Storage.MEDICINE_LIST).scan(cursor, pageSize, medicine -> true).map(MedicineStock::fromFields);
         } catch (IOException e) {
             System.err.println("Error reading Medicine_List.csv: " + e.getMessage());
+            return Page.empty();
         }
     }
 
@@ -253,20 +358,45 @@ public class Pharmacist extends User {
      *
      * @param medicineName The name of the medicine to be replenished.
      * @param quantity     The quantity to be requested.
+     * @return The ID of the request, or null if it could not be saved.
      */
-    public void submitReplenishmentRequest(String medicineName, int quantity) {
-        String replenishmentFilePath = "resources/ReplenishmentRequest.csv";
+    public String submitReplenishmentRequest(String medicineName, int quantity) {
         String status = PrescriptionStatus.PENDING.name();
 
-        // Generate RRID with "RR" followed by 3 random digits
-        String rrid = "RR" + String.format("%03d", new Random().nextInt(1000));
-
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(replenishmentFilePath, true))) {
-            writer.write(rrid + "," + medicineName + "," + quantity + "," + status);
-            writer.newLine();
+        try {
+            // Number the request after the highest request ID in use, rereading if another session adds one first
+            String rrid = Storage.inTransaction(transaction -> {
+                int highest = 0;
+                for (String[] fields : transaction.read(Storage.REPLENISHMENT_REQUEST)) {
+                    highest = Math.max(highest, requestNumber(fields[0]));
+                }
+                String id = String.format("%s%03d", REQUEST_ID_PREFIX, highest + 1);
+                transaction.append(Storage.REPLENISHMENT_REQUEST, new String[]{id, medicineName, String.valueOf(quantity), status});
+                return id;
+            });
             System.out.println("Replenishment request submitted for " + medicineName + " with quantity " + quantity + ". Status: " + status);
+            TraceRecorder.record(TraceOperation.REQUEST_REPLENISHMENT, getId(), medicineName, String.valueOf(quantity), rrid);
+            return rrid;
         } catch (IOException e) {
             System.err.println("Error writing to ReplenishmentRequest.csv: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Gets the number of a replenishment request ID such as RR012.
+     *
+     * @param requestID The request ID
+     * @return The number, or 0 if the ID is not numbered
+     */
+    private static int requestNumber(String requestID) {
+        if (!requestID.startsWith(REQUEST_ID_PREFIX)) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(requestID.substring(REQUEST_ID_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
         }
     }
 
@@ -278,17 +408,8 @@ public class Pharmacist extends User {
      * @param prescribedQuantity The quantity of the prescribed medicine.
      */
     public void generateBill(String appointmentID, String prescribedMedicine, int prescribedQuantity) {
-        String billFilePath = "resources/Bill.csv";
-        double unitPrice = MEDICINE_PRICES.getOrDefault(prescribedMedicine.toLowerCase(), 0.0);
-        double billAmount = unitPrice * prescribedQuantity;
-
-        // Set the status as "PENDING" and feedback as "na"
-        String status = BillStatus.PENDING.name();
-        String feedback = "na";
-
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(billFilePath, true))) {
-            writer.write(appointmentID + "," + billAmount + "," + status + "," + feedback);
-            writer.newLine();
+        try (BillBatch batch = new BillBatch(1)) {
+            batch.add(appointmentID, prescribedMedicine, prescribedQuantity);
         } catch (IOException e) {
             System.err.println("Error writing to Bill.csv: " + e.getMessage());
         }
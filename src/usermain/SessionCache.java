@@ -0,0 +1,223 @@
+package usermain;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import storage.Storage;
+
+/**
+ * The SessionCache class keeps the user objects ({@link Patient}, {@link Doctor},
+ * {@link Pharmacist} or {@link Administrator}) built for each logged-in user ID, so that logging
+ * in again and refreshing a menu need not read User.csv or Patient_List.csv.
+ *
+ * <p>A session is dropped once it has not been used for the idle timeout, 30 minutes unless set
+ * in minutes with the {@code hms.session.idle.minutes} property. Each session records the
+ * versions of the user and patient tables it was read from, and is only used while neither
+ * table has been written since, by this or any other process; checking the versions reads no
+ * rows. A session is also dropped at once when this process changes the user's stored details:
+ * a password change, an update of a patient's personal information or past treatments, or a
+ * staff change made by an administrator. The next login or refresh then reads the user
+ * afresh.</p>
+ */
+public final class SessionCache {
+    public static final String IDLE_MINUTES_PROPERTY = "hms.session.idle.minutes";
+
+    private static final long DEFAULT_IDLE_MINUTES = 30;
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private static SessionCache instance;
+
+    private final long idleNanos;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private volatile long sweptAt = System.nanoTime();
+
+    /**
+     * Constructs an empty cache. Use {@link #getInstance()} to obtain the shared cache.
+     */
+    private SessionCache(long idleNanos) {
+        this.idleNanos = idleNanos;
+    }
+
+    /**
+     * Returns the shared session cache, reading the idle timeout on first use.
+     *
+     * @return The shared SessionCache
+     */
+    public static synchronized SessionCache getInstance() {
+        if (instance == null) {
+            long minutes = Long.getLong(IDLE_MINUTES_PROPERTY, DEFAULT_IDLE_MINUTES);
+            instance = new SessionCache(TimeUnit.MINUTES.toNanos(Math.max(1, minutes)));
+        }
+        return instance;
+    }
+
+    /**
+     * Gets the versions of the user and patient tables of the current shard. Take them before
+     * reading a user's rows and pass them to {@link #put}, so that a write made while the rows
+     * were read leaves the session out of date.
+     *
+     * @return The table versions, or null if they cannot be read
+     */
+    public Object tableVersions() {
+        try {
+            return List.of(Storage.currentVersion(Storage.USER), Storage.currentVersion(Storage.PATIENT_LIST));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Finds the session of a user who logged in before with the same password.
+     *
+     * @param id       The user ID
+     * @param password The password entered
+     * @return The session, or null if there is none, it has expired, the user or patient table
+     *         has been written since or the password differs
+     */
+    public Session lookup(String id, String password) {
+        Session session = current(id);
+        if (session == null || !session.password.equals(password)) {
+            return null;
+        }
+        return session;
+    }
+
+    /**
+     * Caches the user object built for a user.
+     *
+     * @param id       The user ID
+     * @param password The user's password
+     * @param role     The user's role
+     * @param name     The user's name
+     * @param user     The user object
+     * @param versions The table versions taken before the user's rows were read
+     */
+    public void put(String id, String password, String role, String name, Object user, Object versions) {
+        sweep();
+        if (versions == null) {
+            invalidate(id);
+            return;
+        }
+        sessions.put(key(id), new Session(password, role, name, user, versions));
+    }
+
+    /**
+     * Tells whether a user object is still the cached one, that is, neither the user nor the
+     * patient table has been written since it was cached.
+     *
+     * @param id   The user ID
+     * @param user The user object
+     * @return true if the object is cached for the user
+     */
+    public boolean isCurrent(String id, Object user) {
+        Session session = current(id);
+        return session != null && session.user == user;
+    }
+
+    /**
+     * Drops the session of a user whose stored details changed.
+     *
+     * @param id The user ID
+     */
+    public void invalidate(String id) {
+        sessions.remove(key(id));
+    }
+
+    /**
+     * Drops every session, for example after the user tables were replaced as a whole.
+     */
+    public void invalidateAll() {
+        sessions.clear();
+    }
+
+    /**
+     * Gets a user's session if it has not expired and the tables it was read from are unchanged,
+     * marking it used.
+     */
+    private Session current(String id) {
+        String key = key(id);
+        Session session = sessions.get(key);
+        if (session == null) {
+            return null;
+        }
+        long now = System.nanoTime();
+        if (now - session.usedAt > idleNanos) {
+            sessions.remove(key, session);
+            return null;
+        }
+        if (!session.versions.equals(tableVersions())) {
+            sessions.remove(key, session);
+            return null;
+        }
+        session.usedAt = now;
+        return session;
+    }
+
+    /**
+     * Drops the expired sessions at most once per sweep interval.
+     */
+    private void sweep() {
+        long now = System.nanoTime();
+        if (now - sweptAt < SWEEP_INTERVAL_NANOS) {
+            return;
+        }
+        sweptAt = now;
+        sessions.values().removeIf(session -> now - session.usedAt > idleNanos);
+    }
+
+    /**
+     * Sessions of different shards are kept apart, as user IDs are only unique within one.
+     */
+    private static String key(String id) {
+        return Storage.currentShard().getName() + "/" + id;
+    }
+
+    /**
+     * The cached login of one user.
+     */
+    public static final class Session {
+        private final String password;
+        private final String role;
+        private final String name;
+        private final Object user;
+        private final Object versions;
+        private volatile long usedAt = System.nanoTime();
+
+        private Session(String password, String role, String name, Object user, Object versions) {
+            this.password = password;
+            this.role = role;
+            this.name = name;
+            this.user = user;
+            this.versions = versions;
+        }
+
+        /**
+         * Gets the user's role.
+         *
+         * @return The role
+         */
+        public String getRole() {
+            return role;
+        }
+
+        /**
+         * Gets the user's name.
+         *
+         * @return The name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Gets the user object built at login.
+         *
+         * @return The user object
+         */
+        public Object getUser() {
+            return user;
+        }
+    }
+}
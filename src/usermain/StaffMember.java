@@ -0,0 +1,91 @@
+package usermain;
+
+/**
+ * The StaffMember class is an immutable view of a single row of Staff.csv.
+ */
+public final class StaffMember {
+    private final String staffID;
+    private final String name;
+    private final String role;
+    private final String gender;
+    private final int age;
+
+    /**
+     * Constructs a new StaffMember with the provided details.
+     *
+     * @param staffID The unique ID of the staff member
+     * @param name    The name of the staff member
+     * @param role    The role of the staff member
+     * @param gender  The gender of the staff member
+     * @param age     The age of the staff member
+     */
+    public StaffMember(String staffID, String name, String role, String gender, int age) {
+        this.staffID = staffID;
+        this.name = name;
+        this.role = role;
+        this.gender = gender;
+        this.age = age;
+    }
+
+    /**
+     * Creates a StaffMember from the fields of a row in Staff.csv.
+     *
+     * @param fields The split fields of the row
+     * @return The staff member, or null if the row is malformed
+     */
+    public static StaffMember fromFields(String[] fields) {
+        if (fields.length < 5) {
+            return null;
+        }
+        try {
+            return new StaffMember(fields[0], fields[1], fields[2], fields[3], Integer.parseInt(fields[4].trim()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Gets the unique ID of the staff member.
+     *
+     * @return The staff ID
+     */
+    public String getStaffID() {
+        return staffID;
+    }
+
+    /**
+     * Gets the name of the staff member.
+     *
+     * @return The name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the role of the staff member.
+     *
+     * @return The role
+     */
+    public String getRole() {
+        return role;
+    }
+
+    /**
+     * Gets the gender of the staff member.
+     *
+     * @return The gender
+     */
+    public String getGender() {
+        return gender;
+    }
+
+    /**
+     * Gets the age of the staff member.
+     *
+     * @return The age
+     */
+    public int getAge() {
+        return age;
+    }
+}
@@ -1,11 +1,17 @@
 package usermenu;
 
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.util.Scanner;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import paging.Page;
 
 /**
  * The AbstractMenu class provides a base implementation for menus in the system.
  * It implements the {@link Menu} interface and includes common functionality
- * for displaying a logout option. Classes extending this abstract class
+ * for displaying a logout option and paged listings. Classes extending this abstract class
  * must implement the {@code displayMenu} method to define specific menu content.
  */
 public abstract class AbstractMenu implements Menu {
@@ -15,6 +21,11 @@ public abstract class AbstractMenu implements Menu {
      */
     protected static final Scanner sc = new Scanner(System.in);
 
+    /**
+     * The number of items shown at a time in paged listings.
+     */
+    protected static final int PAGE_SIZE = 10;
+
     /**
      * Displays the logout option with a specified option number.
      *
@@ -24,6 +35,47 @@ public abstract class AbstractMenu implements Menu {
         System.out.println("(" + x + ") Logout");
     }
 
+    /**
+     * Displays a listing one page at a time. Each page is rendered into a single buffered
+     * writer and flushed once, and the next page is only fetched when the user asks for it.
+     *
+     * @param input        The scanner used to ask whether to show the next page
+     * @param heading      The heading printed above the listing
+     * @param source       Fetches the page at a cursor, with null for the first page
+     * @param formatter    Writes a single item to the page
+     * @param emptyMessage The message printed if the listing has no items
+     * @param <T>          The type of the listed items
+     */
+    protected <T> void displayPages(Scanner input, String heading, Function<String, Page<T>> source,
+                                    BiConsumer<PrintWriter, T> formatter, String emptyMessage) {
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out)));
+        String cursor = null;
+        int pageNumber = 1;
+
+        out.println(heading);
+        while (true) {
+            Page<T> page = source.apply(cursor);
+            if (page.isEmpty() && pageNumber == 1) {
+                out.println(emptyMessage);
+            }
+            for (T item : page.getItems()) {
+                formatter.accept(out, item);
+            }
+            if (!page.hasNext()) {
+                out.flush();
+                return;
+            }
+
+            out.print("Page " + pageNumber + ". Enter N for the next page or press Enter to return: ");
+            out.flush(); // Never closed, as that would close System.out
+            if (!input.nextLine().trim().equalsIgnoreCase("N")) {
+                return;
+            }
+            cursor = page.getNextCursor();
+            pageNumber++;
+        }
+    }
+
     /**
      * Abstract method to display specific menu content.
      * Subclasses must provide an implementation for this method.
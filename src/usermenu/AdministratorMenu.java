@@ -1,16 +1,18 @@
 package usermenu;
 import usermain.Administrator;
-import enums.MedicineList;
+import usermain.MedicineCatalog;
+import usermain.MedicineStock;
+import usermain.StaffMember;
 import enums.UserRole;
 
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.InputMismatchException;
 import java.util.Scanner;
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.util.List;
 import java.util.regex.Pattern;
-import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import storage.Storage;
 
 /**
  * The AdministratorMenu class provides the menu interface for administrators in the hospital management system.
@@ -42,8 +44,13 @@ public class AdministratorMenu extends AbstractMenu {
             System.out.println("(2) View Appointment Details");
             System.out.println("(3) View and Manage Medication Inventory");
             System.out.println("(4) Approve Replenishment Requests");
+            System.out.println("(5) View Hospital Reports");
+            System.out.println("(6) View Finance Dashboard");
 
-            displayLogoutOption(5); // Call the common logout option method
+            displayLogoutOption(7); // Call the common logout option method
+            if (Storage.getReplica() != null) {
+                System.out.println("(8) Promote Replica to Primary");
+            }
 
             // Wrap input handling in a try-catch to handle non-integer inputs
             try {
@@ -72,8 +79,33 @@ public class AdministratorMenu extends AbstractMenu {
                         admin.approveReplenishmentRequests();
                         break;
                     case 5:
+                        // View hospital-wide reports logic
+                        try {
+                            admin.viewHospitalReports();
+                        } catch (IOException e) {
+                            System.out.println("An error occurred while generating reports: " + e.getMessage());
+                        } catch (RejectedExecutionException e) {
+                            System.out.println(e.getMessage());
+                        }
+                        break;
+                    case 6:
+                        admin.viewFinanceDashboard();
+                        break;
+                    case 7:
                         System.out.println("Logging out...");
                         break;
+                    case 8:
+                        if (Storage.getReplica() == null) {
+                            System.out.println("Invalid choice. Please try again.");
+                            break;
+                        }
+                        try {
+                            Storage.promote();
+                            System.out.println("This server is now the primary and accepts changes.");
+                        } catch (IOException e) {
+                            System.out.println("An error occurred while promoting the replica: " + e.getMessage());
+                        }
+                        break;
                     default:
                         System.out.println("Invalid choice. Please try again.");
                 }
@@ -82,7 +114,7 @@ public class AdministratorMenu extends AbstractMenu {
                 sc.nextLine(); // Clear the invalid input from the scanner buffer
                 choice = -1; // Reset choice to continue the loop without exiting
             }
-        } while (choice != 5); // Repeat until logout
+        } while (choice != 7); // Repeat until logout
     }
 
     /**
@@ -121,7 +153,10 @@ public class AdministratorMenu extends AbstractMenu {
 
             switch (choice) {
                 case 1:
-                    admin.viewStaffList();
+                    displayPages(scanner, String.format("%-10s %-20s %-15s %-8s %s", "Staff ID", "Name", "Role", "Gender", "Age"),
+                            cursor -> admin.getStaffList(cursor, PAGE_SIZE),
+                            AdministratorMenu::writeStaffMember,
+                            "No staff members found.");
                     break;
                 case 2:
                     String[] newStaffDetails = getValidatedStaffDetails(0);
@@ -327,13 +362,9 @@ public class AdministratorMenu extends AbstractMenu {
      */
     private boolean isStaffIDExists(String id) {
         // Reads Staff.csv and checks if the given ID already exists
-        try (BufferedReader reader = new BufferedReader(new FileReader("resources/Staff.csv"))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] fields = line.split(",");
-                if (fields[0].equals(id)) {
-                    return true; // ID already exists
-                }
+        try {
+            if (Storage.table(Storage.STAFF).find(id) != null) {
+                return true; // ID already exists
             }
         } catch (IOException e) {
             System.err.println("Error reading Staff.csv: " + e.getMessage());
@@ -398,13 +429,9 @@ public class AdministratorMenu extends AbstractMenu {
      * @return true if the appointment ID exists; false otherwise
      */
     private boolean isAppointmentIDExists(String appointmentID) {
-        try (BufferedReader reader = new BufferedReader(new FileReader("resources/Appointment.csv"))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] data = line.split(",");
-                if (data[0].equals(appointmentID)) {
-                    return true; // Appointment ID exists
-                }
+        try {
+            if (Storage.table(Storage.APPOINTMENT).find(appointmentID) != null) {
+                return true; // Appointment ID exists
             }
         } catch (IOException e) {
             System.err.println("Error reading Appointment.csv: " + e.getMessage());
@@ -420,9 +447,6 @@ public class AdministratorMenu extends AbstractMenu {
         Scanner scanner = new Scanner(System.in);
         int choice;
 
-        // Set of valid medications (case-insensitive)
-        final Set<String> validMedications = Set.of(MedicineList.AMOXICILLIN.name(), MedicineList.IBUPROFEN.name(),MedicineList.PARACETAMOL.name());
-
         System.out.println("View and Manage Medication Inventory:");
         System.out.println("1. View Medication Inventory");
         System.out.println("2. Update Medication Stock");
@@ -438,15 +462,14 @@ public class AdministratorMenu extends AbstractMenu {
 
                 switch (choice) {
                     case 1:
-                        try {
-                            admin.viewMedicationInventory();
-                        } catch (IOException e) {
-                            System.out.println("Error viewing medication inventory: " + e.getMessage());
-                        }
+                        displayPages(scanner, String.format("Medication Inventory:%n%-20s %-15s %-20s", "Medicine Name", "Stock", "Low Stock Level Alert"),
+                                cursor -> admin.getMedicationInventory(cursor, PAGE_SIZE),
+                                AdministratorMenu::writeMedicine,
+                                "No medications found in the inventory.");
                         break;
 
                     case 2:
-                        String medicineName = getValidatedMedicineName(scanner, validMedications);
+                        String medicineName = getValidatedMedicineName(scanner);
                         int newStockLevel = getValidatedNumberInput(scanner, "Enter the new stock level: ");
                         try {
                             admin.updateMedicationStock(medicineName, newStockLevel);
@@ -456,7 +479,7 @@ public class AdministratorMenu extends AbstractMenu {
                         break;
 
                     case 3:
-                        String medName = getValidatedMedicineName(scanner, validMedications);
+                        String medName = getValidatedMedicineName(scanner);
                         int newLowStockLevel = getValidatedNumberInput(scanner, "Enter the new low stock level alert: ");
                         try {
                             admin.updateLowStockLevel(medName, newLowStockLevel);
@@ -482,20 +505,18 @@ public class AdministratorMenu extends AbstractMenu {
     /**
      * Validates and retrieves a medication name from user input.
      *
-     * @param scanner          The Scanner object for user input
-     * @param validMedications A set of valid medication names
-     * @return A validated medication name
+     * @param scanner The Scanner object for user input
+     * @return A validated medication name, as listed in the inventory
      */
-    private String getValidatedMedicineName(Scanner scanner, Set<String> validMedications) {
-        String medicineName;
+    private String getValidatedMedicineName(Scanner scanner) {
         while (true) {
-            System.out.print("Enter the name of the medication(Paracetamol, Amoxicillin, Ibuprofen): ");
-            medicineName = scanner.nextLine().trim();
+            System.out.print("Enter the name of the medication: ");
+            MedicineCatalog.Medicine medicine = MedicineCatalog.getInstance().get(scanner.nextLine());
 
-            if (validMedications.contains(medicineName.toUpperCase())) {
-                return medicineName.toUpperCase(); // Convert to uppercase to match enum format
+            if (medicine != null) {
+                return medicine.getName();
             } else {
-                System.out.println("Invalid medication name. Please enter 'Paracetamol', 'Ibuprofen', or 'Amoxicillin'.");
+                System.out.println("Invalid medication name. Please enter a medication in the inventory.");
             }
         }
     }
@@ -521,4 +542,24 @@ public class AdministratorMenu extends AbstractMenu {
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Writes a single staff member as a row of the staff list.
+     *
+     * @param out   The writer of the current page
+     * @param staff The staff member to write
+     */
+    private static void writeStaffMember(PrintWriter out, StaffMember staff) {
+        out.printf("%-10s %-20s %-15s %-8s %d%n", staff.getStaffID(), staff.getName(), staff.getRole(), staff.getGender(), staff.getAge());
+    }
+
+    /**
+     * Writes a single medicine as a row of the medication inventory.
+     *
+     * @param out      The writer of the current page
+     * @param medicine The medicine to write
+     */
+    private static void writeMedicine(PrintWriter out, MedicineStock medicine) {
+        out.printf("%-20s %-15d %-20d%n", medicine.getMedicineName(), medicine.getStock(), medicine.getLowStockLevel());
+    }
+}
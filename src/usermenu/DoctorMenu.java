@@ -1,18 +1,21 @@
 package usermenu;
 import enums.AppointmentStatus;
-import enums.DoctorAvailabilityStatus;
 import usermain.Doctor;
-import java.io.BufferedReader;
-import java.io.FileReader;
+import usermain.MedicineCatalog;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.Scanner;
 import java.util.ArrayList;
 import java.util.List;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.InputMismatchException;
-import appointment.AppointmentService;
-import enums.MedicineList;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import appointment.Appointment;
+import appointment.DoctorScheduleIndex;
+import appointment.SlotTable;
+import storage.Storage;
 
 /**
  * The DoctorMenu class provides the menu interface for doctors in the hospital management system.
@@ -22,9 +25,6 @@ import enums.MedicineList;
 public class DoctorMenu extends AbstractMenu {
     private Doctor doctor;
     private Scanner sc;
-    private static final List<String> VALID_PRESCRIPTIONS = List.of(MedicineList.AMOXICILLIN.name(), MedicineList.IBUPROFEN.name(),MedicineList.PARACETAMOL.name(),MedicineList.NA.name());
-    private static final String APPOINTMENT_FILE = "resources/Appointment.csv";
-    private AppointmentService appointmentService = new AppointmentService();
 
     /**
      * Constructs a new DoctorMenu instance for the given doctor.
@@ -52,8 +52,10 @@ public class DoctorMenu extends AbstractMenu {
             System.out.println("(5) Accept or Decline Appointment Requests");
             System.out.println("(6) View Upcoming Appointments");
             System.out.println("(7) Record Appointment Outcome");
+            System.out.println("(8) View Weekly Agenda");
+            System.out.println("(9) Set Appointment Slot Length");
 
-            displayLogoutOption(8); // Call the common logout option method
+            displayLogoutOption(10); // Call the common logout option method
 
             try {
                 choice = sc.nextInt();
@@ -81,7 +83,7 @@ public class DoctorMenu extends AbstractMenu {
                         }
                         doctor.viewPersonalSchedule(date);
                         System.out.println();
-                        doctor.viewAppointmentsByDate(date);
+                        viewAppointmentsByDate(date);
                         break;
                     case 4:
                         setAvailabilityForAppointments();
@@ -90,12 +92,18 @@ public class DoctorMenu extends AbstractMenu {
                         acceptOrDeclineAppointmentRequests();
                         break;
                     case 6:
-                        doctor.viewUpcomingAppointments();
+                        viewUpcomingAppointments();
                         break;
                     case 7:
                         recordAppointmentOutcome();
                         break;
                     case 8:
+                        viewWeeklyAgenda();
+                        break;
+                    case 9:
+                        setSlotLength();
+                        break;
+                    case 10:
                         System.out.println("Logging out...");
                         break;
                     default:
@@ -106,37 +114,62 @@ public class DoctorMenu extends AbstractMenu {
                 sc.nextLine(); // Clear invalid input from the scanner buffer
                 choice = -1;
             }
-        } while (choice != 8);
+        } while (choice != 10);
     }
 
     /**
-     * Displays the medical records of a specific patient based on the entered patient ID.
+     * Displays the medical records of a specific patient based on the entered patient ID,
+     * or searches the recorded diagnoses, treatment plans and consultation notes.
      */
     private void viewPatientMedicalRecords() {
+        int mode;
+        while (true) {
+            System.out.print("Do you want to (1) View a patient's record or (2) Search diagnoses and notes? Enter 1 or 2: ");
+            if (sc.hasNextInt()) {
+                mode = sc.nextInt();
+                sc.nextLine(); // Clear newline
+                if (mode == 1 || mode == 2) {
+                    break;
+                }
+                System.out.println("Invalid option. Please enter 1 or 2.");
+            } else {
+                System.out.println("Invalid input. Please enter 1 or 2.");
+                sc.nextLine(); // Clear invalid input
+            }
+        }
+
+        if (mode == 2) {
+            String query;
+            while (true) {
+                System.out.print("Enter search terms (separate alternatives with OR, e.g., rash OR hives): ");
+                query = sc.nextLine().trim();
+                if (!query.isEmpty()) {
+                    break;
+                }
+                System.out.println("Search terms cannot be empty.");
+            }
+            doctor.searchMedicalRecords(query);
+            return;
+        }
+
         System.out.print("Enter Patient ID to view medical records: ");
         String patientID = sc.nextLine();
 
-        String patientFile = "resources/Patient_List.csv";
         boolean found = false;
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(patientFile))) {
-            String line = reader.readLine(); // Skip header line
-
-            while ((line = reader.readLine()) != null) {
-                String[] fields = line.split(",");
-                if (fields[0].equals(patientID)) {
-                    System.out.println("\n==== Patient Medical Record ====");
-                    System.out.println("Patient ID: " + fields[0]);
-                    System.out.println("Name: " + fields[2]);
-                    System.out.println("Gender: " + fields[3]);
-                    System.out.println("Date of Birth: " + fields[4]);
-                    System.out.println("Contact Number: " + fields[5]);
-                    System.out.println("Email: " + fields[6]);
-                    System.out.println("Blood Type: " + fields[7]);
-                    System.out.println("Past Treatments: " + fields[8]);
-                    found = true;
-                    break;
-                }
+        try {
+            String[] fields = Storage.table(Storage.PATIENT_LIST).find(patientID);
+            if (fields != null) {
+                System.out.println("\n==== Patient Medical Record ====");
+                System.out.println("Patient ID: " + fields[0]);
+                System.out.println("Name: " + fields[2]);
+                System.out.println("Gender: " + fields[3]);
+                System.out.println("Date of Birth: " + fields[4]);
+                System.out.println("Contact Number: " + fields[5]);
+                System.out.println("Email: " + fields[6]);
+                System.out.println("Blood Type: " + fields[7]);
+                System.out.println("Past Treatments: " + fields[8]);
+                found = true;
             }
 
             if (!found) {
@@ -169,13 +202,12 @@ public class DoctorMenu extends AbstractMenu {
 
         String prescription;
         while (true) {
-            System.out.print("Enter new prescription (Paracetamol, Ibuprofen, Amoxicillin, NA): ");
-            prescription = sc.nextLine().trim();
-            if (isValidPrescription(prescription)) {
-                prescription = prescription.toUpperCase(); // Convert to uppercase to match enum format
+            System.out.print("Enter new prescription (medicine name, or NA for none): ");
+            prescription = toPrescription(sc.nextLine());
+            if (prescription != null) {
                 break;
             } else {
-                System.out.println("Invalid prescription. Please enter a valid prescription.");
+                System.out.println("Invalid prescription. Please enter a medicine in the inventory, or NA.");
             }
         }
 
@@ -204,6 +236,69 @@ public class DoctorMenu extends AbstractMenu {
         doctor.updatePatientMedicalRecord(appointmentID, diagnosis, prescription, quantity, treatmentPlan, notes);
     }
 
+    /**
+     * Displays the doctor's confirmed appointments for the seven days starting at an entered date.
+     */
+    private void viewWeeklyAgenda() {
+        String date;
+
+        // Validate date format
+        while (true) {
+            System.out.print("Enter the first day of the week (e.g., DD-MM-YY): ");
+            date = sc.nextLine();
+            if (isValidDateFormat(date)) {
+                break;
+            } else {
+                System.out.println("Invalid date format. Please use DD-MM-YY.");
+            }
+        }
+
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd-MM-yy");
+        String endDate = LocalDate.parse(date, formatter).plusDays(6).format(formatter);
+        String fromDate = date;
+        displayPages(sc, "Confirmed Appointments for Doctor ID: " + doctor.getDoctorID() + " from " + fromDate + " to " + endDate,
+                cursor -> doctor.getAgenda(fromDate, endDate, cursor, PAGE_SIZE),
+                DoctorMenu::writeAppointment,
+                "No confirmed appointments found for this doctor in this period.");
+    }
+
+    /**
+     * Displays the doctor's upcoming confirmed appointments a page at a time.
+     */
+    private void viewUpcomingAppointments() {
+        displayPages(sc, "Upcoming Appointments for Doctor ID: " + doctor.getDoctorID(),
+                cursor -> doctor.getUpcomingAppointments(cursor, PAGE_SIZE),
+                DoctorMenu::writeAppointment,
+                "No upcoming confirmed appointments found for this doctor.");
+    }
+
+    /**
+     * Displays the doctor's confirmed appointments on a specific date a page at a time.
+     *
+     * @param date The date for which appointments are to be viewed (DD-MM-YY)
+     */
+    private void viewAppointmentsByDate(String date) {
+        displayPages(sc, "Confirmed Appointments for Doctor ID: " + doctor.getDoctorID() + " on " + date,
+                cursor -> doctor.getAppointmentsByDate(date, cursor, PAGE_SIZE),
+                DoctorMenu::writeAppointment,
+                "No confirmed appointments found for this doctor on " + date + ".");
+    }
+
+    /**
+     * Writes the details of a single appointment.
+     *
+     * @param out         The writer of the current page
+     * @param appointment The appointment to write
+     */
+    private static void writeAppointment(PrintWriter out, Appointment appointment) {
+        out.println("Appointment ID: " + appointment.getAppointmentID());
+        out.println("Patient ID: " + appointment.getPatientID());
+        out.println("Date: " + appointment.getDate());
+        out.println("Time Slot: " + appointment.getTimeSlot());
+        out.println("Status: " + appointment.getStatus());
+        out.println("-------------------------");
+    }
+
     /**
      * Allows the doctor to set availability for appointments on a specific date.
      * The doctor can select time slots to mark as available.
@@ -222,19 +317,14 @@ public class DoctorMenu extends AbstractMenu {
             }
         }
 
-        List<String> timeSlots = new ArrayList<>();
         int startHour = 9;
         int endHour = 17;
+        List<String> timeSlots = doctor.getSlotTable(date).slotsBetween(startHour * 60, endHour * 60);
 
         System.out.println("Available time slots:");
         int slotNumber = 1;
-        for (int hour = startHour; hour < endHour; hour++) {
-            String slot1 = String.format("%02d:00-%02d:30", hour, hour);
-            String slot2 = String.format("%02d:30-%02d:00", hour, hour + 1);
-            timeSlots.add(slot1);
-            timeSlots.add(slot2);
-            System.out.printf("(%d) %s\n", slotNumber++, slot1);
-            System.out.printf("(%d) %s\n", slotNumber++, slot2);
+        for (String slot : timeSlots) {
+            System.out.printf("(%d) %s\n", slotNumber++, slot);
         }
 
         List<String> availableSlots = new ArrayList<>();
@@ -270,72 +360,74 @@ public class DoctorMenu extends AbstractMenu {
         doctor.setAvailability(date, availableSlots.toArray(new String[0]));
     }
 
+    /**
+     * Allows the doctor to choose the length of the slots offered when opening new days.
+     */
+    private void setSlotLength() {
+        int[] lengths = SlotTable.getSupportedLengths();
+        StringBuilder options = new StringBuilder();
+        for (int length : lengths) {
+            options.append(options.length() == 0 ? "" : ", ").append(length);
+        }
+
+        while (true) {
+            System.out.print("Enter the slot length in minutes (" + options + "): ");
+            String input = sc.nextLine().trim();
+            try {
+                int minutes = Integer.parseInt(input);
+                if (SlotTable.isSupportedLength(minutes)) {
+                    doctor.setSlotLength(minutes);
+                    return;
+                }
+            } catch (NumberFormatException e) {
+                // Fall through to the error message
+            }
+            System.out.println("Invalid slot length. Please choose one of: " + options + ".");
+        }
+    }
+
     /**
      * Allows the doctor to accept or decline pending appointment requests.
      * Updates the appointment status and slot availability based on the decision.
      */
     private void acceptOrDeclineAppointmentRequests() {
         String doctorID = doctor.getDoctorID();
-        boolean foundPending = false;
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(APPOINTMENT_FILE))) {
-            String line = reader.readLine(); // Skip header line
-
-            while ((line = reader.readLine()) != null) {
-                String[] fields = line.split(",");
-
-                if (fields.length < 6) {
-                    //System.out.println("Skipping malformed line in Appointment.csv: " + line);
-                    continue;
-                }
-
-                String appointmentID = fields[0];
-                String appointmentDoctorID = fields[1];
-                String patientID = fields[2];
-                String date = fields[3];
-                String timeSlot = fields[4];
-                String status = fields[5];
-
-                if (appointmentDoctorID.equals(doctorID) && status.equals(AppointmentStatus.PENDING.name())) {
-                    foundPending = true;
-                    System.out.println("\n==== Pending Appointment ====");
-                    System.out.println("Appointment ID: " + appointmentID);
-                    System.out.println("Patient ID: " + patientID);
-                    System.out.println("Date: " + date);
-                    System.out.println("Time Slot: " + timeSlot);
-
-                    int response;
-                    while (true) {
-                        System.out.print("Do you want to (1) Accept or (2) Decline this appointment? Enter 1 or 2: ");
-                        if (sc.hasNextInt()) {
-                            response = sc.nextInt();
-                            sc.nextLine(); // Clear newline
-
-                            if (response == 1) {
-                                doctor.acceptAppointment(appointmentID);
-                                System.out.println("Appointment accepted.");
-                                break;
-                            } else if (response == 2) {
-                                doctor.declineAppointment(appointmentID);
-                                System.out.println("Appointment declined.");
-                                appointmentService.updateSlotStatus(doctorID, date, timeSlot, DoctorAvailabilityStatus.AVAILABLE.name());
-                                break;
-                            } else {
-                                System.out.println("Invalid option. Please enter 1 to accept or 2 to decline.");
-                            }
-                        } else {
-                            System.out.println("Invalid input. Please enter a number (1 to accept or 2 to decline).");
-                            sc.nextLine(); // Clear invalid input
-                        }
+        List<Appointment> pendingAppointments = DoctorScheduleIndex.getInstance().getAppointments(doctorID, AppointmentStatus.PENDING.name());
+
+        for (Appointment appointment : pendingAppointments) {
+            System.out.println("\n==== Pending Appointment ====");
+            System.out.println("Appointment ID: " + appointment.getAppointmentID());
+            System.out.println("Patient ID: " + appointment.getPatientID());
+            System.out.println("Date: " + appointment.getDate());
+            System.out.println("Time Slot: " + appointment.getTimeSlot());
+
+            int response;
+            while (true) {
+                System.out.print("Do you want to (1) Accept or (2) Decline this appointment? Enter 1 or 2: ");
+                if (sc.hasNextInt()) {
+                    response = sc.nextInt();
+                    sc.nextLine(); // Clear newline
+
+                    if (response == 1) {
+                        doctor.acceptAppointment(appointment.getAppointmentID());
+                        System.out.println("Appointment accepted.");
+                        break;
+                    } else if (response == 2) {
+                        doctor.declineAppointment(appointment.getAppointmentID());
+                        System.out.println("Appointment declined.");
+                        break;
+                    } else {
+                        System.out.println("Invalid option. Please enter 1 to accept or 2 to decline.");
                     }
+                } else {
+                    System.out.println("Invalid input. Please enter a number (1 to accept or 2 to decline).");
+                    sc.nextLine(); // Clear invalid input
                 }
             }
+        }
 
-            if (!foundPending) {
-                System.out.println("No pending appointments found.");
-            }
-        } catch (IOException e) {
-            System.err.println("Error reading Appointment.csv: " + e.getMessage());
+        if (pendingAppointments.isEmpty()) {
+            System.out.println("No pending appointments found.");
         }
     }
 
@@ -374,13 +466,12 @@ public class DoctorMenu extends AbstractMenu {
 
         String prescription;
         while (true) {
-            System.out.print("Enter prescription medicine (Paracetamol, Ibuprofen, Amoxicillin, NA): ");
-            prescription = sc.nextLine().trim();
-            if (isValidPrescription(prescription)) {
-                prescription = prescription.toUpperCase(); // Convert to uppercase to match enum format
+            System.out.print("Enter prescription medicine (medicine name, or NA for none): ");
+            prescription = toPrescription(sc.nextLine());
+            if (prescription != null) {
                 break;
             } else {
-                System.out.println("Invalid prescription. Please enter a valid prescription.");
+                System.out.println("Invalid prescription. Please enter a medicine in the inventory, or NA.");
             }
         }
 
@@ -434,13 +525,9 @@ public class DoctorMenu extends AbstractMenu {
      * @return true if the outcome is recorded; false otherwise
      */
     private boolean isAppointmentOutcomeRecorded(String appointmentID) {
-        try (BufferedReader br = new BufferedReader(new FileReader("resources/AppointmentRecord.csv"))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] values = line.split(",");
-                if (values.length > 0 && values[0].equals(appointmentID)) {
-                    return true; // Appointment outcome already recorded
-                }
+        try {
+            if (Storage.table(Storage.APPOINTMENT_RECORD).find(appointmentID) != null) {
+                return true; // Appointment outcome already recorded
             }
         } catch (IOException e) {
             System.out.println("Error reading AppointmentRecord.csv: " + e.getMessage());
@@ -449,13 +536,18 @@ public class DoctorMenu extends AbstractMenu {
     }
 
     /**
-     * Checks if a prescription is valid by comparing it with a predefined list of valid prescriptions.
+     * Checks a prescription against the medicine catalog.
      *
-     * @param prescription The prescription to validate
-     * @return true if the prescription is valid; false otherwise
+     * @param prescription The prescription entered
+     * @return The medicine name as listed in the catalog, NA if no medicine is prescribed, or
+     *         null if the medicine is not in the catalog
      */
-    private boolean isValidPrescription(String prescription) {
-        return VALID_PRESCRIPTIONS.contains(prescription.toUpperCase());
+    private String toPrescription(String prescription) {
+        if (prescription.trim().equalsIgnoreCase(MedicineCatalog.NO_MEDICINE)) {
+            return MedicineCatalog.NO_MEDICINE;
+        }
+        MedicineCatalog.Medicine medicine = MedicineCatalog.getInstance().get(prescription);
+        return medicine != null ? medicine.getName() : null;
     }
 
     /**
@@ -465,13 +557,9 @@ public class DoctorMenu extends AbstractMenu {
      * @return true if the appointment ID is valid; false otherwise
      */
     private boolean isValidAppointmentID(String appointmentID) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(APPOINTMENT_FILE))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] fields = line.split(",");
-                if (fields[0].equals(appointmentID)) {
-                    return true;
-                }
+        try {
+            if (Storage.table(Storage.APPOINTMENT).find(appointmentID) != null) {
+                return true;
             }
         } catch (IOException e) {
             System.err.println("Error reading Appointment.csv: " + e.getMessage());
@@ -486,13 +574,10 @@ public class DoctorMenu extends AbstractMenu {
      * @return The date of the appointment, or null if not found
      */
     private String getCorrectAppointmentDate(String appointmentID) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(APPOINTMENT_FILE))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] fields = line.split(",");
-                if (fields[0].equals(appointmentID)) {
-                    return fields[3];
-                }
+        try {
+            String[] fields = Storage.table(Storage.APPOINTMENT).find(appointmentID);
+            if (fields != null) {
+                return fields[3];
             }
         } catch (IOException e) {
             System.err.println("Error reading Appointment.csv: " + e.getMessage());
@@ -1,11 +1,19 @@
 package usermenu;
 import usermain.Billing;
+import usermain.BillingLedger;
+import usermain.BillingStatement;
 import usermain.Patient;
 import java.util.Scanner;
 import java.util.InputMismatchException;
-import java.io.*;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 import appointment.AppointmentService;
 import enums.AppointmentStatus;
+import storage.Storage;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 
 /**
  * The PatientMenu class provides the menu interface for patients in the hospital management system.
@@ -13,6 +21,8 @@ import enums.AppointmentStatus;
  * view bills, and interact with other patient-related functionalities.
  */
 public class PatientMenu extends AbstractMenu {
+    private static final int MAX_AVAILABILITY_DAYS = 31;
+
     private Patient patient;
     private Scanner sc;
     private AppointmentService appointmentService;
@@ -78,7 +88,7 @@ public class PatientMenu extends AbstractMenu {
                         viewScheduledAppointments();
                         break;
                     case 8:
-                        patient.viewPastAppointmentOutcome();
+                        viewPastAppointmentOutcomes();
                         break;
                     case 9:
                         viewBill(); // Call the new method to view and manage bills
@@ -154,42 +164,59 @@ public class PatientMenu extends AbstractMenu {
     }
 
     /**
-     * Allows the patient to view available appointment slots for a specific doctor on a specific date.
+     * Displays the available appointment slots of one doctor, or of every doctor, over a number
+     * of days starting from a given date.
      */
     private void viewAvailableAppointmentSlots() {
         Scanner scanner = new Scanner(System.in);
+        DateTimeFormatter format = DateTimeFormatter.ofPattern("dd-MM-yy");
         String doctorID;
         String date;
-        int flag = 0;
+        LocalDate fromDate;
+        int days;
 
-        // Step 1: Validate Doctor ID
+        // Step 1: Validate Doctor ID, or leave it blank to search every doctor
         while (true) {
-            System.out.print("Enter Doctor ID: ");
-            doctorID = scanner.nextLine();
-            if (appointmentService.isValidDoctorID(doctorID)) {
+            System.out.print("Enter Doctor ID (leave blank for any doctor): ");
+            doctorID = scanner.nextLine().trim();
+            if (doctorID.isEmpty()) {
+                doctorID = null;
+                break;
+            } else if (appointmentService.isValidDoctorID(doctorID)) {
                 break;
             } else {
                 System.out.println("Invalid Doctor ID. Please enter a valid Doctor ID.");
             }
         }
 
-        // Step 2: Validate Date and Check Availability
+        // Step 2: Validate the first date
         while (true) {
             System.out.print("Enter the date (e.g., DD-MM-YY): ");
             date = scanner.nextLine();
-            if (appointmentService.isValidDateFormat(date) && appointmentService.isDoctorAvailableOnDate(doctorID, date)) {
+            try {
+                fromDate = LocalDate.parse(date, format);
                 break;
-            } else if (!appointmentService.isValidDateFormat(date)) {
+            } catch (DateTimeParseException e) {
                 System.out.println("Invalid date format. Please use DD-MM-YY.");
-            } else {
-                System.out.println("The doctor is not available on this date. Please choose another date.");
-                flag=1;
-                break;
             }
         }
-        if (flag!=1){
-            patient.viewAvailableAppointmentSlots(doctorID, date);
+
+        // Step 3: Validate the number of days to show
+        while (true) {
+            System.out.print("Enter the number of days to show (1-" + MAX_AVAILABILITY_DAYS + ", leave blank for 1): ");
+            String input = scanner.nextLine().trim();
+            try {
+                days = input.isEmpty() ? 1 : Integer.parseInt(input);
+                if (days >= 1 && days <= MAX_AVAILABILITY_DAYS) {
+                    break;
+                }
+            } catch (NumberFormatException e) {
+                // Fall through to the error message
+            }
+            System.out.println("Invalid number of days. Please enter a number from 1 to " + MAX_AVAILABILITY_DAYS + ".");
         }
+
+        patient.viewAvailableAppointmentSlots(doctorID, date, fromDate.plusDays(days - 1).format(format));
     }
 
     /**
@@ -252,18 +279,12 @@ public class PatientMenu extends AbstractMenu {
      * @return true if the appointment exists and can be canceled; false otherwise
      */
     public boolean isValidAppointmentForCancellation(String appointmentID) {
-        String appointmentFile = "resources/Appointment.csv";
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(appointmentFile))) {
-            String line = reader.readLine(); // Skip header line
+        try {
+            String[] fields = Storage.table(Storage.APPOINTMENT).find(appointmentID);
 
-            while ((line = reader.readLine()) != null) {
-                String[] fields = line.split(",");
-
-                // Check if the appointment ID matches and status is not "completed"
-                if (fields[0].equals(appointmentID) && !fields[5].equalsIgnoreCase(AppointmentStatus.COMPLETED.name())) {
-                    return true; // Valid appointment ID for cancellation
-                }
+            // Check if the appointment exists and its status is not "completed"
+            if (fields != null && !fields[5].equalsIgnoreCase(AppointmentStatus.COMPLETED.name())) {
+                return true; // Valid appointment ID for cancellation
             }
         } catch (IOException e) {
             System.err.println("Error reading Appointment.csv: " + e.getMessage());
@@ -273,84 +294,61 @@ public class PatientMenu extends AbstractMenu {
     }
 
     /**
-     * Displays the patient's upcoming confirmed appointments.
-     * Retrieves appointment details from the system and displays them.
+     * Displays the patient's upcoming confirmed appointments a page at a time.
+     * Doctor names are looked up once per doctor rather than once per appointment.
      */
     private void viewScheduledAppointments() {
         String patientID = patient.getPatientID();
-        String appointmentFile = "resources/Appointment.csv";
-        String userFile = "resources/User.csv";
-        boolean foundConfirmed = false;
-
-        try (BufferedReader appointmentReader = new BufferedReader(new FileReader(appointmentFile))) {
-            String line = appointmentReader.readLine(); // Skip header line
-
-            while ((line = appointmentReader.readLine()) != null) {
-                String[] fields = line.split(",");
-
-                // Check if the line has the expected number of fields
-                if (fields.length < 6) {
-                    //System.out.println("Skipping malformed line in Appointment.csv: " + line);
-                    continue;
-                }
-
-                String appointmentID = fields[0];
-                String appointmentDoctorID = fields[1];
-                String appointmentPatientID = fields[2];
-                String date = fields[3];
-                String timeSlot = fields[4];
-                String status = fields[5];
-
-                // Check if the appointment is for the current patient and is confirmed
-                if (appointmentPatientID.equals(patientID) && status.equals(AppointmentStatus.CONFIRMED.name())) {
-                    String doctorName = getDoctorName(appointmentDoctorID, userFile);
-
-                    System.out.println("\n==== Upcoming Appointment ====");
-                    System.out.println("Appointment ID: " + appointmentID);
-                    System.out.println("Doctor Name: " + doctorName);
-                    System.out.println("Date: " + date);
-                    System.out.println("Time Slot: " + timeSlot);
-                    System.out.println("Status: " + status);
-
-                    foundConfirmed = true;
-                }
-            }
+        Map<String, String> doctorNames = new HashMap<>();
+
+        displayPages(sc, "Scheduled Appointments for Patient ID: " + patientID,
+                cursor -> appointmentService.getPatientAppointments(patientID, AppointmentStatus.CONFIRMED.name(), cursor, PAGE_SIZE),
+                (out, appointment) -> {
+                    String doctorName = doctorNames.computeIfAbsent(appointment.getDoctorID(), id -> getDoctorName(id));
+                    out.println("\n==== Upcoming Appointment ====");
+                    out.println("Appointment ID: " + appointment.getAppointmentID());
+                    out.println("Doctor Name: " + doctorName);
+                    out.println("Date: " + appointment.getDate());
+                    out.println("Time Slot: " + appointment.getTimeSlot());
+                    out.println("Status: " + appointment.getStatus());
+                },
+                "No confirmed upcoming appointments found.");
+    }
 
-            if (!foundConfirmed) {
-                System.out.println("No confirmed upcoming appointments found.");
-            }
-        } catch (IOException e) {
-            System.err.println("Error reading Appointment.csv: " + e.getMessage());
-        }
+    /**
+     * Displays the outcomes of the patient's past completed appointments a page at a time.
+     */
+    private void viewPastAppointmentOutcomes() {
+        displayPages(sc, "Past Appointment Outcomes for Patient ID: " + patient.getPatientID(),
+                cursor -> patient.getPastAppointmentOutcomes(cursor, PAGE_SIZE),
+                (out, record) -> {
+                    out.println("Appointment ID: " + record.getAppointmentID());
+                    out.println("Diagnosis: " + record.getDiagnosis());
+                    out.println("Prescription Medicine: " + record.getPrescriptionMedicine());
+                    out.println("Prescription Quantity: " + record.getPrescriptionQuantity());
+                    out.println("Prescription Status: " + record.getPrescriptionStatus());
+                    out.println("Treatment Plan: " + record.getTreatmentPlan());
+                    out.println("Date: " + record.getDate());
+                    out.println("Type of Service: " + record.getTypeOfService());
+                    out.println("Consultation Notes: " + record.getConsultationNotes());
+                    out.println("-------------------------");
+                },
+                "No past appointment records found for this patient.");
     }
 
     /**
-     * Retrieves the name of a doctor based on their ID from the User.csv file.
+     * Retrieves the name of a doctor based on their ID from the User table.
      *
-     * @param doctorID     The unique ID of the doctor
-     * @param userFilePath The file path to the User.csv file
+     * @param doctorID The unique ID of the doctor
      * @return The name of the doctor if found; "Unknown Doctor" otherwise
      */
-    private String getDoctorName(String doctorID, String userFilePath) {
-        try (BufferedReader userReader = new BufferedReader(new FileReader(userFilePath))) {
-            String line = userReader.readLine(); // Skip header line
-
-            while ((line = userReader.readLine()) != null) {
-                String[] userFields = line.split(",");
-
-                // Check if the line has the expected number of fields
-                if (userFields.length < 4) {
-                    continue; // Skip malformed lines
-                }
-
-                String userID = userFields[0];
-                String role = userFields[2];
-                String name = userFields[3];
+    private String getDoctorName(String doctorID) {
+        try {
+            String[] userFields = Storage.table(Storage.USER).find(doctorID);
 
-                // Match the doctor ID and role to find the doctor's name
-                if (userID.equals(doctorID) && role.equalsIgnoreCase("Doctor")) {
-                    return name;
-                }
+            // Match the role to find the doctor's name, skipping malformed rows
+            if (userFields != null && userFields.length >= 4 && userFields[2].equalsIgnoreCase("Doctor")) {
+                return userFields[3];
             }
         } catch (IOException e) {
             System.err.println("Error reading User.csv: " + e.getMessage());
@@ -361,10 +359,26 @@ public class PatientMenu extends AbstractMenu {
 
     /**
      * Displays and manages the patient's bills.
-     * This includes processing and displaying billing details.
+     * Shows the billing statement with its totals and the bills already paid, page by page,
+     * then offers the outstanding bills for payment.
      */
     private void viewBill() {
         Billing billing = new Billing(patient.getPatientID());
+        BillingStatement statement = billing.getStatement();
+
+        System.out.println("\n==== Billing Statement ====");
+        System.out.println("Outstanding: " + BillingLedger.formatCents(statement.getOutstandingCents())
+                + " (" + statement.getOutstanding().size() + " bill(s))");
+        System.out.println("Paid: " + BillingLedger.formatCents(statement.getPaidCents())
+                + " (" + statement.getPaid().size() + " bill(s))");
+        System.out.println("Total: " + BillingLedger.formatCents(statement.getTotalCents()));
+
+        displayPages(sc, String.format("Paid Bills:%n%-15s %-12s %s", "Appointment ID", "Amount", "Feedback"),
+                cursor -> statement.getPaid(cursor, PAGE_SIZE),
+                (out, bill) -> out.printf("%-15s %-12s %s%n", bill.getAppointmentID(),
+                        BillingLedger.formatCents(bill.getAmountCents()), bill.getFeedback()),
+                "No paid bills.");
+
         billing.processBilling();
     }
 }
@@ -1,14 +1,12 @@
 package usermenu;
+import usermain.MedicineCatalog;
 import usermain.Pharmacist;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.InputMismatchException;
-import java.util.List;
 
-import enums.MedicineList;
-import enums.PrescriptionStatus;
+import appointment.PrescriptionQueue;
+import storage.Storage;
 
 /**
  * The PharmacistMenu class provides the menu interface for pharmacists in the hospital management system.
@@ -18,11 +16,6 @@ import enums.PrescriptionStatus;
 public class PharmacistMenu extends AbstractMenu {
     private Pharmacist pharmacist;
 
-    /**
-     * A predefined list of valid prescriptions that can be used in the replenishment request.
-     */
-    private static final List<String> VALID_PRESCRIPTIONS = List.of(MedicineList.AMOXICILLIN.name(), MedicineList.IBUPROFEN.name(),MedicineList.PARACETAMOL.name());
-
     /**
      * Constructs a new PharmacistMenu instance for the given pharmacist.
      *
@@ -46,8 +39,10 @@ public class PharmacistMenu extends AbstractMenu {
             System.out.println("(2) Update Prescription Status");
             System.out.println("(3) View Medication Inventory");
             System.out.println("(4) Submit Replenishment Request");
+            System.out.println("(5) Dispense Next Prescription (" + PrescriptionQueue.getInstance().size() + " waiting)");
+            System.out.println("(6) Dispense All Ready Prescriptions");
 
-            displayLogoutOption(5); // Call the common logout option method
+            displayLogoutOption(7); // Call the common logout option method
 
             // Wrap input handling in a try-catch to handle non-integer inputs
             try {
@@ -63,12 +58,19 @@ public class PharmacistMenu extends AbstractMenu {
                         break;
                     case 3:
                         // View medication inventory logic
-                        pharmacist.viewMedicationInventory();
+                        viewMedicationInventory();
                         break;
                     case 4:
                         SubmitReplenishmentRequest();
                         break;
                     case 5:
+                        dispenseNextPrescription();
+                        break;
+                    case 6:
+                        int dispensed = pharmacist.dispenseAllReady();
+                        System.out.println(dispensed + " prescription(s) dispensed.");
+                        break;
+                    case 7:
                         System.out.println("Logging out...");
                         break;
                     default:
@@ -79,7 +81,7 @@ public class PharmacistMenu extends AbstractMenu {
                 sc.nextLine(); // Clear the invalid input from the scanner buffer
                 choice = -1; // Reset choice to ensure loop continues
             }
-        } while (choice != 5); // Repeat until logout
+        } while (choice != 7); // Repeat until logout
     }
 
     /**
@@ -102,6 +104,16 @@ public class PharmacistMenu extends AbstractMenu {
         }
     }
 
+    /**
+     * Displays the current medication inventory with stock levels a page at a time.
+     */
+    private void viewMedicationInventory() {
+        displayPages(sc, String.format("%n==== Medication Inventory ====%n%-20s %-15s %-20s", "Medicine Name", "Initial Stock", "Low Stock Level Alert"),
+                cursor -> pharmacist.getMedicationInventory(cursor, PAGE_SIZE),
+                (out, medicine) -> out.printf("%-20s %-15d %-20d%n", medicine.getMedicineName(), medicine.getStock(), medicine.getLowStockLevel()),
+                "No medications found in the inventory.");
+    }
+
     /**
      * Allows the pharmacist to update the prescription status for an appointment.
      * Prompts the user for an appointment ID and verifies its validity before updating the status.
@@ -122,6 +134,17 @@ public class PharmacistMenu extends AbstractMenu {
         }
     }
 
+    /**
+     * Shows the prescription that has been waiting longest and dispenses it.
+     */
+    private void dispenseNextPrescription() {
+        String[] next = pharmacist.getNextPrescription();
+        if (next != null) {
+            System.out.println("Next prescription: appointment " + next[0] + ", " + next[3] + " units of " + next[2]);
+        }
+        pharmacist.dispenseNextPrescription();
+    }
+
     /**
      * Checks if the given appointment ID exists in the system and its status is "completed".
      *
@@ -129,18 +152,12 @@ public class PharmacistMenu extends AbstractMenu {
      * @return true if the appointment exists and is completed; false otherwise
      */
     public boolean isValidAppointmentForViewing(String appointmentID) {
-        String appointmentFile = "resources/Appointment.csv";
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(appointmentFile))) {
-            String line = reader.readLine(); // Skip header line
-
-            while ((line = reader.readLine()) != null) {
-                String[] fields = line.split(",");
+        try {
+            String[] fields = Storage.table(Storage.APPOINTMENT).find(appointmentID);
 
-                // Check if the appointment ID matches and status is "completed"
-                if (fields[0].equals(appointmentID) && fields[5].equalsIgnoreCase("completed")) {
-                    return true; // Valid appointment ID for viewing
-                }
+            // Check if the appointment exists and its status is "completed"
+            if (fields != null && fields[5].equalsIgnoreCase("completed")) {
+                return true; // Valid appointment ID for viewing
             }
         } catch (IOException e) {
             System.err.println("Error reading Appointment.csv: " + e.getMessage());
@@ -156,24 +173,8 @@ public class PharmacistMenu extends AbstractMenu {
      * @return true if the appointment exists and its prescription status is pending; false otherwise
      */
     public boolean isValidAppointmentForUpdating(String appointmentID) {
-        String appointmentFile = "resources/AppointmentRecord.csv";
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(appointmentFile))) {
-            String line = reader.readLine(); // Skip header line
-
-            while ((line = reader.readLine()) != null) {
-                String[] fields = line.split(",");
-
-                // Check if the appointment ID matches and status is "pending"
-                if (fields[0].equals(appointmentID) && fields[4].equalsIgnoreCase(PrescriptionStatus.PENDING.name())) {
-                    return true; // Valid appointment ID for updating
-                }
-            }
-        } catch (IOException e) {
-            System.err.println("Error reading Appointment.csv: " + e.getMessage());
-        }
-
-        return false; // Appointment ID is invalid or status is not "pending"
+        // Pending prescriptions are kept in the dispensing queue
+        return PrescriptionQueue.getInstance().get(appointmentID) != null;
     }
 
     /**
@@ -183,15 +184,13 @@ public class PharmacistMenu extends AbstractMenu {
     private void SubmitReplenishmentRequest() {
         String prescription;
         while (true) {
-            System.out.print("Enter medicine name for replenishment (Paracetamol, Ibuprofen, Amoxicillin): ");
-            prescription = sc.nextLine();
-
-            // Use the case-insensitive check
-            if (isValidPrescription(prescription)) {
-                prescription = prescription.toUpperCase(); // Convert to uppercase to match enum format
+            System.out.print("Enter medicine name for replenishment: ");
+            MedicineCatalog.Medicine medicine = MedicineCatalog.getInstance().get(sc.nextLine());
+            if (medicine != null) {
+                prescription = medicine.getName(); // Use the name as listed in the inventory
                 break; // Valid medicine name entered, exit the loop
             } else {
-                System.out.println("Invalid medicine name. Please enter a valid name.");
+                System.out.println("Invalid medicine name. Please enter a medicine in the inventory.");
             }
         }
 
@@ -216,17 +215,6 @@ public class PharmacistMenu extends AbstractMenu {
         pharmacist.submitReplenishmentRequest(prescription, quantity);
     }
 
-    /**
-     * Validates whether the given prescription name is in the list of valid prescriptions.
-     *
-     * @param prescription The name of the prescription to validate
-     * @return true if the prescription is valid; false otherwise
-     */
-    private boolean isValidPrescription(String prescription) {
-        // Convert the input to uppercase to match the enum constants
-        return VALID_PRESCRIPTIONS.contains(prescription.toUpperCase());
-    }
-
     /**
      * Capitalizes the first letter of the given string and converts the rest to lowercase.
      *